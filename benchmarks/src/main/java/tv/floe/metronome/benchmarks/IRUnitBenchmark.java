@@ -0,0 +1,675 @@
+package tv.floe.metronome.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.mahout.math.Matrix;
+import org.apache.mahout.math.Vector;
+
+import tv.floe.metronome.irunit.IRUnitDriver;
+import tv.floe.metronome.irunit.IRUnitRunStats;
+
+/**
+ * End to end training throughput: each algorithm's master and workers run through
+ * IRUnitDriver (one JVM, workers one after the other) on seeded synthetic splits, one run
+ * per (algorithm, worker count)
+ *
+ * 		polr		POLR, RCV1 lines, 10k features, 20 categories
+ * 		linreg		linear regression (SGD), RCV1 lines, 10k features, linear target
+ * 		mlp			784-100-10 MLP, Metronome lines (MNIST shaped)
+ * 		dbn			784-500-10 DBN, Metronome lines (binary MNIST shaped), batches of 100
+ * 		kmeans		k-means (k = 3, KMeansWorker's hardcoded k), 784 dimension CSV points
+ *
+ * Reported per run (averages are per superstep):
+ *
+ * - records/sec per worker: records each compute() trains / that worker's compute() time,
+ * 		averaged over workers. polr, linreg, mlp and kmeans train a full pass over the
+ * 		split per compute(), dbn trains one batch (its run is capped at one pretrain pass
+ * 		so every superstep is a training batch, not an idle one)
+ * - superstep latency: total, worker compute (mean and slowest worker, the cluster's
+ * 		critical path), worker message toBytes() / fromBytes(), master compute, update()
+ * - bytes per Updateable message, worker to master and master to workers
+ * - peak heap (sum of the heap pools' peaks, an upper bound) and GC count / time
+ *
+ * Configured with system properties:
+ *
+ * 		irunit.algorithms	comma separated, default polr,linreg,mlp,dbn,kmeans
+ * 		irunit.records		records per worker split, default 1000
+ * 		irunit.workers		comma separated worker counts, default 1,2,4
+ * 		irunit.iterations	supersteps (app.iteration.count), default 5
+ * 		irunit.output		output file prefix, default irunit-benchmark
+ * 		irunit.label		free text tag (release, config) written into every row
+ *
+ * Output: [prefix].csv gets one row per run, appended (the header only goes into a new
+ * file) so runs across releases pile up in one file; [prefix].json is rewritten with this
+ * invocation's runs plus every superstep's breakdown.
+ *
+ * @author josh
+ *
+ */
+public class IRUnitBenchmark {
+
+	public static final String PROP_ALGORITHMS = "irunit.algorithms";
+	public static final String PROP_RECORDS = "irunit.records";
+	public static final String PROP_WORKERS = "irunit.workers";
+	public static final String PROP_ITERATIONS = "irunit.iterations";
+	public static final String PROP_OUTPUT = "irunit.output";
+	public static final String PROP_LABEL = "irunit.label";
+
+	private static final int MLP_HIDDEN = 100;
+	private static final int DBN_HIDDEN = 500;
+	private static final int DBN_BATCH = 100;
+
+	private static final String CSV_HEADER = "label,algorithm,workers,records_per_worker,supersteps,records_per_sec_per_worker,"
+			+ "superstep_ms,worker_compute_ms,worker_compute_max_ms,serde_ms,master_compute_ms,update_ms,"
+			+ "worker_message_bytes,master_message_bytes,peak_heap_bytes,gc_count,gc_ms,setup_ms,wall_ms";
+
+	/**
+	 * What each algorithm needs to run under IRUnit: its classes, its conf and a writer for
+	 * its input format
+	 *
+	 */
+	enum Workload {
+
+		POLR("polr",
+				"tv.floe.metronome.classification.logisticregression.iterativereduce.POLRMasterNode",
+				"tv.floe.metronome.classification.logisticregression.iterativereduce.POLRWorkerNode") {
+
+			void configure(Properties p) {
+				knittingBoarConf( p, SyntheticData.TEXT_CATEGORIES, "10" );
+			}
+
+			void writeSplit(PrintWriter out, int records, long seed) {
+
+				RandomGenerator rng = SyntheticData.rng( seed );
+				for (int r = 0; r < records; r++) {
+					int label = rng.nextInt( SyntheticData.TEXT_CATEGORIES );
+					out.println( SyntheticData.rcv1Line( label, SyntheticData.textVector( rng ) ) );
+				}
+
+			}
+
+		},
+
+		LINREG("linreg",
+				"tv.floe.metronome.linearregression.iterativereduce.MasterNode",
+				"tv.floe.metronome.linearregression.iterativereduce.WorkerNode") {
+
+			void configure(Properties p) {
+				knittingBoarConf( p, 2, "0.001" );
+			}
+
+			void writeSplit(PrintWriter out, int records, long seed) {
+
+				// the same coefficients for every split, so the workers agree on the model
+				RandomGenerator weights = SyntheticData.rng( SyntheticData.SEED );
+				double[] w = new double[ SyntheticData.TEXT_FEATURES ];
+				for (int c = 0; c < w.length; c++) {
+					w[ c ] = (weights.nextDouble() - 0.5) / 10.0;
+				}
+
+				RandomGenerator rng = SyntheticData.rng( seed );
+				for (int r = 0; r < records; r++) {
+
+					Vector v = SyntheticData.textVector( rng );
+					double y = rng.nextGaussian() * 0.1;
+					for (int c = 0; c < v.size(); c++) {
+						y += w[ c ] * v.getQuick( c );
+					}
+
+					out.println( SyntheticData.rcv1Line( y, v ) );
+
+				}
+
+			}
+
+		},
+
+		MLP("mlp",
+				"tv.floe.metronome.classification.neuralnetworks.iterativereduce.MasterNode",
+				"tv.floe.metronome.classification.neuralnetworks.iterativereduce.WorkerNode") {
+
+			void configure(Properties p) {
+
+				p.setProperty( "tv.floe.metronome.neuralnetwork.conf.RecordFactoryClassname", "tv.floe.metronome.io.records.MetronomeRecordFactory" );
+				p.setProperty( "tv.floe.metronome.neuralnetwork.conf.InputRecordSchema", "i:" + SyntheticData.MNIST_INPUTS + " | o:" + SyntheticData.MNIST_CLASSES );
+				p.setProperty( "tv.floe.metronome.neuralnetwork.conf.LayerNeuronCounts", SyntheticData.MNIST_INPUTS + "," + MLP_HIDDEN + "," + SyntheticData.MNIST_CLASSES );
+				p.setProperty( "tv.floe.metronome.neuralnetwork.conf.LearningRate", "0.1" );
+				// never reached, every superstep trains
+				p.setProperty( "tv.floe.metronome.neuralnetwork.conf.TrainingErrorThreshold", "0" );
+				p.setProperty( "tv.floe.metronome.neuralnetwork.conf.MetricsOn", "false" );
+
+			}
+
+			void writeSplit(PrintWriter out, int records, long seed) {
+				writeMetronomeLines( out, SyntheticData.mnistBatch( records, seed ), records, seed );
+			}
+
+		},
+
+		DBN("dbn",
+				"tv.floe.metronome.deeplearning.dbn.iterativereduce.MasterNode",
+				"tv.floe.metronome.deeplearning.dbn.iterativereduce.WorkerNode") {
+
+			void configure(Properties p) {
+
+				p.setProperty( "tv.floe.metronome.dbn.conf.LearningRate", "0.01" );
+				p.setProperty( "tv.floe.metronome.dbn.conf.batchSize", String.valueOf( DBN_BATCH ) );
+				p.setProperty( "tv.floe.metronome.dbn.conf.hiddenLayerSizes", String.valueOf( DBN_HIDDEN ) );
+				p.setProperty( "tv.floe.metronome.dbn.conf.numberInputs", String.valueOf( SyntheticData.MNIST_INPUTS ) );
+				p.setProperty( "tv.floe.metronome.dbn.conf.numberLabels", String.valueOf( SyntheticData.MNIST_CLASSES ) );
+				p.setProperty( "tv.floe.metronome.dbn.conf.pretrain.passes", "1" );
+				p.setProperty( "tv.floe.metronome.dbn.conf.finetune.passes", "1" );
+				p.setProperty( "tv.floe.metronome.dbn.conf.seed", String.valueOf( SyntheticData.SEED ) );
+
+			}
+
+			void writeSplit(PrintWriter out, int records, long seed) {
+				writeMetronomeLines( out, SyntheticData.mnistBinaryBatch( records, seed ), records, seed );
+			}
+
+			int recordsPerWorker(int requested) {
+				return Math.max( 1, requested / DBN_BATCH ) * DBN_BATCH;
+			}
+
+			int supersteps(int requested, int recordsPerWorker) {
+				return Math.min( requested, recordsPerWorker / DBN_BATCH );
+			}
+
+			int recordsPerSuperstep(int recordsPerWorker) {
+				return DBN_BATCH;
+			}
+
+		},
+
+		KMEANS("kmeans",
+				"tv.floe.metronome.clustering.kmeans.ir.KMeansMaster",
+				"tv.floe.metronome.clustering.kmeans.ir.KMeansWorker") {
+
+			void configure(Properties p) {
+			}
+
+			void writeSplit(PrintWriter out, int records, long seed) {
+
+				Matrix points = SyntheticData.mnistBatch( records, seed );
+				for (int r = 0; r < records; r++) {
+					out.println( SyntheticData.csvLine( points, r ) );
+				}
+
+			}
+
+		};
+
+		final String name;
+		final String masterClass;
+		final String workerClass;
+
+		Workload(String name, String masterClass, String workerClass) {
+
+			this.name = name;
+			this.masterClass = masterClass;
+			this.workerClass = workerClass;
+
+		}
+
+		abstract void configure(Properties p);
+
+		abstract void writeSplit(PrintWriter out, int records, long seed);
+
+		int recordsPerWorker(int requested) {
+			return requested;
+		}
+
+		int supersteps(int requested, int recordsPerWorker) {
+			return requested;
+		}
+
+		/**
+		 * Records one worker's compute() trains
+		 *
+		 */
+		int recordsPerSuperstep(int recordsPerWorker) {
+			return recordsPerWorker;
+		}
+
+		static Workload forName(String name) {
+
+			for (Workload w : values()) {
+				if (w.name.equals( name )) {
+					return w;
+				}
+			}
+
+			throw new IllegalArgumentException( "Unknown algorithm: " + name + " (polr, linreg, mlp, dbn, kmeans)" );
+
+		}
+
+	}
+
+	/**
+	 * One (algorithm, workers) run's summary, plus the raw supersteps for the JSON
+	 *
+	 */
+	static class Result {
+
+		String algorithm;
+		int workers;
+		int recordsPerWorker;
+		int supersteps;
+
+		double recordsPerSecPerWorker;
+		double superstepMs;
+		double workerComputeMs;
+		double workerComputeMaxMs;
+		double serdeMs;
+		double masterComputeMs;
+		double updateMs;
+		double workerMessageBytes;
+		double masterMessageBytes;
+
+		long peakHeapBytes;
+		long gcCount;
+		long gcMs;
+		long setupMs;
+		long wallMs;
+
+		List<IRUnitRunStats.Superstep> steps;
+
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		String[] algorithms = System.getProperty( PROP_ALGORITHMS, "polr,linreg,mlp,dbn,kmeans" ).split( "," );
+		String[] workerCounts = System.getProperty( PROP_WORKERS, "1,2,4" ).split( "," );
+		int records = Integer.getInteger( PROP_RECORDS, 1000 );
+		int iterations = Integer.getInteger( PROP_ITERATIONS, 5 );
+		String output = System.getProperty( PROP_OUTPUT, "irunit-benchmark" );
+		String label = System.getProperty( PROP_LABEL, "" );
+
+		List<Result> results = new ArrayList<Result>();
+
+		for (String algorithm : algorithms) {
+
+			Workload workload = Workload.forName( algorithm.trim() );
+
+			for (String workers : workerCounts) {
+
+				Result r = run( workload, Integer.parseInt( workers.trim() ), records, iterations );
+				results.add( r );
+
+				System.out.println( String.format( Locale.US, "IRUnitBenchmark > %s, %d workers: %.1f records/sec/worker, %.2f ms/superstep, peak heap %d MB, GC %d ms",
+						r.algorithm, r.workers, r.recordsPerSecPerWorker, r.superstepMs, r.peakHeapBytes / 1024 / 1024, r.gcMs ) );
+
+			}
+
+		}
+
+		writeCsv( new File( output + ".csv" ), label, results );
+		writeJson( new File( output + ".json" ), label, results );
+
+		System.out.println( "IRUnitBenchmark > wrote " + output + ".csv, " + output + ".json" );
+
+	}
+
+	static Result run(Workload workload, int workers, int requestedRecords, int requestedIterations) throws IOException {
+
+		int recordsPerWorker = workload.recordsPerWorker( requestedRecords );
+		int iterations = workload.supersteps( requestedIterations, recordsPerWorker );
+
+		File dir = createTempDir( "irunit-" + workload.name + "-" );
+
+		try {
+
+			File input = new File( dir, "input" );
+			input.mkdirs();
+
+			for (int w = 0; w < workers; w++) {
+
+				PrintWriter out = new PrintWriter( new BufferedWriter( new FileWriter( new File( input, String.format( "part-%05d", w ) ) ) ) );
+				try {
+					workload.writeSplit( out, recordsPerWorker, SyntheticData.SEED + w );
+				} finally {
+					out.close();
+				}
+
+			}
+
+			Properties p = new Properties();
+			p.setProperty( "app.input.path", input.getAbsolutePath() );
+			p.setProperty( "app.iteration.count", String.valueOf( iterations ) );
+			p.setProperty( "app.name", "IRUnitBenchmark_" + workload.name );
+			p.setProperty( "yarn.master.main", workload.masterClass );
+			p.setProperty( "yarn.worker.main", workload.workerClass );
+			workload.configure( p );
+			// no app.output.path: the model isn't written, master.complete() isn't timed
+
+			File propsFile = new File( dir, "app.properties" );
+			FileOutputStream fos = new FileOutputStream( propsFile );
+			try {
+				p.store( fos, "IRUnitBenchmark " + workload.name );
+			} finally {
+				fos.close();
+			}
+
+			// start the run from a clean heap, with the peaks and GC counters marked
+			System.gc();
+			for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+				pool.resetPeakUsage();
+			}
+			long gcCountBefore = gcCount();
+			long gcMsBefore = gcMs();
+
+			long setupStart = System.currentTimeMillis();
+
+			IRUnitDriver<Object> driver = new IRUnitDriver<Object>( propsFile.getAbsolutePath() );
+			driver.Setup();
+			driver.setMeasureMasterMessages( true );
+
+			long runStart = System.currentTimeMillis();
+			driver.SimulateRun();
+			long runEnd = System.currentTimeMillis();
+
+			Result r = new Result();
+			r.algorithm = workload.name;
+			r.workers = driver.getWorker().size();
+			r.recordsPerWorker = recordsPerWorker;
+			r.setupMs = runStart - setupStart;
+			r.wallMs = runEnd - runStart;
+			r.gcCount = gcCount() - gcCountBefore;
+			r.gcMs = gcMs() - gcMsBefore;
+			r.peakHeapBytes = peakHeap();
+
+			summarize( r, driver.getRunStats(), workload.recordsPerSuperstep( recordsPerWorker ) );
+
+			return r;
+
+		} finally {
+			delete( dir );
+		}
+
+	}
+
+	static void summarize(Result r, IRUnitRunStats stats, int recordsPerSuperstep) {
+
+		r.steps = stats.getSupersteps();
+		r.supersteps = stats.size();
+
+		if (0 == r.supersteps || 0 == r.workers) {
+			return;
+		}
+
+		double rate = 0;
+		for (int w = 0; w < r.workers; w++) {
+
+			long nanos = stats.workerComputeNanos( w );
+			if (nanos > 0) {
+				rate += (double) recordsPerSuperstep * r.supersteps / (nanos / 1.0e9);
+			}
+
+		}
+		r.recordsPerSecPerWorker = rate / r.workers;
+
+		double total = 0, compute = 0, computeMax = 0, serde = 0, master = 0, update = 0, workerBytes = 0, masterBytes = 0;
+
+		for (IRUnitRunStats.Superstep s : r.steps) {
+
+			total += s.totalNanos;
+			computeMax += s.maxWorkerComputeNanos();
+			serde += s.serdeNanos;
+			master += s.masterComputeNanos;
+			update += s.updateNanos;
+			workerBytes += s.totalWorkerMessageBytes();
+			masterBytes += Math.max( 0, s.masterMessageBytes );
+
+			for (int w = 0; w < s.workerComputeNanos.length; w++) {
+				compute += s.workerComputeNanos[ w ];
+			}
+
+		}
+
+		double n = r.supersteps;
+
+		r.superstepMs = total / n / 1.0e6;
+		r.workerComputeMs = compute / (n * r.workers) / 1.0e6;
+		r.workerComputeMaxMs = computeMax / n / 1.0e6;
+		r.serdeMs = serde / n / 1.0e6;
+		r.masterComputeMs = master / n / 1.0e6;
+		r.updateMs = update / n / 1.0e6;
+		r.workerMessageBytes = workerBytes / (n * r.workers);
+		r.masterMessageBytes = masterBytes / n;
+
+	}
+
+	static void writeCsv(File f, String label, List<Result> results) throws IOException {
+
+		boolean header = !f.exists() || 0 == f.length();
+
+		PrintWriter out = new PrintWriter( new BufferedWriter( new FileWriter( f, true ) ) );
+		try {
+
+			if (header) {
+				out.println( CSV_HEADER );
+			}
+
+			for (Result r : results) {
+
+				out.println( String.format( Locale.US, "%s,%s,%d,%d,%d,%.2f,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f,%.0f,%.0f,%d,%d,%d,%d,%d",
+						csvField( label ), r.algorithm, r.workers, r.recordsPerWorker, r.supersteps, r.recordsPerSecPerWorker,
+						r.superstepMs, r.workerComputeMs, r.workerComputeMaxMs, r.serdeMs, r.masterComputeMs, r.updateMs,
+						r.workerMessageBytes, r.masterMessageBytes, r.peakHeapBytes, r.gcCount, r.gcMs, r.setupMs, r.wallMs ) );
+
+			}
+
+		} finally {
+			out.close();
+		}
+
+	}
+
+	static void writeJson(File f, String label, List<Result> results) throws IOException {
+
+		PrintWriter out = new PrintWriter( new BufferedWriter( new FileWriter( f ) ) );
+		try {
+
+			out.println( "{" );
+			out.println( "  \"label\": " + jsonString( label ) + "," );
+			out.println( "  \"java\": " + jsonString( System.getProperty( "java.version" ) ) + "," );
+			out.println( "  \"processors\": " + Runtime.getRuntime().availableProcessors() + "," );
+			out.println( "  \"maxHeapBytes\": " + Runtime.getRuntime().maxMemory() + "," );
+			out.println( "  \"runs\": [" );
+
+			for (int i = 0; i < results.size(); i++) {
+
+				Result r = results.get( i );
+
+				out.println( "    {" );
+				out.println( "      \"algorithm\": " + jsonString( r.algorithm ) + "," );
+				out.println( "      \"workers\": " + r.workers + "," );
+				out.println( "      \"recordsPerWorker\": " + r.recordsPerWorker + "," );
+				out.println( "      \"supersteps\": " + r.supersteps + "," );
+				out.println( String.format( Locale.US, "      \"recordsPerSecPerWorker\": %.2f,", r.recordsPerSecPerWorker ) );
+				out.println( String.format( Locale.US, "      \"superstepMs\": %.3f,", r.superstepMs ) );
+				out.println( String.format( Locale.US, "      \"workerComputeMs\": %.3f,", r.workerComputeMs ) );
+				out.println( String.format( Locale.US, "      \"workerComputeMaxMs\": %.3f,", r.workerComputeMaxMs ) );
+				out.println( String.format( Locale.US, "      \"serdeMs\": %.3f,", r.serdeMs ) );
+				out.println( String.format( Locale.US, "      \"masterComputeMs\": %.3f,", r.masterComputeMs ) );
+				out.println( String.format( Locale.US, "      \"updateMs\": %.3f,", r.updateMs ) );
+				out.println( String.format( Locale.US, "      \"workerMessageBytes\": %.0f,", r.workerMessageBytes ) );
+				out.println( String.format( Locale.US, "      \"masterMessageBytes\": %.0f,", r.masterMessageBytes ) );
+				out.println( "      \"peakHeapBytes\": " + r.peakHeapBytes + "," );
+				out.println( "      \"gcCount\": " + r.gcCount + "," );
+				out.println( "      \"gcMs\": " + r.gcMs + "," );
+				out.println( "      \"setupMs\": " + r.setupMs + "," );
+				out.println( "      \"wallMs\": " + r.wallMs + "," );
+				out.println( "      \"steps\": [" );
+
+				for (int s = 0; s < r.steps.size(); s++) {
+
+					IRUnitRunStats.Superstep step = r.steps.get( s );
+
+					out.println( String.format( Locale.US,
+							"        { \"iteration\": %d, \"totalMs\": %.3f, \"workerComputeMs\": %s, \"workerMessageBytes\": %s, \"serdeMs\": %.3f, \"masterComputeMs\": %.3f, \"masterMessageBytes\": %d, \"updateMs\": %.3f }%s",
+							step.iteration, step.totalNanos / 1.0e6, jsonMillis( step.workerComputeNanos ), jsonArray( step.workerMessageBytes ),
+							step.serdeNanos / 1.0e6, step.masterComputeNanos / 1.0e6, step.masterMessageBytes, step.updateNanos / 1.0e6,
+							(s < r.steps.size() - 1) ? "," : "" ) );
+
+				}
+
+				out.println( "      ]" );
+				out.println( "    }" + ((i < results.size() - 1) ? "," : "") );
+
+			}
+
+			out.println( "  ]" );
+			out.println( "}" );
+
+		} finally {
+			out.close();
+		}
+
+	}
+
+	private static void writeMetronomeLines(PrintWriter out, Matrix inputs, int records, long seed) {
+
+		Matrix labels = SyntheticData.oneHotLabels( records, SyntheticData.MNIST_CLASSES, seed + 1 );
+		for (int r = 0; r < records; r++) {
+			out.println( SyntheticData.metronomeLine( inputs, labels, r ) );
+		}
+
+	}
+
+	private static void knittingBoarConf(Properties p, int categories, String learningRate) {
+
+		p.setProperty( "com.cloudera.knittingboar.setup.FeatureVectorSize", String.valueOf( SyntheticData.TEXT_FEATURES ) );
+		p.setProperty( "com.cloudera.knittingboar.setup.numCategories", String.valueOf( categories ) );
+		p.setProperty( "com.cloudera.knittingboar.setup.RecordFactoryClassname", "com.cloudera.knittingboar.records.RCV1RecordFactory" );
+		p.setProperty( "com.cloudera.knittingboar.setup.LearningRate", learningRate );
+
+	}
+
+	private static long gcCount() {
+
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max( 0, gc.getCollectionCount() );
+		}
+
+		return count;
+
+	}
+
+	private static long gcMs() {
+
+		long ms = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			ms += Math.max( 0, gc.getCollectionTime() );
+		}
+
+		return ms;
+
+	}
+
+	private static long peakHeap() {
+
+		long bytes = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (MemoryType.HEAP == pool.getType() && null != pool.getPeakUsage()) {
+				bytes += pool.getPeakUsage().getUsed();
+			}
+		}
+
+		return bytes;
+
+	}
+
+	private static File createTempDir(String prefix) throws IOException {
+
+		File dir = File.createTempFile( prefix, "" );
+		if (!dir.delete() || !dir.mkdirs()) {
+			throw new IOException( "Could not create temp dir " + dir );
+		}
+
+		return dir;
+
+	}
+
+	private static void delete(File f) {
+
+		File[] children = f.listFiles();
+		if (null != children) {
+			for (File child : children) {
+				delete( child );
+			}
+		}
+
+		f.delete();
+
+	}
+
+	private static String csvField(String s) {
+
+		if (s.indexOf( ',' ) < 0 && s.indexOf( '"' ) < 0) {
+			return s;
+		}
+
+		return "\"" + s.replace( "\"", "\"\"" ) + "\"";
+
+	}
+
+	private static String jsonString(String s) {
+
+		StringBuilder b = new StringBuilder( "\"" );
+
+		for (int i = 0; i < s.length(); i++) {
+
+			char c = s.charAt( i );
+			if ('"' == c || '\\' == c) {
+				b.append( '\\' ).append( c );
+			} else if (c < 0x20) {
+				b.append( String.format( "\\u%04x", (int) c ) );
+			} else {
+				b.append( c );
+			}
+
+		}
+
+		return b.append( '"' ).toString();
+
+	}
+
+	private static String jsonArray(long[] values) {
+
+		StringBuilder b = new StringBuilder( "[" );
+		for (int i = 0; i < values.length; i++) {
+			b.append( (i > 0) ? ", " : "" ).append( values[ i ] );
+		}
+
+		return b.append( ']' ).toString();
+
+	}
+
+	private static String jsonMillis(long[] nanos) {
+
+		StringBuilder b = new StringBuilder( "[" );
+		for (int i = 0; i < nanos.length; i++) {
+			b.append( (i > 0) ? ", " : "" ).append( String.format( Locale.US, "%.3f", nanos[ i ] / 1.0e6 ) );
+		}
+
+		return b.append( ']' ).toString();
+
+	}
+
+}
@@ -0,0 +1,102 @@
+package tv.floe.metronome.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mahout.math.Matrix;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tv.floe.metronome.clustering.kmeans.KMeansPartition;
+import tv.floe.metronome.clustering.kmeans.Mean;
+import tv.floe.metronome.clustering.kmeans.Means;
+import tv.floe.metronome.clustering.kmeans.Point;
+
+/**
+ * KMeansPartition.addPoint() past the first pass: nearest of k current means (and of the
+ * previous means, for the change count) plus the running sum update
+ *
+ * Points are MNIST shaped digits, the means are seeded from the first k of them the way
+ * KMeansWorker's first superstep does it.
+ *
+ * @author josh
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+@State(Scope.Thread)
+public class KMeansBenchmark {
+
+	private static final int POINTS = 1024;
+
+	@Param({ "10" })
+	public int k;
+
+	KMeansPartition partition;
+	Point[] points;
+	int next = 0;
+
+	@Setup(Level.Trial)
+	public void setup() {
+
+		Matrix digits = SyntheticData.mnistBatch( POINTS, SyntheticData.SEED );
+		points = new Point[ POINTS ];
+
+		for (int r = 0; r < POINTS; r++) {
+
+			double[] row = new double[ digits.numCols() ];
+			for (int c = 0; c < row.length; c++) {
+				row[ c ] = digits.getQuick( r, c );
+			}
+			points[ r ] = new Point( row );
+
+		}
+
+		partition = new KMeansPartition( k );
+
+		// first superstep: the first k points become the means
+		for (int i = 0; i < k; i++) {
+			partition.addPoint( points[ i ] );
+		}
+		partition.getUpdatedMeans();
+
+		// the master's copy comes back as a new Means, twice so previousMeans is set too
+		partition.setMeans( seedMeans() );
+		partition.setMeans( seedMeans() );
+
+	}
+
+	private Means seedMeans() {
+
+		Means means = new Means();
+		for (int i = 0; i < k; i++) {
+			means.add( new Mean( points[ i ] ) );
+		}
+
+		return means;
+
+	}
+
+	@Benchmark
+	public KMeansPartition addPoint() {
+
+		partition.addPoint( points[ next ] );
+		next = (next + 1) % POINTS;
+
+		return partition;
+
+	}
+
+}
@@ -0,0 +1,62 @@
+package tv.floe.metronome.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mahout.math.Matrix;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tv.floe.metronome.deeplearning.neuralnetwork.core.LogisticRegression;
+import tv.floe.metronome.deeplearning.neuralnetwork.gradient.LogisticRegressionGradient;
+import tv.floe.metronome.math.ActivationKernels;
+
+/**
+ * LogisticRegression.getGradient(), the DBN's output layer during finetune, on an MNIST
+ * shaped batch: 784 inputs to 10 classes
+ *
+ * @author josh
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+@State(Scope.Thread)
+public class LogisticRegressionBenchmark {
+
+	@Param({ "20", "100" })
+	public int batchSize;
+
+	@Param({ "EXACT", "TABLE" })
+	public String accuracy;
+
+	LogisticRegression logistic;
+
+	@Setup(Level.Trial)
+	public void setup() {
+
+		Matrix x = SyntheticData.mnistBatch( batchSize, SyntheticData.SEED );
+		Matrix y = SyntheticData.oneHotLabels( batchSize, SyntheticData.MNIST_CLASSES, SyntheticData.SEED + 1 );
+
+		logistic = new LogisticRegression( x, y, SyntheticData.MNIST_INPUTS, SyntheticData.MNIST_CLASSES );
+		logistic.activationKernels = ActivationKernels.forName( accuracy );
+
+	}
+
+	@Benchmark
+	public LogisticRegressionGradient getGradient() {
+		return logistic.getGradient( 0.1 );
+	}
+
+}
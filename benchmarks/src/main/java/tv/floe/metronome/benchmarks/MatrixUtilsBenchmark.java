@@ -0,0 +1,110 @@
+package tv.floe.metronome.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mahout.math.Matrix;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tv.floe.metronome.math.ActivationKernels;
+import tv.floe.metronome.math.MatrixUtils;
+
+/**
+ * The MatrixUtils kernels every layer goes through, on an MNIST shaped batch
+ *
+ * - rows 20 is the DBN mini-batch, 1000 is big enough for the parallel reductions
+ * 		(ParallelMatrixUtils) to kick in
+ * - the activations run once per ActivationKernels mode
+ *
+ * @author josh
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+@State(Scope.Thread)
+public class MatrixUtilsBenchmark {
+
+	@Param({ "20", "1000" })
+	public int rows;
+
+	Matrix batch;
+	Matrix weights;
+	Matrix preActivation;
+
+	@State(Scope.Thread)
+	public static class Kernels {
+
+		@Param({ "EXACT", "POLYNOMIAL", "TABLE" })
+		public String accuracy;
+
+		ActivationKernels kernels;
+
+		@Setup(Level.Trial)
+		public void setup() {
+			kernels = ActivationKernels.forName( accuracy );
+		}
+
+	}
+
+	@Setup(Level.Trial)
+	public void setup() {
+
+		batch = SyntheticData.mnistBatch( rows, SyntheticData.SEED );
+		weights = MatrixUtils.uniform( SyntheticData.rng( SyntheticData.SEED + 1 ), SyntheticData.MNIST_INPUTS, 500 ).times( 0.01 );
+		preActivation = batch.times( weights );
+
+	}
+
+	@Benchmark
+	public Matrix sigmoid(Kernels k) {
+		return MatrixUtils.sigmoid( preActivation, k.kernels );
+	}
+
+	@Benchmark
+	public Matrix softmax(Kernels k) {
+		return MatrixUtils.softmax( preActivation, k.kernels );
+	}
+
+	@Benchmark
+	public Matrix columnSums() {
+		return MatrixUtils.columnSums( batch );
+	}
+
+	@Benchmark
+	public Matrix rowSums() {
+		return MatrixUtils.rowSums( batch );
+	}
+
+	@Benchmark
+	public double sum() {
+		return MatrixUtils.sum( batch );
+	}
+
+	@Benchmark
+	public Matrix addRowVector() {
+		return MatrixUtils.addRowVector( preActivation, weights.viewRow( 0 ) );
+	}
+
+	/**
+	 * The batch x weights product under propUp() / HiddenLayer, for scale against the rest
+	 *
+	 */
+	@Benchmark
+	public Matrix times() {
+		return batch.times( weights );
+	}
+
+}
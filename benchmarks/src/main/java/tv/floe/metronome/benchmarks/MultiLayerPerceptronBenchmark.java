@@ -0,0 +1,113 @@
+package tv.floe.metronome.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Matrix;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.Vector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tv.floe.metronome.classification.neuralnetworks.activation.Tanh;
+import tv.floe.metronome.classification.neuralnetworks.conf.Config;
+import tv.floe.metronome.classification.neuralnetworks.core.NeuralNetwork;
+import tv.floe.metronome.classification.neuralnetworks.core.neurons.Neuron;
+import tv.floe.metronome.classification.neuralnetworks.input.WeightedSum;
+import tv.floe.metronome.classification.neuralnetworks.learning.BackPropogationLearningAlgorithm;
+import tv.floe.metronome.classification.neuralnetworks.networks.MultiLayerPerceptronNetwork;
+
+/**
+ * MultiLayerPerceptronNetwork.train(record): one forward pass plus backprop through the
+ * object graph MLP, built the way the MLP WorkerNode builds it (WeightedSum / Tanh)
+ *
+ * - input "dense" feeds DenseVectors, "sparse" the same records as sparse vectors (the
+ * 		sparse first layer path)
+ * - each call trains the next of 256 pre-built records, round robin
+ *
+ * @author josh
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+@State(Scope.Thread)
+public class MultiLayerPerceptronBenchmark {
+
+	private static final int RECORDS = 256;
+
+	@Param({ "784,100,10" })
+	public String layers;
+
+	@Param({ "dense", "sparse" })
+	public String input;
+
+	@Param({ "EXACT", "TABLE" })
+	public String accuracy;
+
+	NeuralNetwork network;
+	Vector[] inputs;
+	Vector[] outputs;
+	int next = 0;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+
+		Config c = new Config();
+		c.setConfValue("inputFunction", WeightedSum.class);
+		c.setConfValue("transferFunction", Tanh.class);
+		c.setConfValue("neuronType", Neuron.class);
+		c.setConfValue("networkType", NeuralNetwork.NetworkType.MULTI_LAYER_PERCEPTRON);
+		c.setConfValue("layerNeuronCounts", layers);
+		c.setConfValue("activationAccuracy", accuracy);
+		c.parse(null);
+
+		network = new MultiLayerPerceptronNetwork();
+		network.buildFromConf(c);
+		((BackPropogationLearningAlgorithm) network.getLearningRule()).setLearningRate(0.1);
+
+		Matrix x = SyntheticData.mnistBatch( RECORDS, SyntheticData.SEED );
+		Matrix y = SyntheticData.oneHotLabels( RECORDS, SyntheticData.MNIST_CLASSES, SyntheticData.SEED + 1 );
+
+		inputs = new Vector[ RECORDS ];
+		outputs = new Vector[ RECORDS ];
+
+		for (int r = 0; r < RECORDS; r++) {
+
+			Vector row = "sparse".equals( input ) ? new RandomAccessSparseVector( x.numCols() ) : new DenseVector( x.numCols() );
+			for (int col = 0; col < x.numCols(); col++) {
+				if (0.0 != x.getQuick( r, col )) {
+					row.setQuick( col, x.getQuick( r, col ) );
+				}
+			}
+
+			inputs[ r ] = row;
+			outputs[ r ] = new DenseVector( y.numCols() ).assign( y.viewRow( r ) );
+
+		}
+
+	}
+
+	@Benchmark
+	public NeuralNetwork train() {
+
+		network.train( outputs[ next ], inputs[ next ] );
+		next = (next + 1) % RECORDS;
+
+		return network;
+
+	}
+
+}
@@ -0,0 +1,96 @@
+package tv.floe.metronome.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.mahout.classifier.sgd.UniformPrior;
+import org.apache.mahout.math.Vector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tv.floe.metronome.classification.logisticregression.ParallelOnlineLogisticRegression;
+import tv.floe.metronome.io.records.CompactVectorCache;
+
+/**
+ * POLR training on sparse text shaped records (10k features, ~100 non-zeros, 20
+ * categories), configured like POLRWorkerNode
+ *
+ * - trainVector: train(actual, vector), one record through the Vector API
+ * - trainCached: the same records from a CompactVectorCache, what the worker threads run
+ *
+ * Each call trains the next of 1024 pre-built records, round robin.
+ *
+ * @author josh
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+@State(Scope.Thread)
+public class POLRBenchmark {
+
+	private static final int RECORDS = 1024;
+
+	ParallelOnlineLogisticRegression polr;
+	ParallelOnlineLogisticRegression.TrainingScratch scratch;
+
+	Vector[] records;
+	int[] actual;
+	CompactVectorCache cache;
+
+	int next = 0;
+	int step = 0;
+
+	@Setup(Level.Trial)
+	public void setup() {
+
+		records = SyntheticData.textVectors( RECORDS, SyntheticData.SEED );
+		actual = new int[ RECORDS ];
+		cache = new CompactVectorCache();
+
+		RandomGenerator rng = SyntheticData.rng( SyntheticData.SEED + 1 );
+
+		for (int r = 0; r < RECORDS; r++) {
+			actual[ r ] = rng.nextInt( SyntheticData.TEXT_CATEGORIES );
+			cache.add( records[ r ], actual[ r ] );
+		}
+
+		polr = new ParallelOnlineLogisticRegression( SyntheticData.TEXT_CATEGORIES, SyntheticData.TEXT_FEATURES, new UniformPrior() )
+				.alpha( 1 ).stepOffset( 1000 ).decayExponent( 0.9 ).lambda( 1.0e-4 ).learningRate( 10 );
+
+		scratch = new ParallelOnlineLogisticRegression.TrainingScratch( SyntheticData.TEXT_CATEGORIES );
+
+	}
+
+	@Benchmark
+	public ParallelOnlineLogisticRegression trainVector() {
+
+		polr.train( actual[ next ], records[ next ] );
+		next = (next + 1) % RECORDS;
+
+		return polr;
+
+	}
+
+	@Benchmark
+	public ParallelOnlineLogisticRegression trainCached() {
+
+		polr.train( cache, next, actual[ next ], step++, scratch );
+		next = (next + 1) % RECORDS;
+
+		return polr;
+
+	}
+
+}
@@ -0,0 +1,81 @@
+package tv.floe.metronome.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mahout.math.Matrix;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tv.floe.metronome.deeplearning.neuralnetwork.gradient.NeuralNetworkGradient;
+import tv.floe.metronome.deeplearning.rbm.RestrictedBoltzmannMachine;
+import tv.floe.metronome.math.ActivationKernels;
+
+/**
+ * One CD-1 step of the first DBN layer (784 binary visible units) on one mini-batch
+ *
+ * - cd1: gradient plus the weight / bias update, what preTrain() does per batch
+ * - gradient: the Gibbs sampling and <v h> products alone
+ *
+ * The RBM is rebuilt from the same seed at the start of every measurement iteration, so
+ * each one starts from the same weights.
+ *
+ * @author josh
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+@State(Scope.Thread)
+public class RBMBenchmark {
+
+	@Param({ "20", "100" })
+	public int batchSize;
+
+	@Param({ "500" })
+	public int hidden;
+
+	@Param({ "EXACT", "TABLE" })
+	public String accuracy;
+
+	Matrix batch;
+	RestrictedBoltzmannMachine rbm;
+
+	@Setup(Level.Trial)
+	public void data() {
+		batch = SyntheticData.mnistBinaryBatch( batchSize, SyntheticData.SEED );
+	}
+
+	@Setup(Level.Iteration)
+	public void network() {
+
+		rbm = new RestrictedBoltzmannMachine( batch, SyntheticData.MNIST_INPUTS, hidden, null, null, null, SyntheticData.rng( SyntheticData.SEED ) );
+		rbm.setActivationKernels( ActivationKernels.forName( accuracy ) );
+
+	}
+
+	@Benchmark
+	public RestrictedBoltzmannMachine cd1() {
+
+		rbm.contrastiveDivergence( 0.1, 1, batch );
+		return rbm;
+
+	}
+
+	@Benchmark
+	public NeuralNetworkGradient gradient() {
+		return rbm.getGradient( new Object[]{ 1, 0.1 } );
+	}
+
+}
@@ -0,0 +1,123 @@
+package tv.floe.metronome.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.mahout.math.DenseMatrix;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Matrix;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.Vector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tv.floe.metronome.io.records.MetronomeRecordFactory;
+import tv.floe.metronome.io.records.libsvmRecordFactory;
+
+/**
+ * RecordFactory.vectorizeLine(), text line to vectors, for both data shapes
+ *
+ * - metronome: an MNIST shaped "i:v .. | o:v .." line into dense 784 / 10 vectors, and
+ * 		straight into a batch matrix row (vectorizeLineToMatrixRow)
+ * - libsvm: a sparse text shaped "label term:count .." line into a sparse 10k vector
+ *
+ * Each call parses the next of 256 pre-built lines, round robin.
+ *
+ * @author josh
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+@State(Scope.Thread)
+public class RecordFactoryBenchmark {
+
+	private static final int LINES = 256;
+
+	MetronomeRecordFactory metronome;
+	String[] metronomeLines;
+	Vector denseIn;
+	Vector denseOut;
+	Matrix batchInputs;
+	Matrix batchLabels;
+
+	libsvmRecordFactory libsvm;
+	String[] libsvmLines;
+	Vector labelOut;
+
+	int next = 0;
+
+	@Setup(Level.Trial)
+	public void setup() {
+
+		Matrix x = SyntheticData.mnistBatch( LINES, SyntheticData.SEED );
+		Matrix y = SyntheticData.oneHotLabels( LINES, SyntheticData.MNIST_CLASSES, SyntheticData.SEED + 1 );
+
+		metronome = new MetronomeRecordFactory( "i:" + SyntheticData.MNIST_INPUTS + " | o:" + SyntheticData.MNIST_CLASSES );
+		metronomeLines = new String[ LINES ];
+		for (int r = 0; r < LINES; r++) {
+			metronomeLines[ r ] = SyntheticData.metronomeLine( x, y, r );
+		}
+
+		denseIn = new DenseVector( SyntheticData.MNIST_INPUTS );
+		denseOut = new DenseVector( SyntheticData.MNIST_CLASSES );
+		batchInputs = new DenseMatrix( LINES, SyntheticData.MNIST_INPUTS );
+		batchLabels = new DenseMatrix( LINES, SyntheticData.MNIST_CLASSES );
+
+		RandomGenerator rng = SyntheticData.rng( SyntheticData.SEED + 2 );
+		Vector[] text = SyntheticData.textVectors( LINES, SyntheticData.SEED );
+
+		libsvm = new libsvmRecordFactory( SyntheticData.TEXT_FEATURES );
+		libsvmLines = new String[ LINES ];
+		for (int r = 0; r < LINES; r++) {
+			libsvmLines[ r ] = SyntheticData.libsvmLine( rng.nextInt( SyntheticData.TEXT_CATEGORIES ), text[ r ] );
+		}
+
+		labelOut = new DenseVector( 1 );
+
+	}
+
+	@Benchmark
+	public Vector metronomeVectorizeLine() throws Exception {
+
+		metronome.vectorizeLine( metronomeLines[ next ], denseIn, denseOut );
+		next = (next + 1) % LINES;
+
+		return denseIn;
+
+	}
+
+	@Benchmark
+	public Matrix metronomeVectorizeLineToMatrixRow() throws Exception {
+
+		metronome.vectorizeLineToMatrixRow( metronomeLines[ next ], batchInputs, batchLabels, next );
+		next = (next + 1) % LINES;
+
+		return batchInputs;
+
+	}
+
+	@Benchmark
+	public Vector libsvmVectorizeLine() throws Exception {
+
+		// a fresh sparse vector per record, as the workers do
+		Vector in = new RandomAccessSparseVector( SyntheticData.TEXT_FEATURES, SyntheticData.TEXT_NON_ZEROS );
+		libsvm.vectorizeLine( libsvmLines[ next ], in, labelOut );
+		next = (next + 1) % LINES;
+
+		return in;
+
+	}
+
+}
@@ -0,0 +1,238 @@
+package tv.floe.metronome.benchmarks;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.mahout.math.DenseMatrix;
+import org.apache.mahout.math.Matrix;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.Vector;
+
+import tv.floe.metronome.math.Xoroshiro128PlusRandom;
+
+/**
+ * Seeded synthetic data in the two shapes Metronome sees in production
+ *
+ * - MNIST shaped: 28x28 = 784 inputs in [0, 1], ~150 lit pixels per record clustered in
+ * 		the centre 20x20 box (like the real digits), 10 one-hot labels
+ * - sparse text shaped: 10k hashed features (the record factories' default), ~100
+ * 		non-zeros per record with Zipf-ish term ids (low ids are the common terms) and
+ * 		small term counts, 20 categories
+ *
+ * Same seed, same data on any machine, so runs on two laptops are benchmarking the same
+ * work.
+ *
+ * @author josh
+ *
+ */
+public class SyntheticData {
+
+	public static final int MNIST_SIDE = 28;
+	public static final int MNIST_INPUTS = MNIST_SIDE * MNIST_SIDE;
+	public static final int MNIST_CLASSES = 10;
+
+	public static final int TEXT_FEATURES = 10000;
+	public static final int TEXT_CATEGORIES = 20;
+	public static final int TEXT_NON_ZEROS = 100;
+
+	public static final long SEED = 42;
+
+	// lit pixel probability inside the centre box, ~0.38 * 400 = 150 per digit
+	private static final double MNIST_INK = 0.38;
+
+	public static RandomGenerator rng(long seed) {
+		return new Xoroshiro128PlusRandom( seed );
+	}
+
+	/**
+	 * rows x 784 grey scale digits, values in [0, 1]
+	 *
+	 */
+	public static Matrix mnistBatch(int rows, long seed) {
+
+		RandomGenerator rng = rng( seed );
+		Matrix m = new DenseMatrix( rows, MNIST_INPUTS );
+
+		for (int r = 0; r < rows; r++) {
+			for (int y = 4; y < MNIST_SIDE - 4; y++) {
+				for (int x = 4; x < MNIST_SIDE - 4; x++) {
+
+					if (rng.nextDouble() < MNIST_INK) {
+						m.setQuick( r, y * MNIST_SIDE + x, 0.3 + 0.7 * rng.nextDouble() );
+					}
+
+				}
+			}
+		}
+
+		return m;
+
+	}
+
+	/**
+	 * The same digits thresholded at 0.5, what the DBN workers feed the first RBM
+	 *
+	 */
+	public static Matrix mnistBinaryBatch(int rows, long seed) {
+
+		Matrix m = mnistBatch( rows, seed );
+
+		for (int r = 0; r < m.numRows(); r++) {
+			for (int c = 0; c < m.numCols(); c++) {
+				m.setQuick( r, c, m.getQuick( r, c ) > 0.5 ? 1.0 : 0.0 );
+			}
+		}
+
+		return m;
+
+	}
+
+	/**
+	 * rows x classes one-hot labels
+	 *
+	 */
+	public static Matrix oneHotLabels(int rows, int classes, long seed) {
+
+		RandomGenerator rng = rng( seed );
+		Matrix m = new DenseMatrix( rows, classes );
+
+		for (int r = 0; r < rows; r++) {
+			m.setQuick( r, rng.nextInt( classes ), 1.0 );
+		}
+
+		return m;
+
+	}
+
+	/**
+	 * One bag of words record, TEXT_NON_ZEROS draws over TEXT_FEATURES hashed terms
+	 *
+	 */
+	public static Vector textVector(RandomGenerator rng) {
+
+		Vector v = new RandomAccessSparseVector( TEXT_FEATURES, TEXT_NON_ZEROS );
+
+		for (int i = 0; i < TEXT_NON_ZEROS; i++) {
+
+			// u^3 piles the draws up on the low (common) term ids
+			double u = rng.nextDouble();
+			int term = (int) (u * u * u * TEXT_FEATURES);
+
+			v.setQuick( term, v.getQuick( term ) + 1 );
+
+		}
+
+		return v;
+
+	}
+
+	public static Vector[] textVectors(int count, long seed) {
+
+		RandomGenerator rng = rng( seed );
+		Vector[] vectors = new Vector[ count ];
+
+		for (int i = 0; i < count; i++) {
+			vectors[ i ] = textVector( rng );
+		}
+
+		return vectors;
+
+	}
+
+	/**
+	 * Row r of inputs / labels as a MetronomeRecordFactory line: "i:v i:v .. | o:v"
+	 *
+	 */
+	public static String metronomeLine(Matrix inputs, Matrix labels, int r) {
+
+		StringBuilder line = new StringBuilder();
+
+		for (int c = 0; c < inputs.numCols(); c++) {
+
+			double v = inputs.getQuick( r, c );
+			if (v != 0.0) {
+				line.append( c ).append( ':' ).append( v ).append( ' ' );
+			}
+
+		}
+
+		line.append( '|' );
+
+		for (int c = 0; c < labels.numCols(); c++) {
+			line.append( ' ' ).append( c ).append( ':' ).append( labels.getQuick( r, c ) );
+		}
+
+		return line.toString();
+
+	}
+
+	/**
+	 * A text record as a libsvm line: "label term:count term:count .."
+	 *
+	 */
+	public static String libsvmLine(int label, Vector v) {
+
+		StringBuilder line = new StringBuilder();
+		line.append( label );
+
+		for (int c = 0; c < v.size(); c++) {
+
+			double value = v.getQuick( c );
+			if (value != 0.0) {
+				line.append( ' ' ).append( c ).append( ':' ).append( value );
+			}
+
+		}
+
+		return line.toString();
+
+	}
+
+	/**
+	 * A text record as an RCV1RecordFactory line: "label |f term:count term:count .."
+	 *
+	 */
+	public static String rcv1Line(double label, Vector v) {
+
+		StringBuilder line = new StringBuilder();
+		line.append( label ).append( " |f" );
+
+		for (int c = 0; c < v.size(); c++) {
+
+			double value = v.getQuick( c );
+			if (value != 0.0) {
+				line.append( ' ' ).append( c ).append( ':' ).append( value );
+			}
+
+		}
+
+		return line.toString();
+
+	}
+
+	/**
+	 * Row r as the comma separated point MutablePoint.parse() reads (k-means input)
+	 *
+	 */
+	public static String csvLine(Matrix m, int r) {
+
+		StringBuilder line = new StringBuilder();
+
+		for (int c = 0; c < m.numCols(); c++) {
+
+			if (c > 0) {
+				line.append( ',' );
+			}
+
+			double v = m.getQuick( r, c );
+			if (v == 0.0) {
+				line.append( '0' );
+			} else {
+				line.append( v );
+			}
+
+		}
+
+		return line.toString();
+
+	}
+
+}
@@ -0,0 +1,195 @@
+package tv.floe.metronome.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mahout.math.Matrix;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cloudera.iterativereduce.Updateable;
+
+import tv.floe.metronome.classification.logisticregression.iterativereduce.ParameterVectorUpdatable;
+import tv.floe.metronome.classification.neuralnetworks.activation.Tanh;
+import tv.floe.metronome.classification.neuralnetworks.conf.Config;
+import tv.floe.metronome.classification.neuralnetworks.core.NeuralNetwork;
+import tv.floe.metronome.classification.neuralnetworks.iterativereduce.NetworkWeightsUpdateable;
+import tv.floe.metronome.classification.neuralnetworks.iterativereduce.NeuralNetworkWeightsDelta;
+import tv.floe.metronome.classification.neuralnetworks.networks.MultiLayerPerceptronNetwork;
+import tv.floe.metronome.clustering.kmeans.Mean;
+import tv.floe.metronome.clustering.kmeans.Means;
+import tv.floe.metronome.clustering.kmeans.Point;
+import tv.floe.metronome.clustering.kmeans.ir.UpdateableMeans;
+import tv.floe.metronome.deeplearning.dbn.DeepBeliefNetwork;
+import tv.floe.metronome.deeplearning.dbn.iterativereduce.DBNParameterVectorUpdateable;
+import tv.floe.metronome.eval.ValidationMetrics;
+import tv.floe.metronome.linearregression.iterativereduce.ParameterVectorUpdateable;
+import tv.floe.metronome.math.MatrixUtils;
+import tv.floe.metronome.metrics.MetricsRegistry;
+
+/**
+ * toBytes() / fromBytes() of every Updateable, at the sizes the workers send each superstep
+ *
+ * 		polr				19 x 10k beta (20 text categories)
+ * 		linearRegression	1 x 10k parameter vector
+ * 		mlp					784-100-10 object graph network (java serialization)
+ * 		dbn					784-500-10 DBN payload
+ * 		kmeans				10 means of 784 dimensions
+ *
+ * fromBytes() reads the bytes toBytes() produced in setup, so the pair is a full round trip.
+ *
+ * @author josh
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+@State(Scope.Thread)
+public class UpdateableSerializationBenchmark {
+
+	@Param({ "polr", "linearRegression", "mlp", "dbn", "kmeans" })
+	public String updateable;
+
+	Updateable<?> source;
+	Updateable<?> target;
+	byte[] bytes;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+
+		if ("polr".equals( updateable )) {
+
+			tv.floe.metronome.classification.logisticregression.iterativereduce.ParameterVector pv = new tv.floe.metronome.classification.logisticregression.iterativereduce.ParameterVector();
+			pv.parameter_vector = randomMatrix( SyntheticData.TEXT_CATEGORIES - 1, SyntheticData.TEXT_FEATURES );
+
+			source = new ParameterVectorUpdatable( pv );
+			target = new ParameterVectorUpdatable();
+
+		} else if ("linearRegression".equals( updateable )) {
+
+			tv.floe.metronome.linearregression.ParameterVector pv = new tv.floe.metronome.linearregression.ParameterVector();
+			pv.parameter_vector = randomMatrix( 1, SyntheticData.TEXT_FEATURES );
+
+			source = new ParameterVectorUpdateable( pv );
+			target = new ParameterVectorUpdateable();
+
+		} else if ("mlp".equals( updateable )) {
+
+			Config c = new Config();
+			c.setConfValue("transferFunction", Tanh.class);
+			c.setConfValue("layerNeuronCounts", SyntheticData.MNIST_INPUTS + ",100," + SyntheticData.MNIST_CLASSES);
+			c.parse(null);
+
+			NeuralNetwork network = new MultiLayerPerceptronNetwork();
+			network.buildFromConf(c);
+
+			NeuralNetworkWeightsDelta delta = new NeuralNetworkWeightsDelta();
+			delta.network = network;
+
+			source = new NetworkWeightsUpdateable( delta );
+			target = new NetworkWeightsUpdateable();
+
+		} else if ("dbn".equals( updateable )) {
+
+			source = new DBNParameterVectorUpdateable();
+			source.fromBytes( ByteBuffer.wrap( dbnMessage() ) );
+			target = new DBNParameterVectorUpdateable();
+
+		} else if ("kmeans".equals( updateable )) {
+
+			Matrix digits = SyntheticData.mnistBatch( 10, SyntheticData.SEED );
+			Means means = new Means();
+
+			for (int r = 0; r < digits.numRows(); r++) {
+
+				double[] row = new double[ digits.numCols() ];
+				for (int c = 0; c < row.length; c++) {
+					row[ c ] = digits.getQuick( r, c );
+				}
+				means.add( new Mean( new Point( row ) ) );
+
+			}
+
+			UpdateableMeans um = new UpdateableMeans();
+			um.set( means );
+
+			source = um;
+			target = new UpdateableMeans();
+
+		} else {
+			throw new IllegalArgumentException( "Unknown updateable: " + updateable );
+		}
+
+		ByteBuffer b = source.toBytes();
+		bytes = new byte[ b.remaining() ];
+		b.get( bytes );
+
+	}
+
+	private static Matrix randomMatrix(int rows, int cols) {
+		return MatrixUtils.uniform( SyntheticData.rng( SyntheticData.SEED ), rows, cols );
+	}
+
+	/**
+	 * A worker's DBN message: a freshly initialized 784-500-10 DBN written the way
+	 * DBNParameterVector.Serialize() lays it out (the payload field isn't public)
+	 *
+	 */
+	private static byte[] dbnMessage() throws IOException {
+
+		DeepBeliefNetwork dbn = new DeepBeliefNetwork( SyntheticData.MNIST_INPUTS, new int[] { 500 }, SyntheticData.MNIST_CLASSES, 1,
+				SyntheticData.rng( SyntheticData.SEED ),
+				SyntheticData.mnistBinaryBatch( 20, SyntheticData.SEED ),
+				SyntheticData.oneHotLabels( 20, SyntheticData.MNIST_CLASSES, SyntheticData.SEED + 1 ) );
+
+		ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		dbn.write( payload );
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DataOutputStream d = new DataOutputStream( out );
+
+		d.writeInt( 0 );			// iteration
+		d.writeBoolean( false );	// datasetPassComplete
+		d.writeBoolean( false );	// preTrainPhaseComplete
+		d.writeBoolean( false );	// masterSignalToStartFineTunePhase
+		d.writeBoolean( false );	// masterSignalToStartNextDatasetPass
+		d.writeBoolean( false );	// masterSignalToStopTraining
+		ValidationMetrics.writeOptional( d, null );
+		d.writeInt( payload.size() );
+		payload.writeTo( d );
+		MetricsRegistry.writeOptional( d, null );
+		d.flush();
+
+		return out.toByteArray();
+
+	}
+
+	@Benchmark
+	public ByteBuffer toBytes() {
+		return source.toBytes();
+	}
+
+	@Benchmark
+	public Object fromBytes() {
+
+		target.fromBytes( ByteBuffer.wrap( bytes ) );
+		return target.get();
+
+	}
+
+}
@@ -20,12 +20,12 @@ package tv.floe.metronome.classification.logisticregression;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.hadoop.io.Writable;
 import org.apache.mahout.classifier.sgd.AbstractOnlineLogisticRegression;
-import org.apache.mahout.classifier.sgd.DefaultGradient;
-import org.apache.mahout.classifier.sgd.Gradient;
 import org.apache.mahout.classifier.sgd.PolymorphicWritable;
 import org.apache.mahout.classifier.sgd.PriorFunction;
 import org.apache.mahout.math.DenseMatrix;
@@ -35,6 +35,7 @@ import org.apache.mahout.math.MatrixWritable;
 import org.apache.mahout.math.Vector;
 import org.apache.mahout.math.VectorWritable;
 
+import tv.floe.metronome.io.records.CompactVectorCache;
 import tv.floe.metronome.utils.Utils;
 
 
@@ -69,8 +70,10 @@ public class ParallelOnlineLogisticRegression extends
   // controls how per term annealing works
   private int perTermAnnealingOffset = 20;
   
-  // had to add this because its private in the base class
-  private Gradient default_gradient = new DefaultGradient();
+  // scratch space for the fused train() pass, sized on first use
+  private TrainingScratch scratch = null;
+  private int[] nzIndex = null;
+  private double[] nzValue = null;
   
   // ####### This is NEW ######################
   // that is (numCategories-1) x numFeatures
@@ -156,8 +159,16 @@ public class ParallelOnlineLogisticRegression extends
   
   @Override
   public double currentLearningRate() {
-    return learningRate * Math.pow(decayFactor, getStep())
-        * Math.pow(getStep() + stepOffset, forgettingExponent);
+    return learningRateAt(getStep());
+  }
+  
+  /**
+   * The annealed learning rate as of the given step, lets the parallel
+   * training threads each work on their own virtual step
+   */
+  public double learningRateAt(int atStep) {
+    return learningRate * Math.pow(decayFactor, atStep)
+        * Math.pow(atStep + stepOffset, forgettingExponent);
   }
   
   public void copyFrom(ParallelOnlineLogisticRegression other) {
@@ -223,68 +234,353 @@ public class ParallelOnlineLogisticRegression extends
     
   }
   
+  /**
+   * Lazily applies the prior to feature j for every category, catching up on all
+   * the steps since j was last touched in closed form (prior.age)
+   * 
+   * Mahout's regularize() marks j as up to date inside the category loop, so only
+   * the first category ever got regularized; here all categories are aged together.
+   */
+  private void catchUpRegularization(int j, double learningRate, int atStep) {
+    
+    double missingUpdates = atStep - updateSteps.getQuick(j);
+    
+    if (missingUpdates > 0) {
+      
+      double rate = getLambda() * learningRate * perTermLearningRate(j);
+      
+      for (int i = 0; i < numCategories - 1; i++) {
+        beta.setQuick(i, j, prior.age(beta.getQuick(i, j), missingUpdates, rate));
+      }
+      
+      updateSteps.setQuick(j, atStep);
+      
+    }
+    
+  }
+  
+  @Override
+  public void regularize(Vector instance) {
+    
+    if (updateSteps == null || isSealed()) {
+      return;
+    }
+    
+    double learningRate = currentLearningRate();
+    
+    Iterator<Vector.Element> nonZeros = instance.iterateNonZero();
+    while (nonZeros.hasNext()) {
+      catchUpRegularization(nonZeros.next().index(), learningRate, getStep());
+    }
+    
+  }
+  
+  /**
+   * Brings every feature's regularization up to the current step
+   * 
+   * Call at superstep boundaries before shipping beta to the master, so the
+   * parameter vector that comes back through SetBeta() is consistent with the
+   * per-feature bookkeeping (every feature is up to date as of getStep()).
+   * 
+   * This is the only O(categories x features) operation, train() never does it.
+   */
+  public void applyPendingRegularization() {
+    
+    if (updateSteps == null) {
+      return;
+    }
+    
+    double learningRate = currentLearningRate();
+    
+    for (int j = 0; j < updateSteps.size(); j++) {
+      catchUpRegularization(j, learningRate, getStep());
+    }
+    
+  }
+  
+  /**
+   * Per-thread scratch space for the cached training paths, also hands back the
+   * pre-update log likelihood and predicted category of the last record trained
+   */
+  public static class TrainingScratch {
+    
+    private double[] scores;
+    private int[] stripes = new int[16];
+    
+    public double logLikelihood = 0;
+    public int predicted = 0;
+    
+    public TrainingScratch(int numCategories) {
+      this.scores = new double[Math.max(1, numCategories - 1)];
+    }
+    
+  }
+  
+  private void ensureScratchCapacity(int nonZeros) {
+    
+    if (null == this.scratch) {
+      this.scratch = new TrainingScratch(numCategories);
+    }
+    
+    if (null == this.nzIndex || this.nzIndex.length < nonZeros) {
+      int size = Math.max(16, nonZeros);
+      this.nzIndex = new int[size];
+      this.nzValue = new double[size];
+    }
+    
+  }
+  
   /**
    * Custom training for POLR based around accumulating gradient to send to the
    * master process
    * 
-   * 
+   * Collects the non-zeros of the instance and runs the fused pass in
+   * trainNonZeros(), cost per record is O(nnz x categories).
    */
   @Override
   public void train(long trackingKey, String groupKey, int actual,
       Vector instance) {
     unseal();
-    double learningRate = currentLearningRate();
     
-    // push coefficients back to zero based on the prior
-    regularize(instance);
+    ensureScratchCapacity(instance.getNumNondefaultElements());
+    
+    int nnz = 0;
+    
+    Iterator<Vector.Element> nonZeros = instance.iterateNonZero();
+    while (nonZeros.hasNext()) {
+      Vector.Element element = nonZeros.next();
+      
+      if (nnz == nzIndex.length) {
+        nzIndex = Arrays.copyOf(nzIndex, nnz * 2);
+        nzValue = Arrays.copyOf(nzValue, nnz * 2);
+      }
+      nzIndex[nnz] = element.index();
+      nzValue[nnz] = element.get();
+      nnz++;
+    }
+    
+    trainNonZeros(nzIndex, nzValue, 0, nnz, actual, getStep(), scratch);
+    
+    nextStep();
+    
+  }
+  
+  /**
+   * Trains on record [row] of a cached split as if it were step atStep, does
+   * not advance the step counter (see advanceSteps())
+   * 
+   * Safe to call from several threads at once on disjoint rows, Hogwild style:
+   * reads and writes of beta are unsynchronized, so concurrent records touching
+   * the same feature can overwrite each other's updates. With sparse records
+   * that is rare and SGD shrugs it off.
+   * 
+   * Rows may come in out of step order across threads, a feature's
+   * regularization bookkeeping only moves forward so no step is aged twice.
+   */
+  public void train(CompactVectorCache cache, int row, int actual, int atStep,
+      TrainingScratch scratch) {
+    
+    trainNonZeros(cache.indexArray(), cache.valueArray(), cache.rowStart(row),
+        cache.rowEnd(row), actual, atStep, scratch);
+    
+  }
+  
+  /**
+   * Same as train(CompactVectorCache, ...) but the record's update is atomic:
+   * every lock stripe its features hash to is held for the whole read-update,
+   * taken in ascending order so threads can't deadlock
+   * 
+   * Meant for checking the lock-free mode against, not for speed.
+   */
+  public void trainLocked(CompactVectorCache cache, int row, int actual,
+      int atStep, TrainingScratch scratch, ReentrantLock[] stripes) {
+    
+    int start = cache.rowStart(row);
+    int end = cache.rowEnd(row);
+    
+    if (scratch.stripes.length < end - start) {
+      scratch.stripes = new int[end - start];
+    }
+    
+    int numStripes = 0;
+    for (int k = start; k < end; k++) {
+      scratch.stripes[numStripes++] = cache.index(k) % stripes.length;
+    }
+    Arrays.sort(scratch.stripes, 0, numStripes);
+    
+    int held = 0;
+    try {
+      
+      for (int s = 0; s < numStripes; s++) {
+        if (0 == s || scratch.stripes[s] != scratch.stripes[s - 1]) {
+          stripes[scratch.stripes[s]].lock();
+          scratch.stripes[held++] = scratch.stripes[s];
+        }
+      }
+      
+      train(cache, row, actual, atStep, scratch);
+      
+    } finally {
+      
+      for (int s = held - 1; s >= 0; s--) {
+        stripes[scratch.stripes[s]].unlock();
+      }
+      
+    }
     
-    // basically this only gets the results for each classification
-    // update each row of coefficients according to result
-    Vector gradient = this.default_gradient.apply(groupKey, actual, instance,
-        this);
-    for (int i = 0; i < numCategories - 1; i++) {
+  }
+  
+  /**
+   * Moves the step counter past a pass of records trained through the cached
+   * paths, which each ran at their own virtual step
+   */
+  public void advanceSteps(int records) {
+    
+    step += records;
+    
+  }
+  
+  /**
+   * Scores record [row] of a cached split against the current beta without
+   * training on it: fills scratch.predicted and scratch.logLikelihood the same
+   * way train() does, but skips the lazy regularization catch-up and the update
+   * 
+   * Used for held-out records, only reads beta.
+   */
+  public void score(CompactVectorCache cache, int row, int actual,
+      TrainingScratch scratch) {
+    
+    int categories = numCategories - 1;
+    double[] scores = scratch.scores;
+    
+    for (int i = 0; i < categories; i++) {
+      scores[i] = 0.0;
+    }
+    
+    int end = cache.rowEnd(row);
+    for (int k = cache.rowStart(row); k < end; k++) {
+      int j = cache.index(k);
+      double x = cache.value(k);
       
-      double gradientBase = gradient.get(i);
+      for (int i = 0; i < categories; i++) {
+        scores[i] += beta.getQuick(i, j) * x;
+      }
+    }
+    
+    link(scores, categories, actual, scratch);
+    
+  }
+  
+  /**
+   * Turns raw per-category scores into probabilities in place (same link as
+   * Mahout's DefaultGradient) and records the predicted category and the log
+   * likelihood of the actual one in the scratch
+   */
+  private static void link(double[] scores, int categories, int actual,
+      TrainingScratch scratch) {
+    
+    // link function, category 0 is the implicit zero score
+    double max = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < categories; i++) {
+      max = Math.max(max, scores[i]);
+    }
+    
+    double sum = 0.0;
+    if (max >= 40) {
+      // 1 + sum(exp(v)) == sum(exp(v)) to within round-off here
+      for (int i = 0; i < categories; i++) {
+        scores[i] = Math.exp(scores[i] - max);
+        sum += scores[i];
+      }
+    } else {
+      for (int i = 0; i < categories; i++) {
+        scores[i] = Math.exp(scores[i]);
+        sum += scores[i];
+      }
+      sum += 1.0;
+    }
+    
+    // probabilities, and the stats the worker reports before we update
+    double pSum = 0.0;
+    double pMax = 0.0;
+    int predicted = 0;
+    for (int i = 0; i < categories; i++) {
+      scores[i] /= sum;
+      pSum += scores[i];
+      if (scores[i] > pMax) {
+        pMax = scores[i];
+        predicted = i + 1;
+      }
+    }
+    if (1.0 - pSum >= pMax) {
+      predicted = 0;
+    }
+    
+    scratch.predicted = predicted;
+    scratch.logLikelihood = Math.max(-100.0, (actual > 0) ? Math.log(scores[actual - 1]) : Math.log1p(-pSum));
+    
+  }
+  
+  /**
+   * The fused single pass over one record's non-zeros [start, end):
+   * 
+   * 1. catch up the lazy regularization of each touched feature and accumulate
+   * the per-category scores in the same loop
+   * 
+   * 2. turn the scores into the gradient (same link as Mahout's DefaultGradient)
+   * 
+   * 3. update every category for each touched feature, computing the per-term
+   * learning rate once per feature instead of once per category
+   * 
+   * Untouched features are never visited.
+   */
+  private void trainNonZeros(int[] index, double[] value, int start, int end,
+      int actual, int atStep, TrainingScratch scratch) {
+    
+    double learningRate = learningRateAt(atStep);
+    
+    int categories = numCategories - 1;
+    double[] scores = scratch.scores;
+    
+    for (int i = 0; i < categories; i++) {
+      scores[i] = 0.0;
+    }
+    
+    for (int k = start; k < end; k++) {
+      int j = index[k];
+      double x = value[k];
       
-      // we're only going to look at the non-zero elements of the vector
-      // then we apply the gradientBase to the resulting element.
-      Iterator<Vector.Element> nonZeros = instance.iterateNonZero();
+      // push coefficients back to zero based on the prior
+      catchUpRegularization(j, learningRate, atStep);
       
-      while (nonZeros.hasNext()) {
-        Vector.Element updateLocation = nonZeros.next();
-        int j = updateLocation.index();
-        
-        double gradient_to_add = gradientBase * learningRate
-            * perTermLearningRate(j) * instance.get(j);
-        
-        // double old_beta = beta.getQuick(i, j);
-        
-        double newValue = beta.getQuick(i, j) + gradientBase * learningRate
-            * perTermLearningRate(j) * instance.get(j);
-        beta.setQuick(i, j, newValue);
-        
-        // now update gamma --- we only want the gradient since the last time
-/*        
-        double old_gamma = gamma.getCell(i, j);
-        double new_gamma = old_gamma + gradient_to_add; // gradientBase *
-                                                        // learningRate *
-                                                        // perTermLearningRate(j)
-                                                        // * instance.get(j);
-        
-        gamma.setCell(i, j, new_gamma);
-  */      
+      for (int i = 0; i < categories; i++) {
+        scores[i] += beta.getQuick(i, j) * x;
       }
     }
     
-    // remember that these elements got updated
-    Iterator<Vector.Element> i = instance.iterateNonZero();
-    while (i.hasNext()) {
-      Vector.Element element = i.next();
-      int j = element.index();
-      updateSteps.setQuick(j, getStep());
+    link(scores, categories, actual, scratch);
+    
+    // gradient = one-hot(actual) - p
+    for (int i = 0; i < categories; i++) {
+      scores[i] = ((actual - 1 == i) ? 1.0 : 0.0) - scores[i];
+    }
+    
+    // update each row of coefficients and remember that these elements got updated
+    for (int k = start; k < end; k++) {
+      int j = index[k];
+      double scale = learningRate * perTermLearningRate(j) * value[k];
+      
+      for (int i = 0; i < categories; i++) {
+        beta.setQuick(i, j, beta.getQuick(i, j) + scores[i] * scale);
+      }
+      
+      // only ever forward: a Hogwild thread at an earlier virtual step must not hand
+      // back steps another thread already aged j through
+      if (atStep > updateSteps.getQuick(j)) {
+        updateSteps.setQuick(j, atStep);
+      }
       updateCounts.setQuick(j, updateCounts.getQuick(j) + 1);
     }
-    nextStep();
     
   }
   
@@ -33,8 +33,11 @@ import org.apache.mahout.math.DenseMatrix;
 
 import tv.floe.metronome.classification.logisticregression.POLRModelParameters;
 import tv.floe.metronome.classification.logisticregression.ParallelOnlineLogisticRegression;
+import tv.floe.metronome.eval.ConvergenceController;
+import tv.floe.metronome.eval.ValidationMetrics;
 import tv.floe.metronome.io.records.RCV1RecordFactory;
 import tv.floe.metronome.io.records.RecordFactory;
+import tv.floe.metronome.metrics.MetricsRegistry;
 
 //import com.cloudera.knittingboar.yarn.appmaster.ComputableMaster;
 import com.cloudera.iterativereduce.yarn.appmaster.ApplicationMaster;
@@ -69,18 +72,32 @@ public class POLRMasterNode extends POLRNodeBase implements
   public POLRModelParameters polr_modelparams;
   private RecordFactory VectorFactory = null;
   
+  // merged held-out metrics, one entry per superstep that had any
+  private List<ValidationMetrics> validationCurve = new ArrayList<ValidationMetrics>();
+  
+  // early stopping, null = run all of app.iteration.count
+  private ConvergenceController convergence = null;
+  
+  // every worker's per superstep metrics merged, plus the master's own timers
+  private MetricsRegistry metrics = new MetricsRegistry();
+  private int supersteps = 0;
+  
   @Override
   public ParameterVectorUpdatable compute(
       Collection<ParameterVectorUpdatable> workerUpdates,
       Collection<ParameterVectorUpdatable> masterUpdates) {
     
     System.out.println("\nMaster Compute: SuperStep - Worker Info ----- ");
+    long computeStart = System.nanoTime();
     int x = 0;
 
     // reset
     //this.Global_Min_IterationCount = this.NumberPasses;
     boolean iterationComplete = true;
     this.global_parameter_vector.parameter_vector = new DenseMatrix(this.num_categories - 1, this.FeatureVectorSize);
+    
+    ValidationMetrics validation = null;
+    double avgLogLikelihood = 0;
 
     for (ParameterVectorUpdatable i : workerUpdates) {
       
@@ -104,6 +121,8 @@ public class POLRMasterNode extends POLRNodeBase implements
           + i.get().AvgLogLikelihood + " PercentCorrect: "
           + i.get().PercentCorrect);
    
+      avgLogLikelihood += i.get().AvgLogLikelihood;
+      
       if ( i.get().IterationComplete == 1) {
         System.out.println( "> worker " + x + " is done with current iteration" );
       }
@@ -112,6 +131,25 @@ public class POLRMasterNode extends POLRNodeBase implements
       //this.global_parameter_vector.AccumulateGradient(i.get().parameter_vector);
       this.global_parameter_vector.AccumulateParameterVector(i.get().parameter_vector);
       
+      if (null != i.get().validation) {
+        if (null == validation) {
+          validation = new ValidationMetrics();
+        }
+        validation.merge(i.get().validation);
+      }
+      
+      // taken off the message so a re-delivered result isn't counted twice
+      if (null != i.get().metrics) {
+        this.metrics.merge(i.get().metrics);
+        i.get().metrics = null;
+      }
+      
+    }
+    
+    if (null != validation) {
+      this.validationCurve.add(validation);
+      System.out.println("[Master] Validation superstep " + this.validationCurve.size()
+          + ": " + validation);
     }
     
     // now average the parameter vectors together
@@ -136,6 +174,22 @@ public class POLRMasterNode extends POLRNodeBase implements
     */
     gradient_msg.parameter_vector = this.global_parameter_vector.parameter_vector.clone();
     
+    if (null != this.convergence) {
+      
+      boolean alreadyStopped = this.convergence.isStopped();
+      
+      // held-out loss when there is one, otherwise the workers' training loss
+      double loss = (null != validation) ? validation.meanLoss()
+          : -avgLogLikelihood / workerUpdates.size();
+      
+      gradient_msg.StopTraining = this.convergence.observe(loss);
+      
+      if (gradient_msg.StopTraining && !alreadyStopped) {
+        System.out.println("[Master] Early stopping: " + this.convergence.getReason());
+      }
+      
+    }
+    
     
     
     ParameterVectorUpdatable return_msg = new ParameterVectorUpdatable();
@@ -147,9 +201,31 @@ public class POLRMasterNode extends POLRNodeBase implements
     // THIS NEEDS TO BE DONE, probably automated!
     workerUpdates.clear();
     
+    this.metrics.timer("master.compute").recordSince(computeStart);
+    this.supersteps++;
+    
+    if (MetricsRegistry.isReportDue(this.conf, this.supersteps)) {
+      LOG.info("Metrics after " + this.supersteps + " supersteps:\n" + this.metrics.report());
+    }
+    
     return return_msg;
   }
   
+  /**
+   * Held-out loss / accuracy of the averaged model, one entry per superstep
+   * (empty unless the workers have a hold-out fraction set)
+   */
+  public List<ValidationMetrics> getValidationCurve() {
+    return this.validationCurve;
+  }
+  
+  /**
+   * Merged worker metrics plus master.compute, cumulative over the run
+   */
+  public MetricsRegistry getMetrics() {
+    return this.metrics;
+  }
+  
   @Override
   public ParameterVectorUpdatable getResults() {
     System.out.println(">>> getResults() - null!!!");
@@ -189,6 +265,8 @@ public class POLRMasterNode extends POLRNodeBase implements
       this.LearningRate = Double.parseDouble(this.conf.get(
           "com.cloudera.knittingboar.setup.LearningRate", "10"));
       
+      this.convergence = ConvergenceController.fromConf(this.conf);
+      
       // local input split path
       // this.LocalInputSplitPath = LoadStringConfVarOrException(
       // "com.cloudera.knittingboar.setup.LocalInputSplitPath",
@@ -327,6 +405,7 @@ public class POLRMasterNode extends POLRNodeBase implements
     System.out.println("complete-ms:" + System.currentTimeMillis());
     
     LOG.debug("Master complete, saving model.");
+    LOG.info("Metrics after " + this.supersteps + " supersteps:\n" + this.metrics.report());
     
     try {
       this.polr_modelparams.saveTo(out);
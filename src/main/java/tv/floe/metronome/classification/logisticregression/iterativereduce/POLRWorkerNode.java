@@ -20,6 +20,13 @@ package tv.floe.metronome.classification.logisticregression.iterativereduce;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -35,8 +42,14 @@ import org.apache.mahout.math.Vector;
 import tv.floe.metronome.classification.logisticregression.POLRModelParameters;
 import tv.floe.metronome.classification.logisticregression.ParallelOnlineLogisticRegression;
 import tv.floe.metronome.classification.logisticregression.metrics.POLRMetrics;
+import tv.floe.metronome.eval.HoldOutSelector;
+import tv.floe.metronome.eval.ValidationMetrics;
+import tv.floe.metronome.io.records.CompactVectorCache;
 import tv.floe.metronome.io.records.RCV1RecordFactory;
 import tv.floe.metronome.io.records.RecordFactory;
+import tv.floe.metronome.io.records.SplitTextRecordParser;
+import tv.floe.metronome.io.records.VectorizedSplitReader;
+import tv.floe.metronome.metrics.MetricsRegistry;
 
 
 import com.cloudera.iterativereduce.ComputableWorker;
@@ -75,6 +88,29 @@ public class POLRWorkerNode extends POLRNodeBase implements
   // basic stats tracking
   POLRMetrics metrics = new POLRMetrics();
   
+  // phase timers / counters for the current superstep, shipped to the master with the update
+  private MetricsRegistry superstepMetrics = new MetricsRegistry();
+  
+  // vectorized split, parsed once on the first pass
+  private CompactVectorCache vectorCache = new CompactVectorCache();
+  
+  // split is DocumentVectorizationJob output, see VectorizedSplitReader
+  private boolean vectorizedInput = false;
+  
+  // intra-worker parallel SGD over the cache
+  private int trainingThreads = 1;
+  private ReentrantLock[] lockStripes = null;
+  private ExecutorService trainingPool = null;
+  
+  public static final int LOCK_STRIPES = 256;
+  
+  // held-out records are scored each superstep instead of trained on, null = off
+  private HoldOutSelector holdOut = null;
+  private ValidationMetrics validation = null;
+  
+  // set when the master signals convergence, later supersteps just echo beta
+  private boolean trainingStopped = false;
+  
   double averageLineCount = 0.0;
   int k = 0;
   double step = 0.0;
@@ -89,10 +125,14 @@ public class POLRWorkerNode extends POLRNodeBase implements
   public ParameterVector GenerateUpdate() {
     
     ParameterVector gradient = new ParameterVector();
+    // bring every coefficient's regularization up to date before shipping it
+    this.polr.applyPendingRegularization();
+    
     gradient.parameter_vector = this.polr.getBeta().clone(); // this.polr.getGamma().getMatrix().clone();
     gradient.SrcWorkerPassCount = this.LocalBatchCountForIteration;
     
-    if (this.lineParser.hasMoreRecords()) {
+    // pre-vectorized input is read whole in one compute()
+    if (!this.vectorizedInput && !this.vectorCache.isComplete() && this.lineParser.hasMoreRecords()) {
       gradient.IterationComplete = 0;
     } else {
       gradient.IterationComplete = 1;
@@ -107,113 +147,293 @@ public class POLRWorkerNode extends POLRNodeBase implements
     gradient.TrainedRecords = (new Long(metrics.TotalRecordsProcessed))
         .intValue();
     
+    gradient.validation = this.validation;
+    
     return gradient;
     
   }
   
   /**
-   * The IR::Compute method - this is where we do the next batch of records for
-   * SGD
+   * Trains one contiguous range of the cached split, several of these run at
+   * once in the multi-threaded mode
+   * 
+   * - record r of a range runs at virtual step baseStep + (r - start) * stride + offset,
+   *   which interleaves the threads' steps the way a single thread would have
+   *   walked them
+   * - keeps its own running averages, merged by the calling thread afterwards
    */
-  @Override
-  public ParameterVectorUpdatable compute() {
+  private class TrainingRange implements Callable<TrainingRange> {
+    
+    private final int start;
+    private final int end;
+    private final int baseStep;
+    private final int stride;
+    private final int offset;
+    
+    private final ParallelOnlineLogisticRegression.TrainingScratch scratch;
+    
+    double avgLogLikelihood = 0;
+    double avgCorrect = 0;
+    int trained = 0;
+    
+    TrainingRange(int start, int end, int baseStep, int stride, int offset) {
+      this.start = start;
+      this.end = end;
+      this.baseStep = baseStep;
+      this.stride = stride;
+      this.offset = offset;
+      this.scratch = new ParallelOnlineLogisticRegression.TrainingScratch(num_categories);
+    }
     
-    Text value = new Text();
-    long batch_vec_factory_time = 0;
+    @Override
+    public TrainingRange call() {
+      
+      ParallelOnlineLogisticRegression model = polr;
+      
+      for (int row = this.start; row < this.end; row++) {
+        
+        if (null != holdOut && holdOut.isHeldOut(row)) {
+          continue;
+        }
+        
+        int actual = categoryForLabel(vectorCache.label(row));
+        int atStep = this.baseStep + (row - this.start) * this.stride + this.offset;
+        
+        if (null == lockStripes) {
+          model.train(vectorCache, row, actual, atStep, this.scratch);
+        } else {
+          model.trainLocked(vectorCache, row, actual, atStep, this.scratch, lockStripes);
+        }
+        
+        // calc stats ---------
+        
+        double mu = Math.min(this.trained + 1, 200);
+        
+        this.avgLogLikelihood = this.avgLogLikelihood
+            + (this.scratch.logLikelihood - this.avgLogLikelihood) / mu;
+        
+        int correct = (this.scratch.predicted == actual ? 1 : 0);
+        this.avgCorrect = this.avgCorrect + (correct - this.avgCorrect) / mu;
+        
+        this.trained++;
+        
+      }
+      
+      return this;
+      
+    }
     
-    boolean result = true;
-    //boolean processBatch = false;
-
-    while (this.lineParser.hasMoreRecords()) {
+  }
+  
+  /**
+   * Labels come through processLineAlt() as doubles, svmlight style -1 / +1
+   * binary labels map onto categories 0 / 1
+   */
+  private int categoryForLabel(double label) {
+    
+    int actual = (int) label;
+    return (actual < 0) ? 0 : actual;
+    
+  }
+  
+  /**
+   * Scores the held-out rows of the cache against the beta the master sent
+   * down, before this superstep trains on anything
+   */
+  private ValidationMetrics validate() {
+    
+    ValidationMetrics result = new ValidationMetrics();
+    ParallelOnlineLogisticRegression.TrainingScratch scratch = new ParallelOnlineLogisticRegression.TrainingScratch(
+        this.num_categories);
+    
+    int rows = this.vectorCache.size();
+    for (int row = 0; row < rows; row++) {
+      
+      if (!this.holdOut.isHeldOut(row)) {
+        continue;
+      }
+      
+      int actual = categoryForLabel(this.vectorCache.label(row));
+      this.polr.score(this.vectorCache, row, actual, scratch);
+      
+      result.add(-scratch.logLikelihood, scratch.predicted == actual);
+      
+    }
+    
+    return result;
+    
+  }
+  
+  /**
+   * Reads the rest of the split into the vector cache the first time through
+   * 
+   * - pre-vectorized input is loaded straight into the cache, the text parser
+   *   is only used for where the split is
+   */
+  private void fillVectorCache() {
+    
+    if (this.vectorCache.isComplete()) {
+      return;
+    }
+    
+    try {
+      
+      if (this.vectorizedInput) {
         
+        VectorizedSplitReader reader = VectorizedSplitReader.forSplit(this.conf, this.lineParser);
         try {
-          result = this.lineParser.next(value);
-        } catch (IOException e1) {
-          // TODO Auto-generated catch block
-          e1.printStackTrace();
+          this.vectorCache.fill(reader, this.FeatureVectorSize, this.superstepMetrics);
+        } finally {
+          reader.close();
         }
         
-        if (result) {
-          
-          long startTime = System.currentTimeMillis();
-          
-          Vector v = new RandomAccessSparseVector(this.FeatureVectorSize);
-          int actual = -1;
-          try {
-            
-            actual = this.VectorFactory.processLine(value.toString(), v);
-          } catch (Exception e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-          }
-          
-          long endTime = System.currentTimeMillis();
-          
-          batch_vec_factory_time += (endTime - startTime);
-          
-          // calc stats ---------
-          
-          double mu = Math.min(k + 1, 200);
-          double ll = this.polr.logLikelihood(actual, v);
-          
-          metrics.AvgLogLikelihood = metrics.AvgLogLikelihood
-              + (ll - metrics.AvgLogLikelihood) / mu;
-          
-          if (Double.isNaN(metrics.AvgLogLikelihood)) {
-            metrics.AvgLogLikelihood = 0;
+      } else {
+        this.vectorCache.fill(this.lineParser, this.VectorFactory, this.FeatureVectorSize, this.superstepMetrics);
+      }
+      
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    
+  }
+  
+  /**
+   * The IR::Compute method - this is where we do the next batch of records for
+   * SGD
+   * 
+   * - the first pass parses the split into the vector cache, later passes only
+   *   do arithmetic
+   * - with TrainingThreads > 1 the cache is cut into one contiguous range per
+   *   thread and they all update the shared beta without locks (Hogwild), or
+   *   through striped locks when HogwildStripedLocks is set
+   * - with a hold-out fraction set, the held-out rows are scored first and
+   *   skipped by training
+   */
+  @Override
+  public ParameterVectorUpdatable compute() {
+    
+    if (this.trainingStopped) {
+      this.validation = null;
+      return new ParameterVectorUpdatable(this.GenerateUpdate());
+    }
+    
+    long startTime = System.currentTimeMillis();
+    
+    this.fillVectorCache();
+    
+    long endTime = System.currentTimeMillis();
+    long batch_vec_factory_time = endTime - startTime;
+    
+    long computeStart = System.nanoTime();
+    
+    if (null != this.holdOut) {
+      this.validation = this.validate();
+    }
+    
+    int rows = this.vectorCache.size();
+    int threads = Math.max(1, Math.min(this.trainingThreads, rows));
+    int baseStep = this.polr.getStep();
+    
+    // the first rows % threads ranges get the extra row, so the interleaved
+    // virtual steps cover exactly [baseStep, baseStep + rows)
+    List<TrainingRange> ranges = Lists.newArrayList();
+    int perThread = rows / threads;
+    int longer = rows % threads;
+    int start = 0;
+    for (int t = 0; t < threads; t++) {
+      int end = start + perThread + ((t < longer) ? 1 : 0);
+      ranges.add(new TrainingRange(start, end, baseStep, threads, t));
+      start = end;
+    }
+    
+    if (1 == threads) {
+      
+      ranges.get(0).call();
+      
+    } else {
+      
+      if (null == this.trainingPool) {
+        this.trainingPool = Executors.newFixedThreadPool(this.trainingThreads, new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "POLRWorkerNode-train");
+            t.setDaemon(true);
+            return t;
           }
-          
-          Vector p = new DenseVector(this.num_categories);
-          this.polr.classifyFull(p, v);
-          int estimated = p.maxValueIndex();
-          int correct = (estimated == actual ? 1 : 0);
-          metrics.AvgCorrect = metrics.AvgCorrect
-              + (correct - metrics.AvgCorrect) / mu;
-          this.polr.train(actual, v);
-          
-          k++;
-          metrics.TotalRecordsProcessed = k;
-//          if (x == this.BatchSize - 1) {
-            
-/*            System.err
-                .printf(
-                    "Worker %s:\t Iteration: %s, Trained Recs: %10d, AvgLL: %10.3f, Percent Correct: %10.2f, VF: %d\n",
-                    this.internalID, this.CurrentIteration, k, metrics.AvgLogLikelihood,
-                    metrics.AvgCorrect * 100, batch_vec_factory_time);
-  */          
-//          }
-          
-          this.polr.close();
-          
-        } else {
-          
-//          this.LocalBatchCountForIteration++;
-          // this.input_split.ResetToStartOfSplit();
-          // nothing else to process in split!
-//          break;
-          
-        } // if
-        
-      } // for the batch size
+        });
+      }
+      
+      try {
+        // invokeAll() returning is the happens-before edge for every thread's beta writes
+        for (Future<TrainingRange> done : this.trainingPool.invokeAll(ranges)) {
+          done.get();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while training", e);
+      } catch (ExecutionException e) {
+        throw new IllegalStateException("Training thread failed", e.getCause());
+      }
+      
+    }
+    
+    this.polr.advanceSteps(rows);
+    
+    // merge the per range stats, weighted by records
+    double ll = 0;
+    double correct = 0;
+    int trained = 0;
+    for (TrainingRange range : ranges) {
+      ll += range.avgLogLikelihood * range.trained;
+      correct += range.avgCorrect * range.trained;
+      trained += range.trained;
+    }
+    
+    if (trained > 0) {
+      metrics.AvgLogLikelihood = ll / trained;
+      metrics.AvgCorrect = correct / trained;
+    }
+    
+    if (Double.isNaN(metrics.AvgLogLikelihood)) {
+      metrics.AvgLogLikelihood = 0;
+    }
+    
+    k += trained;
+    metrics.TotalRecordsProcessed = k;
+    
+    this.superstepMetrics.phase(MetricsRegistry.Phase.COMPUTE).recordSince(computeStart);
+    this.superstepMetrics.counter("records.trained").add(trained);
     
     System.err
     .printf(
-        "Worker %s:\t Iteration: %s, Trained Recs: %10d, AvgLL: %10.3f, Percent Correct: %10.2f, VF: %d\n",
+        "Worker %s:\t Iteration: %s, Trained Recs: %10d, AvgLL: %10.3f, Percent Correct: %10.2f, VF: %d, Threads: %d\n",
         this.internalID, this.CurrentIteration, k, metrics.AvgLogLikelihood,
-        metrics.AvgCorrect * 100, batch_vec_factory_time);
+        metrics.AvgCorrect * 100, batch_vec_factory_time, threads);
     
+    if (null != this.validation) {
+      System.err.printf("Worker %s:\t Validation: %s\n", this.internalID,
+          this.validation);
+    }
     
+    ParameterVector update = this.GenerateUpdate();
+    update.metrics = this.takeSuperstepMetrics();
+    
+    return new ParameterVectorUpdatable(update);
+  }
+  
+  /**
+   * Hands this superstep's metrics to the outgoing update, the next superstep
+   * starts a fresh registry
+   */
+  private MetricsRegistry takeSuperstepMetrics() {
+    
+    MetricsRegistry taken = this.superstepMetrics;
+    taken.sampleHeap();
+    
+    this.superstepMetrics = new MetricsRegistry();
+    
+    return taken;
     
-/*    } else {
-      System.err
-      .printf(
-          "Worker %s:\t Trained Recs: %10d,  AvgLL: %10.3f, Percent Correct: %10.2f, [Done With Iteration]\n",
-          this.internalID, k, metrics.AvgLogLikelihood,
-          metrics.AvgCorrect * 100);
-      
-    } // if 
-  */  
-    return new ParameterVectorUpdatable(this.GenerateUpdate());
   }
   
   public ParameterVectorUpdatable getResults() {
@@ -237,6 +457,10 @@ public class POLRWorkerNode extends POLRNodeBase implements
     // update global count
     this.GlobalBatchCountForIteration = global_update.GlobalPassCount;
     
+    if (global_update.StopTraining) {
+      this.trainingStopped = true;
+    }
+    
     // flush the local gradient delta buffer ("gamma")
 //    this.polr.FlushGamma();
     
@@ -285,6 +509,25 @@ public class POLRWorkerNode extends POLRNodeBase implements
       this.LearningRate = Double.parseDouble(this.conf.get(
           "com.cloudera.knittingboar.setup.LearningRate", "10"));
       
+      // threads training on the cached split, sharing one beta (Hogwild)
+      this.trainingThreads = this.conf.getInt(
+          "com.cloudera.knittingboar.setup.TrainingThreads", 1);
+      
+      // exact mode for comparing against: each record's update holds striped locks
+      if (this.conf.getBoolean(
+          "com.cloudera.knittingboar.setup.HogwildStripedLocks", false)) {
+        
+        this.lockStripes = new ReentrantLock[LOCK_STRIPES];
+        for (int x = 0; x < LOCK_STRIPES; x++) {
+          this.lockStripes[x] = new ReentrantLock();
+        }
+        
+      }
+      
+      this.holdOut = HoldOutSelector.fromConf(this.conf);
+      
+      this.vectorizedInput = VectorizedSplitReader.isVectorized(this.conf);
+      
       // maps to either CSV, 20newsgroups, or RCV1
       this.RecordFactoryClassname = LoadStringConfVarOrException(
           "com.cloudera.knittingboar.setup.RecordFactoryClassname",
@@ -422,7 +665,8 @@ public class POLRWorkerNode extends POLRNodeBase implements
   }
   
   public static void main(String[] args) throws Exception {
-    TextRecordParser parser = new TextRecordParser();
+    // remembers its split, pre-vectorized input is read from there
+    TextRecordParser parser = new SplitTextRecordParser();
     POLRWorkerNode pwn = new POLRWorkerNode();
     ApplicationWorker<ParameterVectorUpdatable> aw = new ApplicationWorker<ParameterVectorUpdatable>(
         parser, pwn, ParameterVectorUpdatable.class);
@@ -447,12 +691,22 @@ public class POLRWorkerNode extends POLRNodeBase implements
     
     this.CurrentIteration++;
     this.IterationComplete = false;
-    this.lineParser.reset();
+    
+    // once the cache is complete the split is never read again
+    if (!this.vectorCache.isComplete()) {
+      this.lineParser.reset();
+    }
     
     System.out.println( "IncIteration > " + this.CurrentIteration + ", " + this.NumberIterations );
     
-    if (this.CurrentIteration >= this.NumberIterations) {
+    if (this.CurrentIteration >= this.NumberIterations || this.trainingStopped) {
       System.out.println("POLRWorkerNode: [ done with all iterations ]");
+      
+      if (null != this.trainingPool) {
+        this.trainingPool.shutdown();
+        this.trainingPool = null;
+      }
+      
       return false;
     }
     
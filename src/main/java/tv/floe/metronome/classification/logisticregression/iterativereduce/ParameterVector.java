@@ -30,6 +30,9 @@ import java.io.OutputStream;
 import org.apache.mahout.math.Matrix;
 import org.apache.mahout.math.MatrixWritable;
 
+import tv.floe.metronome.eval.ValidationMetrics;
+import tv.floe.metronome.metrics.MetricsRegistry;
+
 
 
 public class ParameterVector {
@@ -47,9 +50,19 @@ public class ParameterVector {
   public float AvgLogLikelihood = 0;
   public float PercentCorrect = 0;
   
+  // worker's held-out metrics for the superstep, null when hold-out is off
+  public ValidationMetrics validation = null;
+  
+  // master -> worker: converged, stop training
+  public boolean StopTraining = false;
+  
+  // worker's metrics for the superstep (MetricsRegistry), null on master messages
+  public MetricsRegistry metrics = null;
+  
   public byte[] Serialize() throws IOException {
     
     // DataOutput d
+    long start = System.nanoTime();
     
     ByteArrayOutputStream out = new ByteArrayOutputStream();
     DataOutput d = new DataOutputStream(out);
@@ -69,6 +82,15 @@ public class ParameterVector {
     MatrixWritable.writeMatrix(d, this.parameter_vector);
     // MatrixWritable.
     
+    ValidationMetrics.writeOptional(d, this.validation);
+    d.writeBoolean(this.StopTraining);
+    
+    // last, so the superstep's delta includes this send
+    if (null != this.metrics) {
+      this.metrics.phase(MetricsRegistry.Phase.SERIALIZE).recordSince(start);
+    }
+    MetricsRegistry.writeOptional(d, this.metrics);
+    
     return out.toByteArray();
   }
   
@@ -90,6 +112,11 @@ public class ParameterVector {
     
     this.parameter_vector = MatrixWritable.readMatrix(in);
     
+    this.validation = ValidationMetrics.readOptional(in);
+    this.StopTraining = in.readBoolean();
+    
+    this.metrics = MetricsRegistry.readOptional(in);
+    
   }
   
   public int numFeatures() {
@@ -1,17 +1,30 @@
 package tv.floe.metronome.classification.neuralnetworks.activation;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+
+import tv.floe.metronome.math.ActivationKernels;
+
 /**
  * Classical neural network activation function
  * - scalar to scalar function
  * - needed for hidden units to introduce non-linearity into the networks
  * --- composition of linear functions is a linear function!
  * - backpropagation works well with sigmoid function
+ * - the sigmoid itself goes through an ActivationKernels accuracy (EXACT by default),
+ * --- a runtime setting: not serialized, a deserialized Sigmoid is EXACT
  * 
  * @author josh
  *
  */
 public class Sigmoid extends ActivationFunction {
 
+	// pinned to the pre-ActivationKernels value so saved networks still load
+	private static final long serialVersionUID = 195180843011678774L;
+
 	private double slope = 1d;
+
+	private transient ActivationKernels kernels = ActivationKernels.EXACT;
 		
 	public Sigmoid() {
 	}
@@ -29,6 +42,14 @@ public class Sigmoid extends ActivationFunction {
 		this.slope = slope;
 	}
 
+	public ActivationKernels getKernels() {
+		return this.kernels;
+	}
+
+	public void setKernels(ActivationKernels kernels) {
+		this.kernels = kernels;
+	}
+
 	@Override
 	public double getOutput(double net) {
 
@@ -43,9 +64,7 @@ public class Sigmoid extends ActivationFunction {
 
         }
 
-		double den = 1d + Math.exp(-this.slope * net);
-                
-		this.output = (1d / den); 
+		this.output = this.kernels.sigmoid(this.slope * net); 
                 
 		return this.output;
 	}
@@ -56,6 +75,11 @@ public class Sigmoid extends ActivationFunction {
 		return derivative;
 	}	
 	
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		this.kernels = ActivationKernels.EXACT;
+	}
+	
 	
 
 }
@@ -1,5 +1,10 @@
 package tv.floe.metronome.classification.neuralnetworks.activation;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+
+import tv.floe.metronome.math.ActivationKernels;
+
 /**
  * The hyperbolic tangent activation function
  * - produces output numbers between -1 and 1
@@ -11,13 +16,21 @@ package tv.floe.metronome.classification.neuralnetworks.activation;
  * --- the difference being: has a range from -1 to 1 
  * - often used in place of the sigmoid activation function.
  * 
+ * - outside ActivationKernels.EXACT (the default) the output is the kernel's
+ * --- tanh(slope * net / 2), the same function; not serialized, like Sigmoid
+ * 
  * 
  *
  */
 public class Tanh  extends ActivationFunction {
 
+	// pinned to the pre-ActivationKernels value so saved networks still load
+	private static final long serialVersionUID = 2788231023992693937L;
+
 	private double slope = 2d;
 
+	private transient ActivationKernels kernels = ActivationKernels.EXACT;
+
 	public Tanh() {
 	}
 
@@ -44,6 +57,13 @@ public class Tanh  extends ActivationFunction {
         
         }
 
+		if (ActivationKernels.EXACT != this.kernels) {
+
+			this.output = this.kernels.tanh(0.5 * this.slope * net);
+			return this.output;
+
+		}
+
 		double E_x = Math.exp(this.slope * net);                
         
 		this.output = (E_x - 1d) / (E_x + 1d);
@@ -79,4 +99,23 @@ public class Tanh  extends ActivationFunction {
 		
 	}
 
+	public ActivationKernels getKernels() {
+
+		return this.kernels;
+
+	}
+
+	public void setKernels(ActivationKernels kernels) {
+
+		this.kernels = kernels;
+
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+
+		in.defaultReadObject();
+		this.kernels = ActivationKernels.EXACT;
+
+	}
+
 }
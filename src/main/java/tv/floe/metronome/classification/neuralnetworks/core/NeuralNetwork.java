@@ -36,6 +36,11 @@ import tv.floe.metronome.classification.neuralnetworks.math.random.WeightsRandom
 
 public class NeuralNetwork implements Serializable {
 
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 122494108672099297L;
+
 	public enum NetworkType { 
 		
 		ADALINE,
@@ -73,6 +78,9 @@ public class NeuralNetwork implements Serializable {
     
     private Config conf = null;
     
+    // first layer path for sparse input vectors, built on first use and dropped when the wiring changes
+    private transient SparseInputLayer sparseInputs = null;
+    
     public NeuralNetwork() {
     	
         this.layers = new ArrayList<Layer>();
@@ -91,6 +99,7 @@ public class NeuralNetwork implements Serializable {
     
     public void addLayer(Layer layer) {
 
+    	this.sparseInputs = null;
     	layer.setParentNetwork(this);
         this.layers.add(layer);
         
@@ -98,6 +107,7 @@ public class NeuralNetwork implements Serializable {
 
     public void addLayer(int index, Layer layer) {
     
+    	this.sparseInputs = null;
     	layer.setParentNetwork(this);
     	
     	this.layers.add(index, layer);
@@ -111,6 +121,7 @@ public class NeuralNetwork implements Serializable {
 
     public void removeLayerAt(int index) {
     	
+    	this.sparseInputs = null;
     	this.layers.remove(index);
     	
     }
@@ -193,6 +204,18 @@ public class NeuralNetwork implements Serializable {
     
     public void setInputVector(Vector vec) throws Exception {
 
+    	if (!vec.isDense() && this.layers.size() > 1) {
+    		
+    		// only the non-zeros (and last record's non-zeros) are touched
+    		getSparseInputLayer().setInputs( vec );
+    		return;
+    		
+    	}
+    	
+    	if (null != this.sparseInputs) {
+    		this.sparseInputs.invalidate();
+    	}
+    	
         if (vec.size() != inputNeurons.size()) {
             throw new Exception("Input vector size is invalid for Input Neuron Layer size!");
         }
@@ -222,6 +245,19 @@ public class NeuralNetwork implements Serializable {
 
     public void calculate() {
 
+    	if (null != this.sparseInputs && this.sparseInputs.isInUse()) {
+    		
+    		// input layer outputs were set with the input, first layer from the non-zeros only
+    		this.sparseInputs.calculate();
+    		
+    		for (int l = 2; l < this.layers.size(); l++) {
+    			this.layers.get( l ).calculate();
+    		}
+    		
+    		return;
+    		
+    	}
+    	
     	for (Layer layer : this.layers) {
         
     		layer.calculate();
@@ -229,6 +265,30 @@ public class NeuralNetwork implements Serializable {
     	}       
         
     }
+    
+    public SparseInputLayer getSparseInputLayer() {
+    	
+    	if (null == this.sparseInputs) {
+    		this.sparseInputs = new SparseInputLayer( this );
+    	}
+    	
+    	return this.sparseInputs;
+    	
+    }
+    
+    /**
+     * The sparse input path when the current input came in as a sparse vector, else null
+     * 
+     */
+    public SparseInputLayer getActiveSparseInputLayer() {
+    	
+    	if (null != this.sparseInputs && this.sparseInputs.isInUse()) {
+    		return this.sparseInputs;
+    	}
+    	
+    	return null;
+    	
+    }
 
     public void reset() {
 
@@ -287,6 +347,7 @@ public class NeuralNetwork implements Serializable {
     public void setInputNeurons(ArrayList<Neuron> inputNeurons) {
     	
         this.inputNeurons = inputNeurons;
+        this.sparseInputs = null;
         
     }
 
@@ -339,6 +400,7 @@ public class NeuralNetwork implements Serializable {
     public void createConnection(Neuron fromNeuron, Neuron toNeuron, double weightVal) throws Exception {
 
     	toNeuron.addInConnection(fromNeuron, weightVal);
+    	this.sparseInputs = null;
 
     }
     
@@ -0,0 +1,306 @@
+package tv.floe.metronome.classification.neuralnetworks.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.mahout.math.Vector;
+
+import tv.floe.metronome.classification.neuralnetworks.core.neurons.BiasNeuron;
+import tv.floe.metronome.classification.neuralnetworks.core.neurons.Neuron;
+
+/**
+ * Input -> first layer path for sparse input vectors (hashed text features: a few dozen
+ * non-zeros out of thousands of inputs)
+ *
+ * - setInputs() only touches the input neurons of the vector's non-zeros, plus the ones
+ * 		that were non-zero on the previous record (reset to 0)
+ * - calculate() scatters each active input's out connections into the first layer's net
+ * 		inputs instead of every first layer neuron summing all of its in connections, so
+ * 		the layer costs O(nnz x first layer) instead of O(inputs x first layer)
+ * - backprop walks getActiveFanOut() to update only the weights whose input was non-zero,
+ * 		the others would get a change of 0 anyway. Their weightChange still has to read 0
+ * 		like it does on the dense path, clearStaleWeightChanges() zeroes the ones the last
+ * 		update left behind
+ *
+ * Connections from neurons in the input layer that are not inputs (bias neurons) are
+ * always included. Built lazily by NeuralNetwork from the wired network and dropped when
+ * the topology changes; weights are read through the cached connections so in place
+ * weight updates are seen.
+ *
+ * @author josh
+ *
+ */
+public class SparseInputLayer {
+
+	private final List<Neuron> inputs;
+	private final List<Neuron> firstLayer;
+
+	// per input neuron: its out connections and the first layer position they feed
+	private final Connection[][] fanOut;
+	private final int[][] fanOutTarget;
+
+	// out connections of the non-input (bias) neurons of the input layer
+	private final Connection[] fixed;
+	private final int[] fixedTarget;
+
+	private final double[] net;
+
+	private int[] active = new int[ 64 ];
+	private int activeCount = 0;
+
+	// every input neuron is known to be 0 apart from the active ones
+	private boolean clean = false;
+
+	private boolean inUse = false;
+
+	// inputs whose out connections the last sparse weight update wrote a weightChange to,
+	// only known while every update since the last dense one went through this layer
+	private int[] trained = new int[ 64 ];
+	private int trainedCount = 0;
+	private boolean trainedKnown = false;
+
+	public SparseInputLayer(NeuralNetwork network) {
+
+		this.inputs = network.getInputNeurons();
+		this.firstLayer = network.getLayerByIndex( 1 ).getNeurons();
+
+		Map<Neuron, Integer> position = new IdentityHashMap<Neuron, Integer>();
+		for (int j = 0; j < this.firstLayer.size(); j++) {
+			position.put( this.firstLayer.get( j ), j );
+		}
+
+		this.fanOut = new Connection[ this.inputs.size() ][];
+		this.fanOutTarget = new int[ this.inputs.size() ][];
+
+		for (int i = 0; i < this.inputs.size(); i++) {
+
+			List<Connection> out = this.inputs.get( i ).getOutConnections();
+
+			this.fanOut[ i ] = out.toArray( new Connection[ out.size() ] );
+			this.fanOutTarget[ i ] = targets( this.fanOut[ i ], position );
+
+		}
+
+		List<Connection> fixedConnections = new ArrayList<Connection>();
+		Map<Neuron, Boolean> isInput = new IdentityHashMap<Neuron, Boolean>();
+		for (Neuron n : this.inputs) {
+			isInput.put( n, Boolean.TRUE );
+		}
+
+		for (Neuron n : network.getLayerByIndex( 0 ).getNeurons()) {
+			if (!isInput.containsKey( n )) {
+				fixedConnections.addAll( n.getOutConnections() );
+			}
+		}
+
+		this.fixed = fixedConnections.toArray( new Connection[ fixedConnections.size() ] );
+		this.fixedTarget = targets( this.fixed, position );
+
+		this.net = new double[ this.firstLayer.size() ];
+
+	}
+
+	private static int[] targets(Connection[] connections, Map<Neuron, Integer> position) {
+
+		int[] targets = new int[ connections.length ];
+
+		for (int c = 0; c < connections.length; c++) {
+
+			Integer j = position.get( connections[ c ].getToNeuron() );
+
+			if (null == j) {
+				throw new IllegalStateException( "Input layer connection skips the first layer, the sparse input path needs adjacent layers" );
+			}
+
+			targets[ c ] = j;
+
+		}
+
+		return targets;
+
+	}
+
+	/**
+	 * Loads the non-zeros of vec into the input neurons, everything else is 0
+	 *
+	 */
+	public void setInputs(Vector vec) throws Exception {
+
+		if (vec.size() != this.inputs.size()) {
+			throw new Exception("Input vector size is invalid for Input Neuron Layer size!");
+		}
+
+		if (this.clean) {
+
+			for (int a = 0; a < this.activeCount; a++) {
+				setInput( this.inputs.get( this.active[ a ] ), 0 );
+			}
+
+		} else {
+
+			// first sparse record after a dense one (or ever): one full reset
+			for (Neuron n : this.inputs) {
+				setInput( n, 0 );
+			}
+			this.clean = true;
+
+		}
+
+		this.activeCount = 0;
+
+		Iterator<Vector.Element> nonZeros = vec.iterateNonZero();
+
+		while (nonZeros.hasNext()) {
+
+			Vector.Element e = nonZeros.next();
+			double value = e.get();
+
+			if (0.0 == value) {
+				continue;
+			}
+
+			if (this.activeCount == this.active.length) {
+				this.active = Arrays.copyOf( this.active, this.active.length * 2 );
+			}
+
+			this.active[ this.activeCount++ ] = e.index();
+			setInput( this.inputs.get( e.index() ), value );
+
+		}
+
+		this.inUse = true;
+
+	}
+
+	private static void setInput(Neuron n, double value) {
+
+		n.setInput( value );
+		n.calcOutput();
+
+	}
+
+	/**
+	 * A dense vector was loaded the normal way, the inputs are no longer known to be 0
+	 *
+	 */
+	public void invalidate() {
+
+		this.inUse = false;
+		this.clean = false;
+		this.trainedKnown = false;
+
+	}
+
+	/**
+	 * True while the network's current input came through setInputs()
+	 *
+	 */
+	public boolean isInUse() {
+		return this.inUse;
+	}
+
+	/**
+	 * Computes the first layer from the active inputs only
+	 *
+	 */
+	public void calculate() {
+
+		Arrays.fill( this.net, 0 );
+
+		for (int c = 0; c < this.fixed.length; c++) {
+			this.net[ this.fixedTarget[ c ] ] += this.fixed[ c ].getWeightedInput();
+		}
+
+		for (int a = 0; a < this.activeCount; a++) {
+
+			int i = this.active[ a ];
+			Connection[] out = this.fanOut[ i ];
+			int[] target = this.fanOutTarget[ i ];
+
+			for (int c = 0; c < out.length; c++) {
+				this.net[ target[ c ] ] += out[ c ].getWeightedInput();
+			}
+
+		}
+
+		for (int j = 0; j < this.net.length; j++) {
+
+			Neuron n = this.firstLayer.get( j );
+
+			if (n instanceof BiasNeuron || n.getInConnections().isEmpty()) {
+				n.calcOutput();
+			} else {
+				n.calcOutput( this.net[ j ] );
+			}
+
+		}
+
+	}
+
+	public int getActiveCount() {
+		return this.activeCount;
+	}
+
+	/**
+	 * Out connections of the a-th active (non-zero) input
+	 *
+	 */
+	public Connection[] getActiveFanOut(int a) {
+		return this.fanOut[ this.active[ a ] ];
+	}
+
+	/**
+	 * Out connections of the input layer's bias neurons
+	 *
+	 */
+	public Connection[] getFixedConnections() {
+		return this.fixed;
+	}
+
+	/**
+	 * Zeroes weightChange on the out connections the previous update wrote to, before the
+	 * current record's active ones are updated (online mode, a batch keeps accumulating)
+	 *
+	 * - after a dense record every input may have a change left, so the first call then
+	 * 		clears them all
+	 *
+	 */
+	public void clearStaleWeightChanges() {
+
+		if (this.trainedKnown) {
+
+			for (int t = 0; t < this.trainedCount; t++) {
+				clearWeightChanges( this.fanOut[ this.trained[ t ] ] );
+			}
+
+		} else {
+
+			for (Connection[] out : this.fanOut) {
+				clearWeightChanges( out );
+			}
+
+		}
+
+		if (this.trained.length < this.activeCount) {
+			this.trained = new int[ this.active.length ];
+		}
+
+		System.arraycopy( this.active, 0, this.trained, 0, this.activeCount );
+		this.trainedCount = this.activeCount;
+		this.trainedKnown = true;
+
+	}
+
+	private static void clearWeightChanges(Connection[] connections) {
+
+		for (int c = 0; c < connections.length; c++) {
+			connections[ c ].getWeight().weightChange = 0;
+		}
+
+	}
+
+}
@@ -14,8 +14,14 @@ import tv.floe.metronome.classification.neuralnetworks.input.WeightedSum;
 import tv.floe.metronome.classification.neuralnetworks.activation.Sigmoid;
 import tv.floe.metronome.classification.neuralnetworks.activation.Step;
 import tv.floe.metronome.classification.neuralnetworks.activation.ActivationFunction;
+import tv.floe.metronome.math.ActivationKernels;
 
 public class Neuron implements Serializable {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 5250586586614766699L;
 	
 	public Layer parentLayer = null;
 	public ArrayList<Connection> inConnections = null;
@@ -66,7 +72,16 @@ public class Neuron implements Serializable {
 			n = new InputNeuron();
 			
 		} else {
-			n = new Neuron(new WeightedSum(), new Sigmoid());
+			
+			Sigmoid sigmoid = new Sigmoid();
+			
+			// "activationAccuracy": exact / polynomial / table, see ActivationKernels
+			Object accuracy = (null == c) ? null : c.getConfValue("activationAccuracy");
+			if (null != accuracy) {
+				sigmoid.setKernels( ActivationKernels.forName( accuracy.toString() ) );
+			}
+			
+			n = new Neuron(new WeightedSum(), sigmoid);
 		}
 		
 		
@@ -133,6 +148,17 @@ public class Neuron implements Serializable {
 		
 	}
 	
+	/**
+	 * Output for a net input that was summed elsewhere (SparseInputLayer)
+	 * 
+	 */
+	public void calcOutput(double netInput) {
+		
+		this.netInput = netInput;
+		this.output = this.activationFunction.getOutput(this.netInput);
+		
+	}
+	
     public void removeAllInputConnections() {
         // run through all input connections
         for(int i = 0; i < inConnections.size(); i++) {
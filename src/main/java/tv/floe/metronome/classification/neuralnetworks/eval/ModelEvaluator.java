@@ -1,10 +1,13 @@
 package tv.floe.metronome.classification.neuralnetworks.eval;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 
 import org.apache.hadoop.fs.FileSystem;
@@ -15,6 +18,8 @@ import org.apache.mahout.math.Vector;
 
 import tv.floe.metronome.classification.neuralnetworks.core.NeuralNetwork;
 import tv.floe.metronome.classification.neuralnetworks.networks.MultiLayerPerceptronNetwork;
+import tv.floe.metronome.eval.Evaluation;
+import tv.floe.metronome.eval.EvaluationPipeline;
 import tv.floe.metronome.io.records.MetronomeRecordFactory;
 
 public class ModelEvaluator {
@@ -24,6 +29,8 @@ public class ModelEvaluator {
 	private static String schema = "i:64 | o:10";
 	private static String src_input_data_path = "src/test/resources/data/nist/HandWritingDigits/optdigits.tra.mne";
 
+	private static final int LINES_PER_BATCH = 256;
+
 
 	//private static Properties props = null;
 	//private static String app_properties_file = "";
@@ -39,47 +46,42 @@ public class ModelEvaluator {
 	}
 	
 	
+	/**
+	 * Reads the whole serialized model, so replicas can be deserialized from it per thread
+	 * 
+	 */
+	public static byte[] readModelBytes(String model_path) throws IOException {
+		
+		Path out = new Path(model_path.trim()); 
+		
+		System.out.println("Loading Model: " + out.toString().replaceAll("file:", ""));
+		FileInputStream fis = new FileInputStream( out.toString().replaceAll("file:", "") );
+		
+		try {
+			
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] b = new byte[1024 * 64];
+			int bytes_read;
+			
+			while ((bytes_read = fis.read(b)) != -1) {
+				bytes.write(b, 0, bytes_read);
+			}
+			
+			return bytes.toByteArray();
+			
+		} finally {
+			fis.close();
+		}
+		
+	}
+	
 	public static MultiLayerPerceptronNetwork loadModelFromDisk(String model_path) {
 		
 		MultiLayerPerceptronNetwork nnet = null;
 		
 		try {
 
-			Path out = new Path(model_path.trim()); 
-			FileSystem fs =
-					  out.getFileSystem(defaultConf); 
-			/*
-			FSDataOutputStream fos;
-
-			fos = fs.create(out);
-			  //LOG.info("Writing master results to " + out.toString());
-			  mnode.complete(fos);
-			  
-			  fos.flush(); 
-			  fos.close();
-*/
-			//BufferedWriter bw = new BufferedWriter(new FileWriter(output_path));
-			//master.complete( bw );
-			
-			//bw.close();
-			System.out.println("Loading Model: " + out.toString().replaceAll("file:", ""));
-			FileInputStream fis = new FileInputStream( out.toString().replaceAll("file:", "") );
-		    //ObjectInputStream ois = new ObjectInputStream(fis);
-		    
-		    //oos.writeObject( master. );
-		    //master.complete(oos);
-		    
-		    //nnet = (MultiLayerPerceptronNetwork) ois.readObject();
-		    byte[] b = new byte[1024 * 200];
-		    int bytes_read = fis.read(b);
-		    
-		    //System.out.println("bytes read: " + bytes_read);
-		    
-		    nnet = (MultiLayerPerceptronNetwork) NeuralNetwork.Deserialize(b);
-		    
-		    //oos.flush();
-		    //ois.close();
-
+		    nnet = (MultiLayerPerceptronNetwork) NeuralNetwork.Deserialize( readModelBytes( model_path ) );
 			
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
@@ -92,50 +94,95 @@ public class ModelEvaluator {
 	
 	public static void scoreNeuralNetworkModel(String modelFileLocation, String schema, String records_file) throws Exception {
 		
-		// load model
-		MultiLayerPerceptronNetwork mlp = loadModelFromDisk(modelFileLocation);
+		scoreNeuralNetworkModel( modelFileLocation, schema, records_file, Runtime.getRuntime().availableProcessors() );
 		
-		//Utils.PrintNeuralNetwork(  mlp );
+	}
+	
+	/**
+	 * Scores the records file through an EvaluationPipeline
+	 * 
+	 * - one thread reads blocks of LINES_PER_BATCH lines
+	 * - [threads] threads each deserialize their own replica of the network (calculate() 
+	 * 		keeps state in the neurons) and their own record factory / vectors
+	 * 
+	 */
+	public static Evaluation scoreNeuralNetworkModel(String modelFileLocation, final String schema, String records_file, int threads) throws Exception {
 		
-		//System.out.println("Layers: " + mlp.getLayersCount());
+		final byte[] model = readModelBytes( modelFileLocation );
 		
-		MetronomeRecordFactory rec_factory = new MetronomeRecordFactory(schema);
-	
-			
-			String recs = records_file;
-			Vector v_in_0 = new RandomAccessSparseVector(rec_factory.getInputVectorSize());
-			Vector v_out_0 = new RandomAccessSparseVector(rec_factory.getOutputVectorSize());
-			
-			
-			
-			int total_recs = 0;
-			int correct = 0;
+		final BufferedReader br = new BufferedReader(new FileReader(records_file));
+		
+		EvaluationPipeline<List<String>> pipeline = new EvaluationPipeline<List<String>>( threads, threads * 2 );
+		
+		Evaluation eval = null;
+		
+		try {
 			
-			BufferedReader br = new BufferedReader(new FileReader(recs));
-			String line;
-			while ((line = br.readLine()) != null) {
-				
-				
-
-				rec_factory.vectorizeLine( line, v_in_0, v_out_0 );
-				
-				if (isCorrect(mlp, v_in_0, v_out_0) ) {
-					correct++;
+			eval = pipeline.run( new EvaluationPipeline.BatchReader<List<String>>() {
+	
+				@Override
+				public List<String> next() throws IOException {
+					
+					List<String> lines = new ArrayList<String>( LINES_PER_BATCH );
+					String line;
+					
+					while (lines.size() < LINES_PER_BATCH && (line = br.readLine()) != null) {
+						lines.add( line );
+					}
+					
+					return lines.isEmpty() ? null : lines;
+					
 				}
-				total_recs++;
 				
-				//System.out.println("rec > " + line);
-				//System.out.println("out > " + v_out_0.toString());
+			}, new EvaluationPipeline.BatchScorerFactory<List<String>>() {
+	
+				@Override
+				public EvaluationPipeline.BatchScorer<List<String>> newScorer() throws Exception {
+					
+					final NeuralNetwork mlp = NeuralNetwork.Deserialize( model );
+					final MetronomeRecordFactory rec_factory = new MetronomeRecordFactory(schema);
+					final Vector v_in = new RandomAccessSparseVector(rec_factory.getInputVectorSize());
+					final Vector v_out = new RandomAccessSparseVector(rec_factory.getOutputVectorSize());
+					
+					return new EvaluationPipeline.BatchScorer<List<String>>() {
+	
+						@Override
+						public void score(List<String> lines, Evaluation eval) throws Exception {
+							
+							for (String line : lines) {
+								
+								rec_factory.vectorizeLine( line, v_in, v_out );
+								
+								mlp.setInputVector( v_in );
+								mlp.calculate();
+								
+								eval.eval( getLargestIndex( v_out ), getLargestIndex( mlp.getOutputVector() ) );
+								
+							}
+							
+						}
+						
+					};
+					
+				}
 				
-			}
-			br.close();		
+			} );
 			
-			System.out.println("Total: " + total_recs);
-			System.out.println("Correct: " + correct);
+		} finally {
+			br.close();
+		}
+		
+		double correct = eval.correctScores();
+		double total_recs = correct + eval.incorrectScores();
 		
-			double percent = (double)correct / (double)total_recs;
+		System.out.println("Total: " + (long) total_recs);
+		System.out.println("Correct: " + (long) correct);
+	
+		double percent = correct / total_recs;
+	
+		System.out.println("Percent: " + percent);
 		
-			System.out.println("Percent: " + percent);
+		return eval;
 			
 	}
 	
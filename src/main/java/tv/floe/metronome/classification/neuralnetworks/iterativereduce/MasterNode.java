@@ -1,12 +1,17 @@
 package tv.floe.metronome.classification.neuralnetworks.iterativereduce;
 
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.DataOutput;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.util.ToolRunner;
 
@@ -15,21 +20,47 @@ import tv.floe.metronome.classification.logisticregression.iterativereduce.Param
 import tv.floe.metronome.classification.neuralnetworks.core.NeuralNetwork;
 import tv.floe.metronome.classification.neuralnetworks.learning.BackPropogationLearningAlgorithm;
 import tv.floe.metronome.classification.neuralnetworks.networks.MultiLayerPerceptronNetwork;
+import tv.floe.metronome.eval.ConvergenceController;
+import tv.floe.metronome.eval.ValidationMetrics;
+import tv.floe.metronome.io.checkpoint.CheckpointStore;
+import tv.floe.metronome.io.checkpoint.CheckpointWriter;
 import tv.floe.metronome.io.records.RecordFactory;
 import tv.floe.metronome.linearregression.iterativereduce.NodeBase;
+import tv.floe.metronome.metrics.MetricsRegistry;
 
 import com.cloudera.iterativereduce.ComputableMaster;
 import com.cloudera.iterativereduce.yarn.appmaster.ApplicationMaster;
 
 public class MasterNode  extends NodeBase implements ComputableMaster<NetworkWeightsUpdateable> {
 
+	private static final Log LOG = LogFactory.getLog(MasterNode.class);
+
 	public NeuralNetwork master_nn = null;
 	double trainingErrorThreshold = 0;
 	boolean hasHitThreshold = false;
 	
+	// merged held-out metrics, one entry per superstep that had any
+	private List<ValidationMetrics> validationCurve = new ArrayList<ValidationMetrics>();
+	
+	// early stopping, null = run all of app.iteration.count
+	private ConvergenceController convergence = null;
+	
+	// every worker's per superstep metrics merged, plus the master's own timers
+	private MetricsRegistry metrics = new MetricsRegistry();
+	private int supersteps = 0;
+	
+	// superstep checkpoints (tv.floe.metronome.checkpoint.*), null = off
+	private CheckpointWriter checkpoints = null;
+	
 	@Override
 	public void complete(DataOutputStream ds) throws IOException {
 
+		LOG.info("Master > Metrics after " + this.supersteps + " supersteps:\n" + this.metrics.report());
+
+		if (null != this.checkpoints) {
+			this.checkpoints.close();
+		}
+
 	    //System.out.println("master::complete (Iterations: " + this.NumberIterations + ")");
 	    
 	   ds.write(this.master_nn.Serialize());
@@ -43,21 +74,25 @@ public class MasterNode  extends NodeBase implements ComputableMaster<NetworkWei
 	public NetworkWeightsUpdateable compute(Collection<NetworkWeightsUpdateable> workerUpdates,
 			Collection<NetworkWeightsUpdateable> masterUpdates) {
 
+		long computeStart = System.nanoTime();
+		
 		NetworkWeightsUpdateable return_msg = new NetworkWeightsUpdateable();
 				
 		double avg_rmse = 0;
+		ValidationMetrics validation = null;
 		
 		
 		NetworkWeightsUpdateable first = workerUpdates.iterator().next();
 		NetworkAccumulator accumNet = null;
+		int workers = workerUpdates.size();
 		
 		if (null == first) {
-			System.out.println("Can't seem to get the first network weights updateable");
+			LOG.warn("Can't seem to get the first network weights updateable");
 		} else {
 			
 			if (null == this.master_nn) {
 				
-				System.out.println("Building base master MLP network");
+				LOG.info("Building base master MLP network");
 				this.master_nn = new MultiLayerPerceptronNetwork();
 		        try {
 					this.master_nn.buildFromConf(first.networkUpdate.network.getConfig());
@@ -82,7 +117,7 @@ public class MasterNode  extends NodeBase implements ComputableMaster<NetworkWei
 		}
 		
 		if (null == accumNet) {
-			System.out.println("Master: Network Accumulator is null! [Error]");
+			LOG.error("Master: Network Accumulator is null! [Error]");
 			return null;
 		}
 		
@@ -91,6 +126,24 @@ public class MasterNode  extends NodeBase implements ComputableMaster<NetworkWei
 	    	accumNet.AccumulateWorkerNetwork(nn_worker.networkUpdate.network);
 	    	avg_rmse += nn_worker.networkUpdate.RMSE;
 	    	
+	    	if (null != nn_worker.networkUpdate.validation) {
+	    		if (null == validation) {
+	    			validation = new ValidationMetrics();
+	    		}
+	    		validation.merge(nn_worker.networkUpdate.validation);
+	    	}
+	    	
+	    	// taken off the message so a re-delivered result isn't counted twice
+	    	if (null != nn_worker.networkUpdate.metrics) {
+	    		this.metrics.merge(nn_worker.networkUpdate.metrics);
+	    		nn_worker.networkUpdate.metrics = null;
+	    	}
+	    	
+	    }
+	    
+	    if (null != validation) {
+	    	this.validationCurve.add(validation);
+	    	LOG.info("Master > Validation superstep " + this.validationCurve.size() + ": " + validation);
 	    }
 	    
 	    avg_rmse = avg_rmse / workerUpdates.size();
@@ -99,11 +152,11 @@ public class MasterNode  extends NodeBase implements ComputableMaster<NetworkWei
 	    
 	    if (avg_rmse <= this.trainingErrorThreshold && !hasHitThreshold && first.networkUpdate.CurrentIteration > 10) {
 	    	
-	    	System.out.println("\nMaster hit avg rmse threshold at epoch: " + first.networkUpdate.CurrentIteration + "\n");
+	    	LOG.info("Master hit avg rmse threshold at epoch: " + first.networkUpdate.CurrentIteration);
 	    	
 		    for (NetworkWeightsUpdateable nn_worker : workerUpdates) {
 
-		    	System.out.println("worker.rmse: " + nn_worker.networkUpdate.RMSE );
+		    	LOG.info("worker.rmse: " + nn_worker.networkUpdate.RMSE );
 		    }
 	    	
 	    	
@@ -130,6 +183,21 @@ public class MasterNode  extends NodeBase implements ComputableMaster<NetworkWei
 	    NeuralNetworkWeightsDelta nnwd = new NeuralNetworkWeightsDelta();
 	    nnwd.network = this.master_nn;
 	    
+	    if (null != this.convergence) {
+	    	
+	    	boolean alreadyStopped = this.convergence.isStopped();
+	    	
+	    	// held-out RMSE when there is one, otherwise the workers' avg training RMSE
+	    	double loss = (null != validation) ? validation.rmse() : avg_rmse;
+	    	
+	    	nnwd.StopTraining = this.convergence.observe(loss);
+	    	
+	    	if (nnwd.StopTraining && !alreadyStopped) {
+	    		LOG.info("Master > Early stopping at epoch " + first.networkUpdate.CurrentIteration + ": " + this.convergence.getReason());
+	    	}
+	    	
+	    }
+	    
 	    return_msg.set(nnwd);
 	    
 	    //this.master_nn = nnwd.network;
@@ -139,13 +207,147 @@ public class MasterNode  extends NodeBase implements ComputableMaster<NetworkWei
 	    masterUpdates.clear();
 
 	    //System.out.println("DEBUG > Master Completes Iteration");
+	    
+	    this.supersteps++;
+	    
+	    if (null != this.checkpoints && this.checkpoints.getStore().isDue(this.supersteps)) {
+	    	
+	    	try {
+	    		this.checkpoints.submit(CheckpointStore.MASTER, this.supersteps, workers, this.checkpointState(), true);
+	    	} catch (IOException e) {
+	    		LOG.warn("Master > Could not snapshot master state: " + e.getMessage(), e);
+	    	}
+	    	
+	    }
+	    
+	    this.metrics.timer("master.compute").recordSince(computeStart);
+	    
+	    if (MetricsRegistry.isReportDue(this.conf, this.supersteps)) {
+	    	LOG.info("Master > Metrics after " + this.supersteps + " supersteps:\n" + this.metrics.report());
+	    }
 		
 		return return_msg;
 	}
 
+	/**
+	 * Held-out squared error (and accuracy for multi output networks), one entry per
+	 * superstep, empty unless the workers have a hold-out fraction set
+	 * 
+	 */
+	public List<ValidationMetrics> getValidationCurve() {
+		return this.validationCurve;
+	}
+	
+	/**
+	 * Merged worker metrics plus master.compute, cumulative over the run
+	 */
+	public MetricsRegistry getMetrics() {
+		return this.metrics;
+	}
+
+	/**
+	 * Superstep count, threshold flag, the averaged network, the validation curve, early
+	 * stopping state and the merged metrics
+	 * 
+	 */
+	private byte[] checkpointState() throws IOException {
+		
+		CheckpointStore.StateBuffer out = new CheckpointStore.StateBuffer();
+		
+		out.writeInt(this.supersteps);
+		out.writeBoolean(this.hasHitThreshold);
+		
+		byte[] network = this.master_nn.Serialize();
+		out.writeInt(network.length);
+		out.write(network);
+		
+		out.writeInt(this.validationCurve.size());
+		for (ValidationMetrics superstep : this.validationCurve) {
+			superstep.write(out);
+		}
+		
+		out.writeBoolean(null != this.convergence);
+		if (null != this.convergence) {
+			this.convergence.writeState(out);
+		}
+		
+		MetricsRegistry.writeOptional(out, this.metrics);
+		
+		return out.toByteArray();
+		
+	}
+	
+	private void restoreState(byte[] state) throws IOException {
+		
+		DataInputStream in = CheckpointStore.stateInput(state);
+		
+		this.supersteps = in.readInt();
+		this.hasHitThreshold = in.readBoolean();
+		
+		byte[] network = new byte[in.readInt()];
+		in.readFully(network);
+		this.master_nn = NeuralNetwork.Deserialize(network);
+		
+		if (null == this.master_nn) {
+			throw new IOException("Unable to deserialize the checkpointed master network");
+		}
+		
+		this.validationCurve.clear();
+		int curve = in.readInt();
+		for (int x = 0; x < curve; x++) {
+			ValidationMetrics superstep = new ValidationMetrics();
+			superstep.readFields(in);
+			this.validationCurve.add(superstep);
+		}
+		
+		// a checkpoint from a run without early stopping leaves this run's controller fresh,
+		// one from a run with it is always read so the metrics after it line up
+		if (in.readBoolean()) {
+			ConvergenceController saved = (null != this.convergence) ? this.convergence : new ConvergenceController(0, 1, 0, 0);
+			saved.readState(in);
+		}
+		
+		MetricsRegistry restored = MetricsRegistry.readOptional(in);
+		if (null != restored) {
+			this.metrics = restored;
+		}
+		
+	}
+	
+	/**
+	 * Resume: the latest superstep every node got to disk
+	 * 
+	 */
+	private void checkpointSetup() throws IOException {
+		
+		CheckpointStore store = CheckpointStore.fromConf(this.conf);
+		
+		if (null == store) {
+			return;
+		}
+		
+		this.checkpoints = new CheckpointWriter(store);
+		
+		if (!store.isResume()) {
+			return;
+		}
+		
+		int superstep = store.latestConsistent();
+		byte[] state = (superstep < 0) ? null : store.read(CheckpointStore.MASTER, superstep);
+		
+		if (null == state) {
+			LOG.info("Master > No checkpoint to resume from in " + store + ", starting fresh");
+			return;
+		}
+		
+		this.restoreState(state);
+		LOG.info("Master > Resumed from superstep " + superstep);
+		
+	}
+
 	@Override
 	public NetworkWeightsUpdateable getResults() {
-		System.out.println(">>> getResults() - null!!!");
+		LOG.warn(">>> getResults() - null!!!");
 		return null;
 	}
 
@@ -161,6 +363,15 @@ public class MasterNode  extends NodeBase implements ComputableMaster<NetworkWei
 	    	// this is the target to get the avg rmse under for testing purposes
 	    	this.trainingErrorThreshold = Double.parseDouble(this.conf.get(
 			          "tv.floe.metronome.neuralnetwork.conf.TrainingErrorThreshold", "0.2"));
+	    	
+	    	this.convergence = ConvergenceController.fromConf(this.conf);
+	    	
+	    	// unless told otherwise, getting under the error threshold is convergence
+	    	if (null != this.convergence && null == this.conf.get(ConvergenceController.CONF_TARGET_LOSS)) {
+	    		this.convergence.targetLoss(this.trainingErrorThreshold);
+	    	}
+	    	
+	    	this.checkpointSetup();
 	      
 
 	    } catch (Exception e) {
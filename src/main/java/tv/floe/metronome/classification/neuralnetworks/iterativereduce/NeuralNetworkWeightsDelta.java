@@ -14,6 +14,8 @@ import java.io.ObjectOutputStream;
 //import org.apache.mahout.math.MatrixWritable;
 
 import tv.floe.metronome.classification.neuralnetworks.core.NeuralNetwork;
+import tv.floe.metronome.eval.ValidationMetrics;
+import tv.floe.metronome.metrics.MetricsRegistry;
 
 /**
  * TODO:
@@ -41,10 +43,32 @@ public class NeuralNetworkWeightsDelta {
 //	  public float AvgLogLikelihood = 0;
 	  public float PercentCorrect = 0;
 	  public double RMSE = 0.0;
+	  
+	  // worker's held-out records, null when hold-out is off
+	  public ValidationMetrics validation = null;
+	  
+	  // master -> worker: converged, stop training
+	  public boolean StopTraining = false;
+	  
+	  // worker's metrics for the superstep (MetricsRegistry), null on master messages
+	  public MetricsRegistry metrics = null;
 	
 	  public byte[] Serialize() throws IOException {
 		    
 		    // DataOutput d
+		    long start = System.nanoTime();
+		    
+		    // the network goes last on the wire but is serialized first, so the
+		    // metrics (written ahead of it) can include this send
+		    ByteArrayOutputStream networkBytes = new ByteArrayOutputStream();
+		    ObjectOutputStream oos = new ObjectOutputStream(networkBytes);
+		    
+		    //System.out.println("Worker:Serialize() > " + this.network.getClass());
+		    
+		    oos.writeObject( this.network );
+		    
+		    oos.flush();
+		    oos.close();
 		    
 		    ByteArrayOutputStream out = new ByteArrayOutputStream();
 		    DataOutput d = new DataOutputStream(out);
@@ -61,20 +85,22 @@ public class NeuralNetworkWeightsDelta {
 		    d.writeFloat(this.PercentCorrect);
 		    d.writeDouble(this.RMSE);
 		    
+		    // ahead of the network, the object stream reads to the end
+		    ValidationMetrics.writeOptional(d, this.validation);
+		    d.writeBoolean(this.StopTraining);
+		    
+		    if (null != this.metrics) {
+		    	this.metrics.phase(MetricsRegistry.Phase.SERIALIZE).recordSince(start);
+		    }
+		    MetricsRegistry.writeOptional(d, this.metrics);
+		    
 		    //d.write
 		    
 		    // buf.write
 		    // MatrixWritable.writeMatrix(d, this.worker_gradient.getMatrix());
 		    //MatrixWritable.writeMatrix(d, this.parameter_vector);
 		    // MatrixWritable.
-		    ObjectOutputStream oos = new ObjectOutputStream(out);
-		    
-		    //System.out.println("Worker:Serialize() > " + this.network.getClass());
-		    
-		    oos.writeObject( this.network );
-		    
-		    oos.flush();
-		    oos.close();
+		    networkBytes.writeTo(out);
 
 		    
 		    return out.toByteArray();
@@ -96,6 +122,10 @@ public class NeuralNetworkWeightsDelta {
 		    //this.AvgLogLikelihood = in.readFloat(); // d.writeFloat(this.AvgLogLikelihood);
 		    this.PercentCorrect = in.readFloat(); // d.writeFloat(this.PercentCorrect);
 		    this.RMSE = in.readDouble();
+		    
+		    this.validation = ValidationMetrics.readOptional(in);
+		    this.StopTraining = in.readBoolean();
+		    this.metrics = MetricsRegistry.readOptional(in);
 
 		     ObjectInputStream oistream = null;
 
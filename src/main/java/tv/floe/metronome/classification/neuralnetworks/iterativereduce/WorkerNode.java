@@ -1,8 +1,11 @@
 package tv.floe.metronome.classification.neuralnetworks.iterativereduce;
 
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.util.List;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.mahout.math.DenseVector;
@@ -15,14 +18,23 @@ import tv.floe.metronome.classification.neuralnetworks.core.neurons.Neuron;
 import tv.floe.metronome.classification.neuralnetworks.input.WeightedSum;
 import tv.floe.metronome.classification.neuralnetworks.learning.BackPropogationLearningAlgorithm;
 import tv.floe.metronome.classification.neuralnetworks.networks.MultiLayerPerceptronNetwork;
+import tv.floe.metronome.classification.neuralnetworks.activation.ActivationFunction;
+import tv.floe.metronome.classification.neuralnetworks.activation.Sigmoid;
 import tv.floe.metronome.classification.neuralnetworks.activation.Tanh;
+import tv.floe.metronome.eval.HoldOutSelector;
+import tv.floe.metronome.eval.ValidationMetrics;
+import tv.floe.metronome.io.checkpoint.CheckpointStore;
+import tv.floe.metronome.io.checkpoint.CheckpointWriter;
 import tv.floe.metronome.io.records.CachedVector;
 import tv.floe.metronome.io.records.CachedVectorReader;
 import tv.floe.metronome.io.records.MetronomeRecordFactory;
 import tv.floe.metronome.io.records.RecordFactory;
+import tv.floe.metronome.io.records.SplitTextRecordParser;
 import tv.floe.metronome.io.records.libsvmRecordFactory;
+import tv.floe.metronome.math.ActivationKernels;
 
 import tv.floe.metronome.metrics.Metrics;
+import tv.floe.metronome.metrics.MetricsRegistry;
 
 import com.cloudera.iterativereduce.ComputableWorker;
 import com.cloudera.iterativereduce.io.RecordParser;
@@ -44,6 +56,8 @@ import com.cloudera.iterativereduce.yarn.appworker.ApplicationWorker;
  */
 public class WorkerNode implements ComputableWorker<NetworkWeightsUpdateable> {
 
+	private static final Log LOG = LogFactory.getLog(WorkerNode.class);
+
 	  private boolean IterationComplete = false;
 	  private int CurrentIteration = 0;
 	  protected Configuration conf = null;	  
@@ -52,6 +66,9 @@ public class WorkerNode implements ComputableWorker<NetworkWeightsUpdateable> {
 	  
 	  // basic stats tracking
 	  Metrics metrics = new Metrics();
+	  
+	  // phase timers / counters for the current superstep, shipped to the master with the update
+	  private MetricsRegistry superstepMetrics = new MetricsRegistry();
 	  public double lastRMSE = 0.0;
 	boolean hitErrThreshold = false;
 	int trainingCompleteEpoch = -1;
@@ -74,9 +91,22 @@ public class WorkerNode implements ComputableWorker<NetworkWeightsUpdateable> {
 	private boolean metricsOn = false;
 	private String layerNeuronCounts = "2,3,1"; // default XOR network
 	private double trainingErrorThreshold = 0.2d;
+	private String activationAccuracy = null; // tv.floe.metronome.neuralnetwork.conf.activationAccuracy, see ActivationKernels
 	private boolean useVectorCaching = true;
 	private String vectorSchema = ""; // tv.floe.metronome.neuralnetwork.conf.InputRecordSchema
 	
+	// held-out records are scored instead of trained on, null = off
+	private HoldOutSelector holdOut = null;
+	
+	// set when the master signals convergence, later supersteps just echo the weights
+	private boolean trainingStopped = false;
+	
+	// superstep checkpoints (tv.floe.metronome.checkpoint.*), null = off
+	private CheckpointStore checkpointStore = null;
+	private CheckpointWriter checkpoints = null;
+	private String checkpointName = null;
+	private long splitHash = 0;
+	
 	
 	/**
 	 * 
@@ -87,21 +117,78 @@ public class WorkerNode implements ComputableWorker<NetworkWeightsUpdateable> {
 	}
 	
 	
+	/**
+	 * returns false once the worker is done: master signaled convergence or the
+	 * iteration count ran out
+	 * 
+	 */
 	@Override
 	public boolean IncrementIteration() {
 
 		this.CurrentIteration++;
 
-		return false;
+		boolean stillWorking = !this.trainingStopped && this.CurrentIteration < this.NumberIterations;
+		
+		if (!stillWorking && null != this.checkpoints) {
+			this.checkpoints.close();
+			this.checkpoints = null;
+		}
+		
+		return stillWorking;
 	}
 
+	/**
+	 * Squared error of the network's output for one record, summed over the outputs
+	 * 
+	 * - also counts towards accuracy (argmax of output vs argmax of label) when the
+	 * 		network has more than one output
+	 * - a record that doesn't fit the input layer is a bad split or a bad schema, not
+	 * 		something to score around
+	 * 
+	 */
+	private void scoreHeldOut(CachedVector cv, ValidationMetrics validation) {
+		
+		try {
+			this.nn.setInputVector( cv.vec_input );
+		} catch (Exception e) {
+			throw new IllegalArgumentException( "Held-out record does not fit the network: " + e.getMessage(), e );
+		}
+		this.nn.calculate();
+		Vector out = this.nn.getOutputVector();
+		
+		double loss = 0;
+		for (int x = 0; x < out.size(); x++) {
+			double diff = out.get(x) - cv.vec_output.get(x);
+			loss += diff * diff;
+		}
+		
+		if (out.size() > 1) {
+			validation.add( loss, out.maxValueIndex() == cv.vec_output.maxValueIndex() );
+		} else {
+			validation.addLoss( loss );
+		}
+		
+	}
+	
 	/**
 	 * need to fix cached record reader API: .hasNext(), .next(...)
 	 * 
+	 * - with a hold-out fraction set, held-out records are scored as the pass reaches
+	 * 		them (against the network as trained so far this superstep) and skipped
+	 * 		by training
+	 * 
 	 */
 	@Override
 	public NetworkWeightsUpdateable compute() {
 
+		if (this.trainingStopped) {
+			
+			NeuralNetworkWeightsDelta idle = this.GenerateUpdate();
+			idle.RMSE = this.lastRMSE;
+			return new NetworkWeightsUpdateable(idle);
+			
+		}
+		
 		// the vector to pull from the local read through cache
 		CachedVector cv = new CachedVector( this.nn.getInputsCount(), this.rec_factory.getOutputVectorSize() ) ;// rec_factory.getFeatureVectorSize() );
 		
@@ -110,22 +197,40 @@ public class WorkerNode implements ComputableWorker<NetworkWeightsUpdateable> {
 		BackPropogationLearningAlgorithm bp = ((BackPropogationLearningAlgorithm)this.nn.getLearningRule());
 		bp.clearTotalSquaredError();
 		
+		ValidationMetrics validation = (null == this.holdOut) ? null : new ValidationMetrics();
+		long record = 0;
+		long trained = 0;
 		
+		// one clock read per pass, the first pass also includes parsing into the read through cache
+		long computeStart = System.nanoTime();
 			
 			try {
 				while (cachedVecReader.next(cv)) {
 					
-					bp.getMetrics().startTrainingRecordTimer();
+					if (null != this.holdOut && this.holdOut.isHeldOut( record++ )) {
+						this.scoreHeldOut( cv, validation );
+						continue;
+					}
+					
+					if (this.metricsOn) {
+						bp.getMetrics().startTrainingRecordTimer();
+					}
 					
 					this.nn.train(cv.vec_output, cv.vec_input);
+					trained++;
 					
-					bp.getMetrics().stopTrainingRecordTimer();
+					if (this.metricsOn) {
+						bp.getMetrics().stopTrainingRecordTimer();
+					}
 					
 				}
 			} catch (IOException e) {
-				e.printStackTrace();
+				LOG.error("Worker > Could not read the split, pass cut short at record " + record, e);
 			}
 			
+			this.superstepMetrics.phase(MetricsRegistry.Phase.COMPUTE).record(System.nanoTime() - computeStart);
+			this.superstepMetrics.counter("records.trained").add(trained);
+			
 			// TODO: clean up post-epoch -- this may should be handled via the nn interface?
 			bp.completeTrainingEpoch();
 			
@@ -140,12 +245,17 @@ public class WorkerNode implements ComputableWorker<NetworkWeightsUpdateable> {
 				this.nn.randomizeWeights();
 				if (this.stallBustingOn) {
 					bp.resetStallTracking();
-					System.out.println("[ --- STALL WORKER RESET --- ]: " + bp.getSetMaxStalledEpochs());
+					this.superstepMetrics.counter("stall.resets").add(1);
+					LOG.info("Worker > Stalled, weights reset, max stalled epochs: " + bp.getSetMaxStalledEpochs());
 				}
 			}
 			
 			String alr_debug = bp.DebugAdagrad();
 			
+			if (null != validation) {
+				marker += ", Validation: " + validation;
+			}
+			
 			this.metrics.printProgressiveStepDebugMsg(this.CurrentIteration, "Epoch: " + this.CurrentIteration + " > RMSE: " + bp.calcRMSError()  + ", Records Trainined: " + this.cachedVecReader.recordsInCache() + marker + ", ALR: " + alr_debug );
 			if (this.metricsOn) {
 				bp.getMetrics().PrintMetrics();
@@ -154,6 +264,8 @@ public class WorkerNode implements ComputableWorker<NetworkWeightsUpdateable> {
 		NeuralNetworkWeightsDelta nnwd = new NeuralNetworkWeightsDelta();
 		nnwd.network = this.nn;
 		nnwd.RMSE = bp.calcRMSError();
+		nnwd.validation = validation;
+		nnwd.metrics = this.takeSuperstepMetrics();
 		this.lastRMSE = nnwd.RMSE;
 		
 		NetworkWeightsUpdateable nwu = new NetworkWeightsUpdateable();
@@ -163,6 +275,21 @@ public class WorkerNode implements ComputableWorker<NetworkWeightsUpdateable> {
 		return nwu;
 	}
 
+	/**
+	 * Hands this superstep's metrics to the outgoing update, the next superstep
+	 * starts a fresh registry
+	 */
+	private MetricsRegistry takeSuperstepMetrics() {
+		
+		MetricsRegistry taken = this.superstepMetrics;
+		taken.sampleHeap();
+		
+		this.superstepMetrics = new MetricsRegistry();
+		
+		return taken;
+		
+	}
+
 	/**
 	 * Legacy api support
 	 */
@@ -179,8 +306,143 @@ public class WorkerNode implements ComputableWorker<NetworkWeightsUpdateable> {
 	@Override
 	public void setRecordParser(RecordParser rp) {
 		this.lineParser = (TextRecordParser) rp;
+		
+		// the split names this worker's checkpoints
+		if (null != this.checkpointStore) {
+			this.checkpointSetup();
+		}
+		
 		this.cachedVecReader = new CachedVectorReader(lineParser, rec_factory);
 	}
+	
+	/**
+	 * Names this worker's checkpoints after its split and, when resuming, restores the
+	 * latest consistent superstep's state
+	 * 
+	 * - every superstep is a full pass over the cached split, so there is no position
+	 * 		within the split to restore
+	 * 
+	 */
+	private void checkpointSetup() {
+		
+		try {
+			
+			this.checkpointName = CheckpointStore.workerName( CheckpointStore.splitKey( this.lineParser ) );
+			this.splitHash = CheckpointStore.splitHash( this.lineParser );
+			this.checkpoints = new CheckpointWriter( this.checkpointStore );
+			
+			if (!this.checkpointStore.isResume()) {
+				return;
+			}
+			
+			int superstep = this.checkpointStore.latestConsistent();
+			byte[] state = (superstep < 0) ? null : this.checkpointStore.read( this.checkpointName, superstep );
+			
+			if (null == state) {
+				LOG.info("Worker > No checkpoint to resume from, starting fresh");
+				return;
+			}
+			
+			if (!this.restoreState( state )) {
+				LOG.warn("Worker > " + this.checkpointName + " changed since superstep " + superstep + " was checkpointed, starting fresh");
+				return;
+			}
+			
+			LOG.info("Worker > Resumed from superstep " + superstep + ", last RMSE " + this.lastRMSE);
+			
+		} catch (IOException e) {
+			
+			LOG.warn("Worker > Checkpoints off, could not set them up: " + e.getMessage(), e);
+			this.checkpoints = null;
+			
+		}
+		
+	}
+	
+	/**
+	 * The split's content hash, superstep, stop / threshold flags and last RMSE, then the
+	 * whole network: with the learning rule's Adagrad and stall tracking state, which
+	 * never go to the master
+	 * 
+	 */
+	private byte[] checkpointState() throws IOException {
+		
+		CheckpointStore.StateBuffer out = new CheckpointStore.StateBuffer();
+		
+		out.writeLong( this.splitHash );
+		out.writeInt( this.CurrentIteration + 1 );
+		out.writeBoolean( this.trainingStopped );
+		out.writeBoolean( this.hitErrThreshold );
+		out.writeInt( this.trainingCompleteEpoch );
+		out.writeDouble( this.lastRMSE );
+		
+		byte[] network = this.nn.Serialize();
+		out.writeInt( network.length );
+		out.write( network );
+		
+		return out.toByteArray();
+		
+	}
+	
+	/**
+	 * @return false, restoring nothing, if the state was written for different split content
+	 */
+	private boolean restoreState(byte[] state) throws IOException {
+		
+		DataInputStream in = CheckpointStore.stateInput( state );
+		
+		if (in.readLong() != this.splitHash) {
+			return false;
+		}
+		
+		this.CurrentIteration = in.readInt();
+		this.trainingStopped = in.readBoolean();
+		this.hitErrThreshold = in.readBoolean();
+		this.trainingCompleteEpoch = in.readInt();
+		this.lastRMSE = in.readDouble();
+		
+		byte[] network = new byte[ in.readInt() ];
+		in.readFully( network );
+		
+		NeuralNetwork restored = NeuralNetwork.Deserialize( network );
+		if (null == restored) {
+			throw new IOException( "Checkpointed network did not deserialize" );
+		}
+		this.applyActivationAccuracy( restored );
+		this.nn = restored;
+		
+		return true;
+		
+	}
+	
+	/**
+	 * The kernels are transient, so a deserialized network is back on
+	 * ActivationKernels.EXACT: reapply what setup() gave the Sigmoid / Tanh neurons
+	 * 
+	 */
+	private void applyActivationAccuracy(NeuralNetwork network) {
+		
+		if (null == this.activationAccuracy) {
+			return;
+		}
+		
+		ActivationKernels kernels = ActivationKernels.forName( this.activationAccuracy );
+		
+		for (int x = 1; x < network.getLayersCount(); x++) {
+			for (Neuron neuron : network.getLayerByIndex( x ).getNeurons()) {
+				
+				ActivationFunction f = neuron.getActivationFunction();
+				
+				if (f instanceof Sigmoid) {
+					((Sigmoid) f).setKernels( kernels );
+				} else if (f instanceof Tanh) {
+					((Tanh) f).setKernels( kernels );
+				}
+				
+			}
+		}
+		
+	}
 
 	/**
 	 * Setup the record factory and record reader
@@ -228,6 +490,12 @@ public class WorkerNode implements ComputableWorker<NetworkWeightsUpdateable> {
 	      this.trainingErrorThreshold = Double.parseDouble(this.conf.get(
 	          "tv.floe.metronome.neuralnetwork.conf.TrainingErrorThreshold", "0.2"));
 	      
+	      this.activationAccuracy = this.conf.get("tv.floe.metronome.neuralnetwork.conf.activationAccuracy");
+	      
+	      this.holdOut = HoldOutSelector.fromConf(this.conf);
+	      
+	      this.checkpointStore = CheckpointStore.fromConf(this.conf);
+	      
 	      //System.out.println("layers: " + this.conf.get("tv.floe.metronome.neuralnetwork.conf.LayerNeuronCounts") );
 	      
 	    this.layerNeuronCounts = LoadStringConfVarOrException(
@@ -276,6 +544,9 @@ public class WorkerNode implements ComputableWorker<NetworkWeightsUpdateable> {
 		c.setConfValue("neuronType", Neuron.class);
 		c.setConfValue("networkType", NeuralNetwork.NetworkType.MULTI_LAYER_PERCEPTRON);
 		c.setConfValue("layerNeuronCounts", this.layerNeuronCounts );
+		if (null != this.activationAccuracy) {
+			c.setConfValue("activationAccuracy", this.activationAccuracy );
+		}
 		c.parse(null);
 		
 		this.nn = new MultiLayerPerceptronNetwork();
@@ -294,7 +565,7 @@ public class WorkerNode implements ComputableWorker<NetworkWeightsUpdateable> {
 		if (this.adagradLearningRateOn) {
 			bp.turnOnAdagradLearning(this.adagradLearningRateInitSetting);
 			bp.setup(); // we may need to find a better place for this
-			System.out.println("Turning on Adagrad Learning...");
+			LOG.info("Turning on Adagrad Learning...");
 		}
 		
 //		System.out.println("Debug-Stall > stallMinErrordelta: " + this.stallMinErrorDelta);
@@ -347,6 +618,21 @@ public class WorkerNode implements ComputableWorker<NetworkWeightsUpdateable> {
 		BackPropogationLearningAlgorithm bp = ((BackPropogationLearningAlgorithm)this.nn.getLearningRule());
 		bp.setStallDetectionParams(this.stallMinErrorDelta, this.stallMaxEpochs);
 		
+		if (global_update.StopTraining) {
+			this.trainingStopped = true;
+		}
+		
+		// this superstep is done once the master's weights are in, IncrementIteration() comes next
+		if (null != this.checkpoints && this.checkpointStore.isDue(this.CurrentIteration + 1)) {
+			
+			try {
+				this.checkpoints.submit(this.checkpointName, this.CurrentIteration + 1, 0, this.checkpointState(), false);
+			} catch (IOException e) {
+				LOG.warn("Worker > Could not snapshot worker state: " + e.getMessage(), e);
+			}
+			
+		}
+		
 		//System.out.println("max: " + bp.getSetMaxStalledEpochs());
 		
 		
@@ -398,7 +684,7 @@ public class WorkerNode implements ComputableWorker<NetworkWeightsUpdateable> {
 		  }	
 	
 	  public static void main(String[] args) throws Exception {
-		    TextRecordParser parser = new TextRecordParser();
+		    TextRecordParser parser = new SplitTextRecordParser();
 		    WorkerNode wn = new WorkerNode();
 		    ApplicationWorker<NetworkWeightsUpdateable> aw = new ApplicationWorker<NetworkWeightsUpdateable>(
 		        parser, wn, NetworkWeightsUpdateable.class);
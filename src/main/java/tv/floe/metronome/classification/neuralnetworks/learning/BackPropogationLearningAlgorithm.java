@@ -4,6 +4,7 @@ import java.util.ArrayList;
 
 import tv.floe.metronome.classification.neuralnetworks.core.Connection;
 import tv.floe.metronome.classification.neuralnetworks.core.Layer;
+import tv.floe.metronome.classification.neuralnetworks.core.SparseInputLayer;
 import tv.floe.metronome.classification.neuralnetworks.core.Weight;
 import tv.floe.metronome.classification.neuralnetworks.core.neurons.Neuron;
 import tv.floe.metronome.classification.neuralnetworks.learning.adagrad.AdagradLearningRate;
@@ -18,6 +19,11 @@ import tv.floe.metronome.classification.neuralnetworks.activation.ActivationFunc
  */
 public class BackPropogationLearningAlgorithm extends SigmoidDeltaLearningAlgorithm {
 
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = -5612194444128732831L;
+
 	boolean adagradLearningOn = false;
 	boolean momentumLearningOn = false;
 	double adagradInitLearningRate = 10;
@@ -112,7 +118,17 @@ public class BackPropogationLearningAlgorithm extends SigmoidDeltaLearningAlgori
 		
 	
 		
+		// sparse input: the first layer only updates the weights of the non-zero inputs
+		SparseInputLayer sparseInputs = nn.getActiveSparseInputLayer();
+		
 		for (int l = layers.size() - 2; l > 0; l--) {
+			
+			if (1 == l && null != sparseInputs) {
+				
+				this.calculateErrorAndUpdateSparseFirstLayer( layers.get( l ), sparseInputs );
+				continue;
+				
+			}
 									
 			for ( Neuron neuron : layers.get( l ).getNeurons() ) {	
                                 
@@ -127,6 +143,43 @@ public class BackPropogationLearningAlgorithm extends SigmoidDeltaLearningAlgori
 		} // for
 		
 	}
+	
+	/**
+	 * Same updates as the dense loop (a zero input gives a zero weight change), but walks
+	 * the active inputs' out connections instead of every neuron's in connections
+	 * 
+	 */
+	protected void calculateErrorAndUpdateSparseFirstLayer(Layer layer, SparseInputLayer sparseInputs) {
+		
+		// the errors only depend on the layer above, so they can all go first
+		for ( Neuron neuron : layer.getNeurons() ) {
+			
+			neuron.setError( this.calculateHiddenNeuronError( neuron ) );
+			
+		}
+		
+		// the skipped connections' changes are 0 on the dense path, not last record's
+		if (!this.isInBatchMode()) {
+			sparseInputs.clearStaleWeightChanges();
+		}
+		
+		for (Connection connection : sparseInputs.getFixedConnections()) {
+			
+			this.updateConnectionWeight( connection, connection.getToNeuron().getError() );
+			
+		}
+		
+		for (int a = 0; a < sparseInputs.getActiveCount(); a++) {
+			
+			for (Connection connection : sparseInputs.getActiveFanOut( a )) {
+				
+				this.updateConnectionWeight( connection, connection.getToNeuron().getError() );
+				
+			}
+			
+		}
+		
+	}
 
 	protected double calculateHiddenNeuronError(Neuron neuron) {	
 		
@@ -169,41 +222,48 @@ public class BackPropogationLearningAlgorithm extends SigmoidDeltaLearningAlgori
     protected void updateNeuronWeights(Neuron neuron) {
 
     	double neuronError = neuron.getError();
-        double lrTemp = 0;
-        AdagradLearningRate alr = null;
         
         for (Connection connection : neuron.getInConnections()) {
 
-        	if (this.adagradLearningOn) {
-        		alr = (AdagradLearningRate)connection.getWeight().trainingMetaData.get("adagrad");
-        		lrTemp = alr.compute();
-        	} else {
-        		lrTemp = this.learningRate;
-        	}
+        	this.updateConnectionWeight( connection, neuronError );
         	
-        	double input = connection.getInput();
-            //double weightChange = this.learningRate * neuronError * input;
-        	double weightChange = lrTemp * neuronError * input;
+        }
+    }	
+	
+	protected void updateConnectionWeight(Connection connection, double neuronError) {
+		
+        double lrTemp = 0;
+        AdagradLearningRate alr = null;
+        
+    	if (this.adagradLearningOn) {
+    		alr = (AdagradLearningRate)connection.getWeight().trainingMetaData.get("adagrad");
+    		lrTemp = alr.compute();
+    	} else {
+    		lrTemp = this.learningRate;
+    	}
+    	
+    	double input = connection.getInput();
+        //double weightChange = this.learningRate * neuronError * input;
+    	double weightChange = lrTemp * neuronError * input;
 
-            Weight weight = connection.getWeight();
+        Weight weight = connection.getWeight();
 
-            if (this.isInBatchMode() == false) {             
-                weight.weightChange = weightChange;                
-                weight.value += weightChange;
-            } else { 
-                weight.weightChange += weightChange;
-            }
-            
-        	if (this.adagradLearningOn) {
-        		alr = (AdagradLearningRate)connection.getWeight().trainingMetaData.get("adagrad");
-        		alr.addLastIterationGradient(weightChange);
-        	}            
-            
-            if (this.isMetricCollectionOn()) {
-            	this.metrics.incWeightOpCount();
-            }
+        if (this.isInBatchMode() == false) {             
+            weight.weightChange = weightChange;                
+            weight.value += weightChange;
+        } else { 
+            weight.weightChange += weightChange;
         }
-    }	
+        
+    	if (this.adagradLearningOn) {
+    		alr.addLastIterationGradient(weightChange);
+    	}            
+        
+        if (this.isMetricCollectionOn()) {
+        	this.metrics.incWeightOpCount();
+        }
+        
+	}
 
 	@Override
 	public String Debug() {
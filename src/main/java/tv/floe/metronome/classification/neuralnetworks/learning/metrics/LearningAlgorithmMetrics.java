@@ -4,11 +4,17 @@ import java.io.Serializable;
 
 public class LearningAlgorithmMetrics implements Serializable {
 
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 16671616804775247L;
+
 	long weightUpdateOpCount = 0; 
 	long errCalcOpCount = 0;
-	long trainingTimeTotal = 0;
+	long trainingTimeTotal = 0; // nanos
 	long trainingRecords = 0;
 	
+	// a System.nanoTime() reading (despite the name): a record trains in well under a ms
 	long currentRunTimerStartMS = 0;
 	
 	double lastRMSE = 0;
@@ -32,24 +38,28 @@ public class LearningAlgorithmMetrics implements Serializable {
 	
 	public void startTrainingRecordTimer() {
 		
-		this.currentRunTimerStartMS = System.currentTimeMillis();
+		this.currentRunTimerStartMS = System.nanoTime();
 		
 	}
 	
 	public void stopTrainingRecordTimer() {
-		long runTime = System.currentTimeMillis() - this.currentRunTimerStartMS;
+		long runTime = System.nanoTime() - this.currentRunTimerStartMS;
 		//System.out.println("runtTime: " + runTime);
 		this.trainingTimeTotal += runTime;
 		this.trainingRecords++;
 	}
 	
+	/**
+	 * Average ms per trained record
+	 * 
+	 */
 	public double calcAverageTrainTime() {
 		
 		if (0 == this.trainingRecords) {
 			return 0;
 		}
 		
-		return (double)this.trainingTimeTotal / (double)this.trainingRecords;
+		return (double)this.trainingTimeTotal / (double)this.trainingRecords / 1.0e6;
 		
 	}
 	
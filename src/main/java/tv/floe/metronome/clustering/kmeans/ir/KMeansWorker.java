@@ -25,11 +25,16 @@ public class KMeansWorker implements ComputableWorker<UpdateableMeans> {
 
 	private KMeansPartition partition;
 
+	// supersteps run so far, and how many to run (app.iteration.count)
+	private int currentIteration = 0;
+	private int numberIterations = 1;
+
 	@Override
 	public void setup(Configuration c) {
 //		partition = new KMeansPartition(c.getInt("k", -1));
 		// TODO Make this not hardcoded
 		partition = new KMeansPartition(3);
+		numberIterations = c.getInt("app.iteration.count", 1);
 	}
 
 	@Override
@@ -68,13 +73,30 @@ public class KMeansWorker implements ComputableWorker<UpdateableMeans> {
 
 	@Override
 	public void update(UpdateableMeans t) {
-		um = t;
+		// a copy, compute() sets our partial means on it and IRUnit hands every worker
+		// the master's own instance
+		um = new UpdateableMeans();
+		um.fromBytes(t.toBytes());
 		partition.setMeans(um.get());
 	}
 
+	/**
+	 * Every superstep is a full pass over the split against the master's latest means, so
+	 * the split is read again from the top until app.iteration.count passes have run
+	 *
+	 */
 	@Override
 	public boolean IncrementIteration() {
-		return false;
+
+		currentIteration++;
+
+		if (currentIteration >= numberIterations) {
+			return false;
+		}
+
+		rp.reset();
+		return true;
+
 	}
 
 }
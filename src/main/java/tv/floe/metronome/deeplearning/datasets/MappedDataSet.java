@@ -0,0 +1,362 @@
+package tv.floe.metronome.deeplearning.datasets;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.mahout.math.DenseMatrix;
+import org.apache.mahout.math.Matrix;
+
+/**
+ * Out-of-core data set backed by a memory mapped file of fixed width rows
+ *
+ * Where DataSet holds everything as two in-memory matrices and shuffle / sample / batchBy
+ * all copy, a MappedDataSet is just (mapped file, index permutation). Shuffling, sampling
+ * and batching only build new index arrays, rows are read off the mapping when a batch
+ * is materialized into matrices for training.
+ *
+ * File layout (big endian):
+ *
+ * 		int magic, int numExamples, int numInputs, int numOutcomes
+ * 		then per example: numInputs floats followed by numOutcomes floats
+ *
+ * - values are stored as 32 bit floats to halve the footprint, which is exact for
+ * 		binarized / one-hot data and plenty for normalized pixel values
+ * - the mapping is split into segments on row boundaries so files can go past 2GB
+ *
+ * @author josh
+ *
+ */
+public class MappedDataSet {
+
+	public static final int MAGIC_NUMBER = 0x4d444131; // "MDA1"
+	public static final int HEADER_SIZE = 16;
+
+	/**
+	 * Appends examples to a new mapped data set file
+	 *
+	 */
+	public static class Writer {
+
+		private final File file;
+		private final DataOutputStream out;
+		private final int numInputs;
+		private final int numOutcomes;
+		private int numExamples = 0;
+
+		public Writer( File file, int numInputs, int numOutcomes ) throws IOException {
+
+			this.file = file;
+			this.numInputs = numInputs;
+			this.numOutcomes = numOutcomes;
+
+			this.out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file ), 1 << 16 ) );
+
+			// example count gets patched in close()
+			this.out.writeInt( MAGIC_NUMBER );
+			this.out.writeInt( 0 );
+			this.out.writeInt( numInputs );
+			this.out.writeInt( numOutcomes );
+
+		}
+
+		/**
+		 * Appends every row of the given data set
+		 *
+		 */
+		public void append( DataSet data ) throws IOException {
+
+			Matrix inputs = data.getFirst();
+			Matrix labels = data.getSecond();
+
+			if (inputs.numCols() != this.numInputs || labels.numCols() != this.numOutcomes) {
+				throw new IllegalArgumentException( "Expected " + this.numInputs + " inputs and " + this.numOutcomes + " outcomes per row, got " + inputs.numCols() + " and " + labels.numCols() );
+			}
+
+			for (int row = 0; row < inputs.numRows(); row++) {
+
+				for (int col = 0; col < this.numInputs; col++) {
+					this.out.writeFloat( (float) inputs.getQuick( row, col ) );
+				}
+				for (int col = 0; col < this.numOutcomes; col++) {
+					this.out.writeFloat( (float) labels.getQuick( row, col ) );
+				}
+
+				this.numExamples++;
+
+			}
+
+		}
+
+		public void close() throws IOException {
+
+			this.out.close();
+
+			RandomAccessFile raf = new RandomAccessFile( this.file, "rw" );
+			try {
+				raf.seek( 4 );
+				raf.writeInt( this.numExamples );
+			} finally {
+				raf.close();
+			}
+
+		}
+
+	}
+
+	private final MappedByteBuffer[] segments;
+	private final int rowsPerSegment;
+	private final int rowBytes;
+	private final int numInputs;
+	private final int numOutcomes;
+
+	// rows of the backing file that make up this view, in order
+	private final int[] indices;
+
+	/**
+	 * Maps an existing file, the view covers every row in file order
+	 *
+	 */
+	public static MappedDataSet open( File file ) throws IOException {
+
+		RandomAccessFile raf = new RandomAccessFile( file, "r" );
+
+		try {
+
+			int magic = raf.readInt();
+			if (MAGIC_NUMBER != magic) {
+				throw new IOException( "Mapped data set file " + file + " should start with the number " + MAGIC_NUMBER + ", found " + magic );
+			}
+
+			int numExamples = raf.readInt();
+			int numInputs = raf.readInt();
+			int numOutcomes = raf.readInt();
+
+			int rowBytes = (numInputs + numOutcomes) * 4;
+			int rowsPerSegment = Math.max( 1, Integer.MAX_VALUE / rowBytes );
+			int numSegments = (numExamples + rowsPerSegment - 1) / rowsPerSegment;
+
+			long expected = HEADER_SIZE + (long) numExamples * rowBytes;
+			if (raf.length() < expected) {
+				throw new IOException( "Mapped data set file " + file + " is truncated: expected " + expected + " bytes, found " + raf.length() );
+			}
+
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer[] segments = new MappedByteBuffer[ numSegments ];
+
+			for (int s = 0; s < numSegments; s++) {
+
+				long start = HEADER_SIZE + (long) s * rowsPerSegment * rowBytes;
+				int rows = Math.min( rowsPerSegment, numExamples - s * rowsPerSegment );
+				segments[ s ] = channel.map( FileChannel.MapMode.READ_ONLY, start, (long) rows * rowBytes );
+				segments[ s ].order( ByteOrder.BIG_ENDIAN );
+
+			}
+
+			int[] indices = new int[ numExamples ];
+			for (int i = 0; i < numExamples; i++) {
+				indices[ i ] = i;
+			}
+
+			return new MappedDataSet( segments, rowsPerSegment, numInputs, numOutcomes, indices );
+
+		} finally {
+
+			// mappings stay valid once the channel is closed
+			raf.close();
+
+		}
+
+	}
+
+	private MappedDataSet( MappedByteBuffer[] segments, int rowsPerSegment, int numInputs, int numOutcomes, int[] indices ) {
+
+		this.segments = segments;
+		this.rowsPerSegment = rowsPerSegment;
+		this.numInputs = numInputs;
+		this.numOutcomes = numOutcomes;
+		this.rowBytes = (numInputs + numOutcomes) * 4;
+		this.indices = indices;
+
+	}
+
+	/**
+	 * New view over the same backing file with a different row order / subset
+	 *
+	 */
+	private MappedDataSet withIndices( int[] newIndices ) {
+
+		return new MappedDataSet( this.segments, this.rowsPerSegment, this.numInputs, this.numOutcomes, newIndices );
+
+	}
+
+	public int numExamples() {
+		return this.indices.length;
+	}
+
+	public int numInputs() {
+		return this.numInputs;
+	}
+
+	public int numOutcomes() {
+		return this.numOutcomes;
+	}
+
+	/**
+	 * Row of the backing file behind example [i] of this view
+	 *
+	 */
+	public int backingRow( int i ) {
+		return this.indices[ i ];
+	}
+
+	/**
+	 * Shuffled view (Fisher-Yates over the index array), no example data is touched
+	 *
+	 */
+	public MappedDataSet shuffle( RandomGenerator rng ) {
+
+		int[] shuffled = this.indices.clone();
+
+		for (int i = shuffled.length - 1; i > 0; i--) {
+
+			int j = rng.nextInt( i + 1 );
+			int tmp = shuffled[ i ];
+			shuffled[ i ] = shuffled[ j ];
+			shuffled[ j ] = tmp;
+
+		}
+
+		return withIndices( shuffled );
+
+	}
+
+	/**
+	 * Sampled view of numSamples examples
+	 *
+	 * - without replacement this is the prefix of a partial Fisher-Yates shuffle
+	 *
+	 */
+	public MappedDataSet sample( int numSamples, RandomGenerator rng, boolean withReplacement ) {
+
+		if (numSamples >= numExamples() && !withReplacement) {
+			return this;
+		}
+
+		int[] sampled = new int[ numSamples ];
+
+		if (withReplacement) {
+
+			for (int i = 0; i < numSamples; i++) {
+				sampled[ i ] = this.indices[ rng.nextInt( this.indices.length ) ];
+			}
+
+		} else {
+
+			int[] pool = this.indices.clone();
+
+			for (int i = 0; i < numSamples; i++) {
+
+				int j = i + rng.nextInt( pool.length - i );
+				int tmp = pool[ i ];
+				pool[ i ] = pool[ j ];
+				pool[ j ] = tmp;
+				sampled[ i ] = pool[ i ];
+
+			}
+
+		}
+
+		return withIndices( sampled );
+
+	}
+
+	/**
+	 * View over examples [from, from + num) of this view
+	 *
+	 */
+	public MappedDataSet range( int from, int num ) {
+
+		if (from < 0 || num < 0 || from + num > numExamples()) {
+			throw new IndexOutOfBoundsException( "Range [" + from + ", " + (from + num) + ") is not in 0 to " + numExamples() );
+		}
+
+		int[] sub = new int[ num ];
+		System.arraycopy( this.indices, from, sub, 0, num );
+
+		return withIndices( sub );
+
+	}
+
+	/**
+	 * Number of batches of batchSize, the last one may be short
+	 *
+	 */
+	public int numBatches( int batchSize ) {
+		return (numExamples() + batchSize - 1) / batchSize;
+	}
+
+	/**
+	 * Copies examples [from, from + num) of this view into rows [0, num) of the given matrices
+	 *
+	 * - this is the only place example data is actually read
+	 *
+	 */
+	public void fillBatch( int from, int num, Matrix inputs, Matrix labels ) {
+
+		if (inputs.numRows() < num || labels.numRows() < num) {
+			throw new IllegalArgumentException( "Batch matrices have " + inputs.numRows() + " rows, need " + num );
+		}
+
+		for (int row = 0; row < num; row++) {
+
+			int backing = this.indices[ from + row ];
+			MappedByteBuffer segment = this.segments[ backing / this.rowsPerSegment ];
+			int offset = (backing % this.rowsPerSegment) * this.rowBytes;
+
+			for (int col = 0; col < this.numInputs; col++, offset += 4) {
+				inputs.setQuick( row, col, segment.getFloat( offset ) );
+			}
+			for (int col = 0; col < this.numOutcomes; col++, offset += 4) {
+				labels.setQuick( row, col, segment.getFloat( offset ) );
+			}
+
+		}
+
+	}
+
+	/**
+	 * Materializes examples [from, from + num) as an in-memory DataSet
+	 *
+	 */
+	public DataSet getBatch( int from, int num ) {
+
+		Matrix inputs = new DenseMatrix( num, this.numInputs );
+		Matrix labels = new DenseMatrix( num, this.numOutcomes );
+
+		fillBatch( from, num, inputs, labels );
+
+		return new DataSet( inputs, labels );
+
+	}
+
+	public DataSet get( int i ) {
+		return getBatch( i, 1 );
+	}
+
+	/**
+	 * Materializes the whole view, only sensible when it fits in the heap
+	 *
+	 */
+	public DataSet asDataSet() {
+		return getBatch( 0, numExamples() );
+	}
+
+}
@@ -0,0 +1,154 @@
+package tv.floe.metronome.deeplearning.datasets;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Memory mapped, read only view of an MNIST idx file (images or labels)
+ *
+ * Unlike MnistDbFile this never seeks or reads a byte at a time through RandomAccessFile,
+ * the whole file is mapped once and entries are handed out as zero-copy ByteBuffer slices.
+ *
+ * - header: magic number, entry count, then (for images) rows and columns, all big endian ints
+ * - indexes here are 0 based, unlike the 1 based cursor used by MnistManager
+ *
+ * MNIST sized files (47MB for the training images) fit comfortably in one mapping,
+ * so we don't bother with windowing.
+ *
+ * @author josh
+ *
+ */
+public class MnistMappedIdxFile {
+
+	public static final int IMAGE_MAGIC_NUMBER = 2051;
+	public static final int LABEL_MAGIC_NUMBER = 2049;
+
+	private final MappedByteBuffer buffer;
+	private final int magicNumber;
+	private final int count;
+	private final int rows;
+	private final int cols;
+	private final int headerSize;
+	private final int entryLength;
+
+	public MnistMappedIdxFile( String fileName ) throws IOException {
+
+		this( new File( fileName ) );
+
+	}
+
+	public MnistMappedIdxFile( File file ) throws IOException {
+
+		RandomAccessFile raf = new RandomAccessFile( file, "r" );
+
+		try {
+
+			FileChannel channel = raf.getChannel();
+			// the mapping stays valid after the channel is closed
+			this.buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+
+		} finally {
+
+			raf.close();
+
+		}
+
+		this.buffer.order( ByteOrder.BIG_ENDIAN );
+
+		this.magicNumber = this.buffer.getInt( 0 );
+		this.count = this.buffer.getInt( 4 );
+
+		if (IMAGE_MAGIC_NUMBER == this.magicNumber) {
+
+			this.rows = this.buffer.getInt( 8 );
+			this.cols = this.buffer.getInt( 12 );
+			this.headerSize = 16;
+
+		} else if (LABEL_MAGIC_NUMBER == this.magicNumber) {
+
+			this.rows = 1;
+			this.cols = 1;
+			this.headerSize = 8;
+
+		} else {
+
+			throw new IOException( "This MNIST DB file " + file + " should start with the number " + IMAGE_MAGIC_NUMBER + " or " + LABEL_MAGIC_NUMBER + ", found " + this.magicNumber );
+
+		}
+
+		this.entryLength = this.rows * this.cols;
+
+		long expected = (long) this.headerSize + (long) this.count * this.entryLength;
+		if (this.buffer.capacity() < expected) {
+			throw new IOException( "MNIST DB file " + file + " is truncated: expected " + expected + " bytes, found " + this.buffer.capacity() );
+		}
+
+	}
+
+	public boolean isImageFile() {
+		return IMAGE_MAGIC_NUMBER == this.magicNumber;
+	}
+
+	public int getCount() {
+		return this.count;
+	}
+
+	public int getRows() {
+		return this.rows;
+	}
+
+	public int getCols() {
+		return this.cols;
+	}
+
+	/**
+	 * Number of bytes per entry (rows * cols for images, 1 for labels)
+	 *
+	 */
+	public int getEntryLength() {
+		return this.entryLength;
+	}
+
+	private void checkRange( int first, int num ) {
+
+		if (first < 0 || num < 0 || first + num > this.count) {
+			throw new IndexOutOfBoundsException( "Entries [" + first + ", " + (first + num) + ") are not in the range 0 to " + this.count );
+		}
+
+	}
+
+	/**
+	 * Zero-copy view over entries [first, first + num), positioned at 0
+	 *
+	 * - each caller gets its own position/limit, so slices are safe to hand to other threads
+	 *
+	 */
+	public ByteBuffer slice( int first, int num ) {
+
+		checkRange( first, num );
+
+		ByteBuffer view = this.buffer.duplicate();
+		int start = this.headerSize + first * this.entryLength;
+		view.position( start );
+		view.limit( start + num * this.entryLength );
+
+		return view.slice();
+
+	}
+
+	/**
+	 * Unsigned value of byte [offset] within entry [index]
+	 *
+	 */
+	public int getUnsignedByte( int index, int offset ) {
+
+		return this.buffer.get( this.headerSize + index * this.entryLength + offset ) & 0xFF;
+
+	}
+
+}
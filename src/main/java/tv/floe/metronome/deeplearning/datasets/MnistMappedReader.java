@@ -0,0 +1,137 @@
+package tv.floe.metronome.deeplearning.datasets;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.mahout.math.Matrix;
+
+/**
+ * Pairs a memory mapped images file with its labels file and bulk converts
+ * ranges of them into batch matrices
+ *
+ * Replaces the per byte MnistManager.readImage() -> int[][] -> flatten -> Matrix path
+ * with a single pass over the mapped bytes per batch, normalizing as it goes.
+ *
+ * Indexes are 0 based.
+ *
+ * @author josh
+ *
+ */
+public class MnistMappedReader {
+
+	// pixel values above this become 1.0 when binarizing, matches MnistDataFetcher
+	public static final int DEFAULT_BINARIZE_THRESHOLD = 30;
+
+	private final MnistMappedIdxFile images;
+	private final MnistMappedIdxFile labels;
+
+	public MnistMappedReader( String imagesFile, String labelsFile ) throws IOException {
+
+		this.images = new MnistMappedIdxFile( imagesFile );
+		this.labels = new MnistMappedIdxFile( labelsFile );
+
+		if (!this.images.isImageFile() || this.labels.isImageFile()) {
+			throw new IOException( "Expected an images file and a labels file, got " + imagesFile + " and " + labelsFile );
+		}
+
+		if (this.images.getCount() != this.labels.getCount()) {
+			throw new IOException( "Images file has " + this.images.getCount() + " entries but labels file has " + this.labels.getCount() );
+		}
+
+	}
+
+	public int getCount() {
+		return this.images.getCount();
+	}
+
+	/**
+	 * Pixels per image, the number of input columns in a batch
+	 *
+	 */
+	public int getImageSize() {
+		return this.images.getEntryLength();
+	}
+
+	public MnistMappedIdxFile getImages() {
+		return this.images;
+	}
+
+	public MnistMappedIdxFile getLabels() {
+		return this.labels;
+	}
+
+	/**
+	 * Zero-copy view over the raw pixels of images [first, first + num)
+	 *
+	 */
+	public ByteBuffer imageSlice( int first, int num ) {
+		return this.images.slice( first, num );
+	}
+
+	/**
+	 * Zero-copy view over labels [first, first + num)
+	 *
+	 */
+	public ByteBuffer labelSlice( int first, int num ) {
+		return this.labels.slice( first, num );
+	}
+
+	public int readLabel( int index ) {
+		return this.labels.getUnsignedByte( index, 0 );
+	}
+
+	/**
+	 * Fills rows [0, num) of the batch matrices with images [first, first + num)
+	 *
+	 * - pixels > binarizeThreshold become 1.0, everything else 0.0
+	 * - a negative threshold scales pixels into [0, 1] instead
+	 * - labels are written one-hot, labels needs at least 10 columns
+	 *
+	 */
+	public void fillBatch( int first, int num, Matrix inputs, Matrix outcomes, int binarizeThreshold ) {
+
+		int pixels = getImageSize();
+
+		if (inputs.numRows() < num || inputs.numCols() != pixels) {
+			throw new IllegalArgumentException( "Input batch matrix is " + inputs.numRows() + "x" + inputs.numCols() + ", need at least " + num + "x" + pixels );
+		}
+
+		if (outcomes.numRows() < num) {
+			throw new IllegalArgumentException( "Label batch matrix has " + outcomes.numRows() + " rows, need at least " + num );
+		}
+
+		ByteBuffer imageBytes = this.images.slice( first, num );
+		ByteBuffer labelBytes = this.labels.slice( first, num );
+
+		boolean binarize = binarizeThreshold >= 0;
+
+		for (int row = 0; row < num; row++) {
+
+			for (int col = 0; col < pixels; col++) {
+
+				int pixel = imageBytes.get() & 0xFF;
+
+				if (binarize) {
+					inputs.setQuick( row, col, (pixel > binarizeThreshold) ? 1.0 : 0.0 );
+				} else {
+					inputs.setQuick( row, col, pixel / 255.0 );
+				}
+
+			}
+
+			int label = labelBytes.get() & 0xFF;
+
+			if (label >= outcomes.numCols()) {
+				throw new IllegalStateException( "Found a matrix without an outcome" );
+			}
+
+			for (int col = 0; col < outcomes.numCols(); col++) {
+				outcomes.setQuick( row, col, 0.0 );
+			}
+			outcomes.setQuick( row, label, 1.0 );
+
+		}
+
+	}
+
+}
@@ -2,8 +2,6 @@ package tv.floe.metronome.deeplearning.datasets.fetchers;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 
 import org.apache.hadoop.io.Text;
 import org.apache.mahout.math.DenseMatrix;
@@ -13,6 +11,7 @@ import org.apache.mahout.math.Vector;
 
 import com.cloudera.iterativereduce.io.TextRecordParser;
 
+import tv.floe.metronome.deeplearning.datasets.DataSet;
 import tv.floe.metronome.deeplearning.datasets.MnistManager;
 import tv.floe.metronome.deeplearning.datasets.iterator.DataSetFetcher;
 import tv.floe.metronome.io.records.MetronomeRecordFactory;
@@ -81,8 +80,7 @@ public class MnistHDFSDataFetcher extends BaseDataFetcher implements DataSetFetc
 	 * 
 	 * data comes into the this point already normalized by the conversion to text format
 	 * 
-	 * TODO:
-	 * - look at efficiency here, prolly need to let the vector factory convert straight to Matrix recs
+	 * NOTE: fetch() no longer goes through here, it vectorizes straight into the batch matrix
 	 * 
 	 * @param line
 	 * @return
@@ -127,14 +125,31 @@ public class MnistHDFSDataFetcher extends BaseDataFetcher implements DataSetFetc
 		
 	}
 
+	/**
+	 * Checks that row [row] of the label matrix has an outcome set
+	 * 
+	 */
+	private void ensureRowHasOutcome( Matrix labels, int row ) {
+		
+		for (int col = 0; col < labels.numCols(); col++) {
+			
+			if (labels.getQuick(row, col) > 0) {
+				return;
+			}
+			
+		}
+		
+		throw new IllegalStateException("Found a matrix without an outcome");
+		
+	}
+
 	/**
 	 * NOTE:
 	 * 
 	 * - be sure to preserve the data normalization
 	 * 
-	 * TODO:
-	 * - cache the read vectors into batches
-	 * 		- do we cache the batch or just let that get recreated?
+	 * - lines are vectorized straight into the rows of the batch matrices, no per record
+	 * 		vectors or 1 row matrices in between
 	 * 
 	 */
 	@Override
@@ -154,10 +169,9 @@ public class MnistHDFSDataFetcher extends BaseDataFetcher implements DataSetFetc
 		// so here we replace the MnistManager with the Hadoop based record reader to start pulling text based
 		// lines off hdfs
 
-		// so we need to convert each line into a 1 row matrix along w a 1 row matrix for the label
-
-		//we need to ensure that we don't overshoot the number of examples total
-		List<Pair<Matrix,Matrix>> toConvert = new ArrayList<Pair<Matrix,Matrix>>();
+		Matrix inputs = createInputMatrix( numExamples );
+		Matrix labels = createOutputMatrix( numExamples );
+		int rows = 0;
 
 		// so  we need to fill up a batch
 		// - if we cannot fill a batch, we need to get the tail end of the records
@@ -183,22 +197,46 @@ public class MnistHDFSDataFetcher extends BaseDataFetcher implements DataSetFetc
 				e.printStackTrace();
 			}
 			
-			String valString = value.toString().trim();
-			if (valString.equals("")) {
+			String valString = value.toString();
+			if (valString.trim().equals("")) {
 				
 				System.out.println( "MNISTHDFSDataFetcher > hit blank line " );
 				
 			} else {
 			
-				toConvert.add( this.convertMetronomeTextLineToMatrixInputPair( value.toString() ));
+				try {
+					this.vector_factory.vectorizeLineToMatrixRow( valString, inputs, labels, rows );
+				} catch (Exception e) {
+					throw new IllegalStateException( "Unable to vectorize line: " + valString, e );
+				}
+
+				ensureRowHasOutcome( labels, rows );
+				rows++;
 				
 			}
 		}
 
+		if (0 == rows) {
+			log.warn("Warning: empty dataset from the fetcher");
+		}
+		
+		if (rows < numExamples) {
+			
+			// jagged tail of the split, trim the batch down to what we actually read
+			Matrix trimmedInputs = createInputMatrix( rows );
+			Matrix trimmedLabels = createOutputMatrix( rows );
+			
+			for (int row = 0; row < rows; row++) {
+				trimmedInputs.assignRow( row, inputs.viewRow( row ) );
+				trimmedLabels.assignRow( row, labels.viewRow( row ) );
+			}
+			
+			inputs = trimmedInputs;
+			labels = trimmedLabels;
+			
+		}
 
-		initializeCurrFromList(toConvert);
-
-
+		curr = new DataSet( inputs, labels );
 
 	}
 
@@ -0,0 +1,364 @@
+package tv.floe.metronome.deeplearning.datasets.fetchers;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.io.Text;
+import org.apache.mahout.math.Matrix;
+
+import com.cloudera.iterativereduce.io.TextRecordParser;
+
+import tv.floe.metronome.deeplearning.datasets.DataSet;
+import tv.floe.metronome.deeplearning.datasets.iterator.DataSetFetcher;
+import tv.floe.metronome.io.records.MetronomeRecordFactory;
+
+/**
+ * Prefetching version of the MnistHDFSDataFetcher
+ *
+ * A background reader thread pulls text lines off the record reader, parses them
+ * and writes them straight into the rows of a preallocated batch matrix while the
+ * training thread is busy with the current batch.
+ *
+ * - batch buffers are recycled through a free list, so steady state does not allocate
+ * - filled batches go through a bounded queue (prefetchDepth) to keep memory bounded
+ *
+ * NOTE:
+ *
+ * - the DataSet handed back from next() is only valid until the following fetch(),
+ * 		after that its matrices are handed back to the reader thread and overwritten
+ *
+ * - the short batch at the tail end of a split is copied out to a right-sized DataSet
+ * 		so numRows() still reports the real number of records (the worker relies on this)
+ *
+ * @author josh
+ *
+ */
+public class PrefetchingMnistHDFSDataFetcher extends BaseDataFetcher implements DataSetFetcher {
+
+	private static final long serialVersionUID = 1L;
+
+	// how long the reader thread waits on a queue before re-checking for a stop request
+	private static final long QUEUE_POLL_MS = 50;
+
+	// marks the end of the split in the filled queue
+	private static final DataSet END_OF_SPLIT = new DataSet( null, null );
+
+	private transient TextRecordParser record_reader = null;
+	private transient MetronomeRecordFactory vector_factory = null;
+
+	// tells the record factory how to layout the vectors in|out
+	private String vectorSchema = "i:784 | o:10";
+
+	private int batchSize = 1;
+	private int prefetchDepth = 2;
+
+	private transient BlockingQueue<DataSet> filledBatches = null;
+	private transient BlockingQueue<DataSet> freeBatches = null;
+
+	// batch currently leased to the training thread
+	private transient DataSet leasedBatch = null;
+	// batch taken off the queue by hasMore() but not yet handed out by fetch()
+	private transient DataSet pendingBatch = null;
+
+	private transient Thread readerThread = null;
+	private transient volatile boolean stopRequested = false;
+	private transient volatile Throwable readerError = null;
+
+	/**
+	 *
+	 * @param hdfsLineParser the split reader, owned by this fetcher from here on
+	 * @param batchSize number of records per batch, fixed as the buffers are preallocated
+	 * @param prefetchDepth number of parsed batches allowed to sit in the queue
+	 * @throws IOException
+	 */
+	public PrefetchingMnistHDFSDataFetcher( TextRecordParser hdfsLineParser, int batchSize, int prefetchDepth ) throws IOException {
+
+		if (batchSize < 1 || prefetchDepth < 1) {
+			throw new IllegalArgumentException( "batchSize and prefetchDepth must be positive" );
+		}
+
+		this.record_reader = hdfsLineParser;
+		this.vector_factory = new MetronomeRecordFactory( this.vectorSchema );
+		this.batchSize = batchSize;
+		this.prefetchDepth = prefetchDepth;
+
+		numOutcomes = 10;
+		cursor = 1;
+		inputColumns = 784;
+
+		this.filledBatches = new ArrayBlockingQueue<DataSet>( this.prefetchDepth );
+
+		// one for each queue slot, one being filled by the reader, one leased to the trainer
+		int bufferCount = this.prefetchDepth + 2;
+		this.freeBatches = new ArrayBlockingQueue<DataSet>( bufferCount );
+		for (int x = 0; x < bufferCount; x++) {
+			this.freeBatches.add( new DataSet( createInputMatrix( this.batchSize ), createOutputMatrix( this.batchSize ) ) );
+		}
+
+	}
+
+	/**
+	 * Parses a Metronome format line directly into row [row] of the batch matrices
+	 *
+	 * data comes into the this point already normalized by the conversion to text format
+	 *
+	 */
+	void parseLineIntoBatch( String line, DataSet batch, int row ) throws Exception {
+
+		Matrix label = batch.getSecond();
+
+		this.vector_factory.vectorizeLineToMatrixRow( line, batch.getFirst(), label, row );
+
+		for (int col = 0; col < label.numCols(); col++) {
+
+			if (label.getQuick( row, col ) > 0) {
+				return;
+			}
+
+		}
+
+		throw new IllegalStateException("Found a matrix without an outcome");
+
+	}
+
+	/**
+	 * Reader thread body: fill free buffers until the split runs out or we're told to stop
+	 *
+	 */
+	private void readSplit() {
+
+		Text value = new Text();
+
+		try {
+
+			while (!this.stopRequested && this.record_reader.hasMoreRecords()) {
+
+				DataSet batch = null;
+				while (null == batch) {
+					if (this.stopRequested) {
+						return;
+					}
+					batch = this.freeBatches.poll( QUEUE_POLL_MS, TimeUnit.MILLISECONDS );
+				}
+
+				int rows = 0;
+
+				while (rows < this.batchSize && this.record_reader.hasMoreRecords()) {
+
+					if (false == this.record_reader.next( value )) {
+						break;
+					}
+
+					String line = value.toString();
+					if (line.trim().equals("")) {
+						continue;
+					}
+
+					parseLineIntoBatch( line, batch, rows );
+					rows++;
+
+				}
+
+				if (0 == rows) {
+
+					this.freeBatches.offer( batch );
+					break;
+
+				} else if (rows < this.batchSize) {
+
+					// jagged end of split, hand out a right-sized copy
+					DataSet tail = new DataSet( createInputMatrix( rows ), createOutputMatrix( rows ) );
+					for (int row = 0; row < rows; row++) {
+						tail.getFirst().assignRow( row, batch.getFirst().viewRow( row ) );
+						tail.getSecond().assignRow( row, batch.getSecond().viewRow( row ) );
+					}
+					this.freeBatches.offer( batch );
+					batch = tail;
+
+				}
+
+				if (!publish( batch )) {
+					return;
+				}
+
+			}
+
+		} catch (Throwable t) {
+
+			this.readerError = t;
+
+		}
+
+		publish( END_OF_SPLIT );
+
+	}
+
+	private boolean publish( DataSet batch ) {
+
+		try {
+
+			while (!this.stopRequested) {
+				if (this.filledBatches.offer( batch, QUEUE_POLL_MS, TimeUnit.MILLISECONDS )) {
+					return true;
+				}
+			}
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		return false;
+
+	}
+
+	private void startReader() {
+
+		this.stopRequested = false;
+		this.readerError = null;
+
+		this.readerThread = new Thread( new Runnable() {
+
+			@Override
+			public void run() {
+				readSplit();
+			}
+
+		}, "MnistHDFSDataFetcher-prefetch" );
+
+		this.readerThread.setDaemon( true );
+		this.readerThread.start();
+
+	}
+
+	/**
+	 * Stops the reader thread and returns every buffer to the free list
+	 *
+	 */
+	private void stopReader() {
+
+		if (null == this.readerThread) {
+			return;
+		}
+
+		this.stopRequested = true;
+
+		try {
+			this.readerThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		this.readerThread = null;
+
+		recycle( this.pendingBatch );
+		this.pendingBatch = null;
+
+		DataSet batch = null;
+		while (null != (batch = this.filledBatches.poll())) {
+			recycle( batch );
+		}
+
+	}
+
+	/**
+	 * Only full size buffers go back into the pool, tail batches are throwaways
+	 *
+	 */
+	private void recycle( DataSet batch ) {
+
+		if (null != batch && END_OF_SPLIT != batch && batch.getFirst().numRows() == this.batchSize) {
+			this.freeBatches.offer( batch );
+		}
+
+	}
+
+	/**
+	 * Blocks until the reader has either a batch or the end of split marker for us
+	 *
+	 */
+	private DataSet peekPending() {
+
+		if (null == this.readerThread) {
+			startReader();
+		}
+
+		if (null == this.pendingBatch) {
+
+			try {
+				this.pendingBatch = this.filledBatches.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException( "Interrupted while waiting on the prefetch thread", e );
+			}
+
+		}
+
+		if (END_OF_SPLIT == this.pendingBatch && null != this.readerError) {
+			throw new IllegalStateException( "Prefetch thread failed reading the split", this.readerError );
+		}
+
+		return this.pendingBatch;
+
+	}
+
+	/**
+	 * Hands the next parsed batch to the caller, the previous batch goes back to the reader
+	 *
+	 */
+	@Override
+	public void fetch(int numExamples) {
+
+		if (numExamples != this.batchSize) {
+			throw new IllegalArgumentException( "Prefetching fetcher was built for batches of " + this.batchSize + ", not " + numExamples );
+		}
+
+		if (END_OF_SPLIT == peekPending()) {
+
+			throw new IllegalStateException("Unable to get more; there are no more images");
+
+		}
+
+		recycle( this.leasedBatch );
+
+		this.leasedBatch = this.pendingBatch;
+		this.pendingBatch = null;
+
+		cursor += this.leasedBatch.getFirst().numRows();
+		curr = this.leasedBatch;
+
+	}
+
+	@Override
+	public void reset() {
+
+		stopReader();
+
+		cursor = 1;
+		this.record_reader.reset();
+
+	}
+
+	@Override
+	public boolean hasMore() {
+
+		return END_OF_SPLIT != peekPending();
+
+	}
+
+	/**
+	 * Stops the reader thread, call when the fetcher is being dropped
+	 *
+	 */
+	public void close() {
+
+		stopReader();
+
+	}
+
+	public int getBatchSize() {
+		return this.batchSize;
+	}
+
+}
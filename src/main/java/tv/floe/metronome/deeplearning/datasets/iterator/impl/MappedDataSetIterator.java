@@ -0,0 +1,101 @@
+package tv.floe.metronome.deeplearning.datasets.iterator.impl;
+
+import org.apache.commons.math3.random.RandomGenerator;
+
+import tv.floe.metronome.deeplearning.datasets.DataSet;
+import tv.floe.metronome.deeplearning.datasets.MappedDataSet;
+import tv.floe.metronome.deeplearning.datasets.iterator.DataSetIterator;
+
+/**
+ * Batches over a MappedDataSet, optionally reshuffling the index order at every reset()
+ *
+ * - a reshuffle is a permutation of an int[], so a fresh order per epoch is effectively free
+ *
+ * @author josh
+ *
+ */
+public class MappedDataSetIterator implements DataSetIterator {
+
+	private static final long serialVersionUID = 1L;
+
+	private final transient MappedDataSet source;
+	private transient MappedDataSet epochView;
+	private final transient RandomGenerator rng;
+	private final int batch;
+	private int cursor = 0;
+
+	/**
+	 * @param source the mapped data to iterate
+	 * @param batch examples per batch
+	 * @param rng reshuffles every epoch when not null, otherwise file order is kept
+	 */
+	public MappedDataSetIterator( MappedDataSet source, int batch, RandomGenerator rng ) {
+
+		this.source = source;
+		this.batch = batch;
+		this.rng = rng;
+
+		reset();
+
+	}
+
+	@Override
+	public boolean hasNext() {
+		return this.cursor < this.epochView.numExamples();
+	}
+
+	@Override
+	public DataSet next() {
+
+		int num = Math.min( this.batch, this.epochView.numExamples() - this.cursor );
+		DataSet next = this.epochView.getBatch( this.cursor, num );
+		this.cursor += num;
+
+		return next;
+
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public int totalExamples() {
+		return this.source.numExamples();
+	}
+
+	@Override
+	public int inputColumns() {
+		return this.source.numInputs();
+	}
+
+	@Override
+	public int totalOutcomes() {
+		return this.source.numOutcomes();
+	}
+
+	@Override
+	public void reset() {
+
+		this.cursor = 0;
+		this.epochView = (null == this.rng) ? this.source : this.source.shuffle( this.rng );
+
+	}
+
+	@Override
+	public int batch() {
+		return this.batch;
+	}
+
+	@Override
+	public int cursor() {
+		return this.cursor;
+	}
+
+	@Override
+	public int numExamples() {
+		return this.source.numExamples();
+	}
+
+}
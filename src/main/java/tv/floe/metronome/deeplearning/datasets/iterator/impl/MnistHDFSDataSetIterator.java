@@ -5,7 +5,9 @@ import java.io.IOException;
 import com.cloudera.iterativereduce.io.TextRecordParser;
 
 import tv.floe.metronome.deeplearning.datasets.fetchers.MnistHDFSDataFetcher;
+import tv.floe.metronome.deeplearning.datasets.fetchers.PrefetchingMnistHDFSDataFetcher;
 import tv.floe.metronome.deeplearning.datasets.iterator.BaseDatasetIterator;
+import tv.floe.metronome.deeplearning.datasets.iterator.DataSetFetcher;
 
 public class MnistHDFSDataSetIterator extends BaseDatasetIterator {
 
@@ -16,10 +18,34 @@ public class MnistHDFSDataSetIterator extends BaseDatasetIterator {
 		
 	}
 	
+	/**
+	 * Parses batches on a background thread, keeping up to prefetchDepth batches ready
+	 * 
+	 * - prefetchDepth < 1 falls back to the synchronous fetcher
+	 * 
+	 */
+	public MnistHDFSDataSetIterator( int batch,int numExamples, TextRecordParser hdfsLineParser, int prefetchDepth ) throws IOException {
+		
+		super( batch, numExamples, ( prefetchDepth < 1 ) ? (DataSetFetcher) new MnistHDFSDataFetcher( hdfsLineParser ) : new PrefetchingMnistHDFSDataFetcher( hdfsLineParser, batch, prefetchDepth ) );
+		
+	}
+	
 	@Override
 	public boolean hasNext() {
 		return fetcher.hasMore();
 	}
 	
+	/**
+	 * Stops any background reader before the iterator is dropped
+	 * 
+	 */
+	public void close() {
+		
+		if (fetcher instanceof PrefetchingMnistHDFSDataFetcher) {
+			((PrefetchingMnistHDFSDataFetcher) fetcher).close();
+		}
+		
+	}
+	
 
 }
@@ -11,7 +11,6 @@ import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -68,6 +67,11 @@ import tv.floe.metronome.math.MatrixUtils;
  *
  */
 public class DeepBeliefNetwork extends BaseMultiLayerNeuralNetworkVectorized {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 3355475597133568375L;
 	
 	//private RandomGenerator randomGen = new MersenneTwister(1234);
 	
@@ -145,6 +149,17 @@ public class DeepBeliefNetwork extends BaseMultiLayerNeuralNetworkVectorized {
 		
 	}
 	
+	/**
+	 * Pretrains with CD-1, what the IterativeReduce worker has always run
+	 * 
+	 */
+	@Override
+	public void preTrain(Matrix trainingRecords, double learningRate, int epochs) {
+		
+		preTrain( trainingRecords, 1, learningRate, epochs );
+		
+	}
+	
 	/**
 	 * Trains the Deep Belief Network
 	 * 
@@ -337,6 +352,8 @@ public class DeepBeliefNetwork extends BaseMultiLayerNeuralNetworkVectorized {
 		    this.setMomentum( di.readDouble() );
 		    this.setSparsity( di.readDouble() );
 		    
+		    // the layers above were built EXACT, the accuracy isn't part of the saved layout
+		    applyActivationKernels();
 		    
 		} catch (Exception e) {
 			throw new RuntimeException(e);
@@ -436,87 +453,6 @@ public class DeepBeliefNetwork extends BaseMultiLayerNeuralNetworkVectorized {
 		
 	}
 */	
-	/**
-	 * Computes an average parameter value from N worker updates
-	 * - the produced vectors are meant to be sent back to workers
-	 * 
-	 * Assumptions
-	 * 
-	 * TODO:
-	 * - we need to look at variations where this master copy DBN is still "usable"
-	 * 
-	 * - Food for thought: do we average the parameter vectors of adagrad vars?
-	 * 
-	 * @param workerDBNs
-	 */
-	public void computeAverageDBNParameterVector( ArrayList<DeepBeliefNetwork> workerDBNParameterVectors ) {
-		
-		// 1. setup the local DBN to match
-		// - right now we assume the DBNs match
-		
-
-//		MatrixUtils.debug_print( workerDBNParameterVectors.get(0).preTrainingLayers[ 0 ].getConnectionWeights() );
-//		MatrixUtils.debug_print( workerDBNParameterVectors.get(1).preTrainingLayers[ 0 ].getConnectionWeights() );
-		//MatrixUtils.debug_print( this.preTrainingLayers[ 0 ].getConnectionWeights() );
-		
-		// 2. now take a look at each pre train layer
-		
-		//MatrixUtils.debug_print_matrix_stats(this.preTrainingLayers[ layer ].getConnectionWeights(), "layer " + layer + " stats");
-		
-		for ( int worker = 0; worker < workerDBNParameterVectors.size(); worker++ ) {
-			
-			// sum/look at the pretrain layers
-		    for ( int layer = 0; layer < this.numberLayers; layer++ ) {
-		    	
-		    //	MatrixUtils.debug_print_matrix_stats(this.preTrainingLayers[ layer ].getConnectionWeights(), "this.layer " + layer + " stats");
-		    //	MatrixUtils.debug_print_matrix_stats( workerDBNParameterVectors.get(worker).preTrainingLayers[ layer ].getConnectionWeights(), "worker " + worker + " layer " + layer + " stats");
-		    	
-	
-		    	MatrixUtils.addi( this.preTrainingLayers[ layer ].getConnectionWeights(), workerDBNParameterVectors.get(worker).preTrainingLayers[ layer ].getConnectionWeights() );
-		    	MatrixUtils.addi( this.preTrainingLayers[ layer ].getHiddenBias(), workerDBNParameterVectors.get(worker).preTrainingLayers[ layer ].getHiddenBias() );
-		    	MatrixUtils.addi( this.preTrainingLayers[ layer ].getVisibleBias(), workerDBNParameterVectors.get(worker).preTrainingLayers[ layer ].getVisibleBias() );
-		    	
-		    }
-		    
-		    // sum/look at the logistic layer
-		    
-		    MatrixUtils.addi( this.logisticRegressionLayer.connectionWeights, workerDBNParameterVectors.get(worker).logisticRegressionLayer.connectionWeights );
-		    MatrixUtils.addi( this.logisticRegressionLayer.biasTerms, workerDBNParameterVectors.get(worker).logisticRegressionLayer.biasTerms );
-		    		    
-		}
-		
-//		System.out.println( "Pre Train Layer Debug (pre divide)" );
-//		MatrixUtils.debug_print( this.preTrainingLayers[ 0 ].getConnectionWeights() );
-		
-		// 3. compute averages for both pretrain, then update the hidden layer
-		
-		for ( int layer = 0; layer < this.numberLayers; layer++ ) {
-			
-			MatrixUtils.divi( this.preTrainingLayers[ layer ].getConnectionWeights(), workerDBNParameterVectors.size() );
-			MatrixUtils.divi( this.preTrainingLayers[ layer ].getHiddenBias(), workerDBNParameterVectors.size() );
-			MatrixUtils.divi( this.preTrainingLayers[ layer ].getVisibleBias(), workerDBNParameterVectors.size() );
-			
-			// now update the hidden layer
-			
-			//tied weights: must be updated at the same time
-			this.hiddenLayers[ layer ].biasTerms = this.preTrainingLayers[ layer ].getHiddenBias();
-			this.hiddenLayers[ layer ].connectionWeights = this.preTrainingLayers[ layer ].getConnectionWeights();
-			
-			
-		}
-		
-//		System.out.println( "Pre Train Layer Debug (post divide)" );
-//		MatrixUtils.debug_print( this.preTrainingLayers[ 0 ].getConnectionWeights() );
-
-		// 4. compute averages for logistic layer
-		
-		MatrixUtils.divi( this.logisticRegressionLayer.connectionWeights, workerDBNParameterVectors.size() );
-		MatrixUtils.divi( this.logisticRegressionLayer.biasTerms, workerDBNParameterVectors.size() );
-	
-		// TODO: do we need to parameter average the adagrad?
-		
-	}
-	
 	@Override
 	public DeepBeliefNetwork clone() {
 	//	BaseMultiLayerNetwork ret = new Builder<>().withClazz(getClass()).buildEmpty();
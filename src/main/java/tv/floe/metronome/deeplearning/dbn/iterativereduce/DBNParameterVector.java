@@ -16,6 +16,8 @@ import tv.floe.metronome.deeplearning.neuralnetwork.core.LogisticRegression;
 import tv.floe.metronome.deeplearning.neuralnetwork.core.NeuralNetworkVectorized;
 import tv.floe.metronome.deeplearning.neuralnetwork.layer.HiddenLayer;
 import tv.floe.metronome.deeplearning.rbm.RestrictedBoltzmannMachine;
+import tv.floe.metronome.eval.ValidationMetrics;
+import tv.floe.metronome.metrics.MetricsRegistry;
 
 /**
  * Need a local copy of the DBN parameter vector stuff
@@ -48,8 +50,18 @@ public class DBNParameterVector {
 	
 	public boolean masterSignalToStartNextDatasetPass = false;
 	
+	// master sees the held-out loss has stopped improving, workers finish
+	// signal: master->to->worker
+	public boolean masterSignalToStopTraining = false;
+	
 	public int iteration = 0;
 	
+	// worker's held-out batches this superstep, null when hold-out is off or nothing was held out
+	public ValidationMetrics validation = null;
+	
+	// worker's metrics for the superstep (MetricsRegistry), null on master messages
+	public MetricsRegistry metrics = null;
+	
 	byte[] dbn_payload = null;
 	
 	
@@ -74,10 +86,15 @@ public class DBNParameterVector {
 		
 		d.writeBoolean( this.masterSignalToStartFineTunePhase );
 		d.writeBoolean( this.masterSignalToStartNextDatasetPass );
+		d.writeBoolean( this.masterSignalToStopTraining );
+		
+		ValidationMetrics.writeOptional( d, this.validation );
 		
 		d.writeInt( this.dbn_payload.length );
 		out.write( this.dbn_payload );
 		
+		// the worker already timed writing the payload, the rest is a copy
+		MetricsRegistry.writeOptional( d, this.metrics );
 		
 		return out.toByteArray();
 	}
@@ -103,12 +120,17 @@ public class DBNParameterVector {
 		this.preTrainPhaseComplete = in.readBoolean();
 		this.masterSignalToStartFineTunePhase = in.readBoolean();
 		this.masterSignalToStartNextDatasetPass = in.readBoolean();
+		this.masterSignalToStopTraining = in.readBoolean();
+		
+		this.validation = ValidationMetrics.readOptional( in );
 		
 		int bytesToRead = in.readInt();
 		
 		this.dbn_payload = new byte[ bytesToRead ];
 		in.readFully( this.dbn_payload, 0, bytesToRead );
 		
+		this.metrics = MetricsRegistry.readOptional( in );
+		
 
 		// this.dbn.load(b);
 		//this.dbn_payload = bytes;
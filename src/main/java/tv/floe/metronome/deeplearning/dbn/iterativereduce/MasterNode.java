@@ -2,16 +2,25 @@ package tv.floe.metronome.deeplearning.dbn.iterativereduce;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.util.ToolRunner;
 
-import tv.floe.metronome.deeplearning.dbn.DeepBeliefNetwork;
 import tv.floe.metronome.deeplearning.dbn.util.DBNDebuggingUtil;
+import tv.floe.metronome.deeplearning.neuralnetwork.core.BaseMultiLayerNeuralNetworkVectorized;
+import tv.floe.metronome.eval.ConvergenceController;
+import tv.floe.metronome.eval.ValidationMetrics;
+import tv.floe.metronome.io.checkpoint.CheckpointStore;
+import tv.floe.metronome.io.checkpoint.CheckpointWriter;
+import tv.floe.metronome.metrics.MetricsRegistry;
 
 import com.cloudera.iterativereduce.ComputableMaster;
 import com.cloudera.iterativereduce.yarn.appmaster.ApplicationMaster;
@@ -19,8 +28,10 @@ import com.cloudera.iterativereduce.yarn.appmaster.ApplicationMaster;
 
 public class MasterNode implements ComputableMaster<DBNParameterVectorUpdateable> {
 
+	private static final Log LOG = LogFactory.getLog(MasterNode.class);
+
 	DBNParameterVectorUpdateable lastMasterUpdate = null;
-	DeepBeliefNetwork dbn_averaged_master = null;
+	BaseMultiLayerNeuralNetworkVectorized dbn_averaged_master = null;
 	double trainingErrorThreshold = 0;
 	boolean hasHitThreshold = false;
 	protected Configuration conf = null;
@@ -32,6 +43,21 @@ public class MasterNode implements ComputableMaster<DBNParameterVectorUpdateable
 	int[] hiddenLayerSizes = null;
 	int n_layers = 1;
 	
+	// workers score one batch per superstep, so held-out metrics are collected over a whole
+	// dataset pass and the curve gets one entry per pass
+	ValidationMetrics passValidation = null;
+	List<ValidationMetrics> validationCurve = new ArrayList<ValidationMetrics>();
+	
+	// early stopping on the per pass held-out loss, null = run all passes
+	ConvergenceController convergence = null;
+	
+	// every worker's per superstep metrics merged, plus the master's own timers
+	MetricsRegistry metrics = new MetricsRegistry();
+	int supersteps = 0;
+	
+	// superstep checkpoints (tv.floe.metronome.checkpoint.*), null = off
+	CheckpointWriter checkpoints = null;
+	
 
 	/**
 	 * Q: "is compute() called before complete() is called in last epoch?"
@@ -41,7 +67,13 @@ public class MasterNode implements ComputableMaster<DBNParameterVectorUpdateable
 	@Override
 	public void complete(DataOutputStream osStream) throws IOException {
 		
-		System.out.println( "IR DBN Master Node: Complete!" );
+		LOG.info( "IR DBN Master Node: Complete!" );
+		
+		if ( null != this.checkpoints ) {
+			this.checkpoints.close();
+		}
+		
+		LOG.info( "Master > Metrics after " + this.supersteps + " supersteps:\n" + this.metrics.report() );
 		this.dbn_averaged_master.write( osStream );
 		
 		
@@ -59,7 +91,9 @@ public class MasterNode implements ComputableMaster<DBNParameterVectorUpdateable
 			Collection<DBNParameterVectorUpdateable> workerUpdates,
 			Collection<DBNParameterVectorUpdateable> masterUpdates) {
 
-		System.out.println( "--------------- Master::Compute() -------------- " );
+		LOG.debug( "Master > Compute" );
+		
+		long computeStart = System.nanoTime();
 	//	System.out.println("worker update count: " + workerUpdates.size() );
 	//	System.out.println("master update count: " + masterUpdates.size() );
 		
@@ -69,18 +103,20 @@ public class MasterNode implements ComputableMaster<DBNParameterVectorUpdateable
 
 		int[] hiddenLayerSizesTmp = new int[] {1};
 		
-		ArrayList<DeepBeliefNetwork> workerDBNs = new ArrayList<DeepBeliefNetwork>();
+		ArrayList<BaseMultiLayerNeuralNetworkVectorized> workerDBNs = new ArrayList<BaseMultiLayerNeuralNetworkVectorized>();
 		
 		boolean areAllWorkersDoneWithPreTrainPhase = true;
 		boolean areAllWorkersDoneWithCurrentDatasetEpoch = true;
 		int currentIteration = firstWorkerMsg.param_msg.iteration;
+		int workers = workerUpdates.size();
 		
 	    for (DBNParameterVectorUpdateable dbn_worker : workerUpdates) {
 
 	    	ByteArrayInputStream baInputStream = new ByteArrayInputStream( dbn_worker.param_msg.dbn_payload );
 	    	//ByteArrayInputStream baInputStream = new ByteArrayInputStream( dbn_worker.param_msg. );
 	    	
-			DeepBeliefNetwork dbn_worker_deser = new DeepBeliefNetwork(1, hiddenLayerSizesTmp, 1, hiddenLayerSizesTmp.length, null); //1, , 1, hiddenLayerSizes.length, rng );
+			// same network type as the workers (NetworkFactory), so the payload reads back
+			BaseMultiLayerNeuralNetworkVectorized dbn_worker_deser = NetworkFactory.create( this.conf, 1, hiddenLayerSizesTmp, 1, null );
 			dbn_worker_deser.load( baInputStream );
 			
 		//	System.out.println("Master > Printing incoming msg dbn: "); 
@@ -110,11 +146,26 @@ public class MasterNode implements ComputableMaster<DBNParameterVectorUpdateable
 				
 			}
 			
+			if ( null != dbn_worker.param_msg.validation ) {
+				
+				if ( null == this.passValidation ) {
+					this.passValidation = new ValidationMetrics();
+				}
+				this.passValidation.merge( dbn_worker.param_msg.validation );
+				
+			}
+			
+			// taken off the message so a re-delivered result isn't counted twice
+			if ( null != dbn_worker.param_msg.metrics ) {
+				this.metrics.merge( dbn_worker.param_msg.metrics );
+				dbn_worker.param_msg.metrics = null;
+			}
+			
 			
 	    }
 	    
 	    // init master w dummy params
-	    this.dbn_averaged_master = new DeepBeliefNetwork(1, hiddenLayerSizesTmp, 1, hiddenLayerSizesTmp.length, null);
+	    this.dbn_averaged_master = NetworkFactory.create( this.conf, 1, hiddenLayerSizesTmp, 1, null );
 	    
 	    this.dbn_averaged_master.initBasedOn( workerDBNs.get( 0 ) );
 	    this.dbn_averaged_master.computeAverageDBNParameterVector(workerDBNs);
@@ -128,6 +179,20 @@ public class MasterNode implements ComputableMaster<DBNParameterVectorUpdateable
 	    
 	    if ( areAllWorkersDoneWithCurrentDatasetEpoch ) {
 //	    	System.out.println( "############## All Workers Are Done w Current Dataset Epoch" );
+	    	
+	    	if ( null != this.passValidation ) {
+	    		
+	    		this.validationCurve.add( this.passValidation );
+	    		LOG.info( "Master > Validation pass " + this.validationCurve.size() + ": " + this.passValidation );
+	    		
+	    		if ( null != this.convergence && !this.convergence.isStopped() && this.convergence.observe( this.passValidation.meanLoss() ) ) {
+	    			LOG.info( "Master > Early stopping: " + this.convergence.getReason() );
+	    		}
+	    		
+	    		this.passValidation = null;
+	    		
+	    	}
+	    	
 	    } else {
 //	    	System.out.println( "############## All Workers Are NOT Done w Current Dataset Epoch" );
 	    }
@@ -139,6 +204,8 @@ public class MasterNode implements ComputableMaster<DBNParameterVectorUpdateable
 	    dbn_update.masterSignalToStartFineTunePhase = areAllWorkersDoneWithPreTrainPhase;
 
 	    dbn_update.masterSignalToStartNextDatasetPass = areAllWorkersDoneWithCurrentDatasetEpoch;
+	    
+	    dbn_update.masterSignalToStopTraining = ( null != this.convergence && this.convergence.isStopped() );
 		
 		
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
@@ -155,11 +222,40 @@ public class MasterNode implements ComputableMaster<DBNParameterVectorUpdateable
 		
 		this.lastMasterUpdate = masterReturnMsg;
 		
+		this.supersteps++;
+		
+		if ( null != this.checkpoints && this.checkpoints.getStore().isDue( this.supersteps ) ) {
+			
+			try {
+				this.checkpoints.submit( CheckpointStore.MASTER, this.supersteps, workers, this.checkpointState( dbn_update.dbn_payload ), true );
+			} catch (IOException e) {
+				LOG.warn( "Master > Could not snapshot master state: " + e.getMessage(), e );
+			}
+			
+		}
+		
+		this.metrics.timer( "master.compute" ).recordSince( computeStart );
+		
+		if ( MetricsRegistry.isReportDue( this.conf, this.supersteps ) ) {
+			LOG.info( "Master > Metrics after " + this.supersteps + " supersteps:\n" + this.metrics.report() );
+		}
+		
 		return masterReturnMsg;
 	}
 	
 
 
+	/**
+	 * Held-out log loss / accuracy, one entry per dataset pass that scored any batches
+	 * (fine tune passes, and only when the workers have a hold-out fraction set)
+	 * 
+	 */
+	public List<ValidationMetrics> getValidationCurve() {
+		
+		return this.validationCurve;
+		
+	}
+
 	@Override
 	public DBNParameterVectorUpdateable getResults() {
 		
@@ -197,6 +293,11 @@ public class MasterNode implements ComputableMaster<DBNParameterVectorUpdateable
 		      
 			    useRegularization = this.conf.get("tv.floe.metronome.dbn.conf.useRegularization");
 				this.n_layers = hiddenLayerSizes.length;
+				
+				// needs tv.floe.metronome.evaluate.holdout.fraction, the workers don't report a training loss
+				this.convergence = ConvergenceController.fromConf( this.conf );
+				
+				this.checkpointSetup();
 	
 	    } catch (Exception e) {
 	      // TODO Auto-generated catch block
@@ -211,6 +312,104 @@ public class MasterNode implements ComputableMaster<DBNParameterVectorUpdateable
 		
 	}
 
+	/**
+	 * The averaged model (the bytes just sent to the workers), superstep count, the
+	 * pass validation so far and the curve, early stopping state and the merged metrics
+	 * 
+	 */
+	private byte[] checkpointState(byte[] dbnBytes) throws IOException {
+		
+		CheckpointStore.StateBuffer out = new CheckpointStore.StateBuffer();
+		
+		out.writeInt( this.supersteps );
+		
+		out.writeInt( dbnBytes.length );
+		out.write( dbnBytes );
+		
+		ValidationMetrics.writeOptional( out, this.passValidation );
+		
+		out.writeInt( this.validationCurve.size() );
+		for ( ValidationMetrics pass : this.validationCurve ) {
+			pass.write( out );
+		}
+		
+		out.writeBoolean( null != this.convergence );
+		if ( null != this.convergence ) {
+			this.convergence.writeState( out );
+		}
+		
+		MetricsRegistry.writeOptional( out, this.metrics );
+		
+		return out.toByteArray();
+		
+	}
+	
+	private void restoreState(byte[] state) throws IOException {
+		
+		DataInputStream in = CheckpointStore.stateInput( state );
+		
+		this.supersteps = in.readInt();
+		
+		byte[] dbnBytes = new byte[ in.readInt() ];
+		in.readFully( dbnBytes );
+		this.dbn_averaged_master = NetworkFactory.create( this.conf, 1, new int[] {1}, 1, null );
+		this.dbn_averaged_master.load( new ByteArrayInputStream( dbnBytes ) );
+		
+		this.passValidation = ValidationMetrics.readOptional( in );
+		
+		this.validationCurve.clear();
+		int passes = in.readInt();
+		for ( int x = 0; x < passes; x++ ) {
+			ValidationMetrics pass = new ValidationMetrics();
+			pass.readFields( in );
+			this.validationCurve.add( pass );
+		}
+		
+		// a checkpoint from a run without early stopping leaves this run's controller fresh,
+		// one from a run with it is always read so the metrics after it line up
+		if ( in.readBoolean() ) {
+			ConvergenceController saved = ( null != this.convergence ) ? this.convergence : new ConvergenceController( 0, 1, 0, 0 );
+			saved.readState( in );
+		}
+		
+		MetricsRegistry restored = MetricsRegistry.readOptional( in );
+		if ( null != restored ) {
+			this.metrics = restored;
+		}
+		
+	}
+	
+	/**
+	 * Resume: the latest superstep every node got to disk
+	 * 
+	 */
+	private void checkpointSetup() throws IOException {
+		
+		CheckpointStore store = CheckpointStore.fromConf( this.conf );
+		
+		if ( null == store ) {
+			return;
+		}
+		
+		this.checkpoints = new CheckpointWriter( store );
+		
+		if ( !store.isResume() ) {
+			return;
+		}
+		
+		int superstep = store.latestConsistent();
+		byte[] state = ( superstep < 0 ) ? null : store.read( CheckpointStore.MASTER, superstep );
+		
+		if ( null == state ) {
+			LOG.info( "Master > No checkpoint to resume from in " + store + ", starting fresh" );
+			return;
+		}
+		
+		this.restoreState( state );
+		LOG.info( "Master > Resumed from superstep " + superstep + " (" + this.validationCurve.size() + " validated passes)" );
+		
+	}
+
   public static void main(String[] args) throws Exception {
 	    MasterNode pmn = new MasterNode();
 	    ApplicationMaster< DBNParameterVectorUpdateable > am = new ApplicationMaster< DBNParameterVectorUpdateable >(
@@ -0,0 +1,65 @@
+package tv.floe.metronome.deeplearning.dbn.iterativereduce;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.hadoop.conf.Configuration;
+
+import tv.floe.metronome.deeplearning.dbn.DeepBeliefNetwork;
+import tv.floe.metronome.deeplearning.neuralnetwork.core.BaseMultiLayerNeuralNetworkVectorized;
+import tv.floe.metronome.deeplearning.sda.StackedDenoisingAutoEncoder;
+import tv.floe.metronome.math.ActivationKernels;
+
+/**
+ * Builds the network the IterativeReduce worker trains and the master averages, so both
+ * sides agree on the pretraining layer type (and so on the parameter message format)
+ *
+ * Configuration:
+ *
+ * 		tv.floe.metronome.dbn.conf.pretrainer				rbm (DBN, CD-1) or sda (denoising autoencoders) (default rbm)
+ * 		tv.floe.metronome.dbn.conf.sda.corruptionLevel		fraction of inputs masked in sda pretraining (default 0.3)
+ * 		tv.floe.metronome.dbn.conf.activationAccuracy		exact, polynomial or table, see ActivationKernels (default exact)
+ *
+ * @author josh
+ *
+ */
+public class NetworkFactory {
+
+	public static final String CONF_PRETRAINER = "tv.floe.metronome.dbn.conf.pretrainer";
+	public static final String CONF_CORRUPTION_LEVEL = "tv.floe.metronome.dbn.conf.sda.corruptionLevel";
+	public static final String CONF_ACTIVATION_ACCURACY = "tv.floe.metronome.dbn.conf.activationAccuracy";
+
+	public static final String PRETRAINER_RBM = "rbm";
+	public static final String PRETRAINER_SDA = "sda";
+
+	public static BaseMultiLayerNeuralNetworkVectorized create(Configuration conf, int numIns, int[] hiddenLayerSizes, int numLabels, RandomGenerator rng) {
+
+		String preTrainer = (null == conf) ? PRETRAINER_RBM : conf.get( CONF_PRETRAINER, PRETRAINER_RBM ).trim().toLowerCase();
+
+		BaseMultiLayerNeuralNetworkVectorized network = null;
+
+		if (PRETRAINER_SDA.equals( preTrainer )) {
+
+			StackedDenoisingAutoEncoder sda = new StackedDenoisingAutoEncoder( numIns, hiddenLayerSizes, numLabels, hiddenLayerSizes.length, rng );
+			sda.corruptionLevel = Double.parseDouble( conf.get( CONF_CORRUPTION_LEVEL, "0.3" ) );
+			network = sda;
+
+		} else if (PRETRAINER_RBM.equals( preTrainer )) {
+
+			network = new DeepBeliefNetwork( numIns, hiddenLayerSizes, numLabels, hiddenLayerSizes.length, rng );
+
+		}
+
+		if (null != network) {
+
+			if (null != conf) {
+				network.setActivationKernels( ActivationKernels.forName( conf.get( CONF_ACTIVATION_ACCURACY ) ) );
+			}
+
+			return network;
+
+		}
+
+		throw new IllegalArgumentException( "Unknown " + CONF_PRETRAINER + ": " + preTrainer + " (expected " + PRETRAINER_RBM + " or " + PRETRAINER_SDA + ")" );
+
+	}
+
+}
@@ -2,23 +2,31 @@ package tv.floe.metronome.deeplearning.dbn.iterativereduce;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.util.List;
 
 import org.apache.commons.lang3.time.StopWatch;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.commons.math3.random.MersenneTwister;
 import org.apache.commons.math3.random.RandomGenerator;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.util.ToolRunner;
+import org.apache.mahout.math.Matrix;
 
 import tv.floe.metronome.deeplearning.datasets.DataSet;
 import tv.floe.metronome.deeplearning.datasets.iterator.impl.MnistHDFSDataSetIterator;
-import tv.floe.metronome.deeplearning.dbn.DeepBeliefNetwork;
 import tv.floe.metronome.deeplearning.dbn.model.evaluation.ModelTester;
 import tv.floe.metronome.deeplearning.dbn.util.DBNDebuggingUtil;
+import tv.floe.metronome.deeplearning.neuralnetwork.core.BaseMultiLayerNeuralNetworkVectorized;
+import tv.floe.metronome.eval.HoldOutSelector;
+import tv.floe.metronome.eval.ValidationMetrics;
+import tv.floe.metronome.io.checkpoint.CheckpointStore;
+import tv.floe.metronome.io.checkpoint.CheckpointWriter;
 import tv.floe.metronome.io.records.CachedVectorReader;
+import tv.floe.metronome.io.records.SplitTextRecordParser;
+import tv.floe.metronome.math.Xoroshiro128PlusRandom;
+import tv.floe.metronome.metrics.MetricsRegistry;
 
 import com.cloudera.iterativereduce.ComputableWorker;
 import com.cloudera.iterativereduce.io.RecordParser;
@@ -43,11 +51,15 @@ public class WorkerNode implements ComputableWorker<DBNParameterVectorUpdateable
 	
 	protected Configuration conf = null;	  
 
-	DeepBeliefNetwork dbn = null;
+	// a DBN or an SdA, see NetworkFactory
+	BaseMultiLayerNeuralNetworkVectorized dbn = null;
 	
 	private boolean preTrainPhaseComplete = false;
 	private boolean fineTunePhaseComplete = false;
 	
+	// phase timers / counters for the current superstep, shipped to the master with the update
+	private MetricsRegistry superstepMetrics = new MetricsRegistry();
+	
 	TextRecordParser lineParser = new TextRecordParser();
 	CachedVectorReader cachedVecReader = null; //new CachedVectorReader(lineParser, rec_factory); 
 
@@ -74,6 +86,10 @@ public class WorkerNode implements ComputableWorker<DBNParameterVectorUpdateable
 	int totalTrainingDatasetSize = 1;	
 	
 	int batchSize = 1;
+	
+	// number of parsed batches the background reader keeps ready, 0 reads synchronously
+	int prefetchDepth = 2;
+	
 	boolean showNetworkStats = true;
 	
 	int numIns = 784; 
@@ -82,10 +98,26 @@ public class WorkerNode implements ComputableWorker<DBNParameterVectorUpdateable
 	int n_layers = hiddenLayerSizes.length;
 	
 	
-	RandomGenerator rng = new MersenneTwister(123);
+	// weight init and Gibbs sampling, seeded from tv.floe.metronome.dbn.conf.seed in setup()
+	RandomGenerator rng = new Xoroshiro128PlusRandom(123);
 	
 	MnistHDFSDataSetIterator hdfs_fetcher = null; //new MnistHDFSDataSetIterator( batchSize, totalNumExamples, txt_reader );
 	
+	// whole batches are held out (never trained on) and scored during fine tune, null = off
+	HoldOutSelector holdOut = null;
+	
+	// position of the next batch within the current dataset pass, picks the held-out batches
+	long batchInPass = 0;
+	
+	// superstep checkpoints (tv.floe.metronome.checkpoint.*), null = off
+	CheckpointStore checkpointStore = null;
+	CheckpointWriter checkpoints = null;
+	String checkpointName = null;
+	long splitHash = 0;
+	
+	// worker owned copy of the batch being trained on, the DBN keeps a reference to it
+	private DataSet trainingBatch = null;
+	
 	
 	StopWatch watch = new StopWatch();
 //	watch.start();
@@ -119,6 +151,72 @@ public class WorkerNode implements ComputableWorker<DBNParameterVectorUpdateable
 
 	}	
 	
+	/**
+	 * Takes the next batch position in the pass, true if that batch is held out
+	 * 
+	 */
+	private boolean nextBatchIsHeldOut() {
+		
+		long batch = this.batchInPass++;
+		return null != this.holdOut && this.holdOut.isHeldOut( batch );
+		
+	}
+	
+	/**
+	 * Copies the fetched batch into the worker's own matrices before the DBN trains on it
+	 * 
+	 * - the prefetching fetcher recycles a batch's buffers on the following fetch, while the
+	 * 		DBN holds on to its training input (and fine tune labels) and serializes the input
+	 * 		in write(), so it must never see the fetcher's buffers
+	 * - the copy is reused from batch to batch, it's only reallocated when the shape changes
+	 * 
+	 */
+	private DataSet ownBatch(DataSet batch) {
+		
+		Matrix input = batch.getFirst();
+		Matrix labels = batch.getSecond();
+		
+		if (null == this.trainingBatch 
+				|| this.trainingBatch.getFirst().numRows() != input.numRows() || this.trainingBatch.getFirst().numCols() != input.numCols()
+				|| this.trainingBatch.getSecond().numCols() != labels.numCols()) {
+			
+			this.trainingBatch = new DataSet( input.like(), labels.like() );
+			
+		}
+		
+		this.trainingBatch.getFirst().assign( input );
+		this.trainingBatch.getSecond().assign( labels );
+		
+		return this.trainingBatch;
+		
+	}
+	
+	/**
+	 * Log loss and accuracy of the current DBN on a held-out batch, labels are one-hot rows
+	 * 
+	 */
+	private ValidationMetrics validateBatch(DataSet batch) {
+		
+		ValidationMetrics result = new ValidationMetrics();
+		
+		Matrix labels = batch.getSecond();
+		Matrix probabilities = this.dbn.predict( batch.getFirst() );
+		
+		for ( int row = 0; row < labels.numRows(); row++ ) {
+			
+			int actual = labels.viewRow( row ).maxValueIndex();
+			int predicted = probabilities.viewRow( row ).maxValueIndex();
+			
+			double p = Math.max( probabilities.getQuick( row, actual ), 1e-15 );
+			
+			result.add( -Math.log( p ), actual == predicted );
+			
+		}
+		
+		return result;
+		
+	}
+	
 	/**
 	 * Need to think hard about how we define a "pass through the dataset"
 	 * - old definition: "iteration"
@@ -131,7 +229,15 @@ public class WorkerNode implements ComputableWorker<DBNParameterVectorUpdateable
 		this.currentIteration++;
 		//this.currentEpoch++;
 
-		return false;
+		// false once all passes are done or the master signaled convergence
+		boolean stillWorking = TrainingState.TRAINING_COMPLETE != this.currentTrainingState;
+		
+		if (!stillWorking && null != this.checkpoints) {
+			this.checkpoints.close();
+			this.checkpoints = null;
+		}
+		
+		return stillWorking;
 	}
 	
 	/**
@@ -178,7 +284,7 @@ public class WorkerNode implements ComputableWorker<DBNParameterVectorUpdateable
 		
 		// TODO: setup a cached vector system from hdfs for batches
 						
-		System.out.println("Worker > Compute() -------------------------- ");
+		LOG.debug("Worker > Compute() -------------------------- ");
 
 		
 		int recordsProcessed = 0;
@@ -187,22 +293,28 @@ public class WorkerNode implements ComputableWorker<DBNParameterVectorUpdateable
 		
 		DataSet hdfs_recordBatch = null; //this.hdfs_fetcher.next();
 		
-		System.out.println("Iteration: " + this.currentIteration );
+		ValidationMetrics validation = null;
+		
+		LOG.debug("Iteration: " + this.currentIteration );
 		
 //		if (hdfs_recordBatch.getFirst().numRows() > 0) {
 //		do  {
 		
 		if ( TrainingState.PRE_TRAIN == this.currentTrainingState ) {
 		
-			System.out.println("Worker > PRE TRAIN! " );
+			LOG.debug("Worker > PRE TRAIN! " );
 			
  			if ( this.hdfs_fetcher.hasNext() ) {
 				
  				
  				
+				long fetchStart = System.nanoTime();
 				hdfs_recordBatch = this.hdfs_fetcher.next();
+				this.superstepMetrics.phase(MetricsRegistry.Phase.VECTORIZE).recordSince(fetchStart);
+				
+				boolean heldOut = this.nextBatchIsHeldOut();
 
-				System.out.println("Worker > Has Next! > Recs: " + hdfs_recordBatch.getFirst().numRows() );
+				LOG.debug("Worker > Has Next! > Recs: " + hdfs_recordBatch.getFirst().numRows() );
 				
 				// check for the straggler batch condition
 				if (0 == this.currentIteration && hdfs_recordBatch.getFirst().numRows() > 0 && hdfs_recordBatch.getFirst().numRows() < this.batchSize) {
@@ -214,11 +326,16 @@ public class WorkerNode implements ComputableWorker<DBNParameterVectorUpdateable
 
 					// re-setup the dataset iterator
 					try {
-						this.hdfs_fetcher = new MnistHDFSDataSetIterator( this.batchSize, this.totalTrainingDatasetSize, (TextRecordParser)lineParser );
+						this.hdfs_fetcher.close();
+						this.hdfs_fetcher = new MnistHDFSDataSetIterator( this.batchSize, this.totalTrainingDatasetSize, (TextRecordParser)lineParser, this.prefetchDepth );
 					} catch (IOException e) {
 						// TODO Auto-generated catch block
 						e.printStackTrace();
 					}
+					
+					// the pass starts over with the new iterator, this batch is its first
+					this.batchInPass = 0;
+					heldOut = this.nextBatchIsHeldOut();
 
 				//	System.out.println( "Worker > PreTrain: Setting up for a straggler split... (sub batch size)" );					
 				//	System.out.println( "New batch size: " + this.batchSize );
@@ -235,6 +352,11 @@ public class WorkerNode implements ComputableWorker<DBNParameterVectorUpdateable
 					//	System.out.println( "Worker > PreTrain: [Jagged End of Split: Skipped] Processed Total " + recordsProcessed + " Total Time " + watch.toString() );
 						
 						
+					} else if (heldOut) {
+						
+						// kept out of pre-train too, so fine tune validation only sees unseen records
+						LOG.debug( "Worker > PreTrain: Held out batch, not trained on" );
+						
 					} else {
 						
 					//	System.out.println( "Worker > Normal Processing!" );
@@ -248,11 +370,14 @@ public class WorkerNode implements ComputableWorker<DBNParameterVectorUpdateable
 						
 						batchWatch.start();
 				
-						this.dbn.preTrain( hdfs_recordBatch.getFirst(), 1, this.learningRate, this.preTrainEpochs);
+						long computeStart = System.nanoTime();
+						this.dbn.preTrain( this.ownBatch( hdfs_recordBatch ).getFirst(), this.learningRate, this.preTrainEpochs );
+						this.superstepMetrics.phase(MetricsRegistry.Phase.COMPUTE).recordSince(computeStart);
+						this.superstepMetrics.counter("records.trained").add(hdfs_recordBatch.getFirst().numRows());
 						
 						batchWatch.stop();
 		
-						System.out.println( "Worker > PreTrain: Batch Mode, Processed Total " + recordsProcessed + ", Batch Time " + batchWatch.toString() + " Total Time " + watch.toString() );
+						LOG.debug( "Worker > PreTrain: Batch Mode, Processed Total " + recordsProcessed + ", Batch Time " + batchWatch.toString() + " Total Time " + watch.toString() );
 		
 					} // if
 					
@@ -260,13 +385,13 @@ public class WorkerNode implements ComputableWorker<DBNParameterVectorUpdateable
 				} else {
 				
 					// in case we get a blank line
-					System.out.println( "Worker > PreTrain > Idle pass, no records left to process in phase" );
+					LOG.debug( "Worker > PreTrain > Idle pass, no records left to process in phase" );
 					
 				}
 				
 			} else {
 				
-				System.out.println( "Worker > PreTrain > Idle pass, no records left to process in phase" );
+				LOG.debug( "Worker > PreTrain > Idle pass, no records left to process in phase" );
 				
 			}
 			
@@ -288,7 +413,11 @@ public class WorkerNode implements ComputableWorker<DBNParameterVectorUpdateable
 
 			if ( this.hdfs_fetcher.hasNext() ) {
 				
+				long fetchStart = System.nanoTime();
 				hdfs_recordBatch = this.hdfs_fetcher.next();
+				this.superstepMetrics.phase(MetricsRegistry.Phase.VECTORIZE).recordSince(fetchStart);
+				
+				boolean heldOut = this.nextBatchIsHeldOut();
 				
 				if (hdfs_recordBatch.getFirst().numRows() > 0) {
 					
@@ -296,17 +425,30 @@ public class WorkerNode implements ComputableWorker<DBNParameterVectorUpdateable
 						
 					//	System.out.println( "Worker > FineTune: [Jagged End of Split: Skipped] Processed Total " + recordsProcessed + " Total Time " + watch.toString() );
 
+					} else if (heldOut) {
+						
+						validation = this.validateBatch( hdfs_recordBatch );
+						
+						LOG.debug( "Worker > FineTune > Held out batch, Validation: " + validation );
+						
 					} else {
 						
 						batchWatch.reset();
 						
 						batchWatch.start();
 						
-						this.dbn.finetune( hdfs_recordBatch.getSecond(), learningRate, fineTuneEpochs );
+						// pair the labels with their inputs, both out of the worker's copy of the batch
+						DataSet batch = this.ownBatch( hdfs_recordBatch );
+						this.dbn.inputTrainingData = batch.getFirst();
+						
+						long computeStart = System.nanoTime();
+						this.dbn.finetune( batch.getSecond(), learningRate, fineTuneEpochs );
+						this.superstepMetrics.phase(MetricsRegistry.Phase.COMPUTE).recordSince(computeStart);
+						this.superstepMetrics.counter("records.trained").add(hdfs_recordBatch.getFirst().numRows());
 						
 						batchWatch.stop();
 						
-						System.out.println( "Worker > FineTune > Batch Mode, Processed Total " + recordsProcessed + ", Batch Time " + batchWatch.toString() + " Total Time " + watch.toString() );
+						LOG.debug( "Worker > FineTune > Batch Mode, Processed Total " + recordsProcessed + ", Batch Time " + batchWatch.toString() + " Total Time " + watch.toString() );
 						
 					}
 					
@@ -326,7 +468,7 @@ public class WorkerNode implements ComputableWorker<DBNParameterVectorUpdateable
 		} else {
 			
 			// System.err.println( "We're in some impossible training state for this worker" );
-			System.out.println( "Worker > FineTune > Complete > [Split Complete, IDLE] > Total Time " + watch.toString() );
+			LOG.debug( "Worker > FineTune > Complete > [Split Complete, IDLE] > Total Time " + watch.toString() );
 			
 		}
 
@@ -344,6 +486,7 @@ public class WorkerNode implements ComputableWorker<DBNParameterVectorUpdateable
 		// this is a clunky way to do this. dont judge me, working fast here.
 		DBNParameterVector dbn_update = new DBNParameterVector();
 		dbn_update.preTrainPhaseComplete = this.preTrainPhaseComplete;
+		dbn_update.validation = validation;
 		
 		if (false == this.hdfs_fetcher.hasNext()) {
 
@@ -357,10 +500,13 @@ public class WorkerNode implements ComputableWorker<DBNParameterVectorUpdateable
 			
 		}
 		
+		long serializeStart = System.nanoTime();
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
 		this.dbn.write(out);
 		dbn_update.dbn_payload = out.toByteArray();
+		this.superstepMetrics.phase(MetricsRegistry.Phase.SERIALIZE).recordSince(serializeStart);
 		dbn_update.iteration = this.currentIteration;
+		dbn_update.metrics = this.takeSuperstepMetrics();
 		
 		DBNParameterVectorUpdateable updateable = new DBNParameterVectorUpdateable();
 		updateable.param_msg = dbn_update;
@@ -373,6 +519,21 @@ public class WorkerNode implements ComputableWorker<DBNParameterVectorUpdateable
 		
 		return updateable;
 	}
+
+	/**
+	 * Hands this superstep's metrics to the outgoing update, the next superstep
+	 * starts a fresh registry
+	 */
+	private MetricsRegistry takeSuperstepMetrics() {
+		
+		MetricsRegistry taken = this.superstepMetrics;
+		taken.sampleHeap();
+		
+		this.superstepMetrics = new MetricsRegistry();
+		
+		return taken;
+		
+	}
 	
 	@Override
 	public DBNParameterVectorUpdateable compute(List<DBNParameterVectorUpdateable> arg0) {
@@ -399,14 +560,127 @@ public class WorkerNode implements ComputableWorker<DBNParameterVectorUpdateable
 		
 		//System.out.println("Worker::setRecordParser()");
 		
+		// the split names this worker's checkpoints, and has to be read before the fetcher starts
+		long resumeBatches = 0;
+		if (null != this.checkpointStore) {
+			resumeBatches = this.checkpointSetup();
+		}
+		
 		try {
 			// Q: is totalTrainingDatasetSize actually used anymore?
-			this.hdfs_fetcher = new MnistHDFSDataSetIterator( this.batchSize, this.totalTrainingDatasetSize, (TextRecordParser)lineParser );
+			this.hdfs_fetcher = new MnistHDFSDataSetIterator( this.batchSize, this.totalTrainingDatasetSize, (TextRecordParser)lineParser, this.prefetchDepth );
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
 		
+		// back to where the checkpointed pass was: read past the batches it had consumed
+		for (long b = 0; b < resumeBatches && this.hdfs_fetcher.hasNext(); b++) {
+			this.hdfs_fetcher.next();
+		}
+		
+	}
+	
+	/**
+	 * Names this worker's checkpoints after its split and, when resuming, restores the
+	 * latest consistent superstep's state
+	 * 
+	 * @return batches to skip in the current pass (0 unless resumed)
+	 */
+	private long checkpointSetup() {
+		
+		try {
+			
+			this.checkpointName = CheckpointStore.workerName( CheckpointStore.splitKey( this.lineParser ) );
+			this.splitHash = CheckpointStore.splitHash( this.lineParser );
+			this.checkpoints = new CheckpointWriter( this.checkpointStore );
+			
+			if (!this.checkpointStore.isResume()) {
+				return 0;
+			}
+			
+			int superstep = this.checkpointStore.latestConsistent();
+			byte[] state = (superstep < 0) ? null : this.checkpointStore.read( this.checkpointName, superstep );
+			
+			if (null == state) {
+				LOG.info( "Worker > No checkpoint to resume from, starting fresh" );
+				return 0;
+			}
+			
+			if (!this.restoreState( state )) {
+				LOG.warn( "Worker > " + this.checkpointName + " changed since superstep " + superstep + " was checkpointed, starting fresh" );
+				return 0;
+			}
+			
+			LOG.info( "Worker > Resumed from superstep " + superstep + ", " + this.currentTrainingState + ", dataset pass " + this.completedDatasetEpochs + ", batch " + this.batchInPass );
+			
+			return this.batchInPass;
+			
+		} catch (IOException e) {
+			
+			LOG.warn( "Checkpoints off, could not set them up: " + e.getMessage(), e );
+			this.checkpoints = null;
+			return 0;
+			
+		}
+		
+	}
+	
+	/**
+	 * Everything a worker carries between supersteps:
+	 * 
+	 * 		the split's content hash, training state, phase flags, dataset passes, superstep,
+	 * 		batch position in the pass, (straggler adjusted) batch size, then the network as
+	 * 		dbn.write() lays it out
+	 * 
+	 * - the network bytes are the master's payload this worker just loaded, so no second
+	 * 		serialization
+	 * 
+	 */
+	private byte[] checkpointState(byte[] dbnBytes) throws IOException {
+		
+		CheckpointStore.StateBuffer out = new CheckpointStore.StateBuffer();
+		
+		out.writeLong( this.splitHash );
+		out.writeInt( this.currentTrainingState.ordinal() );
+		out.writeBoolean( this.preTrainPhaseComplete );
+		out.writeBoolean( this.fineTunePhaseComplete );
+		out.writeInt( this.completedDatasetEpochs );
+		out.writeInt( this.currentIteration + 1 );
+		out.writeLong( this.batchInPass );
+		out.writeInt( this.batchSize );
+		out.writeInt( dbnBytes.length );
+		out.write( dbnBytes );
+		
+		return out.toByteArray();
+		
+	}
+	
+	/**
+	 * @return false, restoring nothing, if the state was written for different split content
+	 */
+	private boolean restoreState(byte[] state) throws IOException {
+		
+		DataInputStream in = CheckpointStore.stateInput( state );
+		
+		if (in.readLong() != this.splitHash) {
+			return false;
+		}
+		
+		this.currentTrainingState = TrainingState.values()[ in.readInt() ];
+		this.preTrainPhaseComplete = in.readBoolean();
+		this.fineTunePhaseComplete = in.readBoolean();
+		this.completedDatasetEpochs = in.readInt();
+		this.currentIteration = in.readInt();
+		this.batchInPass = in.readLong();
+		this.batchSize = in.readInt();
+		
+		byte[] dbnBytes = new byte[ in.readInt() ];
+		in.readFully( dbnBytes );
+		this.dbn.load( new ByteArrayInputStream( dbnBytes ) );
+		
+		return true;
+		
 	}
 	
 	/**
@@ -429,6 +703,8 @@ public class WorkerNode implements ComputableWorker<DBNParameterVectorUpdateable
 	      
 	      this.batchSize = this.conf.getInt( "tv.floe.metronome.dbn.conf.batchSize",  1);
 	      
+	      this.prefetchDepth = this.conf.getInt( "tv.floe.metronome.dbn.conf.prefetchDepth", 2 );
+	      
 	      this.preTrainDatasetPasses = this.conf.getInt( "tv.floe.metronome.dbn.conf.pretrain.passes", 1 );
 	      
 	      this.fineTuneDatasetPasses = this.conf.getInt( "tv.floe.metronome.dbn.conf.finetune.passes", 1 );
@@ -454,7 +730,10 @@ public class WorkerNode implements ComputableWorker<DBNParameterVectorUpdateable
 			
 			this.n_layers = hiddenLayerSizes.length;
 			
-			this.dbn = new DeepBeliefNetwork( numIns, hiddenLayerSizes, numLabels, n_layers, rng ); //, Matrix input, Matrix labels);
+			// same seed on every worker: the initial weights have to agree before the first average
+			this.rng = new Xoroshiro128PlusRandom( this.conf.getInt( "tv.floe.metronome.dbn.conf.seed", 123 ) );
+			
+			this.dbn = NetworkFactory.create( this.conf, numIns, hiddenLayerSizes, numLabels, rng );
 	
 			// default it to off
 			this.dbn.useRegularization = false;
@@ -467,6 +746,9 @@ public class WorkerNode implements ComputableWorker<DBNParameterVectorUpdateable
 			this.dbn.setSparsity( Double.parseDouble( this.conf.get( "tv.floe.metronome.dbn.conf.sparsity", "0.01") ) );
 			this.dbn.setMomentum( Double.parseDouble( this.conf.get( "tv.floe.metronome.dbn.conf.momentum", "0" ) ) );		
 			
+			this.holdOut = HoldOutSelector.fromConf( this.conf );
+			
+			this.checkpointStore = CheckpointStore.fromConf( this.conf );
 	      
 	      
 	    } catch (Exception e) {
@@ -507,6 +789,7 @@ public class WorkerNode implements ComputableWorker<DBNParameterVectorUpdateable
 			
 			this.completedDatasetEpochs++;
 			this.hdfs_fetcher.reset();
+			this.batchInPass = 0;
 			
 		//	System.out.println( "Worker > update > starting new data set pass: " + this.completedDatasetEpochs );
 			
@@ -531,6 +814,24 @@ public class WorkerNode implements ComputableWorker<DBNParameterVectorUpdateable
 			
 		//	System.out.println( "Worker > update > not yet time to start next dataset pass" );
 			
+		}
+		
+		if ( true == master_update.masterSignalToStopTraining && TrainingState.TRAINING_COMPLETE != this.currentTrainingState ) {
+			
+			LOG.info( "Worker > Master signaled convergence, done training" );
+			this.currentTrainingState = TrainingState.TRAINING_COMPLETE;
+			
+		}
+		
+		// this superstep is done once the master's model is in, IncrementIteration() comes next
+		if ( null != this.checkpoints && this.checkpointStore.isDue( this.currentIteration + 1 ) ) {
+			
+			try {
+				this.checkpoints.submit( this.checkpointName, this.currentIteration + 1, 0, this.checkpointState( master_update.dbn_payload ), false );
+			} catch (IOException e) {
+				LOG.warn( "Could not snapshot worker state: " + e.getMessage(), e );
+			}
+			
 		}
 		/*
 		if (true == master_update.masterSignalToStartFineTunePhase && TrainingState.PRE_TRAIN == this.currentTrainingState) {
@@ -596,7 +897,7 @@ public class WorkerNode implements ComputableWorker<DBNParameterVectorUpdateable
 
 	public static void main(String[] args) throws Exception {
 
-		TextRecordParser parser = new TextRecordParser();
+		TextRecordParser parser = new SplitTextRecordParser();
 		WorkerNode wn = new WorkerNode();
 		ApplicationWorker<DBNParameterVectorUpdateable> aw = new ApplicationWorker<DBNParameterVectorUpdateable>(parser, wn, DBNParameterVectorUpdateable.class);
 			    
@@ -26,9 +26,10 @@ import tv.floe.metronome.deeplearning.datasets.DataSet;
 import tv.floe.metronome.deeplearning.datasets.iterator.BaseDatasetIterator;
 import tv.floe.metronome.deeplearning.datasets.iterator.impl.MnistDataSetIterator;
 import tv.floe.metronome.deeplearning.datasets.iterator.impl.MnistHDFSDataSetIterator;
-import tv.floe.metronome.deeplearning.dbn.DeepBeliefNetwork;
+import tv.floe.metronome.deeplearning.dbn.iterativereduce.NetworkFactory;
 import tv.floe.metronome.deeplearning.neuralnetwork.core.BaseMultiLayerNeuralNetworkVectorized;
 import tv.floe.metronome.eval.Evaluation;
+import tv.floe.metronome.eval.EvaluationPipeline;
 
 /**
  * Model tester build specifically for Deep Belief Networks
@@ -44,6 +45,9 @@ public class ModelTester {
 	public static String model_path = "";
 	public static String test_input_data_path = "";
 	
+	// tv.floe.metronome.dbn.conf.pretrainer from the job's properties, picks the saved model's class
+	public static String pretrainer = null;
+	
 	
 
 
@@ -90,32 +94,89 @@ public class ModelTester {
 	
 	
 	
-	public static void evaluateModel( BaseDatasetIterator iterator, BaseMultiLayerNeuralNetworkVectorized model ) throws IOException {
+	/**
+	 * Evaluates the model over every batch of the iterator, one predictor per core
+	 * 
+	 */
+	public static Evaluation evaluateModel( BaseDatasetIterator iterator, BaseMultiLayerNeuralNetworkVectorized model ) throws IOException {
 		
-
-		Evaluation eval = new Evaluation();
-		//BaseMultiLayerNeuralNetworkVectorized load = BaseMultiLayerNeuralNetworkVectorized.loadFromFile(new FileInputStream(new File(modelLocation)));
+		return evaluateModel( iterator, model, Runtime.getRuntime().availableProcessors() );
+		
+	}
+	
+	/**
+	 * Streams the iterator through an EvaluationPipeline: one thread pulls batches, 
+	 * [threads] threads run predict() against the shared (read only) weights
+	 * 
+	 * - every batch is copied before it is queued: recycling iterators (the prefetching
+	 * 		MNIST HDFS fetcher) hand out a batch that is only valid until the next fetch,
+	 * 		while the scorers may still be working on it
+	 * 
+	 */
+	public static Evaluation evaluateModel( final BaseDatasetIterator iterator, final BaseMultiLayerNeuralNetworkVectorized model, int threads ) throws IOException {
 		
-		while (iterator.hasNext()) {
+		EvaluationPipeline<DataSet> pipeline = new EvaluationPipeline<DataSet>( threads, threads * 2 );
+		
+		Evaluation eval = null;
+		
+		try {
 			
-			DataSet inputs = iterator.next();
-
-			Matrix in = inputs.getFirst();
-			Matrix outcomes = inputs.getSecond();
-			Matrix predicted = model.predict(in);
-			eval.eval( outcomes, predicted );
+			eval = pipeline.run( iteratorReader( iterator ), new EvaluationPipeline.BatchScorerFactory<DataSet>() {
+	
+				@Override
+				public EvaluationPipeline.BatchScorer<DataSet> newScorer() {
+					return sharedModelScorer( model );
+				}
+				
+			} );
 			
+		} catch (IOException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException( "Model evaluation failed", e );
 		}
 		
-		
-		
-		log.warn( "evaluateModel" );
+		log.warn( "evaluateModel: " + pipeline.getBatchesScored() + " batches on " + threads + " threads" );
 		log.info( eval.stats() );		
 		
-		//writeReportToDisk( eval, pathForReport );
+		return eval;
 		
 	}	
 	
+	private static EvaluationPipeline.BatchReader<DataSet> iteratorReader( final BaseDatasetIterator iterator ) {
+		
+		return new EvaluationPipeline.BatchReader<DataSet>() {
+
+			@Override
+			public DataSet next() {
+				
+				if (!iterator.hasNext()) {
+					return null;
+				}
+				
+				// the iterator may refill this batch's matrices on the next call
+				DataSet batch = iterator.next();
+				return new DataSet( batch.getFirst().clone(), batch.getSecond().clone() );
+				
+			}
+			
+		};
+		
+	}
+	
+	private static EvaluationPipeline.BatchScorer<DataSet> sharedModelScorer( final BaseMultiLayerNeuralNetworkVectorized model ) {
+		
+		return new EvaluationPipeline.BatchScorer<DataSet>() {
+
+			@Override
+			public void score(DataSet batch, Evaluation eval) {
+				eval.eval( batch.getSecond(), model.predict( batch.getFirst() ) );
+			}
+			
+		};
+		
+	}
+	
 	
 	
 	public static void evaluateModel( Matrix inputs, Matrix labels, BaseMultiLayerNeuralNetworkVectorized model ) throws IOException {
@@ -148,25 +209,9 @@ public class ModelTester {
 	
 	public static void evaluateSavedModel( BaseDatasetIterator iterator, String modelLocation, String pathForReport ) throws IOException {
 		
-
-		Evaluation eval = new Evaluation();
 		BaseMultiLayerNeuralNetworkVectorized load = BaseMultiLayerNeuralNetworkVectorized.loadFromFile(new FileInputStream(new File(modelLocation)));
 		
-		while (iterator.hasNext()) {
-			
-			DataSet inputs = iterator.next();
-
-			Matrix in = inputs.getFirst();
-			Matrix outcomes = inputs.getSecond();
-			Matrix predicted = load.predict(in);
-			eval.eval( outcomes, predicted );
-			
-		}
-		
-		
-		
-		
-		log.info( eval.stats() );		
+		Evaluation eval = evaluateModel( iterator, load );
 		
 		writeReportToDisk( eval, pathForReport );
 		
@@ -282,14 +327,9 @@ public class ModelTester {
 					
 
 	    
+		// the whole test split, not just the first batch
 		MnistHDFSDataSetIterator hdfs_fetcher = new MnistHDFSDataSetIterator( batchSize, 1, txt_reader );
-		DataSet hdfs_recordBatch = hdfs_fetcher.next();
-		
-		Matrix hdfs_input = hdfs_recordBatch.getFirst();
-		Matrix hdfs_labels = hdfs_recordBatch.getSecond();			
 		
-		//ModelTester.evaluateModel( recordBatch.getFirst(), recordBatch.getSecond(), dbn);
-			
 		
 		int[] hiddenLayerSizes = new int[] {2,2,2};
 		
@@ -312,11 +352,16 @@ public class ModelTester {
 	    FSDataInputStream inputStream = fs.open( model_new_path);		
 		
 		
-		DeepBeliefNetwork dbn_deserialize = new DeepBeliefNetwork(1, hiddenLayerSizes, 1, hiddenLayerSizes.length, null ); //, Matrix input, Matrix labels);
-		//dbn_deserialize.load(oFileInputStream);
-		dbn_deserialize.load( inputStream );
+		// the saved layout has no type tag, the job's pretrainer says whether it's a DBN or an SdA
+		Configuration networkConf = new Configuration( hadoopConf );
+		if (null != pretrainer) {
+			networkConf.set( NetworkFactory.CONF_PRETRAINER, pretrainer );
+		}
+		
+		BaseMultiLayerNeuralNetworkVectorized model = NetworkFactory.create( networkConf, 1, hiddenLayerSizes, 1, null );
+		model.load( inputStream );
 		
-		evaluateModel( hdfs_input, hdfs_labels, dbn_deserialize );
+		evaluateModel( hdfs_fetcher, model );
 			
 			
 		
@@ -355,6 +400,8 @@ public class ModelTester {
 			throw new Exception("Can't find the eval/test recordset in the properites file!");
 		}
 
+		pretrainer = props.getProperty( NetworkFactory.CONF_PRETRAINER );
+
 		
 	}	
 		
@@ -1,5 +1,6 @@
 package tv.floe.metronome.deeplearning.neuralnetwork.activation;
 
+import tv.floe.metronome.math.ActivationKernels;
 
 public class Activations {
 
@@ -21,4 +22,20 @@ public class Activations {
 	public static ActivationFunction softmax() {
 		return new SoftMax();
 	}
+
+	public static ActivationFunction tanh(ActivationKernels kernels) {
+		return new TanH(kernels);
+	}
+
+	public static ActivationFunction sigmoid(ActivationKernels kernels) {
+		return new Sigmoid(kernels);
+	}
+
+	public static ActivationFunction hardTanh(ActivationKernels kernels) {
+		return new HardTanh(kernels);
+	}
+
+	public static ActivationFunction softmax(ActivationKernels kernels) {
+		return new SoftMax(kernels);
+	}
 }
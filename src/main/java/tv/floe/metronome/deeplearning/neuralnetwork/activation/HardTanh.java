@@ -2,6 +2,7 @@ package tv.floe.metronome.deeplearning.neuralnetwork.activation;
 
 import org.apache.mahout.math.Matrix;
 
+import tv.floe.metronome.math.ActivationKernels;
 import tv.floe.metronome.math.MatrixUtils;
 
 
@@ -12,6 +13,15 @@ public class HardTanh implements ActivationFunction {
 		 */
 		private static final long serialVersionUID = -8484119406683594852L;
 
+		private ActivationKernels kernels = ActivationKernels.EXACT;
+
+		public HardTanh() {
+		}
+
+		public HardTanh(ActivationKernels kernels) {
+			this.kernels = kernels;
+		}
+
 		@Override
 		public Matrix apply(Matrix matrix) {
 			for(int i = 0; i < MatrixUtils.length( matrix ); i++) {
@@ -21,7 +31,7 @@ public class HardTanh implements ActivationFunction {
 				else if(val > 1)
 					val = 1;
 				else
-					val = Math.tanh(val);
+					val = kernels.tanh(val);
 				//matrix.put(i,val);
 				MatrixUtils.setElement(matrix, i, val);
 			}
@@ -56,8 +66,10 @@ public class HardTanh implements ActivationFunction {
 					val = -1;
 				else if(val > 1)
 					val = 1;
-				else
-					val = 1 - Math.pow(Math.tanh(val),2);
+				else {
+					double tanh = kernels.tanh(val);
+					val = 1 - tanh * tanh;
+				}
 				//input.put(i,val);
 				MatrixUtils.setElement(input, i, val);
 				
@@ -1,9 +1,12 @@
 package tv.floe.metronome.deeplearning.neuralnetwork.activation;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 
 import org.apache.mahout.math.Matrix;
 
+import tv.floe.metronome.math.ActivationKernels;
 import tv.floe.metronome.math.MatrixUtils;
 
 
@@ -11,14 +14,32 @@ public class Sigmoid implements ActivationFunction,Serializable {
 
 	private static final long serialVersionUID = -6280602270833101092L;
 
+	private ActivationKernels kernels = ActivationKernels.EXACT;
+
+	public Sigmoid() {
+	}
+
+	public Sigmoid(ActivationKernels kernels) {
+		this.kernels = kernels;
+	}
+
 	public Matrix apply(Matrix arg0) {
-		return MatrixUtils.sigmoid(arg0);
+		return MatrixUtils.sigmoid(arg0, this.kernels);
 	}
 
 	@Override
 	public Matrix applyDerivative(Matrix input) {
 		//return MatrixUtils.sigmoid( input ).times( MatrixUtils.oneMinus( MatrixUtils.sigmoid( input ) ) );
-		return MatrixUtils.elementWiseMultiplication( MatrixUtils.sigmoid( input ), MatrixUtils.oneMinus( MatrixUtils.sigmoid( input ) ) );
+		Matrix sigmoid = MatrixUtils.sigmoid( input, this.kernels );
+		return MatrixUtils.elementWiseMultiplication( sigmoid, MatrixUtils.oneMinus( sigmoid ) );
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		if (null == this.kernels) {
+			// saved before the kernels field existed
+			this.kernels = ActivationKernels.EXACT;
+		}
 	}
 
 }
@@ -1,22 +1,43 @@
 package tv.floe.metronome.deeplearning.neuralnetwork.activation;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 
 import org.apache.mahout.math.Matrix;
 
+import tv.floe.metronome.math.ActivationKernels;
 import tv.floe.metronome.math.MatrixUtils;
 
 public class SoftMax  implements ActivationFunction,Serializable {
 
 	private static final long serialVersionUID = -1820333963272195229L;
 
+	private ActivationKernels kernels = ActivationKernels.EXACT;
+
+	public SoftMax() {
+	}
+
+	public SoftMax(ActivationKernels kernels) {
+		this.kernels = kernels;
+	}
+
 	public Matrix apply(Matrix arg0) {
-		return MatrixUtils.softmax(arg0);
+		return MatrixUtils.softmax(arg0, this.kernels);
 	}
 
 	@Override
 	public Matrix applyDerivative(Matrix input) {
-		return MatrixUtils.elementWiseMultiplication( MatrixUtils.softmax( input ), MatrixUtils.oneMinus( MatrixUtils.softmax( input ) ) );
+		Matrix softmax = MatrixUtils.softmax( input, this.kernels );
+		return MatrixUtils.elementWiseMultiplication( softmax, MatrixUtils.oneMinus( softmax ) );
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		if (null == this.kernels) {
+			// saved before the kernels field existed
+			this.kernels = ActivationKernels.EXACT;
+		}
 	}
 
 }
@@ -1,24 +1,49 @@
 package tv.floe.metronome.deeplearning.neuralnetwork.activation;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 
 import org.apache.mahout.math.Matrix;
 
+import tv.floe.metronome.math.ActivationKernels;
 import tv.floe.metronome.math.MatrixUtils;
 
 public class TanH implements ActivationFunction,Serializable {
 
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = -9197509140067950854L;
+
+	private ActivationKernels kernels = ActivationKernels.EXACT;
+
+	public TanH() {
+	}
+
+	public TanH(ActivationKernels kernels) {
+		this.kernels = kernels;
+	}
+
 	@Override
 	public Matrix apply(Matrix arg0) {
-		// TODO: implement TanH in MatrixUtils
-		return MatrixUtils.tanh(arg0);
+		return MatrixUtils.tanh(arg0, this.kernels);
 	}
 
 	@Override
 	public Matrix applyDerivative(Matrix input) {
 		//1 - tanh^2 x
 		//return oneMinus(pow(tanh(input),2));
-		return MatrixUtils.oneMinus( MatrixUtils.pow( MatrixUtils.tanh( input ) , 2) );
+		Matrix tanh = MatrixUtils.tanh( input, this.kernels );
+		return MatrixUtils.oneMinus( MatrixUtils.elementWiseMultiplication( tanh, tanh ) );
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		if (null == this.kernels) {
+			// saved before the kernels field existed
+			this.kernels = ActivationKernels.EXACT;
+		}
 	}
 
 }
@@ -42,6 +42,7 @@ import tv.floe.metronome.deeplearning.neuralnetwork.gradient.NeuralNetworkGradie
 import tv.floe.metronome.deeplearning.neuralnetwork.layer.HiddenLayer;
 import tv.floe.metronome.deeplearning.neuralnetwork.optimize.MultiLayerNetworkOptimizer;
 import tv.floe.metronome.deeplearning.neuralnetwork.serde.Persistable;
+import tv.floe.metronome.math.ActivationKernels;
 import tv.floe.metronome.math.MatrixUtils;
 import tv.floe.metronome.types.Pair;
 
@@ -135,6 +136,13 @@ public abstract class BaseMultiLayerNeuralNetworkVectorized implements Serializa
      */
     protected LossFunction lossFunction;
 
+    /**
+     * Accuracy of the sigmoid / exp in every layer, pushed down to the hidden, pretraining
+     * and output layers (runtime setting, not persisted: a deserialized network is EXACT
+     * until setActivationKernels() is called, load() keeps whatever this network had)
+     */
+    protected transient ActivationKernels activationKernels = ActivationKernels.EXACT;
+
 
     /**
      * CTOR
@@ -295,6 +303,7 @@ public abstract class BaseMultiLayerNeuralNetworkVectorized implements Serializa
 
         dimensionCheck();
         applyTransforms();
+        applyActivationKernels();
         initCalled = true;
 
 
@@ -884,9 +893,10 @@ public abstract class BaseMultiLayerNeuralNetworkVectorized implements Serializa
 
         Matrix input = x;
 
+        // read only over the weights, safe to call from several evaluation threads
         for(int i = 0; i < this.numberLayers; i++) {
             HiddenLayer layer = this.hiddenLayers[i];
-            input = layer.computeOutputActivation(input);
+            input = layer.activate(input);
         }
 
         return this.logisticRegressionLayer.predict(input);
@@ -969,7 +979,9 @@ public abstract class BaseMultiLayerNeuralNetworkVectorized implements Serializa
         try {
             ObjectInputStream ois = new ObjectInputStream(is);
             BaseMultiLayerNeuralNetworkVectorized loaded = (BaseMultiLayerNeuralNetworkVectorized) ois.readObject();
+            ActivationKernels kernels = this.activationKernels;
             update(loaded);
+            setActivationKernels( kernels );
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -1081,6 +1093,7 @@ public abstract class BaseMultiLayerNeuralNetworkVectorized implements Serializa
         this.learningRateUpdate = network.learningRateUpdate;
         this.shouldBackProp = network.shouldBackProp;
         this.sparsity = network.sparsity;
+        this.activationKernels = network.activationKernels;
 
 
         this.hiddenLayers = new HiddenLayer[network.hiddenLayers.length];
@@ -1139,6 +1152,17 @@ public abstract class BaseMultiLayerNeuralNetworkVectorized implements Serializa
      */
     public abstract void trainNetwork(Matrix input,Matrix labels,Object[] otherParams);
 
+    /**
+     * Unsupervised layer-wise pretraining on one batch, with the network's own algorithm
+     * specific settings (CD-1 for RBMs, the corruption level for dAs). This is what the
+     * IterativeReduce worker calls so it does not need to know the pretraining layer type
+     *
+     * @param input the input to train on
+     * @param learningRate the learning rate for the pretraining layers
+     * @param epochs the number of passes over the batch for each layer
+     */
+    public abstract void preTrain(Matrix input, double learningRate, int epochs);
+
     /**
      * Creates a layer depending on the index.
      * The main reason this matters is for continuous variations such as the {@link CDBN}
@@ -1199,6 +1223,48 @@ public abstract class BaseMultiLayerNeuralNetworkVectorized implements Serializa
 
     }
 
+    public synchronized ActivationKernels getActivationKernels() {
+        return activationKernels;
+    }
+
+    public synchronized void setActivationKernels(ActivationKernels activationKernels) {
+        this.activationKernels = activationKernels;
+        applyActivationKernels();
+    }
+
+    /**
+     * Pushes activationKernels down to whichever layers exist yet
+     *
+     */
+    protected void applyActivationKernels() {
+
+        if (null != this.hiddenLayers) {
+            for (int i = 0; i < this.hiddenLayers.length; i++) {
+                if (null != this.hiddenLayers[ i ]) {
+                    this.hiddenLayers[ i ].activationKernels = this.activationKernels;
+                }
+            }
+        }
+
+        if (null != this.preTrainingLayers) {
+            for (int i = 0; i < this.preTrainingLayers.length; i++) {
+                if (this.preTrainingLayers[ i ] instanceof BaseNeuralNetworkVectorized) {
+                    ((BaseNeuralNetworkVectorized) this.preTrainingLayers[ i ]).setActivationKernels( this.activationKernels );
+                }
+            }
+        }
+
+        if (null != this.logisticRegressionLayer) {
+            this.logisticRegressionLayer.activationKernels = this.activationKernels;
+        }
+
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.activationKernels = ActivationKernels.EXACT;
+    }
+
     public synchronized double getMomentum() {
         return momentum;
     }
@@ -1324,6 +1390,88 @@ public abstract class BaseMultiLayerNeuralNetworkVectorized implements Serializa
 
     }
 
+    /**
+     * Computes an average parameter value from N worker updates
+     * - the produced vectors are meant to be sent back to workers
+     * - works on any pretraining layer type (RBM, dA), they all carry W / hbias / vbias
+     * 
+     * Assumptions
+     * 
+     * TODO:
+     * - we need to look at variations where this master copy DBN is still "usable"
+     * 
+     * - Food for thought: do we average the parameter vectors of adagrad vars?
+     * 
+     * @param workerDBNs
+     */
+    public void computeAverageDBNParameterVector( List<? extends BaseMultiLayerNeuralNetworkVectorized> workerDBNParameterVectors ) {
+        
+        // 1. setup the local DBN to match
+        // - right now we assume the DBNs match
+        
+
+//		MatrixUtils.debug_print( workerDBNParameterVectors.get(0).preTrainingLayers[ 0 ].getConnectionWeights() );
+//		MatrixUtils.debug_print( workerDBNParameterVectors.get(1).preTrainingLayers[ 0 ].getConnectionWeights() );
+        //MatrixUtils.debug_print( this.preTrainingLayers[ 0 ].getConnectionWeights() );
+        
+        // 2. now take a look at each pre train layer
+        
+        //MatrixUtils.debug_print_matrix_stats(this.preTrainingLayers[ layer ].getConnectionWeights(), "layer " + layer + " stats");
+        
+        for ( int worker = 0; worker < workerDBNParameterVectors.size(); worker++ ) {
+            
+            // sum/look at the pretrain layers
+            for ( int layer = 0; layer < this.numberLayers; layer++ ) {
+            	
+            //	MatrixUtils.debug_print_matrix_stats(this.preTrainingLayers[ layer ].getConnectionWeights(), "this.layer " + layer + " stats");
+            //	MatrixUtils.debug_print_matrix_stats( workerDBNParameterVectors.get(worker).preTrainingLayers[ layer ].getConnectionWeights(), "worker " + worker + " layer " + layer + " stats");
+            	
+    
+            	MatrixUtils.addi( this.preTrainingLayers[ layer ].getConnectionWeights(), workerDBNParameterVectors.get(worker).preTrainingLayers[ layer ].getConnectionWeights() );
+            	MatrixUtils.addi( this.preTrainingLayers[ layer ].getHiddenBias(), workerDBNParameterVectors.get(worker).preTrainingLayers[ layer ].getHiddenBias() );
+            	MatrixUtils.addi( this.preTrainingLayers[ layer ].getVisibleBias(), workerDBNParameterVectors.get(worker).preTrainingLayers[ layer ].getVisibleBias() );
+            	
+            }
+            
+            // sum/look at the logistic layer
+            
+            MatrixUtils.addi( this.logisticRegressionLayer.connectionWeights, workerDBNParameterVectors.get(worker).logisticRegressionLayer.connectionWeights );
+            MatrixUtils.addi( this.logisticRegressionLayer.biasTerms, workerDBNParameterVectors.get(worker).logisticRegressionLayer.biasTerms );
+            		    
+        }
+        
+//		System.out.println( "Pre Train Layer Debug (pre divide)" );
+//		MatrixUtils.debug_print( this.preTrainingLayers[ 0 ].getConnectionWeights() );
+        
+        // 3. compute averages for both pretrain, then update the hidden layer
+        
+        for ( int layer = 0; layer < this.numberLayers; layer++ ) {
+            
+            MatrixUtils.divi( this.preTrainingLayers[ layer ].getConnectionWeights(), workerDBNParameterVectors.size() );
+            MatrixUtils.divi( this.preTrainingLayers[ layer ].getHiddenBias(), workerDBNParameterVectors.size() );
+            MatrixUtils.divi( this.preTrainingLayers[ layer ].getVisibleBias(), workerDBNParameterVectors.size() );
+            
+            // now update the hidden layer
+            
+            //tied weights: must be updated at the same time
+            this.hiddenLayers[ layer ].biasTerms = this.preTrainingLayers[ layer ].getHiddenBias();
+            this.hiddenLayers[ layer ].connectionWeights = this.preTrainingLayers[ layer ].getConnectionWeights();
+            
+            
+        }
+        
+//		System.out.println( "Pre Train Layer Debug (post divide)" );
+//		MatrixUtils.debug_print( this.preTrainingLayers[ 0 ].getConnectionWeights() );
+
+        // 4. compute averages for logistic layer
+        
+        MatrixUtils.divi( this.logisticRegressionLayer.connectionWeights, workerDBNParameterVectors.size() );
+        MatrixUtils.divi( this.logisticRegressionLayer.biasTerms, workerDBNParameterVectors.size() );
+    
+        // TODO: do we need to parameter average the adagrad?
+        
+    }
+
     public boolean isForceNumEpochs() {
         return forceNumEpochs;
     }
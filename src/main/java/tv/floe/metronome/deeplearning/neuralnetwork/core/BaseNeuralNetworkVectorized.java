@@ -9,6 +9,7 @@ import org.apache.mahout.math.Matrix;
 
 import tv.floe.metronome.deeplearning.neuralnetwork.core.learning.AdagradLearningRate;
 import tv.floe.metronome.deeplearning.neuralnetwork.gradient.NeuralNetworkGradient;
+import tv.floe.metronome.math.ActivationKernels;
 import tv.floe.metronome.math.MathUtils;
 import tv.floe.metronome.math.MatrixUtils;
 
@@ -70,6 +71,9 @@ public abstract class BaseNeuralNetworkVectorized implements NeuralNetworkVector
     protected OptimizationAlgorithm optimizationAlgo;
     protected LossFunction lossFunction;
 
+    /* accuracy of the sigmoid / exp used by the activations (runtime setting, not persisted) */
+    protected ActivationKernels activationKernels = ActivationKernels.EXACT;
+
 
 
     // default CTOR
@@ -307,6 +311,8 @@ public abstract class BaseNeuralNetworkVectorized implements NeuralNetworkVector
             ret.setLossFunction(lossFunction);
             ret.setOptimizationAlgorithm(optimizationAlgo);
 
+            ((BaseNeuralNetworkVectorized) ret).setActivationKernels( this.activationKernels );
+
 
             return ret;
         } catch (Exception e) {
@@ -382,6 +388,18 @@ public abstract class BaseNeuralNetworkVectorized implements NeuralNetworkVector
 
     }
 
+    public ActivationKernels getActivationKernels() {
+
+        return this.activationKernels;
+
+    }
+
+    public void setActivationKernels(ActivationKernels activationKernels) {
+
+        this.activationKernels = activationKernels;
+
+    }
+
     @Override
     public double getMomentum() {
 
@@ -672,10 +690,10 @@ public abstract class BaseNeuralNetworkVectorized implements NeuralNetworkVector
     public double getReConstructionCrossEntropy() {
         //Matrix preSigH = input.mmul(W).addRowVector(hBias);
         Matrix preSigH = MatrixUtils.addRowVector( this.trainingDataset.times(this.connectionWeights), this.hiddenBiasNeurons.viewRow(0) );
-        Matrix sigH = MatrixUtils.sigmoid(preSigH);
+        Matrix sigH = MatrixUtils.sigmoid(preSigH, this.activationKernels);
 
         Matrix preSigV = MatrixUtils.addRowVector( sigH.times(this.connectionWeights.transpose()), this.visibleBiasNeurons.viewRow(0) );
-        Matrix sigV = MatrixUtils.sigmoid(preSigV);
+        Matrix sigV = MatrixUtils.sigmoid(preSigV, this.activationKernels);
         Matrix inner =
                 this.trainingDataset.times(MatrixUtils.log(sigV))
                         .plus(MatrixUtils.oneMinus( this.trainingDataset )
@@ -21,6 +21,7 @@ import tv.floe.metronome.deeplearning.neuralnetwork.core.learning.AdagradLearnin
 import tv.floe.metronome.deeplearning.neuralnetwork.gradient.LogisticRegressionGradient;
 import tv.floe.metronome.deeplearning.neuralnetwork.optimize.LogisticRegressionOptimizer;
 import tv.floe.metronome.deeplearning.neuralnetwork.optimize.VectorizedNonZeroStoppingConjugateGradient;
+import tv.floe.metronome.math.ActivationKernels;
 import tv.floe.metronome.math.MatrixUtils;
 
 
@@ -34,6 +35,8 @@ public class LogisticRegression implements Serializable {
 	public Matrix biasTerms;
 	public double l2 = 0.01;
 	public boolean useRegularization = true;
+	// accuracy of the softmax / sigmoid exp, runtime setting (not written by write(), EXACT when deserialized)
+	public transient ActivationKernels activationKernels = ActivationKernels.EXACT;
 	private static Logger log = LoggerFactory.getLogger(LogisticRegression.class);
 
 	private boolean useAdaGrad = false;
@@ -188,7 +191,7 @@ public class LogisticRegression implements Serializable {
 	 */
 	public double negativeLogLikelihood() {
 		
-		Matrix sigActivation = MatrixUtils.softmax( MatrixUtils.addRowVector( input.times(this.connectionWeights), this.biasTerms.viewRow(0) ) );
+		Matrix sigActivation = MatrixUtils.softmax( MatrixUtils.addRowVector( input.times(this.connectionWeights), this.biasTerms.viewRow(0) ), this.activationKernels );
 		
 		if (this.useRegularization) {
 			
@@ -259,7 +262,7 @@ public class LogisticRegression implements Serializable {
 		
 		
 		//Matrix p_y_given_x = sigmoid(input.mmul(W).addRowVector(b));
-		Matrix p_y_given_x = MatrixUtils.sigmoid( MatrixUtils.addRowVector( input.times( this.connectionWeights ), this.biasTerms.viewRow(0) ) );
+		Matrix p_y_given_x = MatrixUtils.sigmoid( MatrixUtils.addRowVector( input.times( this.connectionWeights ), this.biasTerms.viewRow(0) ), this.activationKernels );
 		
 		//Matrix dy = labels.sub(p_y_given_x);
 		Matrix dy = labels.minus(p_y_given_x);
@@ -327,7 +330,7 @@ public class LogisticRegression implements Serializable {
 	public Matrix predict(Matrix x) {
 		
 		//return softmax(x.mmul(W).addRowVector(b));
-		return MatrixUtils.softmax( MatrixUtils.addRowVector( x.times( this.connectionWeights ), this.biasTerms.viewRow(0) ) );
+		return MatrixUtils.softmax( MatrixUtils.addRowVector( x.times( this.connectionWeights ), this.biasTerms.viewRow(0) ), this.activationKernels );
 		
 	}	
 	
@@ -343,6 +346,7 @@ public class LogisticRegression implements Serializable {
 		reg.nIn = this.nIn;
 		reg.nOut = this.nOut;
 		reg.useRegularization = this.useRegularization;
+		reg.activationKernels = this.activationKernels;
 
 		
 	    reg.useAdaGrad = this.useAdaGrad;
@@ -474,6 +478,10 @@ public class LogisticRegression implements Serializable {
 
 	}	
 
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		this.activationKernels = ActivationKernels.EXACT;
+	}
 
 	
 	public  int getnIn() {
@@ -25,6 +25,7 @@ import org.apache.mahout.math.Vector;
 import tv.floe.metronome.deeplearning.neuralnetwork.activation.ActivationFunction;
 import tv.floe.metronome.deeplearning.neuralnetwork.activation.Sigmoid;
 import tv.floe.metronome.deeplearning.neuralnetwork.core.BaseMultiLayerNeuralNetworkVectorized;
+import tv.floe.metronome.math.ActivationKernels;
 import tv.floe.metronome.math.MatrixUtils;
 
 /**
@@ -55,6 +56,8 @@ public class HiddenLayer implements Serializable {
 	public RandomGenerator rndNumGenerator;
 	public Matrix input;
 	public ActivationFunction activationFunction = new Sigmoid();
+	// accuracy of the sigmoid in activate(), runtime setting (not written by write(), EXACT when deserialized)
+	public transient ActivationKernels activationKernels = ActivationKernels.EXACT;
 	
 	private HiddenLayer() {}
 	
@@ -153,12 +156,25 @@ public class HiddenLayer implements Serializable {
 		System.out.println("input: rows: " + this.input.numRows() + ", cols: " + this.input.numCols() );
 		System.out.println("connectionWeights: rows: " + this.connectionWeights.numRows() + ", cols: " + this.connectionWeights.numCols() );
 	*/	
-		Matrix mult = this.input.times(connectionWeights);
-		Matrix multPlusBias = MatrixUtils.addRowVector(mult, this.biasTerms.viewRow(0));
-		return MatrixUtils.sigmoid(multPlusBias);
+		return activate( this.input );
 
 	}
 	
+	/**
+	 * Activation for the given input without keeping a reference to it, only reads
+	 * the weights so several threads can predict through one layer
+	 * 
+	 * @param input the input to use
+	 * @return the activation for this layer given this input
+	 */
+	public Matrix activate(Matrix input) {
+		
+		Matrix mult = input.times(connectionWeights);
+		Matrix multPlusBias = MatrixUtils.addRowVector(mult, this.biasTerms.viewRow(0));
+		return MatrixUtils.sigmoid(multPlusBias, this.activationKernels);
+		
+	}
+	
 	
 	
 	/**
@@ -209,6 +225,7 @@ public class HiddenLayer implements Serializable {
 		layer.connectionWeights = connectionWeights.clone();
 		layer.input = input.clone();
 		layer.activationFunction = activationFunction;
+		layer.activationKernels = activationKernels;
 		layer.neuronCount = neuronCount;
 		layer.neuronCountPreviousLayer = neuronCountPreviousLayer;
 		layer.rndNumGenerator = rndNumGenerator;
@@ -281,6 +298,11 @@ public class HiddenLayer implements Serializable {
 		}
 
 	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		this.activationKernels = ActivationKernels.EXACT;
+	}
 	
 	
 	
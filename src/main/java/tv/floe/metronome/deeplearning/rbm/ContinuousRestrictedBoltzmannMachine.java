@@ -40,6 +40,15 @@ public class ContinuousRestrictedBoltzmannMachine extends RestrictedBoltzmannMac
 	}
 	
 	
+	/**
+	 * Visible samples are real valued here, keep the dense CD-k path
+	 * 
+	 */
+	@Override
+	protected boolean useBinarySampleKernels() {
+		return false;
+	}
+	
 	@Override
 	public Matrix propDown(Matrix hidden) {
 		//return h.mmul(W.transpose()).addRowVector(vBias);		
@@ -53,10 +62,10 @@ public class ContinuousRestrictedBoltzmannMachine extends RestrictedBoltzmannMac
 		Matrix visibleProb = this.propDown(hidden);
 
 		// en
-		Matrix visibleProbNegExp = MatrixUtils.exp( MatrixUtils.neg(visibleProb) );
+		Matrix visibleProbNegExp = MatrixUtils.exp( MatrixUtils.neg(visibleProb), this.activationKernels );
 		
 		// ep
-		Matrix visibleProbExp = MatrixUtils.exp(visibleProb);
+		Matrix visibleProbExp = MatrixUtils.exp(visibleProb, this.activationKernels);
 
 		// DoubleMatrix v1Mean = oneDiv(oneMinus(en).sub(oneDiv(aH)));		
 		Matrix v1Mean = MatrixUtils.oneDiv(MatrixUtils.oneMinus(visibleProbNegExp).minus(MatrixUtils.oneDiv(visibleProb)));
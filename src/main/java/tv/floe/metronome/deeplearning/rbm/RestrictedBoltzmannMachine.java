@@ -24,6 +24,8 @@ import tv.floe.metronome.deeplearning.neuralnetwork.core.BaseNeuralNetworkVector
 import tv.floe.metronome.deeplearning.neuralnetwork.gradient.NeuralNetworkGradient;
 import tv.floe.metronome.deeplearning.neuralnetwork.layer.HiddenLayer;
 import tv.floe.metronome.deeplearning.neuralnetwork.optimize.NeuralNetworkOptimizer;
+import tv.floe.metronome.math.BernoulliSampler;
+import tv.floe.metronome.math.BinaryMatrix;
 import tv.floe.metronome.math.MathUtils;
 import tv.floe.metronome.math.MatrixUtils;
 import tv.floe.metronome.types.Pair;
@@ -185,6 +187,10 @@ public class RestrictedBoltzmannMachine extends BaseNeuralNetworkVectorized {
 		int k = (Integer) params[0];
 		double learningRate = (Double) params[1];
 		
+		if (useBinarySampleKernels()) {
+			return getGradientFromBinarySamples( k, learningRate );
+		}
+		
 		// init CDk
 		
 		// do gibbs sampling given V to get the Hidden states based on the training input
@@ -238,28 +244,7 @@ public class RestrictedBoltzmannMachine extends BaseNeuralNetworkVectorized {
 		Matrix dataModelDelta = trainingDataTimesInitialHiddenStates.minus( negativeVisibleSamplesTransposeTimesNegHiddenExpValues );
 		
 		// learningRate * delta(data - model)
-		Matrix wGradient = dataModelDelta.times( learningRate );
-		
-		if (useRegularization) { 
-		
-			//wGradient.subi(W.muli(l2));
-			
-			//System.out.println("regularization! " + l2);
-			
-			// TODO: figure out if this should stick around like this
-			this.connectionWeights = this.connectionWeights.times(l2);
-			wGradient = wGradient.minus(this.connectionWeights);
-		
-		}
-
-		
-		if (momentum != 0) {
-		
-			//wGradient.muli( 1 - momentum);
-			
-			wGradient = wGradient.times( 1 - momentum );
-			
-		}
+		Matrix wGradient = weightGradient( dataModelDelta, learningRate );
 
 		
 		// This is added normalization for mini-batching
@@ -298,6 +283,112 @@ public class RestrictedBoltzmannMachine extends BaseNeuralNetworkVectorized {
 		
 	}
 
+	/**
+	 * learningRate * (data - model), then regularization and momentum
+	 * 
+	 */
+	private Matrix weightGradient(Matrix dataModelDelta, double learningRate) {
+		
+		Matrix wGradient = dataModelDelta.times( learningRate );
+		
+		if (useRegularization) { 
+		
+			//wGradient.subi(W.muli(l2));
+			
+			//System.out.println("regularization! " + l2);
+			
+			// TODO: figure out if this should stick around like this
+			this.connectionWeights = this.connectionWeights.times(l2);
+			wGradient = wGradient.minus(this.connectionWeights);
+		
+		}
+
+		
+		if (momentum != 0) {
+		
+			//wGradient.muli( 1 - momentum);
+			
+			wGradient = wGradient.times( 1 - momentum );
+			
+		}
+		
+		return wGradient;
+		
+	}
+	
+	/**
+	 * True when the visible units are binary, so both halves of a Gibbs step can be kept
+	 * as bit-packed samples. Subclasses with real valued visible units turn this off
+	 * 
+	 */
+	protected boolean useBinarySampleKernels() {
+		return true;
+	}
+	
+	/**
+	 * CD-k with the hidden and visible samples kept as BinaryMatrix
+	 * 
+	 * - same samples as the dense path for the same generator state (BernoulliSampler
+	 * 		draws them in the same order)
+	 * - propUp / propDown from samples and both <v h> products sum selected weight rows
+	 * 		/ input rows instead of running a dense GEMM over 0/1 doubles
+	 * 
+	 */
+	private NeuralNetworkGradient getGradientFromBinarySamples(int k, double learningRate) {
+		
+		// positive phase
+		Matrix hiddenProbsStart = this.propUp( this.trainingDataset );
+		BinaryMatrix hiddenSamplesStart = BernoulliSampler.sampleBits( hiddenProbsStart, this.randNumGenerator );
+		this.applyDropOutIfNecessary( null );
+		
+		BinaryMatrix negativeVisibleSamples = null;
+		Matrix negativeHiddenExpectedValues = null;
+		BinaryMatrix negativeHiddenSamples = hiddenSamplesStart;
+		
+		// k full steps of alternating Gibbs sampling, starting from the hidden samples
+		for ( int x = 0; x < k; x++ ) {
+			
+			Matrix visibleProbs = MatrixUtils.sigmoid( MatrixUtils.addRowVector( negativeHiddenSamples.timesTranspose( this.connectionWeights ), this.visibleBiasNeurons.viewRow(0) ), this.activationKernels );
+			negativeVisibleSamples = BernoulliSampler.sampleBits( visibleProbs, this.randNumGenerator );
+			
+			negativeHiddenExpectedValues = MatrixUtils.sigmoid( MatrixUtils.addRowVector( negativeVisibleSamples.times( this.connectionWeights ), this.hiddenBiasNeurons.viewRow(0) ), this.activationKernels );
+			negativeHiddenSamples = BernoulliSampler.sampleBits( negativeHiddenExpectedValues, this.randNumGenerator );
+			this.applyDropOutIfNecessary( null );
+			
+		}
+		
+		// <vi hj>data - <vi hj>model
+		Matrix dataModelDelta = BinaryMatrix.denseTransposeTimes( this.trainingDataset, hiddenSamplesStart ).minus( negativeVisibleSamples.transposeTimes( negativeHiddenExpectedValues ) );
+		
+		Matrix wGradient = weightGradient( dataModelDelta, learningRate );
+		
+		Matrix vBiasGradient = MatrixUtils.columnMeans( this.trainingDataset ).minus( columnMeans( negativeVisibleSamples ) ).times( learningRate );
+		
+		Matrix hBiasGradient = null;
+		
+		if (this.sparsity != 0) {
+			hBiasGradient = columnMeans( hiddenSamplesStart ).plus( -sparsity ).times( learningRate );
+		} else {
+			hBiasGradient = columnMeans( hiddenSamplesStart ).minus( MatrixUtils.columnMeans( negativeHiddenExpectedValues ) ).times( learningRate );
+		}
+		
+		return new NeuralNetworkGradient(wGradient, vBiasGradient, hBiasGradient);
+		
+	}
+	
+	private static Matrix columnMeans(BinaryMatrix samples) {
+		
+		double[] sums = samples.columnSums();
+		Matrix means = new DenseMatrix( 1, sums.length );
+		
+		for (int c = 0; c < sums.length; c++) {
+			means.setQuick( 0, c, sums[ c ] / samples.numRows() );
+		}
+		
+		return means;
+		
+	}
+
 	/**
 	 * Reconstruction entropy.
 	 * 
@@ -320,7 +411,7 @@ public class RestrictedBoltzmannMachine extends BaseNeuralNetworkVectorized {
 		// probably could just call the propUp call w the training dataset as param
 		Matrix preSigmoidHidden = this.trainingDataset.times( this.connectionWeights );
 		preSigmoidHidden = MatrixUtils.addRowVector(preSigmoidHidden, this.hiddenBiasNeurons.viewRow(0));
-		Matrix sigHidden = MatrixUtils.sigmoid(preSigmoidHidden);
+		Matrix sigHidden = MatrixUtils.sigmoid(preSigmoidHidden, this.activationKernels);
 		
 		
 		
@@ -329,7 +420,7 @@ public class RestrictedBoltzmannMachine extends BaseNeuralNetworkVectorized {
 		// could use propDown here
 		Matrix preSigmoidVis = sigHidden.times( this.connectionWeights.transpose() );
 		preSigmoidVis = MatrixUtils.addRowVector(preSigmoidVis, this.visibleBiasNeurons.viewRow(0));
-		Matrix sigVis = MatrixUtils.sigmoid( preSigmoidVis );
+		Matrix sigVis = MatrixUtils.sigmoid( preSigmoidVis, this.activationKernels );
 		
 		
 		// 3. put together the partials to build the cross entropy
@@ -387,7 +478,7 @@ public class RestrictedBoltzmannMachine extends BaseNeuralNetworkVectorized {
 		Matrix preSigmoid = visible.times( this.connectionWeights );
 		preSigmoid = MatrixUtils.addRowVector(preSigmoid, this.hiddenBiasNeurons.viewRow(0));
 
-		return MatrixUtils.sigmoid(preSigmoid);
+		return MatrixUtils.sigmoid(preSigmoid, this.activationKernels);
 	}
 
 	/**
@@ -424,7 +515,7 @@ public class RestrictedBoltzmannMachine extends BaseNeuralNetworkVectorized {
 		Matrix preSigmoid = hidden.times( this.connectionWeights.transpose() );
 		preSigmoid = MatrixUtils.addRowVector(preSigmoid, this.visibleBiasNeurons.viewRow(0));
 
-		return MatrixUtils.sigmoid(preSigmoid);
+		return MatrixUtils.sigmoid(preSigmoid, this.activationKernels);
 	}
 	
 	/**
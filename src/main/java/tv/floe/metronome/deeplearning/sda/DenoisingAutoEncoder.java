@@ -1,69 +1,628 @@
 package tv.floe.metronome.deeplearning.sda;
 
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.mahout.math.DenseMatrix;
 import org.apache.mahout.math.Matrix;
+import org.apache.mahout.math.MatrixWritable;
 
 import tv.floe.metronome.deeplearning.neuralnetwork.core.BaseNeuralNetworkVectorized;
+import tv.floe.metronome.deeplearning.neuralnetwork.core.NeuralNetworkVectorized;
 import tv.floe.metronome.deeplearning.neuralnetwork.gradient.NeuralNetworkGradient;
+import tv.floe.metronome.math.BernoulliSampler;
 import tv.floe.metronome.types.Pair;
 
+/**
+ * Denoising AutoEncoder (Vincent et al, 2008)
+ *
+ * Learns to reconstruct the clean input from a corrupted copy of it, the hidden layer
+ * it learns stacks into an SdA the same way RBMs stack into a DBN
+ *
+ * - masking noise: each input is zeroed with probability corruptionLevel, drawn straight
+ * 		into a reused buffer (BernoulliSampler.maskInto())
+ * - tied weights: the decoder is the transpose of connectionWeights, so the layer has the
+ * 		same parameters (W, hbias, vbias) as an RBM and drops into the same hidden layer /
+ * 		parameter averaging code
+ * - sigmoid units (applied a row at a time through activationKernels), cross entropy
+ * 		reconstruction loss
+ * - no Gibbs sampling: a training step is one encode, one decode and their gradients,
+ * 		deterministic apart from the mask
+ *
+ * The encode / decode / gradient passes are fused loops over flat row-major buffers that
+ * are kept between calls and only reallocated when the batch size changes. Updates are
+ * applied in place so a HiddenLayer sharing the weight / bias matrices sees them.
+ *
+ * Params (train, trainTillConvergence, getGradient): { corruptionLevel, learningRate, epochs },
+ * a missing corruption level falls back to the field.
+ *
+ * Based on the dA in the Theano deep learning tutorials and the java-deeplearning
+ * implementation by Adam Gibson
+ *
+ * @author josh
+ *
+ */
 public class DenoisingAutoEncoder extends BaseNeuralNetworkVectorized {
-    /**
-     * Sample hidden mean and sample
-     * given visible
-     *
-     * @param v the  the visible input
-     * @return a pair with mean, sample
-     */
-    @Override
-    public Pair<Matrix, Matrix> sampleHiddenGivenVisible(Matrix v) {
-        return null;
-    }
-
-    /**
-     * Sample visible mean and sample
-     * given hidden
-     *
-     * @param h the  the hidden input
-     * @return a pair with mean, sample
-     */
-    @Override
-    public Pair<Matrix, Matrix> sampleVisibleGivenHidden(Matrix h) {
-        return null;
-    }
-
-    @Override
+
+	// keeps log() finite when a unit saturates
+	private static final double LOG_EPSILON = 1e-10;
+
+	public double corruptionLevel = 0.3;
+
+	// flat row-major scratch, sized for the last batch
+	private transient int bufferRows = -1;
+	private transient double[] weights;			// nVisible x nHidden
+	private transient double[] corrupted;		// rows x nVisible
+	private transient double[] hidden;			// rows x nHidden
+	private transient double[] reconstructed;	// rows x nVisible
+	private transient double[] visibleDelta;	// rows x nVisible
+	private transient double[] hiddenDelta;		// rows x nHidden
+
+	// previous weight step, for momentum
+	private transient double[] weightVelocity;
+
+	public DenoisingAutoEncoder() { }
+
+	public DenoisingAutoEncoder(int nVisible, int nHidden, Matrix weights, Matrix hBias, Matrix vBias, RandomGenerator rng) {
+		super(nVisible, nHidden, weights, hBias, vBias, rng);
+	}
+
+	public DenoisingAutoEncoder(Matrix input, int nVisible, int nHidden, Matrix weights, Matrix hBias, Matrix vBias, RandomGenerator rng) {
+		super(input, nVisible, nHidden, weights, hBias, vBias, rng);
+	}
+
+	/**
+	 * Hidden activations for the (uncorrupted) visible input; a dA has no hidden samples so
+	 * both halves of the pair are the mean
+	 *
+	 * @param v the  the visible input
+	 * @return a pair with mean, mean
+	 */
+	@Override
+	public Pair<Matrix, Matrix> sampleHiddenGivenVisible(Matrix v) {
+
+		Matrix hiddenMeans = encode( v );
+		return new Pair<Matrix, Matrix>( hiddenMeans, hiddenMeans );
+
+	}
+
+	/**
+	 * Reconstruction of the visible units given the hidden activations
+	 *
+	 * @param h the  the hidden input
+	 * @return a pair with mean, mean
+	 */
+	@Override
+	public Pair<Matrix, Matrix> sampleVisibleGivenHidden(Matrix h) {
+
+		Matrix visibleMeans = decode( h );
+		return new Pair<Matrix, Matrix>( visibleMeans, visibleMeans );
+
+	}
+
+	/**
+	 * sigmoid( v x W + hbias )
+	 *
+	 */
+	public Matrix encode(Matrix v) {
+
+		final int rows = v.numRows();
+		final int nV = this.numberVisibleNeurons;
+		final int nH = this.numberHiddenNeurons;
+
+		double[] in = new double[ rows * nV ];
+		for (int r = 0; r < rows; r++) {
+			for (int i = 0; i < nV; i++) {
+				in[ r * nV + i ] = v.getQuick( r, i );
+			}
+		}
+
+		double[] out = new double[ rows * nH ];
+		encode( flatWeights( new double[ nV * nH ] ), in, out, rows );
+
+		return toMatrix( out, rows, nH );
+
+	}
+
+	/**
+	 * sigmoid( h x W^T + vbias )
+	 *
+	 */
+	public Matrix decode(Matrix h) {
+
+		final int rows = h.numRows();
+		final int nV = this.numberVisibleNeurons;
+		final int nH = this.numberHiddenNeurons;
+
+		double[] in = new double[ rows * nH ];
+		for (int r = 0; r < rows; r++) {
+			for (int j = 0; j < nH; j++) {
+				in[ r * nH + j ] = h.getQuick( r, j );
+			}
+		}
+
+		double[] out = new double[ rows * nV ];
+		decode( flatWeights( new double[ nV * nH ] ), in, out, rows );
+
+		return toMatrix( out, rows, nV );
+
+	}
+
+	@Override
 	public Matrix reconstruct(Matrix x) {
-		// TODO Auto-generated method stub
-		return null;
+
+		return decode( encode( x ) );
+
+	}
+
+	/**
+	 * Masking noise: a copy of input with each entry zeroed with probability corruptionLevel
+	 *
+	 */
+	public Matrix getCorruptedInput(Matrix input, double corruptionLevel) {
+
+		double[] out = new double[ input.numRows() * input.numCols() ];
+		BernoulliSampler.maskInto( input, 1.0 - corruptionLevel, out, this.randNumGenerator );
+
+		return toMatrix( out, input.numRows(), input.numCols() );
+
+	}
+
+	/**
+	 * Cross entropy between the training data and its (uncorrupted) reconstruction,
+	 * averaged over the rows
+	 *
+	 */
+	@Override
+	public double getReConstructionCrossEntropy() {
+
+		final int rows = this.trainingDataset.numRows();
+		final int nV = this.numberVisibleNeurons;
+
+		ensureBuffers( rows );
+		flatWeights( this.weights );
+
+		for (int r = 0; r < rows; r++) {
+			for (int i = 0; i < nV; i++) {
+				this.corrupted[ r * nV + i ] = this.trainingDataset.getQuick( r, i );
+			}
+		}
+
+		encode( this.weights, this.corrupted, this.hidden, rows );
+		decode( this.weights, this.hidden, this.reconstructed, rows );
+
+		double sum = 0;
+
+		for (int r = 0; r < rows; r++) {
+			for (int i = 0; i < nV; i++) {
+
+				double x = this.trainingDataset.getQuick( r, i );
+				double z = this.reconstructed[ r * nV + i ];
+
+				sum += x * Math.log( Math.max( z, LOG_EPSILON ) ) + (1 - x) * Math.log( Math.max( 1 - z, LOG_EPSILON ) );
+
+			}
+		}
+
+		// one normalization only, the mean over the rows like the RBM reports
+		return -sum / rows;
+
 	}
 
 	@Override
 	public double lossFunction(Object[] params) {
-		// TODO Auto-generated method stub
-		return 0;
+		return getReConstructionCrossEntropy();
 	}
 
+	/**
+	 * One corrupt / encode / decode pass over the training data and the gradient of the
+	 * reconstruction cross entropy, scaled by the learning rate and averaged over the rows
+	 *
+	 * - L_vbias = x - z
+	 * - L_hbias = (L_vbias x W) * y * (1 - y)
+	 * - W gradient = x~^T x L_hbias + L_vbias^T x y (tied weights get both halves)
+	 *
+	 * Weight decay (useRegularization, l2) and momentum are folded into the weight gradient.
+	 *
+	 */
+	@Override
+	public NeuralNetworkGradient getGradient(Object[] params) {
+
+		double corruption = corruptionLevel( params );
+		double learningRate = (null != params && params.length > 1) ? (Double) params[ 1 ] : 0.1;
+
+		final int rows = this.trainingDataset.numRows();
+		final int nV = this.numberVisibleNeurons;
+		final int nH = this.numberHiddenNeurons;
+
+		ensureBuffers( rows );
+		flatWeights( this.weights );
+
+		// x~, y = encode(x~), z = decode(y)
+		BernoulliSampler.maskInto( this.trainingDataset, 1.0 - corruption, this.corrupted, this.randNumGenerator );
+		encode( this.weights, this.corrupted, this.hidden, rows );
+		decode( this.weights, this.hidden, this.reconstructed, rows );
+
+		Matrix vBiasGradient = new DenseMatrix( 1, nV );
+		Matrix hBiasGradient = new DenseMatrix( 1, nH );
+
+		double[] vBiasSums = new double[ nV ];
+		double[] hBiasSums = new double[ nH ];
+
+		for (int r = 0; r < rows; r++) {
+
+			int vBase = r * nV;
+			int hBase = r * nH;
+
+			// L_vbias
+			for (int i = 0; i < nV; i++) {
+
+				double delta = this.trainingDataset.getQuick( r, i ) - this.reconstructed[ vBase + i ];
+				this.visibleDelta[ vBase + i ] = delta;
+				vBiasSums[ i ] += delta;
+
+			}
+
+			// L_hbias, W^T walked row-wise as W's rows
+			for (int j = 0; j < nH; j++) {
+				this.hiddenDelta[ hBase + j ] = 0;
+			}
+
+			for (int i = 0; i < nV; i++) {
+
+				double delta = this.visibleDelta[ vBase + i ];
+
+				if (0.0 == delta) {
+					continue;
+				}
+
+				int wBase = i * nH;
+				for (int j = 0; j < nH; j++) {
+					this.hiddenDelta[ hBase + j ] += delta * this.weights[ wBase + j ];
+				}
+
+			}
+
+			for (int j = 0; j < nH; j++) {
+
+				double y = this.hidden[ hBase + j ];
+				double delta = this.hiddenDelta[ hBase + j ] * y * (1 - y);
+				this.hiddenDelta[ hBase + j ] = delta;
+				hBiasSums[ j ] += delta;
+
+			}
+
+		}
+
+		// x~^T L_hbias + L_vbias^T y, accumulated row by row into nV x nH
+		double[] wSums = new double[ nV * nH ];
+
+		for (int r = 0; r < rows; r++) {
+
+			int vBase = r * nV;
+			int hBase = r * nH;
+
+			for (int i = 0; i < nV; i++) {
+
+				double xTilde = this.corrupted[ vBase + i ];
+				double lv = this.visibleDelta[ vBase + i ];
+				int wBase = i * nH;
+
+				for (int j = 0; j < nH; j++) {
+					wSums[ wBase + j ] += xTilde * this.hiddenDelta[ hBase + j ] + lv * this.hidden[ hBase + j ];
+				}
+
+			}
+
+		}
+
+		double scale = learningRate / rows;
+		boolean decay = this.useRegularization && this.l2 > 0;
+
+		if (null == this.weightVelocity || this.weightVelocity.length != wSums.length) {
+			this.weightVelocity = new double[ wSums.length ];
+		}
+
+		Matrix wGradient = new DenseMatrix( nV, nH );
+
+		for (int i = 0; i < nV; i++) {
+			for (int j = 0; j < nH; j++) {
+
+				int idx = i * nH + j;
+				double step = wSums[ idx ] * scale;
+
+				if (decay) {
+					step -= learningRate * this.l2 * this.weights[ idx ];
+				}
+
+				if (this.momentum != 0) {
+					step += this.momentum * this.weightVelocity[ idx ];
+				}
+
+				this.weightVelocity[ idx ] = step;
+				wGradient.setQuick( i, j, step );
+
+			}
+		}
+
+		for (int i = 0; i < nV; i++) {
+			vBiasGradient.setQuick( 0, i, vBiasSums[ i ] * scale );
+		}
+
+		for (int j = 0; j < nH; j++) {
+			hBiasGradient.setQuick( 0, j, hBiasSums[ j ] * scale );
+		}
+
+		return new NeuralNetworkGradient( wGradient, vBiasGradient, hBiasGradient );
+
+	}
+
+	/**
+	 * One gradient step on input
+	 *
+	 */
 	@Override
 	public void train(Matrix input, double learningRate, Object[] params) {
-		// TODO Auto-generated method stub
-		
+
+		if (null != input) {
+			this.trainingDataset = input;
+		}
+
+		NeuralNetworkGradient gradient = getGradient( new Object[]{ corruptionLevel( params ), learningRate } );
+
+		addInPlace( this.connectionWeights, gradient.getwGradient() );
+		addInPlace( this.hiddenBiasNeurons, gradient.gethBiasGradient() );
+		addInPlace( this.visibleBiasNeurons, gradient.getvBiasGradient() );
+
 	}
 
+	/**
+	 * Runs params[2] (epochs) gradient steps over input; there is no line search like the
+	 * RBM optimizer, each step is cheap and deterministic for a given mask
+	 *
+	 */
 	@Override
 	public void trainTillConvergence(Matrix input, double lr, Object[] params) {
-		// TODO Auto-generated method stub
-		
+
+		if (null != input) {
+			this.trainingDataset = input;
+		}
+
+		int epochs = (null != params && params.length > 2) ? (Integer) params[ 2 ] : 1;
+		Object[] stepParams = new Object[]{ corruptionLevel( params ), lr };
+
+		for (int epoch = 0; epoch < epochs; epoch++) {
+			train( null, lr, stepParams );
+		}
+
 	}
 
 	@Override
-	public NeuralNetworkGradient getGradient(Object[] params) {
-		// TODO Auto-generated method stub
-		return null;
-	}
-	
-	
-	
-	
-	
-	
+	public NeuralNetworkVectorized clone() {
+
+		DenoisingAutoEncoder ret = (DenoisingAutoEncoder) super.clone();
+		ret.corruptionLevel = this.corruptionLevel;
+		return ret;
+
+	}
+
+	private double corruptionLevel(Object[] params) {
+
+		if (null != params && params.length > 0 && params[ 0 ] instanceof Double) {
+			return (Double) params[ 0 ];
+		}
+
+		return this.corruptionLevel;
+
+	}
+
+	/**
+	 * out = sigmoid( in x W + hbias ), in is rows x nVisible
+	 *
+	 */
+	private void encode(double[] w, double[] in, double[] out, int rows) {
+
+		final int nV = this.numberVisibleNeurons;
+		final int nH = this.numberHiddenNeurons;
+
+		for (int r = 0; r < rows; r++) {
+
+			int vBase = r * nV;
+			int hBase = r * nH;
+
+			for (int j = 0; j < nH; j++) {
+				out[ hBase + j ] = this.hiddenBiasNeurons.getQuick( 0, j );
+			}
+
+			// row-wise over W so the inner loop is contiguous, zero inputs (masked) skipped
+			for (int i = 0; i < nV; i++) {
+
+				double x = in[ vBase + i ];
+
+				if (0.0 == x) {
+					continue;
+				}
+
+				int wBase = i * nH;
+				for (int j = 0; j < nH; j++) {
+					out[ hBase + j ] += x * w[ wBase + j ];
+				}
+
+			}
+
+			this.activationKernels.sigmoid( out, hBase, nH );
+
+		}
+
+	}
+
+	/**
+	 * out = sigmoid( in x W^T + vbias ), in is rows x nHidden
+	 *
+	 */
+	private void decode(double[] w, double[] in, double[] out, int rows) {
+
+		final int nV = this.numberVisibleNeurons;
+		final int nH = this.numberHiddenNeurons;
+
+		for (int r = 0; r < rows; r++) {
+
+			int vBase = r * nV;
+			int hBase = r * nH;
+
+			for (int i = 0; i < nV; i++) {
+
+				double net = this.visibleBiasNeurons.getQuick( 0, i );
+				int wBase = i * nH;
+
+				for (int j = 0; j < nH; j++) {
+					net += in[ hBase + j ] * w[ wBase + j ];
+				}
+
+				out[ vBase + i ] = net;
+
+			}
+
+			this.activationKernels.sigmoid( out, vBase, nV );
+
+		}
+
+	}
+
+	private double[] flatWeights(double[] out) {
+
+		final int nH = this.numberHiddenNeurons;
+
+		for (int i = 0; i < this.numberVisibleNeurons; i++) {
+			for (int j = 0; j < nH; j++) {
+				out[ i * nH + j ] = this.connectionWeights.getQuick( i, j );
+			}
+		}
+
+		return out;
+
+	}
+
+	private void ensureBuffers(int rows) {
+
+		final int nV = this.numberVisibleNeurons;
+		final int nH = this.numberHiddenNeurons;
+
+		if (null == this.weights || this.weights.length != nV * nH) {
+			this.weights = new double[ nV * nH ];
+		}
+
+		if (null == this.corrupted || rows != this.bufferRows || this.corrupted.length != rows * nV || this.hidden.length != rows * nH) {
+
+			this.corrupted = new double[ rows * nV ];
+			this.hidden = new double[ rows * nH ];
+			this.reconstructed = new double[ rows * nV ];
+			this.visibleDelta = new double[ rows * nV ];
+			this.hiddenDelta = new double[ rows * nH ];
+			this.bufferRows = rows;
+
+		}
+
+	}
+
+	private static Matrix toMatrix(double[] flat, int rows, int cols) {
+
+		Matrix m = new DenseMatrix( rows, cols );
+
+		for (int r = 0; r < rows; r++) {
+			for (int c = 0; c < cols; c++) {
+				m.setQuick( r, c, flat[ r * cols + c ] );
+			}
+		}
+
+		return m;
+
+	}
+
+	private static void addInPlace(Matrix target, Matrix delta) {
+
+		for (int r = 0; r < target.numRows(); r++) {
+			for (int c = 0; c < target.numCols(); c++) {
+				target.setQuick( r, c, target.getQuick( r, c ) + delta.getQuick( r, c ) );
+			}
+		}
+
+	}
+
+	/**
+	 * Serializes this to the output stream, same layout as the RBM plus the corruption level
+	 * @param os the output stream to write to
+	 */
+	public void write(OutputStream os) {
+		try {
+
+		    DataOutput d = new DataOutputStream(os);
+		    ObjectOutputStream oos = new ObjectOutputStream(os);
+
+		    d.writeInt( this.numberVisibleNeurons );
+		    d.writeInt( this.numberHiddenNeurons );
+
+		    MatrixWritable.writeMatrix(d, this.hiddenBiasNeurons );
+		    MatrixWritable.writeMatrix(d, this.visibleBiasNeurons );
+		    MatrixWritable.writeMatrix(d, this.connectionWeights );
+
+		    oos.writeObject( this.randNumGenerator );
+
+			d.writeDouble( this.sparsity );
+			d.writeDouble( this.momentum );
+			d.writeDouble( this.l2 );
+			d.writeInt( this.renderWeightsEveryNumEpochs );
+			d.writeDouble( this.fanIn );
+			d.writeBoolean( this.useRegularization );
+			d.writeDouble( this.corruptionLevel );
+
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+	}
+
+	/**
+	 * Load (using {@link ObjectInputStream}
+	 * @param is the input stream to load from (usually a file)
+	 */
+	public void load(InputStream is) {
+		try {
+
+			DataInput di = new DataInputStream(is);
+		    ObjectInputStream ois = new ObjectInputStream(is);
+
+		    this.numberVisibleNeurons = di.readInt();
+		    this.numberHiddenNeurons = di.readInt();
+
+		    this.hiddenBiasNeurons = MatrixWritable.readMatrix( di );
+		    this.visibleBiasNeurons = MatrixWritable.readMatrix( di );
+		    this.connectionWeights = MatrixWritable.readMatrix( di );
+
+		    this.randNumGenerator = (RandomGenerator) ois.readObject();
+
+			this.sparsity = di.readDouble();
+			this.momentum = di.readDouble();
+			this.l2 = di.readDouble();
+			this.renderWeightsEveryNumEpochs = di.readInt();
+			this.fanIn = di.readDouble();
+			this.useRegularization = di.readBoolean();
+			this.corruptionLevel = di.readDouble();
+
+			this.weightVelocity = null;
+
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+
+	}
+
 }
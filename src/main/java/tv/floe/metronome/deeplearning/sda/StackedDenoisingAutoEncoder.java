@@ -1,32 +1,253 @@
 package tv.floe.metronome.deeplearning.sda;
 
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+import org.apache.commons.math3.distribution.RealDistribution;
 import org.apache.commons.math3.random.RandomGenerator;
 import org.apache.mahout.math.Matrix;
 
 import tv.floe.metronome.deeplearning.neuralnetwork.core.BaseMultiLayerNeuralNetworkVectorized;
+import tv.floe.metronome.deeplearning.neuralnetwork.core.LogisticRegression;
 import tv.floe.metronome.deeplearning.neuralnetwork.core.NeuralNetworkVectorized;
+import tv.floe.metronome.deeplearning.neuralnetwork.layer.HiddenLayer;
 
+/**
+ * Stacked Denoising AutoEncoder
+ *
+ * Same shape as the DeepBeliefNetwork (hidden layers + logistic output layer, fine tuned
+ * with backprop) but each hidden layer is pretrained as a DenoisingAutoEncoder instead of
+ * an RBM
+ *
+ * - pretraining is a plain gradient step per epoch, no Gibbs chain, so a step is cheaper
+ * 		than CD-k on wide layers and only the masking noise is random
+ * - the layers carry the same W / hbias / vbias as RBMs, so parameter averaging on the
+ * 		IterativeReduce master is unchanged
+ * - the input to layer i + 1 is the (uncorrupted) encoding of layer i
+ *
+ * trainNetwork() params: { corruptionLevel, learningRate, epochs, [finetuneLr], [finetuneEpochs] }
+ *
+ * @author josh
+ *
+ */
 public class StackedDenoisingAutoEncoder extends BaseMultiLayerNeuralNetworkVectorized {
 
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = -304262783595394802L;
+
+	// fraction of each layer's inputs masked to 0 during pretraining
+	public double corruptionLevel = 0.3;
+
+	public StackedDenoisingAutoEncoder() {
+
+	}
+
+	public StackedDenoisingAutoEncoder(int n_ins, int[] hidden_layer_sizes, int n_outs, int n_layers,
+			RandomGenerator rng, Matrix input, Matrix labels) {
+
+		super(n_ins, hidden_layer_sizes, n_outs, n_layers, rng, input, labels);
+
+	}
+
+	public StackedDenoisingAutoEncoder(int n_ins, int[] hidden_layer_sizes, int n_outs, int n_layers,
+			RandomGenerator rng) {
+
+		super(n_ins, hidden_layer_sizes, n_outs, n_layers, rng);
+
+	}
+
+	/**
+	 * Trains each dA layer in turn on the encoding of the layer below
+	 *
+	 * @param trainingRecords the input to train on
+	 * @param corruptionLevel fraction of the inputs masked out
+	 * @param learningRate the learning rate for each dA
+	 * @param epochs gradient steps per layer
+	 */
+	public void preTrain(Matrix trainingRecords, double corruptionLevel, double learningRate, int epochs) {
+
+		if (this.inputTrainingData == null || this.hiddenLayers == null || this.hiddenLayers[0] == null || this.logisticRegressionLayer == null) {
+			this.inputTrainingData = trainingRecords;
+			initializeLayers(trainingRecords);
+		} else {
+			this.inputTrainingData = trainingRecords;
+		}
+
+		Matrix layerInput = this.inputTrainingData;
+
+		for (int i = 0; i < this.numberLayers; i++) {
+
+			if (i > 0) {
+				layerInput = this.preTrainingLayers[ i - 1 ].sampleHiddenGivenVisible( layerInput ).getFirst();
+			}
+
+			this.preTrainingLayers[ i ].trainTillConvergence( layerInput, learningRate, new Object[]{ corruptionLevel, learningRate, epochs } );
+
+		}
+
+	}
+
 	@Override
-	public NeuralNetworkVectorized createPreTrainingLayer(Matrix input,
-			int nVisible, int nHidden, Matrix weights, Matrix hbias,
-			Matrix vBias, RandomGenerator rng, int index) {
-		// TODO Auto-generated method stub
-		return null;
+	public void preTrain(Matrix trainingRecords, double learningRate, int epochs) {
+
+		preTrain( trainingRecords, this.corruptionLevel, learningRate, epochs );
+
 	}
 
+	/**
+	 * Step 1: Pretrain the dA layers
+	 *
+	 * Step 2: Finetune the NN layers with backpropagation
+	 *
+	 */
 	@Override
 	public void trainNetwork(Matrix input, Matrix labels, Object[] otherParams) {
-		// TODO Auto-generated method stub
-		
+
+		double corruption = (Double) otherParams[0];
+		double learningRate = (Double) otherParams[1];
+		int epochs = (Integer) otherParams[2];
+
+		preTrain( input, corruption, learningRate, epochs );
+
+		double finetuneLr = otherParams.length > 3 ? (Double) otherParams[3] : learningRate;
+		int finetuneEpochs = otherParams.length > 4 ? (Integer) otherParams[4] : epochs;
+
+		finetune( labels, finetuneLr, finetuneEpochs );
+
+	}
+
+	@Override
+	public NeuralNetworkVectorized createPreTrainingLayer(Matrix input,
+			int nVisible, int nHidden, Matrix weights, Matrix hbias,
+			Matrix vBias, RandomGenerator rng, int index) {
+
+		DenoisingAutoEncoder da = new DenoisingAutoEncoder( input, nVisible, nHidden, weights, hbias, vBias, rng );
+		da.corruptionLevel = this.corruptionLevel;
+		da.useRegularization = this.useRegularization;
+		da.setSparsity( this.getSparsity() );
+		da.setMomentum( this.getMomentum() );
+		return da;
+
 	}
 
 	@Override
 	public NeuralNetworkVectorized[] createNetworkLayers(int numLayers) {
-		// TODO Auto-generated method stub
-		return null;
+		return new DenoisingAutoEncoder[numLayers];
+	}
+
+	/**
+	 * Serializes this to the output stream, same layout as the DeepBeliefNetwork with dA
+	 * layers in place of the RBMs and the corruption level at the end
+	 *
+	 * @param os the output stream to write to
+	 */
+	public void write(OutputStream os) {
+		try {
+
+		    DataOutput d = new DataOutputStream(os);
+		    ObjectOutputStream oos = new ObjectOutputStream(os);
+
+		    d.writeInt( this.inputNeuronCount );
+		    d.writeInt( this.outputNeuronCount );
+
+		    d.writeInt( this.numberLayers );
+
+		    for ( int x = 0; x < this.numberLayers; x++ ) {
+		    	d.writeInt( this.hiddenLayerSizes[ x ] );
+		    }
+
+		    for ( int x = 0; x < this.numberLayers; x++ ) {
+		    	this.hiddenLayers[ x ].write( os );
+		    }
+
+		    this.logisticRegressionLayer.write( os );
+
+		    for ( int x = 0; x < this.numberLayers; x++ ) {
+		    	((DenoisingAutoEncoder)this.preTrainingLayers[ x ]).write( os );
+		    }
+
+		    oos.writeObject( this.randomGenerator );
+		    oos.writeObject( this.distribution );
+
+			d.writeDouble( this.learningRateUpdate );
+			d.writeBoolean( this.useRegularization );
+			d.writeDouble( this.l2 );
+
+			d.writeDouble( this.getMomentum() );
+			d.writeDouble( this.getSparsity() );
+
+			d.writeDouble( this.corruptionLevel );
+
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+	}
+
+	/**
+	 * Load (using {@link ObjectInputStream}
+	 * @param is the input stream to load from (usually a file)
+	 */
+	public void load(InputStream is) {
+		try {
+
+			DataInput di = new DataInputStream(is);
+		    ObjectInputStream ois = new ObjectInputStream(is);
+
+		    this.inputNeuronCount = di.readInt();
+		    this.outputNeuronCount = di.readInt();
+
+		    this.numberLayers = di.readInt();
+
+		    this.hiddenLayerSizes = new int[ this.numberLayers ];
+
+		    for ( int x = 0; x < this.numberLayers; x++ ) {
+		    	this.hiddenLayerSizes[ x ] = di.readInt();
+		    }
+
+		    this.hiddenLayers = new HiddenLayer[ this.numberLayers ];
+		    for ( int x = 0; x < this.numberLayers; x++ ) {
+		    	this.hiddenLayers[ x ] = new HiddenLayer( 1, 1, null );
+		    	this.hiddenLayers[ x ].load( is );
+		    }
+
+		    this.logisticRegressionLayer = new LogisticRegression();
+		    this.logisticRegressionLayer.load( is );
+
+		    this.preTrainingLayers = new DenoisingAutoEncoder[ this.numberLayers ];
+		    for ( int x = 0; x < this.numberLayers; x++ ) {
+		    	DenoisingAutoEncoder da = new DenoisingAutoEncoder();
+		    	da.load( is );
+		    	this.preTrainingLayers[ x ] = da;
+		    }
+
+		    this.randomGenerator = (RandomGenerator) ois.readObject();
+		    this.distribution = (RealDistribution) ois.readObject();
+
+		    this.learningRateUpdate = di.readDouble();
+		    this.useRegularization = di.readBoolean();
+		    this.l2 = di.readDouble();
+
+		    this.setMomentum( di.readDouble() );
+		    this.setSparsity( di.readDouble() );
+
+		    this.corruptionLevel = di.readDouble();
+
+		    applyActivationKernels();
+
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+
 	}
-	
 
 }
@@ -0,0 +1,219 @@
+package tv.floe.metronome.eval;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Decides on the master when training has stopped paying for itself, so the master can
+ * tell every worker to finish before app.iteration.count runs out
+ *
+ * Fed one loss per superstep (held-out loss when the workers have a hold-out fraction,
+ * otherwise the aggregated training loss), lower is better:
+ *
+ * - an observation "improves" when it beats the best loss so far by more than
+ * 		minImprovement, relative to the best
+ * - stop after patience observations in a row without an improvement
+ * - stop once the loss is at or under the target loss, if one is set
+ * - stop at maxIterations, if set, even when still improving
+ * - never stop before minIterations observations
+ *
+ * NaN losses (nothing held out this superstep) count as neither an improvement nor a miss.
+ *
+ * Configuration:
+ *
+ * 		tv.floe.metronome.earlystopping.on					(default false)
+ * 		tv.floe.metronome.earlystopping.minImprovement		relative improvement (default 0.001)
+ * 		tv.floe.metronome.earlystopping.patience			(default 3)
+ * 		tv.floe.metronome.earlystopping.minIterations		(default 1)
+ * 		tv.floe.metronome.earlystopping.maxIterations		0 = only app.iteration.count (default 0)
+ * 		tv.floe.metronome.earlystopping.targetLoss			(default none)
+ *
+ * @author josh
+ *
+ */
+public class ConvergenceController {
+
+	public static final String CONF_ON = "tv.floe.metronome.earlystopping.on";
+	public static final String CONF_MIN_IMPROVEMENT = "tv.floe.metronome.earlystopping.minImprovement";
+	public static final String CONF_PATIENCE = "tv.floe.metronome.earlystopping.patience";
+	public static final String CONF_MIN_ITERATIONS = "tv.floe.metronome.earlystopping.minIterations";
+	public static final String CONF_MAX_ITERATIONS = "tv.floe.metronome.earlystopping.maxIterations";
+	public static final String CONF_TARGET_LOSS = "tv.floe.metronome.earlystopping.targetLoss";
+
+	private final double minImprovement;
+	private final int patience;
+	private final int minIterations;
+	private final int maxIterations;
+
+	private double targetLoss = Double.NaN;
+
+	private int iterations = 0;
+	private int sinceImprovement = 0;
+	private double bestLoss = Double.NaN;
+	private int bestIteration = -1;
+
+	private boolean stopped = false;
+	private String reason = null;
+
+	public ConvergenceController(double minImprovement, int patience, int minIterations, int maxIterations) {
+
+		if (patience < 1) {
+			throw new IllegalArgumentException( "patience must be >= 1, got " + patience );
+		}
+
+		this.minImprovement = minImprovement;
+		this.patience = patience;
+		this.minIterations = minIterations;
+		this.maxIterations = maxIterations;
+
+	}
+
+	/**
+	 * Null unless early stopping is turned on
+	 *
+	 */
+	public static ConvergenceController fromConf(Configuration conf) {
+
+		if (!conf.getBoolean( CONF_ON, false )) {
+			return null;
+		}
+
+		ConvergenceController controller = new ConvergenceController(
+				Double.parseDouble( conf.get( CONF_MIN_IMPROVEMENT, "0.001" ) ),
+				conf.getInt( CONF_PATIENCE, 3 ),
+				conf.getInt( CONF_MIN_ITERATIONS, 1 ),
+				conf.getInt( CONF_MAX_ITERATIONS, 0 ) );
+
+		if (null != conf.get( CONF_TARGET_LOSS )) {
+			controller.targetLoss( Double.parseDouble( conf.get( CONF_TARGET_LOSS ) ) );
+		}
+
+		return controller;
+
+	}
+
+	public ConvergenceController targetLoss(double targetLoss) {
+
+		this.targetLoss = targetLoss;
+		return this;
+
+	}
+
+	/**
+	 * Records one superstep's loss, true once training should stop (and from then on)
+	 *
+	 */
+	public boolean observe(double loss) {
+
+		if (this.stopped) {
+			return true;
+		}
+
+		this.iterations++;
+
+		if (!Double.isNaN( loss )) {
+
+			if (Double.isNaN( this.bestLoss ) || this.bestLoss - loss > this.minImprovement * Math.abs( this.bestLoss )) {
+
+				this.bestLoss = loss;
+				this.bestIteration = this.iterations;
+				this.sinceImprovement = 0;
+
+			} else {
+
+				this.sinceImprovement++;
+
+			}
+
+		}
+
+		if (this.iterations < this.minIterations) {
+			return false;
+		}
+
+		if (!Double.isNaN( this.targetLoss ) && !Double.isNaN( loss ) && loss <= this.targetLoss) {
+			return stop( "reached target loss " + this.targetLoss );
+		}
+
+		if (this.sinceImprovement >= this.patience) {
+			return stop( "no improvement in " + this.sinceImprovement + " iterations" );
+		}
+
+		if (this.maxIterations > 0 && this.iterations >= this.maxIterations) {
+			return stop( "hit max iterations" );
+		}
+
+		return false;
+
+	}
+
+	private boolean stop(String why) {
+
+		this.stopped = true;
+		this.reason = why + ", best loss " + this.bestLoss + " at iteration " + this.bestIteration;
+		return true;
+
+	}
+
+	public boolean isStopped() {
+		return this.stopped;
+	}
+
+	/**
+	 * Why training was stopped, null while still running
+	 *
+	 */
+	public String getReason() {
+		return this.reason;
+	}
+
+	public int getIterations() {
+		return this.iterations;
+	}
+
+	public double getBestLoss() {
+		return this.bestLoss;
+	}
+
+	/**
+	 * 1-based observation that had the best loss, -1 if none yet
+	 *
+	 */
+	public int getBestIteration() {
+		return this.bestIteration;
+	}
+
+	/**
+	 * The running state (not the settings, those come from the conf), for checkpoints
+	 *
+	 */
+	public void writeState(DataOutput out) throws IOException {
+
+		out.writeInt( this.iterations );
+		out.writeInt( this.sinceImprovement );
+		out.writeDouble( this.bestLoss );
+		out.writeInt( this.bestIteration );
+		out.writeBoolean( this.stopped );
+
+		out.writeBoolean( null != this.reason );
+		if (null != this.reason) {
+			out.writeUTF( this.reason );
+		}
+
+	}
+
+	public void readState(DataInput in) throws IOException {
+
+		this.iterations = in.readInt();
+		this.sinceImprovement = in.readInt();
+		this.bestLoss = in.readDouble();
+		this.bestIteration = in.readInt();
+		this.stopped = in.readBoolean();
+		this.reason = in.readBoolean() ? in.readUTF() : null;
+
+	}
+
+}
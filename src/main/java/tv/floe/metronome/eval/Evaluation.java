@@ -1,12 +1,14 @@
 package tv.floe.metronome.eval;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.Properties;
-import java.util.Set;
 
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapred.InputSplit;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.mahout.math.Matrix;
@@ -14,25 +16,31 @@ import org.apache.mahout.math.Vector;
 
 import com.cloudera.iterativereduce.io.TextRecordParser;
 
-import tv.floe.metronome.berkley.Counter;
 import tv.floe.metronome.deeplearning.datasets.DataSet;
 import tv.floe.metronome.deeplearning.datasets.iterator.impl.MnistHDFSDataSetIterator;
 import tv.floe.metronome.math.MatrixUtils;
 
-public class Evaluation {
+/**
+ * Classification metrics over (actual, predicted) class indexes
+ * 
+ * - counts live in an IntConfusionMatrix (flat long[]), an eval() is a few array
+ * 		increments, no boxing or hashing
+ * - log loss is accumulated alongside when the guesses are probabilities
+ * - merge() combines partial evaluations (threads, workers) and the whole thing is
+ * 		Writable so a worker can ship it to the master
+ * 
+ * @author josh
+ *
+ */
+public class Evaluation implements Writable {
 
-	private double truePositives;
-	private Counter<Integer> falsePositives = new Counter<Integer>();
-	private double falseNegatives;
-	private ConfusionMatrix<Integer> confusion = new ConfusionMatrix<Integer>();
+	// floor for the probability of the real class, keeps the log loss finite
+	private static final double LOG_LOSS_EPSILON = 1e-15;
+
+	private IntConfusionMatrix confusion = new IntConfusionMatrix();
+	private double logLossSum = 0;
+	private long logLossCount = 0;
 
-	
-	
-	
-	
-	
-	
-	
 	
 	private int iamax(Vector vec) {
 		
@@ -83,39 +91,114 @@ public class Evaluation {
 			//int guessMax = SimpleBlas.iamax(guessRow);
 			int guessMax = iamax(guessRow);
 
-			addToConfusion( currMax, guessMax );
-
-			if (currMax == guessMax) {
-				
-				incrementTruePositives();
-				
-			} else {
-				
-				incrementFalseNegatives();
-				incrementFalsePositives(guessMax);
-				
-			}
+			eval( currMax, guessMax );
+			addLogLoss( guessRow.getQuick( currMax ) );
 		}
 	}
 
+	/**
+	 * Collects statistics for a single record given the index of the real outcome
+	 * and the index of the guess
+	 * 
+	 * @param realOutcome
+	 * @param guess
+	 */
+	public void eval(int realOutcome, int guess) {
+
+		confusion.add( realOutcome, guess );
+
+	}
+
+	/**
+	 * Single record with the full probability vector, also counts towards the log loss
+	 * 
+	 * @param realOutcome
+	 * @param probabilities
+	 */
+	public void eval(int realOutcome, Vector probabilities) {
+
+		eval( realOutcome, iamax( probabilities ) );
+		addLogLoss( probabilities.getQuick( realOutcome ) );
+
+	}
+
+	private void addLogLoss(double probabilityOfReal) {
+
+		logLossSum -= Math.log( Math.max( probabilityOfReal, LOG_LOSS_EPSILON ) );
+		logLossCount++;
+
+	}
+
+	/**
+	 * Adds the counts of another Evaluation to this one, so partial evaluations
+	 * (threads, splits) can be combined
+	 *
+	 * @param other
+	 */
+	public void merge(Evaluation other) {
+
+		this.confusion.merge( other.confusion );
+		this.logLossSum += other.logLossSum;
+		this.logLossCount += other.logLossCount;
+
+	}
+
 	public double correctScores() {
-		return this.truePositives;
+		return this.confusion.correct();
+	}
+
+	public double incorrectScores() {
+		return this.confusion.total() - this.confusion.correct();
+	}
+
+	public long total() {
+		return this.confusion.total();
+	}
+
+	public IntConfusionMatrix getConfusionMatrix() {
+		return this.confusion;
+	}
+
+	public double accuracy() {
+
+		if (0 == this.confusion.total()) {
+			return 0;
+		}
+		return (double) this.confusion.correct() / (double) this.confusion.total();
+
+	}
+
+	/**
+	 * Mean negative log probability of the real class, NaN if no probabilities were seen
+	 * 
+	 */
+	public double logLoss() {
+
+		if (0 == this.logLossCount) {
+			return Double.NaN;
+		}
+		return this.logLossSum / this.logLossCount;
+
 	}
 
 
 	public String stats() {
 		StringBuilder builder = new StringBuilder()
 		.append("\n");
-		Set<Integer> classes = confusion.getClasses();
-		for(Integer clazz : classes) {
-			for(Integer clazz2 : classes) {
-				int count = confusion.getCount(clazz, clazz2);
+		int classes = confusion.numClasses();
+		for(int clazz = 0; clazz < classes; clazz++) {
+			for(int clazz2 = 0; clazz2 < classes; clazz2++) {
+				long count = confusion.getCount(clazz, clazz2);
 				if(count != 0)
 					builder.append("\nActual Class " + clazz + " was predicted with Predicted " + clazz2 + " with count " + count  + " times\n");
 			}
 		}
 		builder.append("\n==========================F1 Scores========================================");
 		builder.append("\n " + f1());
+		builder.append("\n Accuracy: " + accuracy() + ", Macro F1: " + macroF1());
+		if (logLossCount > 0) {
+			builder.append("\n Log Loss: " + logLoss());
+		}
 		builder.append("\n===========================================================================");
 		return builder.toString();
 	}
@@ -137,7 +220,7 @@ public class Evaluation {
 	 * actually occurred
 	 */
 	public int classCount(int i) {
-		return confusion.getActualTotal(i);
+		return (int) confusion.getActualTotal(i);
 	}
 
 	/**
@@ -146,7 +229,7 @@ public class Evaluation {
 	 * @return the number of times the given label was predicted
 	 */
 	public int numtimesPredicted(int label) {
-		return confusion.getPredictedTotal(label);
+		return (int) confusion.getPredictedTotal(label);
 	}
 
 	/**
@@ -158,15 +241,26 @@ public class Evaluation {
 	 * @return
 	 */
 	public int numTimesPredicted(int actual,int predicted) {
-		return confusion.getCount(actual, predicted);
+		return (int) confusion.getCount(actual, predicted);
 	}
 
+	/**
+	 * Mean of precision(i) over the classes that were seen (as actual or predicted)
+	 * 
+	 */
 	public double precision() {
 		double prec = 0.0;
-		for(Integer i : confusion.getClasses()) {
-			prec += precision(i);
+		int seen = 0;
+		for(int i = 0; i < confusion.numClasses(); i++) {
+			if (isSeen(i)) {
+				prec += precision(i);
+				seen++;
+			}
+		}
+		if (0 == seen) {
+			return 0;
 		}
-		return prec / (double) confusion.getClasses().size();
+		return prec / (double) seen;
 	}
 
 
@@ -196,9 +290,10 @@ public class Evaluation {
 	 * @return the recall for the outcomes
 	 */
 	public double recall() {
+		double truePositives = correctScores();
 		if(truePositives == 0)
 			return 0;
-		return truePositives / (truePositives + falseNegatives);
+		return truePositives / (double) confusion.total();
 	}
 
 	/**
@@ -207,22 +302,82 @@ public class Evaluation {
 	 * @return the precision for the label
 	 */
 	public double precision(int i) {
+		double truePositives = correctScores();
 		if(truePositives == 0)
 			return 0;
-		return truePositives / (truePositives + falsePositives.getCount(i));
+		long falsePositives = confusion.getPredictedTotal(i) - confusion.getCount(i, i);
+		return truePositives / (truePositives + falsePositives);
 	}
 
+	/**
+	 * Per class precision: correct predictions of i / all predictions of i
+	 * 
+	 */
+	public double classPrecision(int i) {
+		long predicted = confusion.getPredictedTotal(i);
+		if (0 == predicted)
+			return 0;
+		return (double) confusion.getCount(i, i) / (double) predicted;
+	}
 
-	public void incrementTruePositives() {
-		truePositives++;
+	/**
+	 * Per class recall: correct predictions of i / all records of class i
+	 * 
+	 */
+	public double classRecall(int i) {
+		long actual = confusion.getActualTotal(i);
+		if (0 == actual)
+			return 0;
+		return (double) confusion.getCount(i, i) / (double) actual;
 	}
 
-	public void incrementFalseNegatives() {
-		falseNegatives++;
+	public double classF1(int i) {
+		double precision = classPrecision(i);
+		double recall = classRecall(i);
+		if(precision == 0 || recall == 0)
+			return 0;
+		return 2.0 * ((precision * recall / (precision + recall)));
 	}
 
-	public void incrementFalsePositives(int i) {
-		falsePositives.incrementCount(i, 1.0);
+	/**
+	 * Unweighted mean of classF1() over the classes that were seen
+	 * 
+	 */
+	public double macroF1() {
+		double sum = 0.0;
+		int seen = 0;
+		for(int i = 0; i < confusion.numClasses(); i++) {
+			if (isSeen(i)) {
+				sum += classF1(i);
+				seen++;
+			}
+		}
+		if (0 == seen) {
+			return 0;
+		}
+		return sum / (double) seen;
+	}
+
+	private boolean isSeen(int i) {
+		return confusion.getActualTotal(i) > 0 || confusion.getPredictedTotal(i) > 0;
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+
+		confusion.write( out );
+		out.writeDouble( logLossSum );
+		out.writeLong( logLossCount );
+
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+
+		confusion.readFields( in );
+		logLossSum = in.readDouble();
+		logLossCount = in.readLong();
+
 	}
 
 }
@@ -0,0 +1,265 @@
+package tv.floe.metronome.eval;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Streams a test set through a bounded reader -> predictors pipeline and merges the
+ * per thread Evaluations at the end
+ *
+ * 		reader thread	-> [ queue of at most queueDepth batches ] ->	N predictor threads
+ *
+ * - the reader is the only thread touching the record source, so iterators and record
+ * 		readers don't need to be thread safe
+ * - each predictor thread gets its own BatchScorer from the factory: either a model
+ * 		replica (object graph networks) or a view over shared read-only weights
+ * - each predictor scores into its own Evaluation, no locking per record, and the
+ * 		results are merged once at the end
+ * - the queue bounds memory: the reader blocks when predictors fall behind
+ *
+ * The first failure on any thread stops the pipeline and is rethrown from run().
+ *
+ * @author josh
+ *
+ * @param <B> the batch type (DataSet, a list of lines, ...)
+ */
+public class EvaluationPipeline<B> {
+
+	/**
+	 * Source of batches, next() returns null once the test set is exhausted
+	 *
+	 */
+	public interface BatchReader<B> {
+		public B next() throws Exception;
+	}
+
+	/**
+	 * Scores one batch into the given (thread local) Evaluation
+	 *
+	 */
+	public interface BatchScorer<B> {
+		public void score(B batch, Evaluation eval) throws Exception;
+	}
+
+	/**
+	 * Called once per predictor thread
+	 *
+	 */
+	public interface BatchScorerFactory<B> {
+		public BatchScorer<B> newScorer() throws Exception;
+	}
+
+	private static final long POLL_MS = 100;
+
+	private final int predictorThreads;
+	private final int queueDepth;
+
+	private long batchesScored = 0;
+
+	public EvaluationPipeline(int predictorThreads, int queueDepth) {
+
+		if (predictorThreads < 1) {
+			throw new IllegalArgumentException( "predictorThreads must be >= 1, got " + predictorThreads );
+		}
+
+		if (queueDepth < 1) {
+			throw new IllegalArgumentException( "queueDepth must be >= 1, got " + queueDepth );
+		}
+
+		this.predictorThreads = predictorThreads;
+		this.queueDepth = queueDepth;
+
+	}
+
+	/**
+	 * One predictor per core and two batches of look ahead per predictor
+	 *
+	 */
+	public static <B> EvaluationPipeline<B> withDefaults() {
+
+		int threads = Runtime.getRuntime().availableProcessors();
+		return new EvaluationPipeline<B>( threads, threads * 2 );
+
+	}
+
+	public int getPredictorThreads() {
+		return this.predictorThreads;
+	}
+
+	/**
+	 * Batches scored by the last run()
+	 *
+	 */
+	public long getBatchesScored() {
+		return this.batchesScored;
+	}
+
+	public Evaluation run(final BatchReader<B> reader, final BatchScorerFactory<B> scorers) throws Exception {
+
+		final BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>( this.queueDepth );
+		final Object endOfInput = new Object();
+		final AtomicBoolean failed = new AtomicBoolean( false );
+
+		ExecutorService pool = Executors.newFixedThreadPool( this.predictorThreads + 1, new ThreadFactory() {
+
+			private int count = 0;
+
+			@Override
+			public Thread newThread(Runnable r) {
+
+				Thread t = new Thread( r, "metronome-eval-" + (count++) );
+				t.setDaemon( true );
+				return t;
+
+			}
+
+		} );
+
+		try {
+
+			Future<Long> readerResult = pool.submit( new Callable<Long>() {
+
+				@Override
+				public Long call() throws Exception {
+
+					long batches = 0;
+
+					try {
+
+						B batch;
+						while (null != (batch = reader.next())) {
+
+							if (!offer( queue, batch, failed )) {
+								return batches;
+							}
+							batches++;
+
+						}
+
+					} catch (Exception e) {
+
+						failed.set( true );
+						throw e;
+
+					}
+
+					// one end marker per predictor
+					for (int t = 0; t < predictorThreads; t++) {
+						if (!offer( queue, endOfInput, failed )) {
+							break;
+						}
+					}
+
+					return batches;
+
+				}
+
+			} );
+
+			List<Future<Evaluation>> predictorResults = new ArrayList<Future<Evaluation>>();
+
+			for (int t = 0; t < this.predictorThreads; t++) {
+
+				predictorResults.add( pool.submit( new Callable<Evaluation>() {
+
+					@SuppressWarnings("unchecked")
+					@Override
+					public Evaluation call() throws Exception {
+
+						Evaluation local = new Evaluation();
+
+						try {
+
+							BatchScorer<B> scorer = scorers.newScorer();
+
+							while (!failed.get()) {
+
+								Object item = queue.poll( POLL_MS, TimeUnit.MILLISECONDS );
+
+								if (null == item) {
+									continue;
+								}
+
+								if (endOfInput == item) {
+									break;
+								}
+
+								scorer.score( (B) item, local );
+
+							}
+
+						} catch (Exception e) {
+
+							failed.set( true );
+							throw e;
+
+						}
+
+						return local;
+
+					}
+
+				} ) );
+
+			}
+
+			Evaluation merged = new Evaluation();
+
+			try {
+
+				this.batchesScored = readerResult.get();
+
+				for (Future<Evaluation> f : predictorResults) {
+					merged.merge( f.get() );
+				}
+
+			} catch (ExecutionException e) {
+
+				failed.set( true );
+
+				if (e.getCause() instanceof Exception) {
+					throw (Exception) e.getCause();
+				}
+				throw e;
+
+			}
+
+			return merged;
+
+		} finally {
+
+			pool.shutdownNow();
+
+		}
+
+	}
+
+	/**
+	 * Blocking put that gives up once another thread has failed
+	 *
+	 */
+	private static boolean offer(BlockingQueue<Object> queue, Object item, AtomicBoolean failed) throws InterruptedException {
+
+		while (!failed.get()) {
+
+			if (queue.offer( item, POLL_MS, TimeUnit.MILLISECONDS )) {
+				return true;
+			}
+
+		}
+
+		return false;
+
+	}
+
+}
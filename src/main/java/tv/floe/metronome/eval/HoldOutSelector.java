@@ -0,0 +1,75 @@
+package tv.floe.metronome.eval;
+
+import org.apache.hadoop.conf.Configuration;
+
+import tv.floe.metronome.vectorization.MurmurHash3;
+
+/**
+ * Decides which records of a worker's split are held out of training and only scored
+ *
+ * - keyed on the record's position in the split, so the same records are held out on
+ * 		every pass and a held-out record never leaks into training
+ * - a hash of the position, not every k-th record, so ordered splits (sorted by label,
+ * 		by time) don't hold out a biased slice
+ * - no state, one hash and a compare per record
+ *
+ * Configuration:
+ *
+ * 		tv.floe.metronome.evaluate.holdout.fraction		fraction of each split held out (default 0, off)
+ * 		tv.floe.metronome.evaluate.holdout.seed			changes which records are picked (default 0)
+ *
+ * @author josh
+ *
+ */
+public class HoldOutSelector {
+
+	public static final String CONF_HOLDOUT_FRACTION = "tv.floe.metronome.evaluate.holdout.fraction";
+	public static final String CONF_HOLDOUT_SEED = "tv.floe.metronome.evaluate.holdout.seed";
+
+	private final double fraction;
+	private final int seed;
+
+	// hashes are compared as non-negative ints against fraction * 2^31
+	private final long threshold;
+
+	public HoldOutSelector(double fraction, int seed) {
+
+		if (fraction < 0 || fraction >= 1) {
+			throw new IllegalArgumentException( "Hold out fraction must be in [0, 1), got " + fraction );
+		}
+
+		this.fraction = fraction;
+		this.seed = seed;
+		this.threshold = (long) (fraction * 2147483648.0);
+
+	}
+
+	/**
+	 * Null when hold-out is off, callers skip validation entirely
+	 *
+	 */
+	public static HoldOutSelector fromConf(Configuration conf) {
+
+		double fraction = Double.parseDouble( conf.get( CONF_HOLDOUT_FRACTION, "0" ) );
+
+		if (fraction <= 0) {
+			return null;
+		}
+
+		return new HoldOutSelector( fraction, conf.getInt( CONF_HOLDOUT_SEED, 0 ) );
+
+	}
+
+	public double getFraction() {
+		return this.fraction;
+	}
+
+	public boolean isHeldOut(long record) {
+
+		int h = MurmurHash3.combine( (int) record ^ this.seed, (int) (record >>> 32) );
+
+		return (h & 0x7fffffff) < this.threshold;
+
+	}
+
+}
@@ -0,0 +1,278 @@
+package tv.floe.metronome.eval;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Writable;
+
+/**
+ * Confusion matrix specialized for int class indexes, counts kept in one flat long[]
+ *
+ * 		counts[ actual * capacity + predicted ]
+ *
+ * Where ConfusionMatrix<T> boxes both labels and does a HashMap + Multiset lookup per
+ * add(), here an add is an array increment. The class count grows on demand (doubling),
+ * so callers don't need to know the number of classes up front.
+ *
+ * - merge() adds another matrix in, so per thread / per worker matrices can be combined
+ * - Writable, so a worker can ship its matrix to the master inside an Updateable
+ *
+ * @author josh
+ *
+ */
+public class IntConfusionMatrix implements Writable {
+
+	private long[] counts;
+	private int capacity;
+	private int numClasses = 0;
+	private long total = 0;
+
+	public IntConfusionMatrix() {
+		this( 2 );
+	}
+
+	public IntConfusionMatrix(int expectedClasses) {
+
+		this.capacity = Math.max( 1, expectedClasses );
+		this.counts = new long[ this.capacity * this.capacity ];
+
+	}
+
+	public void add(int actual, int predicted) {
+		add( actual, predicted, 1 );
+	}
+
+	public void add(int actual, int predicted, long count) {
+
+		if (actual < 0 || predicted < 0) {
+			throw new IllegalArgumentException( "Class indexes must be >= 0, got " + actual + ", " + predicted );
+		}
+
+		int needed = Math.max( actual, predicted ) + 1;
+
+		if (needed > this.capacity) {
+			grow( needed );
+		}
+
+		if (needed > this.numClasses) {
+			this.numClasses = needed;
+		}
+
+		this.counts[ actual * this.capacity + predicted ] += count;
+		this.total += count;
+
+	}
+
+	/**
+	 * Adds the counts of another matrix to this one
+	 *
+	 */
+	public void merge(IntConfusionMatrix other) {
+
+		if (other.numClasses > this.capacity) {
+			grow( other.numClasses );
+		}
+
+		if (other.numClasses > this.numClasses) {
+			this.numClasses = other.numClasses;
+		}
+
+		for (int a = 0; a < other.numClasses; a++) {
+
+			int src = a * other.capacity;
+			int dst = a * this.capacity;
+
+			for (int p = 0; p < other.numClasses; p++) {
+				this.counts[ dst + p ] += other.counts[ src + p ];
+			}
+
+		}
+
+		this.total += other.total;
+
+	}
+
+	/**
+	 * One more than the largest class index seen
+	 *
+	 */
+	public int numClasses() {
+		return this.numClasses;
+	}
+
+	public long total() {
+		return this.total;
+	}
+
+	public long getCount(int actual, int predicted) {
+
+		if (actual >= this.numClasses || predicted >= this.numClasses) {
+			return 0;
+		}
+
+		return this.counts[ actual * this.capacity + predicted ];
+
+	}
+
+	public long correct() {
+
+		long sum = 0;
+
+		for (int c = 0; c < this.numClasses; c++) {
+			sum += this.counts[ c * this.capacity + c ];
+		}
+
+		return sum;
+
+	}
+
+	/**
+	 * Number of times the class actually appeared (row sum)
+	 *
+	 */
+	public long getActualTotal(int actual) {
+
+		if (actual >= this.numClasses) {
+			return 0;
+		}
+
+		long sum = 0;
+		int row = actual * this.capacity;
+
+		for (int p = 0; p < this.numClasses; p++) {
+			sum += this.counts[ row + p ];
+		}
+
+		return sum;
+
+	}
+
+	/**
+	 * Number of times the class was predicted (column sum)
+	 *
+	 */
+	public long getPredictedTotal(int predicted) {
+
+		if (predicted >= this.numClasses) {
+			return 0;
+		}
+
+		long sum = 0;
+
+		for (int a = 0; a < this.numClasses; a++) {
+			sum += this.counts[ a * this.capacity + predicted ];
+		}
+
+		return sum;
+
+	}
+
+	public void clear() {
+
+		Arrays.fill( this.counts, 0L );
+		this.numClasses = 0;
+		this.total = 0;
+
+	}
+
+	private void grow(int needed) {
+
+		int newCapacity = this.capacity;
+		while (newCapacity < needed) {
+			newCapacity *= 2;
+		}
+
+		long[] bigger = new long[ newCapacity * newCapacity ];
+
+		for (int a = 0; a < this.numClasses; a++) {
+			System.arraycopy( this.counts, a * this.capacity, bigger, a * newCapacity, this.numClasses );
+		}
+
+		this.counts = bigger;
+		this.capacity = newCapacity;
+
+	}
+
+	/**
+	 * Only the numClasses x numClasses block is written
+	 *
+	 */
+	@Override
+	public void write(DataOutput out) throws IOException {
+
+		out.writeInt( this.numClasses );
+
+		for (int a = 0; a < this.numClasses; a++) {
+			for (int p = 0; p < this.numClasses; p++) {
+				out.writeLong( this.counts[ a * this.capacity + p ] );
+			}
+		}
+
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+
+		int classes = in.readInt();
+
+		this.capacity = Math.max( 1, classes );
+		this.counts = new long[ this.capacity * this.capacity ];
+		this.numClasses = classes;
+		this.total = 0;
+
+		for (int a = 0; a < classes; a++) {
+			for (int p = 0; p < classes; p++) {
+
+				long c = in.readLong();
+				this.counts[ a * this.capacity + p ] = c;
+				this.total += c;
+
+			}
+		}
+
+	}
+
+	/**
+	 * Outputs the matrix as comma-separated values, same layout as ConfusionMatrix.toCSV()
+	 *
+	 */
+	public String toCSV() {
+
+		StringBuilder builder = new StringBuilder();
+
+		builder.append(",,Predicted Class,\n");
+
+		builder.append(",,");
+		for (int p = 0; p < this.numClasses; p++) {
+			builder.append(p).append(",");
+		}
+		builder.append("Total\n");
+
+		String firstColumnLabel = "Actual Class,";
+		for (int a = 0; a < this.numClasses; a++) {
+
+			builder.append(firstColumnLabel);
+			firstColumnLabel = ",";
+			builder.append(a).append(",");
+
+			for (int p = 0; p < this.numClasses; p++) {
+				builder.append(getCount(a, p)).append(",");
+			}
+
+			builder.append(getActualTotal(a)).append("\n");
+
+		}
+
+		builder.append(",Total,");
+		for (int p = 0; p < this.numClasses; p++) {
+			builder.append(getPredictedTotal(p)).append(",");
+		}
+		builder.append("\n");
+
+		return builder.toString();
+
+	}
+
+}
@@ -0,0 +1,179 @@
+package tv.floe.metronome.eval;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+
+/**
+ * Loss (and accuracy, for classifiers) over a worker's held-out records, scored during
+ * the superstep against the parameters the master sent down
+ *
+ * - the loss is whatever the algorithm trains on: squared error for regression and
+ * 		the MLP, negative log likelihood for POLR and the DBN
+ * - plain sums and counts, so the master merges worker metrics exactly (no averages
+ * 		of averages)
+ * - Writable, and writeOptional() / readOptional() let a parameter vector carry it
+ * 		only when hold-out is turned on
+ *
+ * @author josh
+ *
+ */
+public class ValidationMetrics implements Writable {
+
+	private long records = 0;
+	private double lossSum = 0;
+
+	private long classified = 0;
+	private long correct = 0;
+
+	/**
+	 * One classified record
+	 *
+	 */
+	public void add(double loss, boolean isCorrect) {
+
+		addLoss( loss );
+
+		this.classified++;
+		if (isCorrect) {
+			this.correct++;
+		}
+
+	}
+
+	/**
+	 * One record that only has a loss (regression)
+	 *
+	 */
+	public void addLoss(double loss) {
+
+		this.records++;
+		this.lossSum += loss;
+
+	}
+
+	public void merge(ValidationMetrics other) {
+
+		this.records += other.records;
+		this.lossSum += other.lossSum;
+		this.classified += other.classified;
+		this.correct += other.correct;
+
+	}
+
+	public long getRecords() {
+		return this.records;
+	}
+
+	public double getLossSum() {
+		return this.lossSum;
+	}
+
+	/**
+	 * NaN if no records were held out
+	 *
+	 */
+	public double meanLoss() {
+
+		if (0 == this.records) {
+			return Double.NaN;
+		}
+		return this.lossSum / this.records;
+
+	}
+
+	/**
+	 * Root of the mean loss, meaningful when the loss is a squared error
+	 *
+	 */
+	public double rmse() {
+		return Math.sqrt( meanLoss() );
+	}
+
+	/**
+	 * NaN if nothing was classified (regression)
+	 *
+	 */
+	public double accuracy() {
+
+		if (0 == this.classified) {
+			return Double.NaN;
+		}
+		return (double) this.correct / (double) this.classified;
+
+	}
+
+	public void clear() {
+
+		this.records = 0;
+		this.lossSum = 0;
+		this.classified = 0;
+		this.correct = 0;
+
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+
+		out.writeLong( this.records );
+		out.writeDouble( this.lossSum );
+		out.writeLong( this.classified );
+		out.writeLong( this.correct );
+
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+
+		this.records = in.readLong();
+		this.lossSum = in.readDouble();
+		this.classified = in.readLong();
+		this.correct = in.readLong();
+
+	}
+
+	/**
+	 * Presence flag, then the metrics if there are any
+	 *
+	 */
+	public static void writeOptional(DataOutput out, ValidationMetrics metrics) throws IOException {
+
+		out.writeBoolean( null != metrics );
+
+		if (null != metrics) {
+			metrics.write( out );
+		}
+
+	}
+
+	public static ValidationMetrics readOptional(DataInput in) throws IOException {
+
+		if (!in.readBoolean()) {
+			return null;
+		}
+
+		ValidationMetrics metrics = new ValidationMetrics();
+		metrics.readFields( in );
+		return metrics;
+
+	}
+
+	@Override
+	public String toString() {
+
+		StringBuilder builder = new StringBuilder();
+
+		builder.append( "records: " ).append( this.records );
+		builder.append( ", loss: " ).append( meanLoss() );
+
+		if (this.classified > 0) {
+			builder.append( ", accuracy: " ).append( accuracy() );
+		}
+
+		return builder.toString();
+
+	}
+
+}
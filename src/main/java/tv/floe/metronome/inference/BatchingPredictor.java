@@ -0,0 +1,375 @@
+package tv.floe.metronome.inference;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Micro batches concurrent single record requests onto a CompiledNetwork
+ *
+ * 		caller threads	-> [ request queue ] ->	N scoring threads, each scoring up to
+ * 												maxBatch queued requests per pass
+ *
+ * - a scoring thread takes the first waiting request, then everything else already queued
+ * 		(up to maxBatch), and optionally waits up to maxWaitMicros for more. With a wait of
+ * 		0 a lone request is scored immediately and batches only form under load, which is
+ * 		when they help
+ * - each scoring thread owns flat row-major input / output blocks of maxBatch rows, the
+ * 		only per request allocation is the small request handle
+ * - callers block by parking, the scoring thread unparks them when their row is written
+ * - a request belongs to whichever side claims it first: a scoring thread when it takes it
+ * 		into a batch, or its caller giving up on an interrupt. A caller that gave up is never
+ * 		written to, a caller that lost the race waits the one batch out
+ *
+ * predict() is safe to call from any number of threads.
+ *
+ * @author josh
+ *
+ */
+public class BatchingPredictor {
+
+	/**
+	 * One caller's record, completed by a scoring thread
+	 *
+	 */
+	private static final class Request {
+
+		final double[] input;
+		final double[] output;
+		final Thread caller;
+
+		volatile boolean done = false;
+		volatile RuntimeException error = null;
+
+		// set by the scoring thread that batches it, or by the caller cancelling it
+		final AtomicBoolean claimed = new AtomicBoolean( false );
+
+		Request(double[] input, double[] output) {
+
+			this.input = input;
+			this.output = output;
+			this.caller = Thread.currentThread();
+
+		}
+
+		boolean claim() {
+			return this.claimed.compareAndSet( false, true );
+		}
+
+		void complete(RuntimeException e) {
+
+			this.error = e;
+			this.done = true;
+			LockSupport.unpark( this.caller );
+
+		}
+
+	}
+
+	private final CompiledNetwork network;
+	private final int maxBatch;
+	private final long maxWaitNanos;
+
+	private final BlockingQueue<Request> queue;
+	private final ExecutorService pool;
+
+	private volatile boolean closed = false;
+
+	private final AtomicLong requests = new AtomicLong( 0 );
+	private final AtomicLong batches = new AtomicLong( 0 );
+
+	/**
+	 * One scoring thread per core, batches of up to 32, no waiting for stragglers
+	 *
+	 */
+	public BatchingPredictor(CompiledNetwork network) {
+
+		this( network, Runtime.getRuntime().availableProcessors(), 32, 0 );
+
+	}
+
+	public BatchingPredictor(CompiledNetwork network, int threads, int maxBatch, long maxWaitMicros) {
+
+		if (threads < 1) {
+			throw new IllegalArgumentException( "threads must be >= 1, got " + threads );
+		}
+
+		if (maxBatch < 1) {
+			throw new IllegalArgumentException( "maxBatch must be >= 1, got " + maxBatch );
+		}
+
+		if (maxWaitMicros < 0) {
+			throw new IllegalArgumentException( "maxWaitMicros must be >= 0, got " + maxWaitMicros );
+		}
+
+		this.network = network;
+		this.maxBatch = maxBatch;
+		this.maxWaitNanos = TimeUnit.MICROSECONDS.toNanos( maxWaitMicros );
+
+		// enough for every scoring thread to have a full batch waiting behind the current one
+		this.queue = new ArrayBlockingQueue<Request>( threads * maxBatch * 2 );
+
+		this.pool = Executors.newFixedThreadPool( threads, new ThreadFactory() {
+
+			private int count = 0;
+
+			@Override
+			public Thread newThread(Runnable r) {
+
+				Thread t = new Thread( r, "metronome-inference-" + (count++) );
+				t.setDaemon( true );
+				return t;
+
+			}
+
+		} );
+
+		for (int t = 0; t < threads; t++) {
+
+			this.pool.execute( new Runnable() {
+
+				@Override
+				public void run() {
+					score();
+				}
+
+			} );
+
+		}
+
+	}
+
+	public CompiledNetwork getNetwork() {
+		return this.network;
+	}
+
+	/**
+	 * Scores one record, blocking until its output is written
+	 *
+	 * @param output getNetwork().getOutputSize() values
+	 */
+	public void predict(double[] input, double[] output) throws InterruptedException {
+
+		if (input.length != this.network.getInputSize()) {
+			throw new IllegalArgumentException( "Expected " + this.network.getInputSize() + " inputs, got " + input.length );
+		}
+
+		if (output.length < this.network.getOutputSize()) {
+			throw new IllegalArgumentException( "Need room for " + this.network.getOutputSize() + " outputs, got " + output.length );
+		}
+
+		if (this.closed) {
+			throw new IllegalStateException( "Predictor is shut down" );
+		}
+
+		Request request = new Request( input, output );
+
+		// a timed offer so a caller stuck behind a full queue notices shutdown()
+		while (!this.queue.offer( request, 10, TimeUnit.MILLISECONDS )) {
+
+			if (this.closed) {
+				throw new IllegalStateException( "Predictor is shut down" );
+			}
+
+		}
+
+		// shutdown() may have drained the queue before our offer landed
+		if (this.closed) {
+			failPending();
+		}
+
+		while (!request.done) {
+
+			LockSupport.park( this );
+
+			if (Thread.interrupted()) {
+
+				if (request.claim()) {
+
+					// never batched, nothing will write to output now
+					this.queue.remove( request );
+					throw new InterruptedException();
+
+				}
+
+				// already in a batch, its row is being written: wait that out, then give up
+				while (!request.done) {
+					LockSupport.park( this );
+				}
+
+				throw new InterruptedException();
+
+			}
+
+		}
+
+		if (null != request.error) {
+			throw request.error;
+		}
+
+	}
+
+	public double[] predict(double[] input) throws InterruptedException {
+
+		double[] output = new double[ this.network.getOutputSize() ];
+		predict( input, output );
+		return output;
+
+	}
+
+	/**
+	 * Requests scored so far
+	 *
+	 */
+	public long getRequests() {
+		return this.requests.get();
+	}
+
+	/**
+	 * Scoring passes so far, getRequests() / getBatches() is the mean batch size
+	 *
+	 */
+	public long getBatches() {
+		return this.batches.get();
+	}
+
+	/**
+	 * Stops the scoring threads, requests still queued fail with an IllegalStateException
+	 *
+	 */
+	public void shutdown() {
+
+		this.closed = true;
+		this.pool.shutdownNow();
+
+		failPending();
+
+	}
+
+	private void failPending() {
+
+		Request pending;
+		while (null != (pending = this.queue.poll())) {
+
+			if (pending.claim()) {
+				pending.complete( new IllegalStateException( "Predictor is shut down" ) );
+			}
+
+		}
+
+	}
+
+	private void score() {
+
+		final int in = this.network.getInputSize();
+		final int out = this.network.getOutputSize();
+
+		final double[] inputs = new double[ this.maxBatch * in ];
+		final double[] outputs = new double[ this.maxBatch * out ];
+		final List<Request> batch = new ArrayList<Request>( this.maxBatch );
+
+		try {
+
+			while (!this.closed) {
+
+				Request first = this.queue.poll( 100, TimeUnit.MILLISECONDS );
+
+				if (null == first) {
+					continue;
+				}
+
+				batch.add( first );
+				this.queue.drainTo( batch, this.maxBatch - 1 );
+
+				if (this.maxWaitNanos > 0) {
+
+					long deadline = System.nanoTime() + this.maxWaitNanos;
+
+					while (batch.size() < this.maxBatch) {
+
+						long remaining = deadline - System.nanoTime();
+						if (remaining <= 0) {
+							break;
+						}
+
+						Request next = this.queue.poll( remaining, TimeUnit.NANOSECONDS );
+						if (null == next) {
+							break;
+						}
+
+						batch.add( next );
+						this.queue.drainTo( batch, this.maxBatch - batch.size() );
+
+					}
+
+				}
+
+				// drop requests whose callers gave up while they were queued
+				for (int r = batch.size() - 1; r >= 0; r--) {
+
+					if (!batch.get( r ).claim()) {
+						batch.remove( r );
+					}
+
+				}
+
+				int rows = batch.size();
+
+				if (0 == rows) {
+					continue;
+				}
+
+				for (int r = 0; r < rows; r++) {
+					System.arraycopy( batch.get( r ).input, 0, inputs, r * in, in );
+				}
+
+				RuntimeException error = null;
+
+				try {
+					this.network.predict( inputs, outputs, rows );
+				} catch (RuntimeException e) {
+					error = e;
+				}
+
+				// counted before the callers wake, so a caller that returns sees its request counted
+				this.requests.addAndGet( rows );
+				this.batches.incrementAndGet();
+
+				for (int r = 0; r < rows; r++) {
+
+					Request request = batch.get( r );
+
+					if (null == error) {
+						System.arraycopy( outputs, r * out, request.output, 0, out );
+					}
+					request.complete( error );
+
+				}
+
+				batch.clear();
+
+			}
+
+		} catch (InterruptedException e) {
+
+			// shutdown()
+
+		} finally {
+
+			for (Request request : batch) {
+				request.complete( new IllegalStateException( "Predictor is shut down" ) );
+			}
+
+		}
+
+	}
+
+}
@@ -0,0 +1,399 @@
+package tv.floe.metronome.inference;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import tv.floe.metronome.math.ActivationKernels;
+
+/**
+ * Read-only forward pass form of a trained feed forward network (DBN or MLP), built by
+ * ModelCompiler or by hand through the Builder
+ *
+ * - each layer is a flat row-major (outputs x inputs) double[], a bias per output unit
+ * 		and an activation per output unit, nothing else: no training state, no object
+ * 		graph, no mahout Matrix / Vector on the scoring path
+ * - immutable once built, so any number of threads can predict through one instance
+ * - the activation buffers live in a per thread scratch area that is sized on first use
+ * 		and only grown when a bigger batch shows up, so steady state scoring allocates
+ * 		nothing
+ * - predict(inputs, outputs, rows) scores a row-major block of rows: each weight row is
+ * 		read once per block instead of once per record, which is what the micro batching
+ * 		in BatchingPredictor pays for
+ *
+ * Activations match the training side:
+ *
+ * 		ACT_LINEAR		slope * net
+ * 		ACT_SIGMOID		1 / (1 + e^(-slope * net)), 0 / 1 past |net| > 100 (like Sigmoid)
+ * 		ACT_TANH		(e^(slope * net) - 1) / (e^(slope * net) + 1), -1 / 1 past |net| > 100
+ * 		ACT_STEP		high when net > 0, else low
+ * 		ACT_ONE			always 1 (a bias neuron sitting in the output layer)
+ *
+ * and a layer can be marked softmax, which normalizes each row over the layer's outputs
+ * after the per unit activation.
+ *
+ * The sigmoid / tanh / softmax exp go through the network's ActivationKernels (EXACT
+ * unless the Builder is given another accuracy, ModelCompiler carries the DBN's over).
+ *
+ * @author josh
+ *
+ */
+public class CompiledNetwork {
+
+	public static final int ACT_LINEAR = 0;
+	public static final int ACT_SIGMOID = 1;
+	public static final int ACT_TANH = 2;
+	public static final int ACT_STEP = 3;
+	public static final int ACT_ONE = 4;
+
+	/**
+	 * One fully connected layer
+	 *
+	 */
+	private static final class DenseLayer {
+
+		final int inputs;
+		final int outputs;
+
+		// row j holds the weights into output unit j
+		final double[] weights;
+		final double[] bias;
+
+		final int[] activation;
+		final double[] paramA;
+		final double[] paramB;
+
+		final boolean softmax;
+
+		DenseLayer(int inputs, int outputs, double[] weights, double[] bias, int[] activation, double[] paramA, double[] paramB, boolean softmax) {
+
+			this.inputs = inputs;
+			this.outputs = outputs;
+			this.weights = weights;
+			this.bias = bias;
+			this.activation = activation;
+			this.paramA = paramA;
+			this.paramB = paramB;
+			this.softmax = softmax;
+
+		}
+
+	}
+
+	/**
+	 * Per thread ping-pong activation buffers for the hidden layers
+	 *
+	 */
+	private static final class Scratch {
+
+		int rows = 0;
+		double[] a = null;
+		double[] b = null;
+
+	}
+
+	private final DenseLayer[] layers;
+	private final int inputSize;
+	private final int outputSize;
+	private final int widestHidden;
+	private final ActivationKernels kernels;
+
+	private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+
+		@Override
+		protected Scratch initialValue() {
+			return new Scratch();
+		}
+
+	};
+
+	private CompiledNetwork(List<DenseLayer> layers, ActivationKernels kernels) {
+
+		if (layers.isEmpty()) {
+			throw new IllegalArgumentException( "A compiled network needs at least one layer" );
+		}
+
+		this.layers = layers.toArray( new DenseLayer[ layers.size() ] );
+		this.inputSize = this.layers[ 0 ].inputs;
+		this.outputSize = this.layers[ this.layers.length - 1 ].outputs;
+
+		int widest = 0;
+		for (int l = 0; l < this.layers.length - 1; l++) {
+			widest = Math.max( widest, this.layers[ l ].outputs );
+		}
+		this.widestHidden = widest;
+		this.kernels = kernels;
+
+	}
+
+	public int getInputSize() {
+		return this.inputSize;
+	}
+
+	public int getOutputSize() {
+		return this.outputSize;
+	}
+
+	public int getLayerCount() {
+		return this.layers.length;
+	}
+
+	public ActivationKernels getActivationKernels() {
+		return this.kernels;
+	}
+
+	/**
+	 * Scores one record, output must hold getOutputSize() values
+	 *
+	 */
+	public void predict(double[] input, double[] output) {
+
+		predict( input, output, 1 );
+
+	}
+
+	/**
+	 * Scores rows records laid out row-major in inputs (rows x getInputSize()) into
+	 * outputs (rows x getOutputSize())
+	 *
+	 */
+	public void predict(double[] inputs, double[] outputs, int rows) {
+
+		if (rows < 1) {
+			return;
+		}
+
+		if (inputs.length < rows * this.inputSize) {
+			throw new IllegalArgumentException( "Need " + (rows * this.inputSize) + " inputs for " + rows + " rows, got " + inputs.length );
+		}
+
+		if (outputs.length < rows * this.outputSize) {
+			throw new IllegalArgumentException( "Need room for " + (rows * this.outputSize) + " outputs for " + rows + " rows, got " + outputs.length );
+		}
+
+		Scratch s = scratchFor( rows );
+
+		double[] src = inputs;
+		double[] dst = s.a;
+
+		for (int l = 0; l < this.layers.length; l++) {
+
+			if (l == this.layers.length - 1) {
+				dst = outputs;
+			}
+
+			forward( this.layers[ l ], this.kernels, src, dst, rows );
+
+			src = dst;
+			dst = (src == s.a) ? s.b : s.a;
+
+		}
+
+	}
+
+	private Scratch scratchFor(int rows) {
+
+		Scratch s = this.scratch.get();
+
+		if (s.rows < rows) {
+
+			s.rows = rows;
+			s.a = new double[ rows * this.widestHidden ];
+			s.b = new double[ rows * this.widestHidden ];
+
+		}
+
+		return s;
+
+	}
+
+	private static void forward(DenseLayer layer, ActivationKernels kernels, double[] src, double[] dst, int rows) {
+
+		final int in = layer.inputs;
+		final int out = layer.outputs;
+		final double[] w = layer.weights;
+
+		for (int j = 0; j < out; j++) {
+
+			final int wOffset = j * in;
+			final double b = layer.bias[ j ];
+
+			for (int r = 0; r < rows; r++) {
+
+				final int xOffset = r * in;
+				double net = b;
+
+				for (int i = 0; i < in; i++) {
+					net += w[ wOffset + i ] * src[ xOffset + i ];
+				}
+
+				dst[ r * out + j ] = activate( kernels, layer.activation[ j ], layer.paramA[ j ], layer.paramB[ j ], net );
+
+			}
+
+		}
+
+		if (layer.softmax) {
+
+			for (int r = 0; r < rows; r++) {
+				softmax( kernels, dst, r * out, out );
+			}
+
+		}
+
+	}
+
+	private static double activate(ActivationKernels kernels, int kind, double a, double b, double net) {
+
+		switch (kind) {
+
+			case ACT_SIGMOID:
+
+				if (net > 100) {
+					return 1.0;
+				} else if (net < -100) {
+					return 0.0;
+				}
+				return kernels.sigmoid( a * net );
+
+			case ACT_TANH:
+
+				if (net > 100) {
+					return 1.0;
+				} else if (net < -100) {
+					return -1.0;
+				}
+				if (ActivationKernels.EXACT != kernels) {
+					return kernels.tanh( 0.5 * a * net );
+				}
+				double e = Math.exp( a * net );
+				return (e - 1.0) / (e + 1.0);
+
+			case ACT_STEP:
+				return (net > 0) ? a : b;
+
+			case ACT_ONE:
+				return 1.0;
+
+			default:
+				return a * net;
+
+		}
+
+	}
+
+	private static void softmax(ActivationKernels kernels, double[] v, int offset, int length) {
+
+		double max = Double.NEGATIVE_INFINITY;
+		for (int i = offset; i < offset + length; i++) {
+			max = Math.max( max, v[ i ] );
+		}
+
+		double sum = 0;
+		for (int i = offset; i < offset + length; i++) {
+			v[ i ] -= max;
+		}
+
+		kernels.exp( v, offset, length );
+
+		for (int i = offset; i < offset + length; i++) {
+			sum += v[ i ];
+		}
+
+		for (int i = offset; i < offset + length; i++) {
+			v[ i ] /= sum;
+		}
+
+	}
+
+	/**
+	 * Collects layers input side first, the arrays are copied so the builder's caller
+	 * can keep mutating its own
+	 *
+	 */
+	public static class Builder {
+
+		private final List<DenseLayer> layers = new ArrayList<DenseLayer>();
+		private int nextInputs;
+		private ActivationKernels kernels = ActivationKernels.EXACT;
+
+		public Builder(int inputs) {
+
+			if (inputs < 1) {
+				throw new IllegalArgumentException( "inputs must be >= 1, got " + inputs );
+			}
+			this.nextInputs = inputs;
+
+		}
+
+		/**
+		 * A layer with the same activation on every unit
+		 *
+		 * @param weights row-major, outputs x inputs
+		 * @param param slope, or the high value for ACT_STEP (low is 0)
+		 */
+		public Builder layer(int outputs, double[] weights, double[] bias, int activation, double param, boolean softmax) {
+
+			int[] kinds = new int[ outputs ];
+			double[] a = new double[ outputs ];
+			for (int j = 0; j < outputs; j++) {
+				kinds[ j ] = activation;
+				a[ j ] = param;
+			}
+
+			return layer( outputs, weights, bias, kinds, a, new double[ outputs ], softmax );
+
+		}
+
+		/**
+		 * A layer with an activation per unit
+		 *
+		 * @param paramA slope per unit, or the high value for ACT_STEP
+		 * @param paramB the low value for ACT_STEP, unused otherwise
+		 */
+		public Builder layer(int outputs, double[] weights, double[] bias, int[] activation, double[] paramA, double[] paramB, boolean softmax) {
+
+			int inputs = this.nextInputs;
+
+			if (outputs < 1) {
+				throw new IllegalArgumentException( "Layer " + this.layers.size() + " needs at least one output" );
+			}
+
+			if (weights.length != inputs * outputs) {
+				throw new IllegalArgumentException( "Layer " + this.layers.size() + " expects " + (inputs * outputs) + " weights (" + inputs + " x " + outputs + "), got " + weights.length );
+			}
+
+			if (bias.length != outputs || activation.length != outputs || paramA.length != outputs || paramB.length != outputs) {
+				throw new IllegalArgumentException( "Layer " + this.layers.size() + " expects bias and activations for " + outputs + " units" );
+			}
+
+			for (int j = 0; j < outputs; j++) {
+				if (activation[ j ] < ACT_LINEAR || activation[ j ] > ACT_ONE) {
+					throw new IllegalArgumentException( "Unknown activation " + activation[ j ] + " on unit " + j + " of layer " + this.layers.size() );
+				}
+			}
+
+			this.layers.add( new DenseLayer( inputs, outputs, weights.clone(), bias.clone(), activation.clone(), paramA.clone(), paramB.clone(), softmax ) );
+			this.nextInputs = outputs;
+
+			return this;
+
+		}
+
+		/**
+		 * Accuracy of the sigmoid / tanh / softmax exp, EXACT by default
+		 *
+		 */
+		public Builder activationKernels(ActivationKernels kernels) {
+
+			this.kernels = kernels;
+			return this;
+
+		}
+
+		public CompiledNetwork build() {
+			return new CompiledNetwork( this.layers, this.kernels );
+		}
+
+	}
+
+}
@@ -0,0 +1,270 @@
+package tv.floe.metronome.inference;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.mahout.math.Matrix;
+
+import tv.floe.metronome.classification.neuralnetworks.activation.ActivationFunction;
+import tv.floe.metronome.classification.neuralnetworks.activation.Linear;
+import tv.floe.metronome.classification.neuralnetworks.activation.Sigmoid;
+import tv.floe.metronome.classification.neuralnetworks.activation.Step;
+import tv.floe.metronome.classification.neuralnetworks.activation.Tanh;
+import tv.floe.metronome.classification.neuralnetworks.core.Connection;
+import tv.floe.metronome.classification.neuralnetworks.core.Layer;
+import tv.floe.metronome.classification.neuralnetworks.core.NeuralNetwork;
+import tv.floe.metronome.classification.neuralnetworks.core.neurons.BiasNeuron;
+import tv.floe.metronome.classification.neuralnetworks.core.neurons.Neuron;
+import tv.floe.metronome.classification.neuralnetworks.eval.ModelEvaluator;
+import tv.floe.metronome.deeplearning.neuralnetwork.core.BaseMultiLayerNeuralNetworkVectorized;
+import tv.floe.metronome.deeplearning.neuralnetwork.core.LogisticRegression;
+import tv.floe.metronome.deeplearning.neuralnetwork.layer.HiddenLayer;
+
+/**
+ * Turns trained models into CompiledNetworks
+ *
+ * - DBN: each HiddenLayer becomes a sigmoid layer, the LogisticRegression output layer
+ * 		a softmax layer (normalized per row; predict() normalizes over the whole batch
+ * 		matrix, which is the same thing for a single record)
+ * - MLP: the neuron / connection graph is flattened layer by layer. Connections from
+ * 		bias neurons are folded into the unit's bias, bias neurons in the output layer
+ * 		become constant 1 units, and each unit keeps its own activation function. Only
+ * 		layer to adjacent layer connections are supported
+ *
+ * The source model is only read, it can keep training (or be thrown away) after compile.
+ *
+ * @author josh
+ *
+ */
+public class ModelCompiler {
+
+	public static CompiledNetwork compile(BaseMultiLayerNeuralNetworkVectorized dbn) {
+
+		if (null == dbn.hiddenLayers || null == dbn.logisticRegressionLayer) {
+			throw new IllegalArgumentException( "DBN has no layers, it was never initialized or trained" );
+		}
+
+		CompiledNetwork.Builder builder = new CompiledNetwork.Builder( dbn.hiddenLayers[ 0 ].connectionWeights.numRows() );
+		builder.activationKernels( dbn.getActivationKernels() );
+
+		for (int l = 0; l < dbn.numberLayers; l++) {
+
+			HiddenLayer layer = dbn.hiddenLayers[ l ];
+
+			builder.layer( layer.connectionWeights.numCols(), transpose( layer.connectionWeights ), row( layer.biasTerms ), CompiledNetwork.ACT_SIGMOID, 1.0, false );
+
+		}
+
+		LogisticRegression output = dbn.logisticRegressionLayer;
+
+		builder.layer( output.connectionWeights.numCols(), transpose( output.connectionWeights ), row( output.biasTerms ), CompiledNetwork.ACT_LINEAR, 1.0, true );
+
+		return builder.build();
+
+	}
+
+	public static CompiledNetwork compile(NeuralNetwork mlp) {
+
+		List<Layer> layers = mlp.getLayers();
+
+		if (layers.size() < 2) {
+			throw new IllegalArgumentException( "MLP needs an input and an output layer, has " + layers.size() + " layers" );
+		}
+
+		List<Neuron> previous = mlp.getInputNeurons();
+		CompiledNetwork.Builder builder = new CompiledNetwork.Builder( previous.size() );
+
+		for (int l = 1; l < layers.size(); l++) {
+
+			List<Neuron> units = (l == layers.size() - 1) ? mlp.getOutputNeurons() : withoutBias( layers.get( l ).getNeurons() );
+
+			Map<Neuron, Integer> inputIndex = new IdentityHashMap<Neuron, Integer>();
+			for (int i = 0; i < previous.size(); i++) {
+				inputIndex.put( previous.get( i ), i );
+			}
+
+			int inputs = previous.size();
+			int outputs = units.size();
+
+			double[] weights = new double[ inputs * outputs ];
+			double[] bias = new double[ outputs ];
+			int[] activation = new int[ outputs ];
+			double[] paramA = new double[ outputs ];
+			double[] paramB = new double[ outputs ];
+
+			for (int j = 0; j < outputs; j++) {
+
+				Neuron unit = units.get( j );
+
+				if (unit instanceof BiasNeuron) {
+
+					activation[ j ] = CompiledNetwork.ACT_ONE;
+					continue;
+
+				}
+
+				for (Connection c : unit.getInConnections()) {
+
+					Neuron from = c.getFromNeuron();
+
+					if (from instanceof BiasNeuron) {
+
+						bias[ j ] += c.getWeight().getValue();
+
+					} else {
+
+						Integer i = inputIndex.get( from );
+
+						if (null == i) {
+							throw new IllegalArgumentException( "Unit " + j + " of layer " + l + " has a connection that does not come from layer " + (l - 1) );
+						}
+
+						weights[ j * inputs + i ] += c.getWeight().getValue();
+
+					}
+
+				}
+
+				mapActivation( unit.getActivationFunction(), j, l, activation, paramA, paramB );
+
+			}
+
+			builder.layer( outputs, weights, bias, activation, paramA, paramB, false );
+
+			previous = units;
+
+		}
+
+		return builder.build();
+
+	}
+
+	/**
+	 * Loads a DBN saved through BaseMultiLayerNeuralNetworkVectorized (ObjectOutputStream)
+	 *
+	 */
+	public static CompiledNetwork loadDBN(InputStream is) {
+
+		return compile( BaseMultiLayerNeuralNetworkVectorized.loadFromFile( is ) );
+
+	}
+
+	public static CompiledNetwork loadDBN(String path) throws IOException {
+
+		FileInputStream fis = new FileInputStream( path );
+
+		try {
+			return loadDBN( fis );
+		} finally {
+			fis.close();
+		}
+
+	}
+
+	/**
+	 * Loads a serialized MultiLayerPerceptronNetwork (NeuralNetwork.Serialize())
+	 *
+	 */
+	public static CompiledNetwork loadMLP(byte[] model) throws IOException {
+
+		NeuralNetwork mlp = NeuralNetwork.Deserialize( model );
+
+		if (null == mlp) {
+			throw new IOException( "Unable to deserialize the MLP model" );
+		}
+
+		return compile( mlp );
+
+	}
+
+	public static CompiledNetwork loadMLP(String path) throws IOException {
+
+		return loadMLP( ModelEvaluator.readModelBytes( path ) );
+
+	}
+
+	private static void mapActivation(ActivationFunction f, int unit, int layer, int[] activation, double[] paramA, double[] paramB) {
+
+		// exact classes only, a subclass may override getOutput()
+		if (f.getClass() == Sigmoid.class) {
+
+			activation[ unit ] = CompiledNetwork.ACT_SIGMOID;
+			paramA[ unit ] = ((Sigmoid) f).getSlope();
+
+		} else if (f.getClass() == Tanh.class) {
+
+			activation[ unit ] = CompiledNetwork.ACT_TANH;
+			paramA[ unit ] = ((Tanh) f).getSlope();
+
+		} else if (f.getClass() == Linear.class) {
+
+			activation[ unit ] = CompiledNetwork.ACT_LINEAR;
+			paramA[ unit ] = ((Linear) f).getSlope();
+
+		} else if (f.getClass() == Step.class) {
+
+			activation[ unit ] = CompiledNetwork.ACT_STEP;
+			paramA[ unit ] = ((Step) f).getHighVal();
+			paramB[ unit ] = ((Step) f).getLowVal();
+
+		} else {
+
+			throw new IllegalArgumentException( "No compiled form for activation " + f.getClass().getName() + " on unit " + unit + " of layer " + layer );
+
+		}
+
+	}
+
+	private static List<Neuron> withoutBias(List<Neuron> neurons) {
+
+		List<Neuron> units = new ArrayList<Neuron>( neurons.size() );
+
+		for (Neuron n : neurons) {
+			if (!(n instanceof BiasNeuron)) {
+				units.add( n );
+			}
+		}
+
+		return units;
+
+	}
+
+	/**
+	 * (inputs x outputs) matrix to row-major (outputs x inputs)
+	 *
+	 */
+	private static double[] transpose(Matrix m) {
+
+		int inputs = m.numRows();
+		int outputs = m.numCols();
+
+		double[] out = new double[ inputs * outputs ];
+
+		for (int i = 0; i < inputs; i++) {
+			for (int j = 0; j < outputs; j++) {
+				out[ j * inputs + i ] = m.get( i, j );
+			}
+		}
+
+		return out;
+
+	}
+
+	private static double[] row(Matrix m) {
+
+		double[] out = new double[ m.numCols() ];
+
+		for (int j = 0; j < out.length; j++) {
+			out[ j ] = m.get( 0, j );
+		}
+
+		return out;
+
+	}
+
+}
@@ -0,0 +1,454 @@
+package tv.floe.metronome.io.checkpoint;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+
+import tv.floe.metronome.io.records.SplitTextRecordParser;
+
+import com.cloudera.iterativereduce.io.TextRecordParser;
+
+/**
+ * Superstep checkpoints of a master and its workers on any Hadoop FileSystem (hdfs://,
+ * file://, ..), so a job that lost a container can restart from the last superstep
+ * everybody got to disk instead of from scratch
+ *
+ * 		<dir>/superstep-00000012/master
+ * 		<dir>/superstep-00000012/worker-<split key>
+ *
+ * Each file is one record:
+ *
+ * 		int magic, int version, int superstep, int workers, int length, state bytes, long crc32
+ *
+ * - workers is how many worker results the master merged that superstep (0 on worker
+ * 		files), a superstep is consistent once its master file and that many worker files
+ * 		are all there
+ * - files are written to a .tmp name and renamed, so a reader never sees half a file;
+ * 		the checksum is checked when a node restores its state
+ * - workers are keyed by their split (splitKey()), not by container: a restarted job
+ * 		gets new containers but the same splits; the split's content hash (splitHash())
+ * 		goes in the worker's state to catch a file rewritten in place
+ * - what goes in the state bytes is up to the node, see the DBN / MLP master and worker
+ *
+ * Configuration:
+ *
+ * 		tv.floe.metronome.checkpoint.dir		where to write, unset = checkpointing off
+ * 		tv.floe.metronome.checkpoint.every		every N supersteps (default 1, 0 = never write)
+ * 		tv.floe.metronome.checkpoint.keep		consistent supersteps to keep (default 2)
+ * 		tv.floe.metronome.checkpoint.resume		restart from the latest consistent superstep
+ * 												in dir, if there is one (default false)
+ *
+ * @author josh
+ *
+ */
+public class CheckpointStore {
+
+	private static final Log LOG = LogFactory.getLog(CheckpointStore.class);
+
+	public static final String CONF_DIR = "tv.floe.metronome.checkpoint.dir";
+	public static final String CONF_EVERY = "tv.floe.metronome.checkpoint.every";
+	public static final String CONF_KEEP = "tv.floe.metronome.checkpoint.keep";
+	public static final String CONF_RESUME = "tv.floe.metronome.checkpoint.resume";
+
+	public static final String MASTER = "master";
+	private static final String WORKER_PREFIX = "worker-";
+	private static final String SUPERSTEP_PREFIX = "superstep-";
+	private static final String TMP_SUFFIX = ".tmp";
+
+	private static final int MAGIC = 0x4d434b50; // "MCKP"
+	private static final int VERSION = 1;
+
+	// lines hashed by splitHash()
+	private static final int SPLIT_HASH_LINES = 16;
+
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final FileSystem fs;
+	private final Path dir;
+	private final int every;
+	private final int keep;
+	private final boolean resume;
+
+	public CheckpointStore(FileSystem fs, Path dir, int every, int keep, boolean resume) {
+
+		if (every < 0) {
+			throw new IllegalArgumentException( "every must be >= 0, got " + every );
+		}
+
+		if (keep < 1) {
+			throw new IllegalArgumentException( "keep must be >= 1, got " + keep );
+		}
+
+		this.fs = fs;
+		this.dir = dir;
+		this.every = every;
+		this.keep = keep;
+		this.resume = resume;
+
+	}
+
+	/**
+	 * @return null unless tv.floe.metronome.checkpoint.dir is set
+	 */
+	public static CheckpointStore fromConf(Configuration conf) throws IOException {
+
+		String dir = conf.get( CONF_DIR );
+
+		if (null == dir || 0 == dir.trim().length()) {
+			return null;
+		}
+
+		Path path = new Path( dir.trim() );
+
+		return new CheckpointStore( path.getFileSystem( conf ), path,
+				conf.getInt( CONF_EVERY, 1 ),
+				conf.getInt( CONF_KEEP, 2 ),
+				conf.getBoolean( CONF_RESUME, false ) );
+
+	}
+
+	public boolean isResume() {
+		return this.resume;
+	}
+
+	/**
+	 * superstep counts completed supersteps, so the first one is 1
+	 */
+	public boolean isDue(int superstep) {
+		return this.every > 0 && superstep > 0 && 0 == superstep % this.every;
+	}
+
+	public static String workerName(String splitKey) {
+		return WORKER_PREFIX + splitKey;
+	}
+
+	/**
+	 * A stable name for the split behind parser: its path (hashed, it is full of '/' and
+	 * ':'), offset and length
+	 *
+	 * - a parser that didn't record its split (a plain TextRecordParser) falls back to
+	 * 		the content hash, see splitHash()
+	 *
+	 */
+	public static String splitKey(TextRecordParser parser) throws IOException {
+
+		if (parser instanceof SplitTextRecordParser && null != ((SplitTextRecordParser) parser).getSplitPath()) {
+
+			SplitTextRecordParser split = (SplitTextRecordParser) parser;
+
+			byte[] path = split.getSplitPath().getBytes( "UTF-8" );
+
+			return Long.toHexString( fnv( FNV_OFFSET_BASIS, path, path.length ) )
+					+ "-" + split.getSplitOffset() + "-" + split.getSplitLength();
+
+		}
+
+		LOG.warn( "No split path on " + parser.getClass().getName() + ", keying checkpoints on the split's content" );
+
+		return Long.toHexString( splitHash( parser ) );
+
+	}
+
+	/**
+	 * A hash of the first lines of the split behind parser, after which the parser is
+	 * rewound
+	 *
+	 * - workers keep it in their state and check it on resume, the split key alone
+	 * 		doesn't notice a file rewritten in place
+	 * - call before anything else reads from the parser (the DBN's prefetching fetcher)
+	 *
+	 */
+	public static long splitHash(TextRecordParser parser) throws IOException {
+
+		long h = FNV_OFFSET_BASIS;
+
+		Text line = new Text();
+		for (int i = 0; i < SPLIT_HASH_LINES && parser.hasMoreRecords(); i++) {
+
+			if (!parser.next( line )) {
+				break;
+			}
+
+			h = fnv( h, line.getBytes(), line.getLength() );
+
+			// line break, so "ab","c" and "a","bc" differ
+			h ^= '\n';
+			h *= FNV_PRIME;
+
+		}
+
+		parser.reset();
+
+		return h;
+
+	}
+
+	// FNV-1a 64
+	private static long fnv(long h, byte[] bytes, int length) {
+
+		for (int b = 0; b < length; b++) {
+			h ^= bytes[ b ] & 0xff;
+			h *= FNV_PRIME;
+		}
+
+		return h;
+
+	}
+
+	private Path superstepDir(int superstep) {
+		return new Path( this.dir, String.format( "%s%08d", SUPERSTEP_PREFIX, superstep ) );
+	}
+
+	/**
+	 * Writes one node's state for superstep, replacing any earlier copy
+	 *
+	 */
+	public void write(String name, int superstep, int workers, byte[] state) throws IOException {
+
+		CRC32 crc = new CRC32();
+		crc.update( state, 0, state.length );
+
+		Path superstepDir = this.superstepDir( superstep );
+		Path tmp = new Path( superstepDir, name + TMP_SUFFIX );
+		Path dst = new Path( superstepDir, name );
+
+		this.fs.mkdirs( superstepDir );
+
+		FSDataOutputStream out = this.fs.create( tmp, true );
+		try {
+
+			out.writeInt( MAGIC );
+			out.writeInt( VERSION );
+			out.writeInt( superstep );
+			out.writeInt( workers );
+			out.writeInt( state.length );
+			out.write( state );
+			out.writeLong( crc.getValue() );
+
+		} finally {
+			out.close();
+		}
+
+		if (this.fs.exists( dst )) {
+			this.fs.delete( dst, false );
+		}
+
+		if (!this.fs.rename( tmp, dst )) {
+			throw new IOException( "Could not rename " + tmp + " to " + dst );
+		}
+
+	}
+
+	/**
+	 * @return name's state for superstep, null if it isn't there or doesn't check out
+	 */
+	public byte[] read(String name, int superstep) throws IOException {
+
+		Record r = this.readRecord( new Path( this.superstepDir( superstep ), name ), true );
+		return (null == r) ? null : r.state;
+
+	}
+
+	private static final class Record {
+
+		int workers;
+		byte[] state;
+
+	}
+
+	/**
+	 * withState false only reads the header, for the consistency checks
+	 *
+	 */
+	private Record readRecord(Path file, boolean withState) throws IOException {
+
+		if (!this.fs.exists( file )) {
+			return null;
+		}
+
+		FSDataInputStream in = this.fs.open( file );
+		try {
+
+			if (MAGIC != in.readInt() || VERSION != in.readInt()) {
+				LOG.warn( "Not a checkpoint (or a newer version): " + file );
+				return null;
+			}
+
+			in.readInt(); // superstep, already in the dir name
+
+			Record r = new Record();
+			r.workers = in.readInt();
+
+			if (!withState) {
+				return r;
+			}
+
+			r.state = new byte[ in.readInt() ];
+			in.readFully( r.state );
+
+			CRC32 crc = new CRC32();
+			crc.update( r.state, 0, r.state.length );
+
+			if (crc.getValue() != in.readLong()) {
+				LOG.warn( "Checksum mismatch, ignoring " + file );
+				return null;
+			}
+
+			return r;
+
+		} catch (IOException e) {
+
+			// a truncated file is just not a checkpoint
+			LOG.warn( "Unreadable checkpoint " + file + ": " + e.getMessage() );
+			return null;
+
+		} finally {
+			in.close();
+		}
+
+	}
+
+	/**
+	 * Superstep numbers with a directory under dir, newest first
+	 *
+	 */
+	private List<Integer> supersteps() throws IOException {
+
+		List<Integer> found = new ArrayList<Integer>();
+
+		if (!this.fs.exists( this.dir )) {
+			return found;
+		}
+
+		for (FileStatus s : this.fs.listStatus( this.dir )) {
+
+			String name = s.getPath().getName();
+
+			if (name.startsWith( SUPERSTEP_PREFIX )) {
+				try {
+					found.add( Integer.parseInt( name.substring( SUPERSTEP_PREFIX.length() ) ) );
+				} catch (NumberFormatException e) {
+					// not ours
+				}
+			}
+
+		}
+
+		Collections.sort( found, Collections.reverseOrder() );
+
+		return found;
+
+	}
+
+	private boolean isConsistent(int superstep) throws IOException {
+
+		Path superstepDir = this.superstepDir( superstep );
+
+		Record master = this.readRecord( new Path( superstepDir, MASTER ), false );
+		if (null == master) {
+			return false;
+		}
+
+		int workers = 0;
+		for (FileStatus s : this.fs.listStatus( superstepDir )) {
+
+			String name = s.getPath().getName();
+
+			if (name.startsWith( WORKER_PREFIX ) && !name.endsWith( TMP_SUFFIX )) {
+				workers++;
+			}
+
+		}
+
+		return workers >= master.workers;
+
+	}
+
+	/**
+	 * Newest superstep with a good master checkpoint and every worker's, -1 if none
+	 *
+	 * - every node of a resumed job calls this before the first superstep, nothing new is
+	 * 		written until all of them have, so they all land on the same superstep
+	 *
+	 */
+	public int latestConsistent() throws IOException {
+
+		for (int superstep : this.supersteps()) {
+			if (this.isConsistent( superstep )) {
+				return superstep;
+			}
+		}
+
+		return -1;
+
+	}
+
+	/**
+	 * Deletes every superstep older than the newest keep consistent ones
+	 *
+	 * - inconsistent supersteps newer than those are left alone, their workers may still be
+	 * 		writing
+	 *
+	 */
+	public void prune() throws IOException {
+
+		int consistent = 0;
+
+		for (int superstep : this.supersteps()) {
+
+			if (consistent >= this.keep) {
+				this.fs.delete( this.superstepDir( superstep ), true );
+			} else if (this.isConsistent( superstep )) {
+				consistent++;
+			}
+
+		}
+
+	}
+
+	/**
+	 * Handy for building state bytes: the stream and the buffer behind it
+	 *
+	 */
+	public static final class StateBuffer extends DataOutputStream {
+
+		public StateBuffer() {
+			super( new ByteArrayOutputStream() );
+		}
+
+		public byte[] toByteArray() throws IOException {
+
+			this.flush();
+			return ((ByteArrayOutputStream) this.out).toByteArray();
+
+		}
+
+	}
+
+	public static DataInputStream stateInput(byte[] state) {
+		return new DataInputStream( new ByteArrayInputStream( state ) );
+	}
+
+	@Override
+	public String toString() {
+		return this.dir + " (every " + this.every + ", keep " + this.keep + ", resume " + this.resume + ")";
+	}
+
+}
@@ -0,0 +1,125 @@
+package tv.floe.metronome.io.checkpoint;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Writes a node's checkpoints on a background thread, so the filesystem round trip never
+ * lengthens a superstep
+ *
+ * - the node snapshots its state into a byte[] on its own thread (the model keeps changing
+ * 		once compute() / update() returns), only the write happens here
+ * - one checkpoint in flight at a time: if the last one is still being written when the
+ * 		next is due, the new one is dropped rather than queued, so a slow filesystem costs
+ * 		checkpoints, not heap or superstep time. That superstep just never becomes
+ * 		consistent, resume falls back to the one before
+ * - a failed write is logged and training carries on
+ *
+ * @author josh
+ *
+ */
+public class CheckpointWriter {
+
+	private static final Log LOG = LogFactory.getLog(CheckpointWriter.class);
+
+	private final CheckpointStore store;
+	private final ExecutorService thread;
+
+	private Future<?> pending = null;
+
+	public CheckpointWriter(CheckpointStore store) {
+
+		this.store = store;
+
+		this.thread = Executors.newSingleThreadExecutor( new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+
+				Thread t = new Thread( r, "metronome-checkpoint" );
+				t.setDaemon( true );
+				return t;
+
+			}
+
+		} );
+
+	}
+
+	public CheckpointStore getStore() {
+		return this.store;
+	}
+
+	/**
+	 * Queues state as name's checkpoint for superstep
+	 *
+	 * @param prune also drop old supersteps after writing (the master does this)
+	 * @return false if it was dropped because the previous write hasn't finished
+	 */
+	public synchronized boolean submit(final String name, final int superstep, final int workers, final byte[] state, final boolean prune) {
+
+		if (null != this.pending && !this.pending.isDone()) {
+			LOG.warn( "Checkpoint of superstep " + superstep + " dropped, still writing the last one" );
+			return false;
+		}
+
+		this.pending = this.thread.submit( new Runnable() {
+
+			@Override
+			public void run() {
+
+				try {
+
+					store.write( name, superstep, workers, state );
+
+					if (prune) {
+						store.prune();
+					}
+
+				} catch (IOException e) {
+					LOG.warn( "Checkpoint of superstep " + superstep + " failed: " + e.getMessage(), e );
+				}
+
+			}
+
+		} );
+
+		return true;
+
+	}
+
+	/**
+	 * Blocks until the write in flight, if any, is done
+	 *
+	 */
+	public synchronized void flush() {
+
+		if (null == this.pending) {
+			return;
+		}
+
+		try {
+			this.pending.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			LOG.warn( "Checkpoint write failed", e.getCause() );
+		}
+
+	}
+
+	public void close() {
+
+		this.flush();
+		this.thread.shutdown();
+
+	}
+
+}
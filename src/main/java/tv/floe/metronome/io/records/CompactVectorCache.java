@@ -0,0 +1,327 @@
+package tv.floe.metronome.io.records;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.mahout.math.Matrix;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.Vector.Element;
+
+import com.cloudera.iterativereduce.io.TextRecordParser;
+
+import tv.floe.metronome.metrics.MetricsRegistry;
+
+/**
+ * Vectorized copy of a split for single-label records (regression targets), kept as
+ * flat CSR arrays so later passes never touch the text or allocate
+ *
+ * Where CachedVectorReader keeps two sparse Vector objects per record (hash maps and
+ * boxing per entry), this keeps 12 bytes per non-zero plus 12 per record:
+ *
+ * 		rowStart[r] .. rowStart[r + 1]	range of record r in indices / values
+ * 		labels[r]						the target value from processLineAlt()
+ *
+ * 1. first pass: fill() reads the rest of the split, vectorizing every line into one
+ * 		reused scratch vector and appending its non-zeros
+ *
+ * 2. later passes: walk rows 0 .. size() - 1 with rowStart / rowEnd / index / value
+ *
+ * @author josh
+ *
+ */
+public class CompactVectorCache {
+
+	private int[] rowStart = new int[ 1025 ];
+	private int[] indices = new int[ 4096 ];
+	private double[] values = new double[ 4096 ];
+	private double[] labels = new double[ 1024 ];
+
+	private int numRows = 0;
+	private boolean complete = false;
+
+	// only used while filling, so vectorizing a record doesn't allocate
+	private Vector scratch = null;
+
+	public int size() {
+		return this.numRows;
+	}
+
+	/**
+	 * True once the whole split has been read, from then on the text is not needed
+	 *
+	 */
+	public boolean isComplete() {
+		return this.complete;
+	}
+
+	public long numNonZeros() {
+		return this.rowStart[ this.numRows ];
+	}
+
+	public double label(int row) {
+		return this.labels[ row ];
+	}
+
+	public int rowStart(int row) {
+		return this.rowStart[ row ];
+	}
+
+	public int rowEnd(int row) {
+		return this.rowStart[ row + 1 ];
+	}
+
+	public int index(int k) {
+		return this.indices[ k ];
+	}
+
+	public double value(int k) {
+		return this.values[ k ];
+	}
+
+	/**
+	 * Backing arrays for tight loops over [rowStart(row), rowEnd(row)), read only
+	 *
+	 * - only stable once the cache is complete, appends may reallocate them
+	 *
+	 */
+	public int[] indexArray() {
+		return this.indices;
+	}
+
+	public double[] valueArray() {
+		return this.values;
+	}
+
+	/**
+	 * Dot product of record [row] with row [matrixRow] of the given matrix
+	 *
+	 */
+	public double dot(int row, Matrix m, int matrixRow) {
+
+		double sum = 0;
+
+		for (int k = this.rowStart[ row ]; k < this.rowStart[ row + 1 ]; k++) {
+			sum += m.getQuick( matrixRow, this.indices[ k ] ) * this.values[ k ];
+		}
+
+		return sum;
+
+	}
+
+	/**
+	 * Appends the non-zeros of v as the next record
+	 *
+	 */
+	public void add(Vector v, double label) {
+
+		if (this.numRows + 1 >= this.rowStart.length) {
+			this.rowStart = Arrays.copyOf( this.rowStart, this.rowStart.length * 2 );
+			this.labels = Arrays.copyOf( this.labels, this.rowStart.length - 1 );
+		}
+
+		int nnz = this.rowStart[ this.numRows ];
+		int needed = nnz + v.getNumNondefaultElements();
+
+		if (needed > this.indices.length) {
+			int capacity = Math.max( needed, this.indices.length * 2 );
+			this.indices = Arrays.copyOf( this.indices, capacity );
+			this.values = Arrays.copyOf( this.values, capacity );
+		}
+
+		Iterator<Element> it = v.iterateNonZero();
+		while (it.hasNext()) {
+
+			Element e = it.next();
+
+			// guards against vectors that report explicit zeros as non default
+			if (nnz == this.indices.length) {
+				this.indices = Arrays.copyOf( this.indices, nnz * 2 );
+				this.values = Arrays.copyOf( this.values, nnz * 2 );
+			}
+
+			this.indices[ nnz ] = e.index();
+			this.values[ nnz ] = e.get();
+			nnz++;
+
+		}
+
+		this.labels[ this.numRows ] = label;
+		this.numRows++;
+		this.rowStart[ this.numRows ] = nnz;
+
+	}
+
+	/**
+	 * Reads and vectorizes every remaining record in the split, then marks the cache complete
+	 *
+	 * - a line the factory can't parse is logged and skipped, like the old per-pass loops did
+	 *
+	 * @return number of records added
+	 */
+	public int fill(TextRecordParser lineParser, RecordFactory vectorFactory, int featureVectorSize) throws IOException {
+		return fill( lineParser, vectorFactory, featureVectorSize, null );
+	}
+
+	/**
+	 * fill(), timing line reads into phase.parse and vectorizing into phase.vectorize
+	 *
+	 * - the nanos are summed over the records and recorded once per fill, so a worker's
+	 * 		registry gets one sample per phase, not one per record
+	 * - skipped lines count in records.skipped
+	 *
+	 * @param metrics null to skip the timing
+	 */
+	public int fill(TextRecordParser lineParser, RecordFactory vectorFactory, int featureVectorSize, MetricsRegistry metrics) throws IOException {
+
+		boolean timed = (null != metrics);
+		long parseNanos = 0;
+		long vectorizeNanos = 0;
+		int skipped = 0;
+
+		if (null == this.scratch || this.scratch.size() != featureVectorSize) {
+			this.scratch = new RandomAccessSparseVector( featureVectorSize );
+		}
+
+		Text value = new Text();
+		int added = 0;
+
+		long t = timed ? System.nanoTime() : 0;
+
+		while (lineParser.hasMoreRecords()) {
+
+			if (!lineParser.next( value )) {
+				continue;
+			}
+
+			long read = timed ? System.nanoTime() : 0;
+			parseNanos += read - t;
+
+			double actual = 0.0;
+
+			try {
+				actual = vectorFactory.processLineAlt( value.toString(), this.scratch );
+			} catch (Exception e) {
+				e.printStackTrace();
+				clearScratch( this.rowStart[ this.numRows ] );
+				skipped++;
+				t = timed ? System.nanoTime() : 0;
+				continue;
+			}
+
+			int first = this.rowStart[ this.numRows ];
+			add( this.scratch, actual );
+			clearScratch( first );
+			added++;
+
+			if (timed) {
+				t = System.nanoTime();
+				vectorizeNanos += t - read;
+			}
+
+		}
+
+		if (timed) {
+			metrics.phase( MetricsRegistry.Phase.PARSE ).record( parseNanos );
+			metrics.phase( MetricsRegistry.Phase.VECTORIZE ).record( vectorizeNanos );
+			metrics.counter( "records.skipped" ).add( skipped );
+		}
+
+		this.complete = true;
+		this.scratch = null;
+
+		// give back the slack from doubling
+		int nnz = this.rowStart[ this.numRows ];
+		this.indices = Arrays.copyOf( this.indices, Math.max( 1, nnz ) );
+		this.values = Arrays.copyOf( this.values, Math.max( 1, nnz ) );
+
+		return added;
+
+	}
+
+	/**
+	 * Loads a pre-vectorized file written by DocumentVectorizationJob, no text parsing
+	 *
+	 * - the label is output[0] of each record
+	 *
+	 * @return number of records added
+	 */
+	public int fill(SequenceFile.Reader vectorizedReader) throws IOException {
+		return fill( new VectorizedSplitReader( vectorizedReader ), Integer.MAX_VALUE, null );
+	}
+
+	/**
+	 * Loads a worker's split of a pre-vectorized file, then marks the cache complete
+	 *
+	 * - reading and deserializing the records is timed into phase.parse, there is
+	 * 		nothing to vectorize
+	 * - a feature index past featureVectorSize means the file was vectorized for a
+	 * 		different model, that fails the load instead of training on a wrapped index
+	 *
+	 * @param metrics null to skip the timing
+	 * @return number of records added
+	 */
+	public int fill(VectorizedSplitReader vectorizedReader, int featureVectorSize, MetricsRegistry metrics) throws IOException {
+
+		long start = (null != metrics) ? System.nanoTime() : 0;
+
+		VectorizedRecordWritable record = new VectorizedRecordWritable();
+		int added = 0;
+
+		while (vectorizedReader.next( record )) {
+
+			add( record.getInput(), record.getOutput().get( 0 ) );
+
+			for (int k = this.rowStart[ this.numRows - 1 ]; k < this.rowStart[ this.numRows ]; k++) {
+				if (this.indices[ k ] >= featureVectorSize) {
+					throw new IllegalStateException( "Vectorized record " + added + " has feature " + this.indices[ k ]
+							+ ", the model only has " + featureVectorSize );
+				}
+			}
+
+			added++;
+
+		}
+
+		if (null != metrics) {
+			metrics.phase( MetricsRegistry.Phase.PARSE ).recordSince( start );
+		}
+
+		this.complete = true;
+		this.scratch = null;
+
+		int nnz = this.rowStart[ this.numRows ];
+		this.indices = Arrays.copyOf( this.indices, Math.max( 1, nnz ) );
+		this.values = Arrays.copyOf( this.values, Math.max( 1, nnz ) );
+
+		return added;
+
+	}
+
+	/**
+	 * Zeroes the scratch vector using the indices just copied out of it (touched list),
+	 * a failed parse falls back to walking its non-zeros
+	 *
+	 */
+	private void clearScratch(int firstCopied) {
+
+		int end = this.rowStart[ this.numRows ];
+
+		if (firstCopied < end) {
+
+			for (int k = firstCopied; k < end; k++) {
+				this.scratch.setQuick( this.indices[ k ], 0.0 );
+			}
+
+		} else if (this.scratch.getNumNondefaultElements() > 0) {
+
+			this.scratch = this.scratch.like();
+
+		}
+
+	}
+
+}
@@ -7,6 +7,7 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
+import org.apache.mahout.math.Matrix;
 import org.apache.mahout.math.RandomAccessSparseVector;
 import org.apache.mahout.math.Vector;
 import org.apache.mahout.math.Vector.Element;
@@ -204,6 +205,37 @@ public class MetronomeRecordFactory implements RecordFactory {
 	    //return actual;
 	  }
 	  
+	  /**
+	   * Same layout as vectorizeLine(), but written straight into a row of the batch matrices
+	   * 
+	   * - no intermediate vectors or String[] splits per record
+	   * 
+	   */
+	  @Override
+	  public void vectorizeLineToMatrixRow(String line, Matrix inputs, Matrix labels, int row) {
+		  
+		  int pipe = line.indexOf('|');
+		  
+		  if (pipe < 0) {
+			  throw new IllegalArgumentException("Missing '|' between inputs and outputs in: " + line);
+		  }
+		  
+		  RecordParsingUtils.clearRow(inputs, row);
+		  
+		  int startFeatureIndex = 0;
+		  if (this.useBiasTerm) {
+			  inputs.setQuick(row, 0, 1.0);
+			  startFeatureIndex = 1;
+		  }
+		  
+		  RecordParsingUtils.parseSparsePairsIntoRow(line, 0, pipe, inputs, row, startFeatureIndex, this.featureVectorSize);
+		  
+		  RecordParsingUtils.clearRow(labels, row);
+		  
+		  RecordParsingUtils.parseSparsePairsIntoRow(line, pipe + 1, line.length(), labels, row, 0, this.outputValues);
+		  
+	  }
+	  
 	  @Override
 	  public List<String> getTargetCategories() {
 	    
@@ -30,6 +30,7 @@ import java.util.TreeMap;
 
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.mahout.math.Matrix;
 import org.apache.mahout.math.Vector;
 import org.apache.mahout.vectorizer.encoders.ConstantValueEncoder;
 import org.apache.mahout.vectorizer.encoders.FeatureVectorEncoder;
@@ -228,5 +229,28 @@ public class RCV1RecordFactory implements RecordFactory {
 		double out = this.processLineAlt( line, v_in );
 		v_out.set(0, out);
 	}
+	
+	/**
+	 * Same layout as processLineAlt(): bias in slot 0, namespace token skipped, features shifted by 1
+	 * 
+	 */
+	@Override
+	public void vectorizeLineToMatrixRow(String line, Matrix inputs, Matrix labels, int row) throws Exception {
+		
+		int end = line.length();
+		int labelEnd = RecordParsingUtils.nextSpace( line, 0, end );
+		
+		// skip the namespace token
+		int namespaceStart = RecordParsingUtils.skipSpaces( line, labelEnd, end );
+		int namespaceEnd = RecordParsingUtils.nextSpace( line, namespaceStart, end );
+		
+		RecordParsingUtils.clearRow( inputs, row );
+		inputs.setQuick( row, 0, 1.0 );
+		
+		RecordParsingUtils.parseSparsePairsIntoRow( line, namespaceEnd, end, inputs, row, 1, FEATURES );
+		
+		labels.setQuick( row, 0, Double.parseDouble( line.substring( 0, labelEnd ) ) );
+		
+	}
   
 }
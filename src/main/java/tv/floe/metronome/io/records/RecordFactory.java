@@ -25,6 +25,7 @@ import java.util.Map;
 import java.util.Set;
 
 //import org.apache.mahout.classifier.sgd.RecordFactory;
+import org.apache.mahout.math.Matrix;
 import org.apache.mahout.math.Vector;
 
 /**
@@ -44,6 +45,10 @@ public interface RecordFactory {
   public double processLineAlt(String line, Vector v) throws Exception;
   public void vectorizeLine(String line, Vector v_in, Vector v_out) throws Exception;
   
+  // writes the line straight into row [row] of preallocated batch matrices (dense or sparse rows)
+  // - inputs needs getFeatureVectorSize() columns, labels needs getOutputVectorSize() columns
+  public void vectorizeLineToMatrixRow(String line, Matrix inputs, Matrix labels, int row) throws Exception;
+  
   public String GetClassnameByID(int id);
   
   // Map<String, Set<Integer>> getTraceDictionary();
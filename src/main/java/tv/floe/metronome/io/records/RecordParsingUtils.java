@@ -0,0 +1,132 @@
+package tv.floe.metronome.io.records;
+
+import java.util.Iterator;
+
+import org.apache.mahout.math.Matrix;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.Vector.Element;
+
+/**
+ * Shared scanning code for the RecordFactory implementations when they vectorize
+ * a line straight into a row of a batch matrix
+ *
+ * - walks the line by character offsets instead of split(), so the only per feature
+ * 		allocation left is the substring handed to Double.parseDouble()
+ *
+ * @author josh
+ *
+ */
+public final class RecordParsingUtils {
+
+	private RecordParsingUtils() {
+	}
+
+	/**
+	 * Zeroes a row of a preallocated batch matrix, only touching the non-zeros for sparse rows
+	 *
+	 */
+	public static void clearRow( Matrix m, int row ) {
+
+		Vector v = m.viewRow( row );
+
+		if (v.isDense()) {
+
+			v.assign( 0.0 );
+
+		} else {
+
+			Iterator<Element> it = v.iterateNonZero();
+			while (it.hasNext()) {
+				it.next().set( 0.0 );
+			}
+
+		}
+
+	}
+
+	/**
+	 * Index of the first non-space char at or after [pos], or [end]
+	 *
+	 */
+	public static int skipSpaces( String line, int pos, int end ) {
+
+		while (pos < end && line.charAt( pos ) == ' ') {
+			pos++;
+		}
+		return pos;
+
+	}
+
+	/**
+	 * Index of the first space char at or after [pos], or [end]
+	 *
+	 */
+	public static int nextSpace( String line, int pos, int end ) {
+
+		while (pos < end && line.charAt( pos ) != ' ') {
+			pos++;
+		}
+		return pos;
+
+	}
+
+	/**
+	 * Parses a non-negative base 10 int from line[start, end) without allocating
+	 *
+	 */
+	public static int parseIndex( String line, int start, int end ) {
+
+		if (start >= end) {
+			throw new NumberFormatException( "Empty feature index in: " + line );
+		}
+
+		int value = 0;
+
+		for (int x = start; x < end; x++) {
+
+			int digit = line.charAt( x ) - '0';
+			if (digit < 0 || digit > 9) {
+				throw new NumberFormatException( "Bad feature index '" + line.substring( start, end ) + "' in: " + line );
+			}
+			value = value * 10 + digit;
+
+		}
+
+		return value;
+
+	}
+
+	/**
+	 * Writes every "index:value" token in line[start, end) into m[row, (index + indexOffset) % modulo]
+	 *
+	 * @return the number of tokens written
+	 */
+	public static int parseSparsePairsIntoRow( String line, int start, int end, Matrix m, int row, int indexOffset, int modulo ) {
+
+		int count = 0;
+		int pos = skipSpaces( line, start, end );
+
+		while (pos < end) {
+
+			int tokenEnd = nextSpace( line, pos, end );
+			int colon = line.indexOf( ':', pos );
+
+			if (colon < 0 || colon >= tokenEnd) {
+				throw new NumberFormatException( "Expected index:value, found '" + line.substring( pos, tokenEnd ) + "' in: " + line );
+			}
+
+			int index = (parseIndex( line, pos, colon ) + indexOffset) % modulo;
+			double val = Double.parseDouble( line.substring( colon + 1, tokenEnd ) );
+
+			m.setQuick( row, index, val );
+			count++;
+
+			pos = skipSpaces( line, tokenEnd, end );
+
+		}
+
+		return count;
+
+	}
+
+}
@@ -0,0 +1,48 @@
+package tv.floe.metronome.io.records;
+
+import com.cloudera.iterativereduce.io.TextRecordParser;
+
+/**
+ * A TextRecordParser that remembers which split it was pointed at
+ *
+ * - the framework (ApplicationWorker, IRUnitDriver) calls setFile() with the split's path,
+ * 		offset and length before the worker sees the parser, the plain parser doesn't
+ * 		hand them back out
+ * - CheckpointStore.splitKey() names a worker's checkpoints after them
+ *
+ * @author josh
+ *
+ */
+public class SplitTextRecordParser extends TextRecordParser {
+
+	private String splitPath = null;
+	private long splitOffset = 0;
+	private long splitLength = 0;
+
+	@Override
+	public void setFile(String file, long offset, long maxReadLength) {
+
+		this.splitPath = file;
+		this.splitOffset = offset;
+		this.splitLength = maxReadLength;
+
+		super.setFile( file, offset, maxReadLength );
+
+	}
+
+	/**
+	 * @return null until setFile() has been called
+	 */
+	public String getSplitPath() {
+		return this.splitPath;
+	}
+
+	public long getSplitOffset() {
+		return this.splitOffset;
+	}
+
+	public long getSplitLength() {
+		return this.splitLength;
+	}
+
+}
@@ -0,0 +1,70 @@
+package tv.floe.metronome.io.records;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.VectorWritable;
+
+/**
+ * Binary form of a vectorized record: the input (feature) vector and the output
+ * (label) vector, as produced by RecordFactory.vectorizeLine()
+ *
+ * This is what DocumentVectorizationJob writes (SequenceFile of NullWritable -> this),
+ * so training never has to re-parse or re-hash the text.
+ *
+ * - both vectors go through VectorWritable, sparse vectors stay sparse on disk
+ * - single label records (regression, POLR) keep the label in output[0]
+ *
+ * @author josh
+ *
+ */
+public class VectorizedRecordWritable implements Writable {
+
+	private Vector input = null;
+	private Vector output = null;
+
+	public VectorizedRecordWritable() {
+	}
+
+	public VectorizedRecordWritable(Vector input, Vector output) {
+
+		this.input = input;
+		this.output = output;
+
+	}
+
+	public Vector getInput() {
+		return this.input;
+	}
+
+	public Vector getOutput() {
+		return this.output;
+	}
+
+	public void set(Vector input, Vector output) {
+
+		this.input = input;
+		this.output = output;
+
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+
+		VectorWritable.writeVector( out, this.input );
+		VectorWritable.writeVector( out, this.output );
+
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+
+		this.input = VectorWritable.readVector( in );
+		this.output = VectorWritable.readVector( in );
+
+	}
+
+}
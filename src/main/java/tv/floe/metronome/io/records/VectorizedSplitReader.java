@@ -0,0 +1,133 @@
+package tv.floe.metronome.io.records;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+
+import com.cloudera.iterativereduce.io.RecordParser;
+
+/**
+ * Reads the records of one split out of a pre-vectorized file written by
+ * DocumentVectorizationJob (SequenceFile of NullWritable -> VectorizedRecordWritable)
+ *
+ * The framework hands a worker a text parser pointed at its split; with
+ *
+ * 		tv.floe.metronome.input.format=vectorized
+ *
+ * the POLR and linear regression workers read the same split through this instead, so
+ * nothing is parsed or hashed on the training side.
+ *
+ * - the split is a byte range of the file: reading starts at the first sync marker after
+ * 		the split's offset and runs to the first sync marker past its end, the same way
+ * 		Hadoop's SequenceFileRecordReader cuts a file, so every record lands in exactly one split
+ * - the worker's parser has to have recorded its split (SplitTextRecordParser)
+ *
+ * @author josh
+ *
+ */
+public class VectorizedSplitReader {
+
+	public static final String CONF_INPUT_FORMAT = "tv.floe.metronome.input.format";
+
+	public static final String FORMAT_TEXT = "text";
+	public static final String FORMAT_VECTORIZED = "vectorized";
+
+	private final SequenceFile.Reader reader;
+	private final long end;
+
+	private final NullWritable key = NullWritable.get();
+	private boolean more = true;
+
+	/**
+	 * True when the job's input is DocumentVectorizationJob output instead of text lines
+	 *
+	 */
+	public static boolean isVectorized(Configuration conf) {
+
+		String format = conf.get( CONF_INPUT_FORMAT, FORMAT_TEXT );
+
+		if (FORMAT_VECTORIZED.equals( format )) {
+			return true;
+		} else if (FORMAT_TEXT.equals( format )) {
+			return false;
+		}
+
+		throw new IllegalArgumentException( "Unknown " + CONF_INPUT_FORMAT + ": " + format + " (" + FORMAT_TEXT + ", " + FORMAT_VECTORIZED + ")" );
+
+	}
+
+	/**
+	 * Opens the split the framework pointed the worker's parser at
+	 *
+	 */
+	public static VectorizedSplitReader forSplit(Configuration conf, RecordParser parser) throws IOException {
+
+		if (!(parser instanceof SplitTextRecordParser) || null == ((SplitTextRecordParser) parser).getSplitPath()) {
+			throw new IllegalStateException( CONF_INPUT_FORMAT + "=" + FORMAT_VECTORIZED + " needs the worker's split, "
+					+ ((null == parser) ? "no parser" : parser.getClass().getName()) + " doesn't record it (use a SplitTextRecordParser)" );
+		}
+
+		SplitTextRecordParser split = (SplitTextRecordParser) parser;
+
+		return new VectorizedSplitReader( conf, new Path( split.getSplitPath() ), split.getSplitOffset(), split.getSplitLength() );
+
+	}
+
+	public VectorizedSplitReader(Configuration conf, Path file, long offset, long length) throws IOException {
+
+		FileSystem fs = file.getFileSystem( conf );
+
+		this.reader = new SequenceFile.Reader( fs, file, conf );
+		this.end = offset + length;
+
+		if (offset > this.reader.getPosition()) {
+			this.reader.sync( offset );
+		}
+
+		this.more = this.reader.getPosition() < this.end;
+
+	}
+
+	/**
+	 * Reads a whole, already open file
+	 *
+	 */
+	public VectorizedSplitReader(SequenceFile.Reader reader) {
+
+		this.reader = reader;
+		this.end = Long.MAX_VALUE;
+
+	}
+
+	/**
+	 * @return false once the split is used up
+	 */
+	public boolean next(VectorizedRecordWritable record) throws IOException {
+
+		if (!this.more) {
+			return false;
+		}
+
+		long position = this.reader.getPosition();
+		boolean read = this.reader.next( this.key, record );
+
+		// the record after the first sync past the end belongs to the next split
+		if (position >= this.end && this.reader.syncSeen()) {
+			this.more = false;
+		} else {
+			this.more = read;
+		}
+
+		return this.more;
+
+	}
+
+	public void close() throws IOException {
+		this.reader.close();
+	}
+
+}
@@ -6,6 +6,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.apache.mahout.math.Matrix;
 import org.apache.mahout.math.RandomAccessSparseVector;
 import org.apache.mahout.math.Vector;
 
@@ -266,6 +267,30 @@ public class libsvmRecordFactory implements RecordFactory {
 		
 	}
 	
+	/**
+	 * Writes the features into row [row] of inputs and the target into labels[row, 0]
+	 * 
+	 */
+	@Override
+	public void vectorizeLineToMatrixRow(String line, Matrix inputs, Matrix labels, int row) throws Exception {
+		
+		int end = line.length();
+		int labelEnd = RecordParsingUtils.nextSpace( line, 0, end );
+		
+		RecordParsingUtils.clearRow( inputs, row );
+		
+		int startFeatureIndex = 0;
+		if (this.useBiasTerm) {
+			inputs.setQuick( row, 0, 1.0 );
+			startFeatureIndex = 1;
+		}
+		
+		RecordParsingUtils.parseSparsePairsIntoRow( line, labelEnd, end, inputs, row, startFeatureIndex, this.featureVectorSize );
+		
+		labels.setQuick( row, 0, Double.parseDouble( line.substring( 0, labelEnd ) ) );
+		
+	}
+	
 	
 	
 }
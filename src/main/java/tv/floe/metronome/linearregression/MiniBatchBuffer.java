@@ -0,0 +1,83 @@
+package tv.floe.metronome.linearregression;
+
+/**
+ * Dense gradient accumulator for mini-batch SGD that is cleared by its touched-index list
+ *
+ * Replaces the RandomAccessSparseVector batch buffer that got thrown away with like()
+ * after every batch: adds are an array write, and clear() only zeroes the slots the
+ * batch actually touched, so one buffer lives for the whole run.
+ *
+ * @author josh
+ *
+ */
+public class MiniBatchBuffer {
+
+	private final double[] gradient;
+	private final boolean[] isTouched;
+	private final int[] touched;
+	private int numTouched = 0;
+	private int records = 0;
+
+	public MiniBatchBuffer(int numFeatures) {
+
+		this.gradient = new double[ numFeatures ];
+		this.isTouched = new boolean[ numFeatures ];
+		this.touched = new int[ numFeatures ];
+
+	}
+
+	public void add(int index, double delta) {
+
+		if (!this.isTouched[ index ]) {
+			this.isTouched[ index ] = true;
+			this.touched[ this.numTouched++ ] = index;
+		}
+
+		this.gradient[ index ] += delta;
+
+	}
+
+	/**
+	 * Counts a record towards the batch, call once per trained instance
+	 *
+	 */
+	public void recordAdded() {
+		this.records++;
+	}
+
+	public int records() {
+		return this.records;
+	}
+
+	public int numTouched() {
+		return this.numTouched;
+	}
+
+	/**
+	 * Feature index of the i-th touched slot
+	 *
+	 */
+	public int touchedIndex(int i) {
+		return this.touched[ i ];
+	}
+
+	public double get(int index) {
+		return this.gradient[ index ];
+	}
+
+	public void clear() {
+
+		for (int i = 0; i < this.numTouched; i++) {
+
+			int index = this.touched[ i ];
+			this.gradient[ index ] = 0.0;
+			this.isTouched[ index ] = false;
+
+		}
+
+		this.numTouched = 0;
+		this.records = 0;
+
+	}
+
+}
@@ -0,0 +1,329 @@
+package tv.floe.metronome.linearregression;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.apache.mahout.math.DenseMatrix;
+import org.apache.mahout.math.Matrix;
+import org.apache.mahout.math.Vector;
+
+/**
+ * Sufficient statistics for a closed form least squares fit: X^T X, X^T y, sum(y), sum(y^2), n
+ *
+ * Every worker accumulates one of these over its split in a single pass, the master
+ * merges them and solves (X^T X + ridge * I) b = X^T y with a Cholesky factorization.
+ *
+ * - X^T X is symmetric so only the lower triangle is kept, packed row by row
+ * 		(entry (i, j) for i >= j lives at i * (i + 1) / 2 + j)
+ * - the same sums also give SSE and SSyy for R-squared, so there is no second pass
+ * - memory is n(n+1)/2 doubles, meant for a few thousand features at most (the packed
+ * 		indexes are ints, so n is capped at MAX_FEATURES)
+ *
+ * @author josh
+ *
+ */
+public class NormalEquations {
+
+	// largest n with n * (n + 1) still an int, the packed index math depends on it
+	public static final int MAX_FEATURES = 46340;
+
+	private int numFeatures;
+
+	// lower triangle of X^T X, packed
+	private double[] xtx;
+	private double[] xty;
+
+	private long count = 0;
+	private double y_sum = 0;
+	private double y_squared_sum = 0;
+
+	// scratch space for the non-zeros of the current record
+	private int[] nzIndex;
+	private double[] nzValue;
+
+	public NormalEquations(int numFeatures) {
+
+		if (numFeatures < 1 || numFeatures > MAX_FEATURES) {
+			throw new IllegalArgumentException( "Normal equations need 1 to " + MAX_FEATURES + " features, got " + numFeatures
+					+ " (" + packedSize( numFeatures ) + " packed X^T X entries), use SGD for wider data" );
+		}
+
+		this.numFeatures = numFeatures;
+		this.xtx = new double[ (int) packedSize( numFeatures ) ];
+		this.xty = new double[ numFeatures ];
+
+		this.nzIndex = new int[ numFeatures ];
+		this.nzValue = new double[ numFeatures ];
+
+	}
+
+	private static long packedSize(int n) {
+		return (long) n * (n + 1) / 2;
+	}
+
+	private static int packedIndex(int i, int j) {
+		return (i >= j) ? i * (i + 1) / 2 + j : j * (j + 1) / 2 + i;
+	}
+
+	public int numFeatures() {
+		return this.numFeatures;
+	}
+
+	public long getCount() {
+		return this.count;
+	}
+
+	public double getYSum() {
+		return this.y_sum;
+	}
+
+	/**
+	 * Adds one record's outer product x x^T and y * x
+	 *
+	 * - only touches the non-zeros, so sparse records cost O(nnz^2)
+	 *
+	 */
+	public void accumulate(Vector x, double y) {
+
+		int nnz = 0;
+
+		Iterator<Vector.Element> it = x.iterateNonZero();
+		while (it.hasNext()) {
+
+			Vector.Element e = it.next();
+			this.nzIndex[ nnz ] = e.index();
+			this.nzValue[ nnz ] = e.get();
+			nnz++;
+
+		}
+
+		for (int a = 0; a < nnz; a++) {
+
+			int i = this.nzIndex[ a ];
+			double xi = this.nzValue[ a ];
+
+			this.xty[ i ] += xi * y;
+
+			for (int b = 0; b <= a; b++) {
+				this.xtx[ packedIndex( i, this.nzIndex[ b ] ) ] += xi * this.nzValue[ b ];
+			}
+
+		}
+
+		this.count++;
+		this.y_sum += y;
+		this.y_squared_sum += y * y;
+
+	}
+
+	/**
+	 * Folds another worker's partial sums into this one
+	 *
+	 */
+	public void merge(NormalEquations other) {
+
+		if (other.numFeatures != this.numFeatures) {
+			throw new IllegalArgumentException( "Can't merge normal equations over " + other.numFeatures + " features into " + this.numFeatures );
+		}
+
+		for (int i = 0; i < this.xtx.length; i++) {
+			this.xtx[ i ] += other.xtx[ i ];
+		}
+
+		for (int i = 0; i < this.numFeatures; i++) {
+			this.xty[ i ] += other.xty[ i ];
+		}
+
+		this.count += other.count;
+		this.y_sum += other.y_sum;
+		this.y_squared_sum += other.y_squared_sum;
+
+	}
+
+	/**
+	 * Solves for the coefficients with a Cholesky factorization of X^T X + ridge * I
+	 *
+	 * - the ridge term is not applied to column 0, the bias slot the record factories write
+	 * - a feature that never shows up in the data has an all zero row and column, its
+	 * 		coefficient is pinned to 0 and it is left out of the factorization
+	 * - X^T X is otherwise only positive semi-definite (collinear features), if the
+	 * 		factorization breaks down a small ridge value fixes it
+	 *
+	 * @return the coefficients as a 1 x numFeatures matrix, the layout of the SGD parameter vector
+	 */
+	public Matrix solve(double ridge) {
+
+		int n = this.numFeatures;
+
+		// factor a copy, the partial sums stay mergeable
+		double[] l = this.xtx.clone();
+
+		// X^T X is a sum of squares on the diagonal, 0 there means x_i was 0 on every record
+		boolean[] unseen = new boolean[ n ];
+
+		for (int i = 0; i < n; i++) {
+
+			int ii = packedIndex( i, i );
+			unseen[ i ] = (0.0 == this.xtx[ ii ]);
+
+			if (unseen[ i ]) {
+				// the rest of row i is 0 too, a unit pivot decouples it and X^T y[ i ] = 0 solves it to 0
+				l[ ii ] = 1.0;
+			} else if (i > 0) {
+				l[ ii ] += ridge;
+			}
+
+		}
+
+		// packed lower Cholesky, L[i][k] and L[j][k] are both contiguous runs of row i and row j
+		for (int i = 0; i < n; i++) {
+
+			int rowI = i * (i + 1) / 2;
+
+			for (int j = 0; j <= i; j++) {
+
+				int rowJ = j * (j + 1) / 2;
+				double sum = l[ rowI + j ];
+
+				for (int k = 0; k < j; k++) {
+					sum -= l[ rowI + k ] * l[ rowJ + k ];
+				}
+
+				if (i == j) {
+
+					if (sum <= 0.0) {
+						throw new IllegalStateException( "X^T X is not positive definite at feature " + i + ", try a ridge value > 0" );
+					}
+					l[ rowI + i ] = Math.sqrt( sum );
+
+				} else {
+
+					l[ rowI + j ] = sum / l[ rowJ + j ];
+
+				}
+
+			}
+
+		}
+
+		// forward substitution: L z = X^T y
+		double[] b = this.xty.clone();
+
+		for (int i = 0; i < n; i++) {
+
+			int rowI = i * (i + 1) / 2;
+			double sum = b[ i ];
+
+			for (int k = 0; k < i; k++) {
+				sum -= l[ rowI + k ] * b[ k ];
+			}
+
+			b[ i ] = sum / l[ rowI + i ];
+
+		}
+
+		// back substitution: L^T b = z
+		for (int i = n - 1; i >= 0; i--) {
+
+			double sum = b[ i ];
+
+			for (int k = i + 1; k < n; k++) {
+				sum -= l[ k * (k + 1) / 2 + i ] * b[ k ];
+			}
+
+			b[ i ] = sum / l[ i * (i + 1) / 2 + i ];
+
+		}
+
+		Matrix coefficients = new DenseMatrix( 1, n );
+		for (int i = 0; i < n; i++) {
+			coefficients.setQuick( 0, i, unseen[ i ] ? 0.0 : b[ i ] );
+		}
+
+		return coefficients;
+
+	}
+
+	/**
+	 * R-squared inputs for a given set of coefficients, straight from the sums
+	 *
+	 * 		SSE = y^T y - 2 b^T X^T y + b^T X^T X b
+	 * 		SSyy = y^T y - n * y_avg^2
+	 *
+	 */
+	public RegressionStatistics computeStatistics(Matrix coefficients) {
+
+		int n = this.numFeatures;
+
+		double bXty = 0;
+		double bXtXb = 0;
+
+		for (int i = 0; i < n; i++) {
+
+			double bi = coefficients.getQuick( 0, i );
+			bXty += bi * this.xty[ i ];
+
+			int rowI = i * (i + 1) / 2;
+
+			// off diagonal entries count twice
+			double cross = 0;
+			for (int j = 0; j < i; j++) {
+				cross += this.xtx[ rowI + j ] * coefficients.getQuick( 0, j );
+			}
+
+			bXtXb += bi * (2 * cross + this.xtx[ rowI + i ] * bi);
+
+		}
+
+		RegressionStatistics stats = new RegressionStatistics();
+		stats.AddPartialSumForY( this.y_sum, this.count );
+
+		double y_avg = stats.ComputeYAvg();
+
+		stats.AccumulateSSEPartialSum( Math.max( 0, this.y_squared_sum - 2 * bXty + bXtXb ) );
+		stats.AccumulateSSyyPartialSum( this.y_squared_sum - this.count * y_avg * y_avg );
+
+		return stats;
+
+	}
+
+	public void write(DataOutput out) throws IOException {
+
+		out.writeInt( this.numFeatures );
+		out.writeLong( this.count );
+		out.writeDouble( this.y_sum );
+		out.writeDouble( this.y_squared_sum );
+
+		for (int i = 0; i < this.xty.length; i++) {
+			out.writeDouble( this.xty[ i ] );
+		}
+
+		for (int i = 0; i < this.xtx.length; i++) {
+			out.writeDouble( this.xtx[ i ] );
+		}
+
+	}
+
+	public static NormalEquations read(DataInput in) throws IOException {
+
+		NormalEquations ne = new NormalEquations( in.readInt() );
+
+		ne.count = in.readLong();
+		ne.y_sum = in.readDouble();
+		ne.y_squared_sum = in.readDouble();
+
+		for (int i = 0; i < ne.xty.length; i++) {
+			ne.xty[ i ] = in.readDouble();
+		}
+
+		for (int i = 0; i < ne.xtx.length; i++) {
+			ne.xtx[ i ] = in.readDouble();
+		}
+
+		return ne;
+
+	}
+
+}
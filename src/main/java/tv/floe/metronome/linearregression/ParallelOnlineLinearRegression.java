@@ -18,6 +18,8 @@ import org.apache.mahout.math.MatrixWritable;
 import org.apache.mahout.math.Vector;
 import org.apache.mahout.math.VectorWritable;
 
+import tv.floe.metronome.io.records.CompactVectorCache;
+
 
 /**
  * 
@@ -368,6 +370,124 @@ public class ParallelOnlineLinearRegression extends
 
 	}
 
+	/**
+	 * Hypothesis value for record [row] of the cache
+	 * 
+	 */
+	public double predict(CompactVectorCache cache, int row) {
+
+		return cache.dot(row, this.beta, 0);
+
+	}
+
+	/**
+	 * Same SGD step as train(double, Vector) for a cached record, no Vector or
+	 * iterator is involved
+	 * 
+	 * - like the Vector paths no prior is applied: regularize() loops over
+	 * 		numCategories - 1 rows, which is none for a regression
+	 * 
+	 */
+	public void train(CompactVectorCache cache, int row) {
+
+		unseal();
+		double learningRate = currentLearningRate();
+
+		int start = cache.rowStart(row);
+		int end = cache.rowEnd(row);
+
+		double dot_product = 0;
+
+		for (int k = start; k < end; k++) {
+
+			dot_product += beta.getQuick(0, cache.index(k)) * cache.value(k);
+
+		}
+
+		double gradientBase = dot_product - cache.label(row);
+
+		for (int k = start; k < end; k++) {
+
+			int j = cache.index(k);
+
+			double newValue = beta.getQuick(0, j) - (gradientBase
+					* learningRate * perTermLearningRate(j) * cache.value(k));
+			beta.setQuick(0, j, newValue);
+
+			// remember that this element got updated
+			updateSteps.setQuick(j, getStep());
+			updateCounts.setQuick(j, updateCounts.getQuick(j) + 1);
+
+		}
+
+		nextStep();
+
+	}
+
+	/**
+	 * Ends a record the way the workers' per record close() used to: one more step, so the
+	 * step (and with it the annealed learning rate) moves at the same pace as before the cache
+	 * 
+	 * - close() also ran regularizeAll(), which has no rows to age for a regression but
+	 * 		allocated a dense vector every record
+	 * 
+	 */
+	public void closeRecord() {
+
+		nextStep();
+
+	}
+
+	/**
+	 * Mini batch accumulation for a cached record: adds (h(x) - y) * x_j into the buffer
+	 * 
+	 */
+	public void trainMiniBatch(CompactVectorCache cache, int row, MiniBatchBuffer buffer) {
+
+		double gradientBase = this.predict(cache, row) - cache.label(row);
+
+		for (int k = cache.rowStart(row); k < cache.rowEnd(row); k++) {
+			buffer.add(cache.index(k), gradientBase * cache.value(k));
+		}
+
+		buffer.recordAdded();
+
+	}
+
+	/**
+	 * Applies the averaged gradient of every touched coefficient and clears the buffer
+	 * 
+	 * - uses the base learning rate like miniBatchUpdateParameterVector(int, Vector)
+	 * 
+	 */
+	public void miniBatchUpdateParameterVector(MiniBatchBuffer buffer) {
+
+		int batchSize = buffer.records();
+
+		if (0 == batchSize) {
+			return;
+		}
+
+		for (int t = 0; t < buffer.numTouched(); t++) {
+
+			int j = buffer.touchedIndex(t);
+
+			double avg_gradient_update = buffer.get(j) / batchSize;
+
+			double newValue = beta.getQuick(0, j) - ( avg_gradient_update * this.learningRate * perTermLearningRate(j) );
+			beta.setQuick(0, j, newValue);
+
+			updateSteps.setQuick(j, getStep());
+			updateCounts.setQuick(j, updateCounts.getQuick(j) + 1);
+
+		}
+
+		buffer.clear();
+
+		nextStep();
+
+	}
+
 	/**
 	 * get the current parameter vector
 	 * 
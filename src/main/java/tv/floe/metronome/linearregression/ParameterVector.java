@@ -12,6 +12,9 @@ import org.apache.mahout.math.Matrix;
 import org.apache.mahout.math.MatrixWritable;
 import org.apache.mahout.math.Vector;
 
+import tv.floe.metronome.eval.ValidationMetrics;
+import tv.floe.metronome.metrics.MetricsRegistry;
+
 public class ParameterVector {
 	  
 	  public Matrix parameter_vector = null;
@@ -31,10 +34,23 @@ public class ParameterVector {
 		public double SSyy_partial_sum = 0;
 		public double SSE_partial_sum = 0;
 		
+		// only set in the one pass normal equations mode, null otherwise
+		public NormalEquations normal_equations = null;
+		
+		// squared error over the worker's held-out rows, null when hold-out is off
+		public ValidationMetrics validation = null;
+		
+		// master -> worker: converged, stop training
+		public boolean StopTraining = false;
+		
+		// worker's metrics for the superstep (MetricsRegistry), null on master messages
+		public MetricsRegistry metrics = null;
+		
 	  
 	  
 	  public byte[] Serialize() throws IOException {
 	    
+	    long start = System.nanoTime();
 	    ByteArrayOutputStream out = new ByteArrayOutputStream();
 	    DataOutput d = new DataOutputStream(out);
 	    	    
@@ -50,6 +66,20 @@ public class ParameterVector {
 	    d.writeFloat(this.AvgError);
 	    MatrixWritable.writeMatrix(d, this.parameter_vector);
 	    
+	    d.writeBoolean(null != this.normal_equations);
+	    if (null != this.normal_equations) {
+	    	this.normal_equations.write(d);
+	    }
+	    
+	    ValidationMetrics.writeOptional(d, this.validation);
+	    d.writeBoolean(this.StopTraining);
+	    
+	    // last, so the superstep's delta includes this send
+	    if (null != this.metrics) {
+	    	this.metrics.phase(MetricsRegistry.Phase.SERIALIZE).recordSince(start);
+	    }
+	    MetricsRegistry.writeOptional(d, this.metrics);
+	    
 	    return out.toByteArray();
 	  }
 	  
@@ -73,6 +103,15 @@ public class ParameterVector {
 	    
 	    this.parameter_vector = MatrixWritable.readMatrix(in);
 	    
+	    if (in.readBoolean()) {
+	    	this.normal_equations = NormalEquations.read(in);
+	    }
+	    
+	    this.validation = ValidationMetrics.readOptional(in);
+	    this.StopTraining = in.readBoolean();
+	    
+	    this.metrics = MetricsRegistry.readOptional(in);
+	    
 	  }
 	  
 	  public int numFeatures() {
@@ -2,6 +2,7 @@ package tv.floe.metronome.linearregression.iterativereduce;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
@@ -11,13 +12,18 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.mahout.classifier.sgd.UniformPrior;
 import org.apache.mahout.math.DenseMatrix;
+import org.apache.mahout.math.Matrix;
 
+import tv.floe.metronome.eval.ConvergenceController;
+import tv.floe.metronome.eval.ValidationMetrics;
 import tv.floe.metronome.io.records.RCV1RecordFactory;
 import tv.floe.metronome.io.records.RecordFactory;
 import tv.floe.metronome.linearregression.ModelParameters;
+import tv.floe.metronome.linearregression.NormalEquations;
 import tv.floe.metronome.linearregression.ParallelOnlineLinearRegression;
 import tv.floe.metronome.linearregression.ParameterVector;
 import tv.floe.metronome.linearregression.RegressionStatistics;
+import tv.floe.metronome.metrics.MetricsRegistry;
 import tv.floe.metronome.utils.Utils;
 
 import com.cloudera.iterativereduce.ComputableMaster;
@@ -56,11 +62,126 @@ public class MasterNode extends NodeBase implements
 	  private RecordFactory VectorFactory = null;
 	  int iteration_count = 0;
 	  
+	  // set once the one pass normal equations fit has been solved
+	  private Matrix normal_equations_solution = null;
+	  
+	  // merged held-out squared error, one entry per superstep that had any
+	  private List<ValidationMetrics> validationCurve = new ArrayList<ValidationMetrics>();
+	  
+	  // SGD early stopping, null = run all of app.iteration.count
+	  private ConvergenceController convergence = null;
+	  
+	  // every worker's per superstep metrics merged, plus the master's own timers
+	  private MetricsRegistry metrics = new MetricsRegistry();
+	  private int supersteps = 0;
+	  
+	  /**
+	   * One pass mode: sum every worker's X^T X / X^T y and solve for the coefficients
+	   * with a Cholesky factorization, R-squared comes from the same sums
+	   * 
+	   */
+	  private ParameterVectorUpdateable solveNormalEquations(NormalEquations merged) {
+	    
+	    System.out.println( "\n[Master] ----- Normal Equations -------" );
+	    System.out.println( "> Records: " + merged.getCount() + ", Features: " + merged.numFeatures() + ", Ridge: " + this.RidgeLambda );
+	    
+	    this.normal_equations_solution = merged.solve(this.RidgeLambda);
+	    
+	    RegressionStatistics regStats = merged.computeStatistics(this.normal_equations_solution);
+	    this.y_avg = regStats.ComputeYAvg();
+	    this.total_record_count = merged.getCount();
+	    
+	    System.out.println( "> Computed Y Average: " + this.y_avg );
+	    System.out.println( "> R-Squared: " + regStats.CalculateRSquared() );
+	    
+	    this.global_parameter_vector.parameter_vector = this.normal_equations_solution.clone();
+	    this.global_parameter_vector.y_avg = this.y_avg;
+	    
+	    // set the master copy!
+	    this.polr.SetBeta(this.normal_equations_solution.clone());
+	    
+	    return this.normalEquationsMessage();
+	    
+	  }
+	  
+	  private ParameterVectorUpdateable normalEquationsMessage() {
+	    
+	    ParameterVector vec_msg = new ParameterVector();
+	    vec_msg.parameter_vector = this.normal_equations_solution.clone();
+	    vec_msg.y_avg = this.y_avg;
+	    vec_msg.IterationComplete = 1;
+	    
+	    return new ParameterVectorUpdateable(vec_msg);
+	    
+	  }
+	  
+	  /**
+	   * Merges the workers' metrics, then runs the superstep (normal equations or SGD
+	   * averaging) under the master.compute timer
+	   * 
+	   */
 	  @Override
 	  public ParameterVectorUpdateable compute(
 	      Collection<ParameterVectorUpdateable> workerUpdates,
 	      Collection<ParameterVectorUpdateable> masterUpdates) {
 	    
+	    long computeStart = System.nanoTime();
+	    
+	    for (ParameterVectorUpdateable i : workerUpdates) {
+	      
+	      // taken off the message so a re-delivered result isn't counted twice
+	      if (null != i.get().metrics) {
+	        this.metrics.merge(i.get().metrics);
+	        i.get().metrics = null;
+	      }
+	      
+	    }
+	    
+	    ParameterVectorUpdateable return_msg = this.computeSuperstep(workerUpdates);
+	    
+	    this.metrics.timer("master.compute").recordSince(computeStart);
+	    this.supersteps++;
+	    
+	    if (MetricsRegistry.isReportDue(this.conf, this.supersteps)) {
+	      LOG.info("Metrics after " + this.supersteps + " supersteps:\n" + this.metrics.report());
+	    }
+	    
+	    return return_msg;
+	    
+	  }
+	  
+	  private ParameterVectorUpdateable computeSuperstep(
+	      Collection<ParameterVectorUpdateable> workerUpdates) {
+	    
+	    if (this.UseNormalEquations) {
+	      
+	      NormalEquations merged = null;
+	      
+	      for (ParameterVectorUpdateable i : workerUpdates) {
+	        
+	        NormalEquations partial = i.get().normal_equations;
+	        
+	        if (null == partial) {
+	          continue;
+	        } else if (null == merged) {
+	          merged = partial;
+	        } else {
+	          merged.merge(partial);
+	        }
+	        
+	      }
+	      
+	      if (null != merged) {
+	        workerUpdates.clear();
+	        return this.solveNormalEquations(merged);
+	      } else if (null != this.normal_equations_solution) {
+	        // already solved, later passes just hand the solution back
+	        workerUpdates.clear();
+	        return this.normalEquationsMessage();
+	      }
+	      
+	    }
+	    
 	    int x = 0;
 	    
 	    // gets recomputed each time
@@ -77,6 +198,8 @@ public class MasterNode extends NodeBase implements
 	    float avg_err = 0;
 	    long totalBatchesTimeMS = 0;
 	    
+	    ValidationMetrics validation = null;
+	    
 	    
 	    for (ParameterVectorUpdateable i : workerUpdates) {
 	      
@@ -110,6 +233,13 @@ public class MasterNode extends NodeBase implements
 	      x++;
 	      this.global_parameter_vector.AccumulateVector(i.get().parameter_vector.viewRow(0));
 	      
+	      if (null != i.get().validation) {
+	        if (null == validation) {
+	          validation = new ValidationMetrics();
+	        }
+	        validation.merge(i.get().validation);
+	      }
+	      
 	    }
 	    
 	    long avgBatchSpeedMS = totalBatchesTimeMS / workerUpdates.size();
@@ -151,6 +281,12 @@ public class MasterNode extends NodeBase implements
 	      System.out.println("[Master] " 
 		          + " AvgError: "
 		          + avg_err );
+	      
+	    if (null != validation) {
+	      this.validationCurve.add(validation);
+	      System.out.println( "> Validation superstep " + this.validationCurve.size()
+	          + ": records: " + validation.getRecords() + ", RMSE: " + validation.rmse() );
+	    }
 			    
 	    
 	    // now average the parameter vectors together
@@ -160,6 +296,21 @@ public class MasterNode extends NodeBase implements
 	    vec_msg.parameter_vector = this.global_parameter_vector.parameter_vector
 	        .clone();
 	    
+	    if (null != this.convergence) {
+	      
+	      boolean alreadyStopped = this.convergence.isStopped();
+	      
+	      // held-out squared error when there is one, otherwise the workers' avg error
+	      double loss = (null != validation) ? validation.meanLoss() : avg_err;
+	      
+	      vec_msg.StopTraining = this.convergence.observe(loss);
+	      
+	      if (vec_msg.StopTraining && !alreadyStopped) {
+	        System.out.println( "> Early stopping: " + this.convergence.getReason() );
+	      }
+	      
+	    }
+	    
 	    if ( iteration_count == 0 ) {
 	    	vec_msg.y_avg = this.global_parameter_vector.y_avg;
 	    }
@@ -176,6 +327,22 @@ public class MasterNode extends NodeBase implements
 	    return return_msg;
 	  }
 	  
+	  /**
+	   * Held-out squared error of the averaged model, one entry per superstep (empty
+	   * unless the workers have a hold-out fraction set)
+	   * 
+	   */
+	  public List<ValidationMetrics> getValidationCurve() {
+	    return this.validationCurve;
+	  }
+	  
+	  /**
+	   * Merged worker metrics plus master.compute, cumulative over the run
+	   */
+	  public MetricsRegistry getMetrics() {
+	    return this.metrics;
+	  }
+	  
 	  @Override
 	  public ParameterVectorUpdateable getResults() {
 	    System.err.println(">>> getResults() - null!!!");
@@ -205,6 +372,10 @@ public class MasterNode extends NodeBase implements
 	      this.LearningRate = Double.parseDouble(this.conf.get(
 	          "com.cloudera.knittingboar.setup.LearningRate", "10"));
 	      
+	      this.LoadSolverConf();
+	      
+	      this.convergence = ConvergenceController.fromConf(this.conf);
+	      
 	      // local input split path
 	      // this.LocalInputSplitPath = LoadStringConfVarOrException(
 	      // "com.cloudera.knittingboar.setup.LocalInputSplitPath",
@@ -333,6 +504,7 @@ public class MasterNode extends NodeBase implements
 	    
 	    
 	    LOG.debug("Master complete, saving model.");
+	    LOG.info("Metrics after " + this.supersteps + " supersteps:\n" + this.metrics.report());
 	    
 	    try {
 	      this.polr_modelparams.saveTo(out);
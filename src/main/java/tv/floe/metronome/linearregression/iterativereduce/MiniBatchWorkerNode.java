@@ -14,13 +14,21 @@ import org.apache.mahout.math.DenseVector;
 import org.apache.mahout.math.RandomAccessSparseVector;
 import org.apache.mahout.math.Vector;
 
+import tv.floe.metronome.eval.ValidationMetrics;
+import tv.floe.metronome.io.records.CompactVectorCache;
 import tv.floe.metronome.io.records.RCV1RecordFactory;
 import tv.floe.metronome.io.records.RecordFactory;
+import tv.floe.metronome.io.records.SplitTextRecordParser;
+import tv.floe.metronome.io.records.VectorizedRecordWritable;
+import tv.floe.metronome.io.records.VectorizedSplitReader;
+import tv.floe.metronome.linearregression.MiniBatchBuffer;
 import tv.floe.metronome.linearregression.ModelParameters;
+import tv.floe.metronome.linearregression.NormalEquations;
 import tv.floe.metronome.linearregression.ParallelOnlineLinearRegression;
 import tv.floe.metronome.linearregression.ParameterVector;
 import tv.floe.metronome.linearregression.SquaredErrorLossFunction;
 import tv.floe.metronome.metrics.Metrics;
+import tv.floe.metronome.metrics.MetricsRegistry;
 import tv.floe.metronome.utils.Utils;
 
 import com.cloudera.iterativereduce.ComputableWorker;
@@ -64,10 +72,25 @@ public class MiniBatchWorkerNode extends NodeBase implements
 
 	private boolean IterationComplete = false;
 	private int CurrentIteration = 0;
+	private boolean normalEquationsSolved = false;
+
+	// vectorized split, parsed once on the first pass
+	private CompactVectorCache vectorCache = new CompactVectorCache();
+
+	// split is DocumentVectorizationJob output, see VectorizedSplitReader
+	private boolean vectorizedInput = false;
+
+	private ValidationMetrics validation = null;
+
+	private int miniBatchSize = 5;
+	private MiniBatchBuffer miniBatchBuffer = null;
 
 	// basic stats tracking
 	Metrics metrics = new Metrics();
 
+	// phase timers / counters for the current superstep, shipped to the master with the update
+	private MetricsRegistry superstepMetrics = new MetricsRegistry();
+
 	double averageLineCount = 0.0;
 	int k = 0;
 	double step = 0.0;
@@ -84,7 +107,8 @@ public class MiniBatchWorkerNode extends NodeBase implements
 		ParameterVector vector = new ParameterVector();
 		vector.parameter_vector = this.polr.getBeta().clone(); // this.polr.getGamma().getMatrix().clone();
 
-		if (this.lineParser.hasMoreRecords()) {
+		// pre-vectorized input is read whole in one compute()
+		if (!this.vectorizedInput && !this.vectorCache.isComplete() && this.lineParser.hasMoreRecords()) {
 			vector.IterationComplete = 0;
 		} else {
 			vector.IterationComplete = 1;
@@ -97,112 +121,244 @@ public class MiniBatchWorkerNode extends NodeBase implements
 		vector.TrainedRecords = (new Long(metrics.TotalRecordsProcessed))
 				.intValue();
 
+		vector.validation = this.validation;
+
 		return vector;
 
 	}
 
 	/**
-	 * The IR::Compute method - this is where we do the next batch of records
-	 * for SGD
+	 * One pass mode: accumulate X^T X and X^T y over the whole split and ship them
+	 * to the master, which solves for the coefficients directly
+	 * 
+	 * - once the master has sent the solution back there is nothing left to do, later
+	 * 		passes just echo the coefficients without reading the split
 	 * 
 	 */
-	@Override
-	public ParameterVectorUpdateable compute() {
+	private ParameterVectorUpdateable computeNormalEquations() {
 
-		
-		Text value = new Text();
-		long batch_vec_factory_time = 0;
+		NormalEquations normalEquations = null;
 
-		double err_buf = 0;
-		
-		boolean result = true;
-		int batch_count = 0;
-		int batch_limit = 5;
-		Vector miniBatchBuffer = new RandomAccessSparseVector(this.FeatureVectorSize);
+		if (!this.normalEquationsSolved) {
 
-		int run_count = 0;
-		
-		while (this.lineParser.hasMoreRecords()) {
+			// one read-and-accumulate pass, parse / vectorize / accumulate interleave per line
+			long passStart = System.nanoTime();
 
-			try {
-				result = this.lineParser.next(value);
-			} catch (IOException e1) {
-				e1.printStackTrace();
+			normalEquations = new NormalEquations(this.FeatureVectorSize);
+
+			if (this.vectorizedInput) {
+				this.accumulateVectorized(normalEquations);
 			}
 
-			if (result) {
+			Text value = new Text();
+			boolean result = true;
 
-				long startTime = System.currentTimeMillis();
+			while (!this.vectorizedInput && this.lineParser.hasMoreRecords()) {
 
-				Vector v = new RandomAccessSparseVector(this.FeatureVectorSize);
-				double actual = 0.0;
 				try {
+					result = this.lineParser.next(value);
+				} catch (IOException e1) {
+					e1.printStackTrace();
+				}
+
+				if (result) {
+
+					Vector v = new RandomAccessSparseVector(this.FeatureVectorSize);
+					double actual = 0.0;
+					try {
+						actual = this.VectorFactory.processLineAlt(value.toString(), v);
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+
+					normalEquations.accumulate(v, actual);
+
+					k++;
+					metrics.TotalRecordsProcessed = k;
+					this.superstepMetrics.counter("records.trained").inc();
 
-					actual = this.VectorFactory
-							.processLineAlt(value.toString(), v);
-				} catch (Exception e) {
-					e.printStackTrace();
 				}
 
-				long endTime = System.currentTimeMillis();
+			}
 
-				batch_vec_factory_time += (endTime - startTime);
+			this.superstepMetrics.phase(MetricsRegistry.Phase.COMPUTE).recordSince(passStart);
 
-				// calc stats ---------
+		}
 
-				double mu = Math.min(k + 1, 200);
-				
-				
-				// the dot product of the parameter vector and the current instance
-				// is the hypothesis value for the currnet instance
-				double hypothesis_value = v.dot(this.polr.getBeta().viewRow(0));
-				
-				double error = Math.abs( hypothesis_value - actual );
+		ParameterVector vector = this.GenerateUpdate();
+		vector.normal_equations = normalEquations;
+		vector.metrics = this.takeSuperstepMetrics();
 
+		return new ParameterVectorUpdateable(vector);
 
-				if (Double.POSITIVE_INFINITY == error) { 
-					
-				} else {
-								err_buf += error;
-				}
-				
-				// ####### where we train ############
-				// update the parameter vector with the actual value and the instance data
+	}
+
+	/**
+	 * Normal equations over a pre-vectorized split, the records go straight into the sums
+	 * 
+	 */
+	private void accumulateVectorized(NormalEquations normalEquations) {
+
+		VectorizedRecordWritable record = new VectorizedRecordWritable();
+
+		try {
+
+			VectorizedSplitReader reader = VectorizedSplitReader.forSplit(this.conf, this.lineParser);
+
+			try {
+
+				while (reader.next(record)) {
+
+					normalEquations.accumulate(record.getInput(), record.getOutput().get(0));
+
+					k++;
+					metrics.TotalRecordsProcessed = k;
+					this.superstepMetrics.counter("records.trained").inc();
 
-				this.polr.trainMiniBatch(actual, v, miniBatchBuffer);
-				
-				batch_count++;
-				
-				if ( batch_count >= batch_limit ) {
-					
-					// 1. update all of the coefficients with the average update
-					
-					this.polr.miniBatchUpdateParameterVector(batch_limit, miniBatchBuffer);
-					
-					
-					// reset batch buffer --- best way to do this?
-					miniBatchBuffer = miniBatchBuffer.like();
-					
-					batch_count = 0;
 				}
-				
-				run_count++;
-				k++;
-				metrics.TotalRecordsProcessed = k;
 
-				this.polr.close();
+			} finally {
+				reader.close();
+			}
+
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+	}
+
+	/**
+	 * Reads the rest of the split into the vector cache the first time through
+	 * 
+	 * - pre-vectorized input is loaded straight into the cache, the text parser is
+	 * 		only used for where the split is
+	 * 
+	 */
+	private void fillVectorCache() {
+
+		if (this.vectorCache.isComplete()) {
+			return;
+		}
+
+		try {
+
+			if (this.vectorizedInput) {
+
+				VectorizedSplitReader reader = VectorizedSplitReader.forSplit(this.conf, this.lineParser);
+				try {
+					this.vectorCache.fill(reader, this.FeatureVectorSize, this.superstepMetrics);
+				} finally {
+					reader.close();
+				}
 
 			} else {
+				this.vectorCache.fill(this.lineParser, this.VectorFactory, this.FeatureVectorSize, this.superstepMetrics);
+			}
 
-				// nothing else to process in split!
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
 
-			} // if
+	}
+
+	/**
+	 * The IR::Compute method - this is where we do the next batch of records
+	 * for SGD
+	 * 
+	 */
+	@Override
+	public ParameterVectorUpdateable compute() {
+
+		if (this.UseNormalEquations) {
+			return this.computeNormalEquations();
+		}
+
+		if (this.trainingStopped) {
+			this.validation = null;
+			return new ParameterVectorUpdateable(this.GenerateUpdate());
+		}
 
-		} // while
+		double err_buf = 0;
+		int run_count = 0;
+
+		// first pass parses the split into the cache, every pass after that is just arithmetic
+		this.fillVectorCache();
+
+		long computeStart = System.nanoTime();
+
+		// held-out rows are scored against the master's coefficients and never trained on
+		if (null != this.holdOut) {
+			this.validation = this.validate(this.vectorCache, this.polr);
+		}
+
+		for (int row = 0; row < this.vectorCache.size(); row++) {
+
+			if (this.isHeldOut(row)) {
+				continue;
+			}
+
+			double actual = this.vectorCache.label(row);
+
+			// the dot product of the parameter vector and the current instance
+			// is the hypothesis value for the currnet instance
+			double hypothesis_value = this.polr.predict(this.vectorCache, row);
+			
+			double error = Math.abs( hypothesis_value - actual );
+
+
+			if (Double.POSITIVE_INFINITY == error) { 
+				
+			} else {
+							err_buf += error;
+			}
+			
+			// ####### where we train ############
+			// update the parameter vector with the actual value and the instance data
+
+			this.polr.trainMiniBatch(this.vectorCache, row, this.miniBatchBuffer);
+			this.polr.closeRecord();
+			
+			if ( this.miniBatchBuffer.records() >= this.miniBatchSize ) {
+				
+				// update all of the coefficients with the average update, clears the buffer
+				this.polr.miniBatchUpdateParameterVector(this.miniBatchBuffer);
+				
+			}
+			
+			run_count++;
+			k++;
+			metrics.TotalRecordsProcessed = k;
+
+		} // for
+		
+		// don't carry a partial batch over into the next pass
+		this.polr.miniBatchUpdateParameterVector(this.miniBatchBuffer);
 		
 		err_buf = err_buf / run_count;
 		metrics.AvgError = err_buf;
-		return new ParameterVectorUpdateable(this.GenerateUpdate());
+
+		this.superstepMetrics.phase(MetricsRegistry.Phase.COMPUTE).recordSince(computeStart);
+		this.superstepMetrics.counter("records.trained").add(run_count);
+
+		ParameterVector vector = this.GenerateUpdate();
+		vector.metrics = this.takeSuperstepMetrics();
+
+		return new ParameterVectorUpdateable(vector);
+	}
+
+	/**
+	 * Hands this superstep's metrics to the outgoing update, the next superstep
+	 * starts a fresh registry
+	 */
+	private MetricsRegistry takeSuperstepMetrics() {
+
+		MetricsRegistry taken = this.superstepMetrics;
+		taken.sampleHeap();
+
+		this.superstepMetrics = new MetricsRegistry();
+
+		return taken;
+
 	}
 
 	public ParameterVectorUpdateable getResults() {
@@ -222,6 +378,15 @@ public class MiniBatchWorkerNode extends NodeBase implements
 		// set the local parameter vector to the global aggregate ("beta")
 		this.polr.SetBeta(global_update.parameter_vector);
 
+		if (this.UseNormalEquations) {
+			// the master solved for the coefficients in a single superstep
+			this.normalEquationsSolved = true;
+		}
+
+		if (global_update.StopTraining) {
+			this.trainingStopped = true;
+		}
+
 	}
 
 	@Override
@@ -246,6 +411,13 @@ public class MiniBatchWorkerNode extends NodeBase implements
 			this.LearningRate = Double.parseDouble(this.conf.get(
 					"com.cloudera.knittingboar.setup.LearningRate", "10"));
 
+			this.LoadSolverConf();
+
+			this.vectorizedInput = VectorizedSplitReader.isVectorized(this.conf);
+
+			this.miniBatchSize = this.conf.getInt(
+					"tv.floe.metronome.linearregression.minibatch.size", 5);
+
 			// maps to either CSV, 20newsgroups, or RCV1
 			this.RecordFactoryClassname = LoadStringConfVarOrException(
 					"com.cloudera.knittingboar.setup.RecordFactoryClassname",
@@ -350,6 +522,8 @@ public class MiniBatchWorkerNode extends NodeBase implements
 
 		polr_modelparams.setPOLR(polr);
 
+		this.miniBatchBuffer = new MiniBatchBuffer(this.FeatureVectorSize);
+
 	}
 
 	@Override
@@ -369,7 +543,8 @@ public class MiniBatchWorkerNode extends NodeBase implements
 	}
 
 	public static void main(String[] args) throws Exception {
-		TextRecordParser parser = new TextRecordParser();
+		// remembers its split, pre-vectorized input is read from there
+		TextRecordParser parser = new SplitTextRecordParser();
 		MiniBatchWorkerNode pwn = new MiniBatchWorkerNode();
 		ApplicationWorker<ParameterVectorUpdateable> aw = new ApplicationWorker<ParameterVectorUpdateable>(
 				parser, pwn, ParameterVectorUpdateable.class);
@@ -387,8 +562,22 @@ public class MiniBatchWorkerNode extends NodeBase implements
 
 		this.CurrentIteration++;
 		this.IterationComplete = false;
-		this.lineParser.reset();
 
+		// once the cache is complete the split is never read again
+		if (!this.vectorCache.isComplete()) {
+			this.lineParser.reset();
+		}
+
+
+		if (this.normalEquationsSolved) {
+			System.out.println("Worker: [ normal equations solved, done ]");
+			return false;
+		}
+
+		if (this.trainingStopped) {
+			System.out.println("Worker: [ master signaled convergence, done ]");
+			return false;
+		}
 
 		if (this.CurrentIteration >= this.NumberIterations) {
 			System.out.println("POLRWorkerNode: [ done with all iterations ]");
@@ -2,6 +2,11 @@ package tv.floe.metronome.linearregression.iterativereduce;
 
 import org.apache.hadoop.conf.Configuration;
 
+import tv.floe.metronome.eval.HoldOutSelector;
+import tv.floe.metronome.eval.ValidationMetrics;
+import tv.floe.metronome.io.records.CompactVectorCache;
+import tv.floe.metronome.linearregression.ParallelOnlineLinearRegression;
+
 public class NodeBase {
 	  
 	  protected Configuration conf = null;
@@ -17,6 +22,56 @@ public class NodeBase {
 	  
 	  protected String RecordFactoryClassname = "";
 	  
+	  // one pass closed form fit instead of SGD, see NormalEquations
+	  protected boolean UseNormalEquations = false;
+	  protected double RidgeLambda = 0;
+	  
+	  // SGD only: cached rows scored each superstep instead of trained on, null = off
+	  protected HoldOutSelector holdOut = null;
+	  
+	  // workers: set when the master signals convergence, later supersteps just echo the coefficients
+	  protected boolean trainingStopped = false;
+	  
+	  protected void LoadSolverConf() {
+	    
+	    this.UseNormalEquations = this.conf.getBoolean(
+	        "tv.floe.metronome.linearregression.normalequations", false);
+	    
+	    this.RidgeLambda = Double.parseDouble(this.conf.get(
+	        "tv.floe.metronome.linearregression.normalequations.ridge", "0"));
+	    
+	    this.holdOut = HoldOutSelector.fromConf(this.conf);
+	    
+	  }
+	  
+	  protected boolean isHeldOut(int row) {
+	    return null != this.holdOut && this.holdOut.isHeldOut(row);
+	  }
+	  
+	  /**
+	   * Squared error of the held-out rows against the current coefficients (the ones
+	   * the master sent down), run before the superstep trains
+	   * 
+	   */
+	  protected ValidationMetrics validate(CompactVectorCache cache, ParallelOnlineLinearRegression model) {
+	    
+	    ValidationMetrics result = new ValidationMetrics();
+	    
+	    for (int row = 0; row < cache.size(); row++) {
+	      
+	      if (!this.holdOut.isHeldOut(row)) {
+	        continue;
+	      }
+	      
+	      double error = model.predict(cache, row) - cache.label(row);
+	      result.addLoss(error * error);
+	      
+	    }
+	    
+	    return result;
+	    
+	  }
+	  
 	  protected String LoadStringConfVarOrException(String ConfVarName,
 	      String ExcepMsg) throws Exception {
 	    
@@ -13,13 +13,20 @@ import org.apache.mahout.math.DenseVector;
 import org.apache.mahout.math.RandomAccessSparseVector;
 import org.apache.mahout.math.Vector;
 
+import tv.floe.metronome.eval.ValidationMetrics;
+import tv.floe.metronome.io.records.CompactVectorCache;
 import tv.floe.metronome.io.records.RCV1RecordFactory;
 import tv.floe.metronome.io.records.RecordFactory;
+import tv.floe.metronome.io.records.SplitTextRecordParser;
+import tv.floe.metronome.io.records.VectorizedRecordWritable;
+import tv.floe.metronome.io.records.VectorizedSplitReader;
 import tv.floe.metronome.linearregression.ModelParameters;
+import tv.floe.metronome.linearregression.NormalEquations;
 import tv.floe.metronome.linearregression.ParallelOnlineLinearRegression;
 import tv.floe.metronome.linearregression.ParameterVector;
 import tv.floe.metronome.linearregression.SquaredErrorLossFunction;
 import tv.floe.metronome.metrics.Metrics;
+import tv.floe.metronome.metrics.MetricsRegistry;
 import tv.floe.metronome.utils.Utils;
 
 import com.cloudera.iterativereduce.ComputableWorker;
@@ -55,6 +62,15 @@ public class WorkerNode extends NodeBase implements
 
 	private boolean IterationComplete = false;
 	private int CurrentIteration = 0;
+	private boolean normalEquationsSolved = false;
+
+	// vectorized split, parsed once on the first pass
+	private CompactVectorCache vectorCache = new CompactVectorCache();
+
+	// split is DocumentVectorizationJob output, see VectorizedSplitReader
+	private boolean vectorizedInput = false;
+
+	private ValidationMetrics validation = null;
 
 	double y_partial_sum = 0;
 	double y_bar = 0;
@@ -65,6 +81,9 @@ public class WorkerNode extends NodeBase implements
 	// basic stats tracking
 	Metrics metrics = new Metrics();
 
+	// phase timers / counters for the current superstep, shipped to the master with the update
+	private MetricsRegistry superstepMetrics = new MetricsRegistry();
+
 	long lastBatchTimeMS = 0;
 	
 	double averageLineCount = 0.0;
@@ -83,7 +102,8 @@ public class WorkerNode extends NodeBase implements
 		ParameterVector vector = new ParameterVector();
 		vector.parameter_vector = this.polr.getBeta().clone(); // this.polr.getGamma().getMatrix().clone();
 
-		if (this.lineParser.hasMoreRecords()) {
+		// pre-vectorized input is read whole in one compute()
+		if (!this.vectorizedInput && !this.vectorCache.isComplete() && this.lineParser.hasMoreRecords()) {
 			vector.IterationComplete = 0;
 		} else {
 			vector.IterationComplete = 1;
@@ -100,22 +120,170 @@ public class WorkerNode extends NodeBase implements
 		vector.SSE_partial_sum = this.SSE_partial_sum;
 		vector.SSyy_partial_sum = this.SSyy_partial_sum;
 		vector.y_partial_sum = this.y_partial_sum;
+		
+		vector.validation = this.validation;
 
 		return vector;
 
 	}
 
+	/**
+	 * One pass mode: accumulate X^T X and X^T y over the whole split and ship them
+	 * to the master, which solves for the coefficients directly
+	 * 
+	 * - once the master has sent the solution back there is nothing left to do, later
+	 * 		passes just echo the coefficients without reading the split
+	 * 
+	 */
+	private ParameterVectorUpdateable computeNormalEquations() {
+
+		long batchStartTime = System.currentTimeMillis();
+
+		NormalEquations normalEquations = null;
+
+		if (!this.normalEquationsSolved) {
+
+			// one read-and-accumulate pass, parse / vectorize / accumulate interleave per line
+			long passStart = System.nanoTime();
+
+			normalEquations = new NormalEquations(this.FeatureVectorSize);
+
+			if (this.vectorizedInput) {
+				this.accumulateVectorized(normalEquations);
+			}
+
+			Text value = new Text();
+			boolean result = true;
+
+			while (!this.vectorizedInput && this.lineParser.hasMoreRecords()) {
+
+				try {
+					result = this.lineParser.next(value);
+				} catch (IOException e1) {
+					e1.printStackTrace();
+				}
+
+				if (result) {
+
+					Vector v = new RandomAccessSparseVector(this.FeatureVectorSize);
+					double actual = 0.0;
+					try {
+						actual = this.VectorFactory.processLineAlt(value.toString(), v);
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+
+					normalEquations.accumulate(v, actual);
+
+					k++;
+					metrics.TotalRecordsProcessed = k;
+					this.superstepMetrics.counter("records.trained").inc();
+
+				}
+
+			}
+
+			this.superstepMetrics.phase(MetricsRegistry.Phase.COMPUTE).recordSince(passStart);
+
+		}
+
+		this.lastBatchTimeMS = System.currentTimeMillis() - batchStartTime;
+
+		ParameterVector vector = this.GenerateUpdate();
+		vector.normal_equations = normalEquations;
+		vector.metrics = this.takeSuperstepMetrics();
+
+		return new ParameterVectorUpdateable(vector);
+
+	}
+
+	/**
+	 * Normal equations over a pre-vectorized split, the records go straight into the sums
+	 * 
+	 */
+	private void accumulateVectorized(NormalEquations normalEquations) {
+
+		VectorizedRecordWritable record = new VectorizedRecordWritable();
+
+		try {
+
+			VectorizedSplitReader reader = VectorizedSplitReader.forSplit(this.conf, this.lineParser);
+
+			try {
+
+				while (reader.next(record)) {
+
+					normalEquations.accumulate(record.getInput(), record.getOutput().get(0));
+
+					k++;
+					metrics.TotalRecordsProcessed = k;
+					this.superstepMetrics.counter("records.trained").inc();
+
+				}
+
+			} finally {
+				reader.close();
+			}
+
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+	}
+
+	/**
+	 * Reads the rest of the split into the vector cache the first time through
+	 * 
+	 * - pre-vectorized input is loaded straight into the cache, the text parser is
+	 * 		only used for where the split is
+	 * 
+	 */
+	private void fillVectorCache() {
+
+		if (this.vectorCache.isComplete()) {
+			return;
+		}
+
+		try {
+
+			if (this.vectorizedInput) {
+
+				VectorizedSplitReader reader = VectorizedSplitReader.forSplit(this.conf, this.lineParser);
+				try {
+					this.vectorCache.fill(reader, this.FeatureVectorSize, this.superstepMetrics);
+				} finally {
+					reader.close();
+				}
+
+			} else {
+				this.vectorCache.fill(this.lineParser, this.VectorFactory, this.FeatureVectorSize, this.superstepMetrics);
+			}
+
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+	}
+
 	/**
 	 * The IR::Compute method - this is where we do the next batch of records
 	 * for SGD
 	 *  
+	 * - held-out rows (hold-out fraction set) are scored first, then left out of
+	 * 		training and of the r-squared sums
 	 * 
 	 */
 	@Override
 	public ParameterVectorUpdateable compute() {
 
-		Text value = new Text();
-		long batch_vec_factory_time = 0;
+		if (this.UseNormalEquations) {
+			return this.computeNormalEquations();
+		}
+
+		if (this.trainingStopped) {
+			this.validation = null;
+			return new ParameterVectorUpdateable(this.GenerateUpdate());
+		}
 
 		double err_buf = 0;
 		int records_seen_this_pass = 0;
@@ -126,92 +294,94 @@ public class WorkerNode extends NodeBase implements
 		// do we need to recompute this every time???
 		this.SSyy_partial_sum = 0;
 		
-		boolean result = true;
-		
 		long batchStartTime = System.currentTimeMillis();
 
-		while (this.lineParser.hasMoreRecords()) {
+		// first pass parses the split into the cache, every pass after that is just arithmetic
+		this.fillVectorCache();
 
-			try {
-				result = this.lineParser.next(value);
-			} catch (IOException e1) {
-				// TODO Auto-generated catch block
-				e1.printStackTrace();
-			}
+		long computeStart = System.nanoTime();
 
-			if (result) {
+		if (null != this.holdOut) {
+			this.validation = this.validate(this.vectorCache, this.polr);
+		}
 
-				long startTime = System.currentTimeMillis();
+		for (int row = 0; row < this.vectorCache.size(); row++) {
 
-				Vector v = new RandomAccessSparseVector(this.FeatureVectorSize);
-				double actual = 0.0;
-				try {
-				    
-					actual = this.VectorFactory
-							.processLineAlt(value.toString(), v);
-				} catch (Exception e) {
-					e.printStackTrace();
-				}
+			if (this.isHeldOut(row)) {
+				continue;
+			}
 
-				long endTime = System.currentTimeMillis();
+			double actual = this.vectorCache.label(row);
 
-				batch_vec_factory_time += (endTime - startTime);
+			// the dot product of the parameter vector and the current instance
+			// is the hypothesis value for the currnet instance
+			double hypothesis_value = this.polr.predict(this.vectorCache, row);
+			
+			double error = Math.abs( hypothesis_value - actual );
 
-				
-				// the dot product of the parameter vector and the current instance
-				// is the hypothesis value for the currnet instance
-				double hypothesis_value = v.dot(this.polr.getBeta().viewRow(0));
-				
-				double error = Math.abs( hypothesis_value - actual );
 
-
-				if (Double.POSITIVE_INFINITY == error) { 
-					
-				} else {
-								err_buf += error;
-				}
+			if (Double.POSITIVE_INFINITY == error) { 
 				
-				// ####### where we train ############
-				// update the parameter vector with the actual value and the instance data
-				this.polr.train(actual, v);
-
-				records_seen_this_pass++;
-				k++;
-				metrics.TotalRecordsProcessed = k;
-
-			    if ( 0 == this.CurrentIteration ) {
-			    	
-			    	// calc the avg stuff
-			    	y_partial_sum += actual;
-			    	
-			    } else {
-			    	
-			    	// calc the ongoing r-squared
-			    	
-			    	// SSyy doesnt change. do we re-calc every time?
-				    SSyy_partial_sum += Math.pow( (actual - y_bar), 2 );
-				    
-				    // this changes everytime we update the parameter
-				    SSE_partial_sum += Math.pow( (actual - hypothesis_value), 2 );
-			    	
-			    	
-			    }				
-
-				this.polr.close();
-
 			} else {
-
-				// nothing else to process in split!
-
-			} // if
+							err_buf += error;
+			}
+			
+			// ####### where we train ############
+			// update the parameter vector with the actual value and the instance data
+			this.polr.train(this.vectorCache, row);
+			this.polr.closeRecord();
+
+			records_seen_this_pass++;
+			k++;
+			metrics.TotalRecordsProcessed = k;
+
+		    if ( 0 == this.CurrentIteration ) {
+		    	
+		    	// calc the avg stuff
+		    	y_partial_sum += actual;
+		    	
+		    } else {
+		    	
+		    	// calc the ongoing r-squared
+		    	
+		    	// SSyy doesnt change. do we re-calc every time?
+			    SSyy_partial_sum += Math.pow( (actual - y_bar), 2 );
+			    
+			    // this changes everytime we update the parameter
+			    SSE_partial_sum += Math.pow( (actual - hypothesis_value), 2 );
+		    	
+		    	
+		    }				
 
 		} // for 
 		
 		err_buf = err_buf / records_seen_this_pass;
 		metrics.AvgError = err_buf;
 		
+		this.superstepMetrics.phase(MetricsRegistry.Phase.COMPUTE).recordSince(computeStart);
+		this.superstepMetrics.counter("records.trained").add(records_seen_this_pass);
+
 		this.lastBatchTimeMS = System.currentTimeMillis() - batchStartTime;
-		return new ParameterVectorUpdateable(this.GenerateUpdate());
+
+		ParameterVector vector = this.GenerateUpdate();
+		vector.metrics = this.takeSuperstepMetrics();
+
+		return new ParameterVectorUpdateable(vector);
+	}
+
+	/**
+	 * Hands this superstep's metrics to the outgoing update, the next superstep
+	 * starts a fresh registry
+	 */
+	private MetricsRegistry takeSuperstepMetrics() {
+
+		MetricsRegistry taken = this.superstepMetrics;
+		taken.sampleHeap();
+
+		this.superstepMetrics = new MetricsRegistry();
+
+		return taken;
+
 	}
 
 	public ParameterVectorUpdateable getResults() {
@@ -235,6 +405,15 @@ public class WorkerNode extends NodeBase implements
 		
 		this.polr.SetBeta(global_update.parameter_vector);
 
+		if (this.UseNormalEquations) {
+			// the master solved for the coefficients in a single superstep
+			this.normalEquationsSolved = true;
+		}
+
+		if (global_update.StopTraining) {
+			this.trainingStopped = true;
+		}
+
 	}
 
 	@Override
@@ -258,6 +437,10 @@ public class WorkerNode extends NodeBase implements
 			this.LearningRate = Double.parseDouble(this.conf.get(
 					"com.cloudera.knittingboar.setup.LearningRate", "10"));
 
+			this.LoadSolverConf();
+
+			this.vectorizedInput = VectorizedSplitReader.isVectorized(this.conf);
+
 			// maps to either CSV, 20newsgroups, or RCV1
 			this.RecordFactoryClassname = LoadStringConfVarOrException(
 					"com.cloudera.knittingboar.setup.RecordFactoryClassname",
@@ -384,7 +567,8 @@ public class WorkerNode extends NodeBase implements
 	}
 
 	public static void main(String[] args) throws Exception {
-		TextRecordParser parser = new TextRecordParser();
+		// remembers its split, pre-vectorized input is read from there
+		TextRecordParser parser = new SplitTextRecordParser();
 		WorkerNode pwn = new WorkerNode();
 		ApplicationWorker<ParameterVectorUpdateable> aw = new ApplicationWorker<ParameterVectorUpdateable>(
 				parser, pwn, ParameterVectorUpdateable.class);
@@ -403,7 +587,21 @@ public class WorkerNode extends NodeBase implements
 		
 		this.CurrentIteration++;
 		this.IterationComplete = false;
-		this.lineParser.reset();
+
+		// once the cache is complete the split is never read again
+		if (!this.vectorCache.isComplete()) {
+			this.lineParser.reset();
+		}
+
+		if (this.normalEquationsSolved) {
+			System.out.println("Worker: [ normal equations solved, done ]");
+			return false;
+		}
+
+		if (this.trainingStopped) {
+			System.out.println("Worker: [ master signaled convergence, done ]");
+			return false;
+		}
 
 		if (this.CurrentIteration >= this.NumberIterations) {
 			System.out.println("POLRWorkerNode: [ done with all iterations ]");
@@ -0,0 +1,237 @@
+package tv.floe.metronome.math;
+
+/**
+ * exp / sigmoid / tanh kernels at a selectable accuracy
+ *
+ * Every unit of every forward and backward pass goes through one of these, and Math.exp()
+ * is a strict (StrictMath-accurate, < 1 ulp) call that the JIT can't vectorize. Training
+ * gets nothing out of the last 9 digits, so a network can trade them for speed:
+ *
+ * 		EXACT			Math.exp(), 1 / (1 + e^-x), Math.tanh(), same numbers as before
+ * 		POLYNOMIAL		exp by range reduction: e^x = 2^k * e^r with |r| <= ln(2) / 2 and a
+ * 						degree 6 Taylor polynomial for e^r, sigmoid and tanh built on it
+ * 		TABLE			sigmoid by linear interpolation in a 2049 entry table over [-16, 16]
+ * 						(step 1/64, 16k so it stays in L1), tanh through the same table,
+ * 						exp as POLYNOMIAL (it has no bounded range to tabulate)
+ *
+ * Max error, measured over [-40, 40] (TestActivationKernels checks these):
+ *
+ * 		mode			exp (relative)		sigmoid (absolute)		tanh (absolute)
+ * 		EXACT			1 ulp				1 ulp					1 ulp
+ * 		POLYNOMIAL		1.7e-7				4.0e-8					8.0e-8
+ * 		TABLE			1.7e-7				3.0e-6					6.0e-6
+ *
+ * - tanh(x) is computed as 2 * sigmoid(2x) - 1 outside EXACT, so its error is twice the
+ * 		sigmoid error and it is accurate in absolute terms, not relative ones near 0
+ * - outside [-708, 709] exp() falls back to Math.exp() (under / overflow handling)
+ * - TABLE clamps past |x| > 16, where the true sigmoid is within 1.2e-7 of 0 / 1
+ * - NaN in gives NaN out in every mode
+ *
+ * The bulk forms (exp / sigmoid / tanh over a double[] range, in place) pick the mode once
+ * per call so the inner loop is a single tight loop the JIT can unroll.
+ *
+ * TABLE is the fast one, roughly 2x EXACT on bulk sigmoid. POLYNOMIAL is a clear win on
+ * JVMs where Math.exp() is a library call, about even where it is an intrinsic, and gives
+ * the same bits on every JVM either way.
+ *
+ * Picked per network by name (forName()): see the activationAccuracy settings on the
+ * DBN / SdA and the MLP workers.
+ *
+ * @author josh
+ *
+ */
+public enum ActivationKernels {
+
+	EXACT,
+	POLYNOMIAL,
+	TABLE;
+
+	private static final double LOG2E = 1.4426950408889634;
+	// ln(2) split so k * LN2_HI is exact for |k| < 2^11
+	private static final double LN2_HI = 0.6931471803691238;
+	private static final double LN2_LO = 1.9082149292705877e-10;
+
+	private static final double EXP_MIN = -708.0;
+	private static final double EXP_MAX = 709.0;
+
+	private static final double TABLE_RANGE = 16.0;
+	private static final double TABLE_STEPS_PER_UNIT = 64.0;
+	private static final int TABLE_SIZE = (int) (2 * TABLE_RANGE * TABLE_STEPS_PER_UNIT) + 1;
+	private static final double[] SIGMOID_TABLE = new double[ TABLE_SIZE ];
+
+	static {
+
+		for (int i = 0; i < TABLE_SIZE; i++) {
+			SIGMOID_TABLE[ i ] = 1.0 / (1.0 + Math.exp( -(i / TABLE_STEPS_PER_UNIT - TABLE_RANGE) ));
+		}
+
+	}
+
+	/**
+	 * Parses a mode name, case insensitive, null or empty means EXACT
+	 *
+	 */
+	public static ActivationKernels forName(String name) {
+
+		if (null == name || name.trim().length() == 0) {
+			return EXACT;
+		}
+
+		String mode = name.trim().toUpperCase();
+
+		for (ActivationKernels k : values()) {
+			if (k.name().equals( mode )) {
+				return k;
+			}
+		}
+
+		throw new IllegalArgumentException( "Unknown activation accuracy: " + name + " (expected exact, polynomial or table)" );
+
+	}
+
+	public double exp(double x) {
+
+		switch (this) {
+			case EXACT:
+				return Math.exp( x );
+			default:
+				return polyExp( x );
+		}
+
+	}
+
+	public double sigmoid(double x) {
+
+		switch (this) {
+			case POLYNOMIAL:
+				return 1.0 / (1.0 + polyExp( -x ));
+			case TABLE:
+				return tableSigmoid( x );
+			default:
+				return 1.0 / (1.0 + Math.exp( -x ));
+		}
+
+	}
+
+	public double tanh(double x) {
+
+		switch (this) {
+			case POLYNOMIAL:
+				return 2.0 / (1.0 + polyExp( -2.0 * x )) - 1.0;
+			case TABLE:
+				return 2.0 * tableSigmoid( 2.0 * x ) - 1.0;
+			default:
+				return Math.tanh( x );
+		}
+
+	}
+
+	/**
+	 * values[offset .. offset + length) = e^values[..]
+	 *
+	 */
+	public void exp(double[] values, int offset, int length) {
+
+		final int end = offset + length;
+
+		if (this == EXACT) {
+			for (int i = offset; i < end; i++) {
+				values[ i ] = Math.exp( values[ i ] );
+			}
+		} else {
+			for (int i = offset; i < end; i++) {
+				values[ i ] = polyExp( values[ i ] );
+			}
+		}
+
+	}
+
+	/**
+	 * values[offset .. offset + length) = sigmoid( values[..] )
+	 *
+	 */
+	public void sigmoid(double[] values, int offset, int length) {
+
+		final int end = offset + length;
+
+		switch (this) {
+			case POLYNOMIAL:
+				for (int i = offset; i < end; i++) {
+					values[ i ] = 1.0 / (1.0 + polyExp( -values[ i ] ));
+				}
+				break;
+			case TABLE:
+				for (int i = offset; i < end; i++) {
+					values[ i ] = tableSigmoid( values[ i ] );
+				}
+				break;
+			default:
+				for (int i = offset; i < end; i++) {
+					values[ i ] = 1.0 / (1.0 + Math.exp( -values[ i ] ));
+				}
+		}
+
+	}
+
+	/**
+	 * values[offset .. offset + length) = tanh( values[..] )
+	 *
+	 */
+	public void tanh(double[] values, int offset, int length) {
+
+		final int end = offset + length;
+
+		switch (this) {
+			case POLYNOMIAL:
+				for (int i = offset; i < end; i++) {
+					values[ i ] = 2.0 / (1.0 + polyExp( -2.0 * values[ i ] )) - 1.0;
+				}
+				break;
+			case TABLE:
+				for (int i = offset; i < end; i++) {
+					values[ i ] = 2.0 * tableSigmoid( 2.0 * values[ i ] ) - 1.0;
+				}
+				break;
+			default:
+				for (int i = offset; i < end; i++) {
+					values[ i ] = Math.tanh( values[ i ] );
+				}
+		}
+
+	}
+
+	private static double polyExp(double x) {
+
+		if (x < EXP_MIN || x > EXP_MAX) {
+			return Math.exp( x );
+		}
+
+		// round to nearest without Math.floor()
+		long k = (long) (x * LOG2E + (x < 0 ? -0.5 : 0.5));
+		double r = (x - k * LN2_HI) - k * LN2_LO;
+
+		// Horner, 1 + r + r^2/2! + ... + r^6/6!
+		double p = 1.0 + r * (1.0 + r * (0.5 + r * (1.0 / 6 + r * (1.0 / 24 + r * (1.0 / 120 + r * (1.0 / 720))))));
+
+		return p * Double.longBitsToDouble( (k + 1023L) << 52 );
+
+	}
+
+	private static double tableSigmoid(double x) {
+
+		double t = (x + TABLE_RANGE) * TABLE_STEPS_PER_UNIT;
+
+		if (t <= 0.0) {
+			return SIGMOID_TABLE[ 0 ];
+		} else if (t >= TABLE_SIZE - 1) {
+			return SIGMOID_TABLE[ TABLE_SIZE - 1 ];
+		}
+
+		int i = (int) t;
+		double f = t - i;
+
+		return SIGMOID_TABLE[ i ] + f * (SIGMOID_TABLE[ i + 1 ] - SIGMOID_TABLE[ i ]);
+
+	}
+
+}
@@ -0,0 +1,170 @@
+package tv.floe.metronome.math;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.mahout.math.Matrix;
+
+/**
+ * Fills a matrix of Bernoulli (binomial, n = 1) samples from a matrix of probabilities,
+ * the sampling half of every Gibbs step
+ *
+ * - one pass, row-major, getQuick / setQuick only (mahout 0.7 doesn't hand out the
+ * 		DenseMatrix backing array, the quick accessors are the next best thing)
+ * - each nextLong() feeds two samples: its high and low 32 bits are compared against
+ * 		the probability quantized to 32 bits (2^-32 resolution, far below anything an
+ * 		RBM can notice), instead of one nextDouble() and a loop per element
+ * - same generator state in, same samples out, so a worker seed reproduces its run
+ *
+ * Probabilities outside [0, 1] (and NaN) sample to 0, as MatrixUtils.getBinomial() did.
+ *
+ * sampleBits() draws the identical samples straight into a BinaryMatrix, maskInto() uses the
+ * same bits as masking noise (denoising autoencoder corruption).
+ *
+ * @author josh
+ *
+ */
+public class BernoulliSampler {
+
+	private static final double TWO_POW_32 = 4294967296.0;
+
+	public static Matrix sample(Matrix probabilities, RandomGenerator rng) {
+
+		Matrix samples = probabilities.like();
+		sampleInto( probabilities, samples, rng );
+		return samples;
+
+	}
+
+	/**
+	 * Writes the samples into out, which may be probabilities itself
+	 *
+	 */
+	public static void sampleInto(Matrix probabilities, Matrix out, RandomGenerator rng) {
+
+		final int rows = probabilities.numRows();
+		final int cols = probabilities.numCols();
+
+		if (out.numRows() != rows || out.numCols() != cols) {
+			throw new IllegalArgumentException( "Sample matrix is " + out.numRows() + " x " + out.numCols() + ", probabilities are " + rows + " x " + cols );
+		}
+
+		Uniform32 uniform = new Uniform32( rng );
+
+		for (int r = 0; r < rows; r++) {
+
+			for (int c = 0; c < cols; c++) {
+
+				out.setQuick( r, c, (uniform.next() < threshold( probabilities.getQuick( r, c ) )) ? 1.0 : 0.0 );
+
+			}
+
+		}
+
+	}
+
+	/**
+	 * Same samples as sample() for the same generator state, packed into a BinaryMatrix
+	 *
+	 */
+	public static BinaryMatrix sampleBits(Matrix probabilities, RandomGenerator rng) {
+
+		final int rows = probabilities.numRows();
+		final int cols = probabilities.numCols();
+
+		BinaryMatrix samples = new BinaryMatrix( rows, cols );
+
+		Uniform32 uniform = new Uniform32( rng );
+
+		for (int r = 0; r < rows; r++) {
+
+			for (int c = 0; c < cols; c++) {
+
+				if (uniform.next() < threshold( probabilities.getQuick( r, c ) )) {
+					samples.set( r, c );
+				}
+
+			}
+
+		}
+
+		return samples;
+
+	}
+
+	/**
+	 * Copies input row-major into out, each entry kept with probability keepProbability and
+	 * zeroed otherwise; out must hold rows x cols values and is overwritten in place
+	 *
+	 */
+	public static void maskInto(Matrix input, double keepProbability, double[] out, RandomGenerator rng) {
+
+		final int rows = input.numRows();
+		final int cols = input.numCols();
+
+		if (out.length < rows * cols) {
+			throw new IllegalArgumentException( "Mask buffer holds " + out.length + " values, input is " + rows + " x " + cols );
+		}
+
+		final long keep = threshold( keepProbability );
+
+		Uniform32 uniform = new Uniform32( rng );
+		int i = 0;
+
+		for (int r = 0; r < rows; r++) {
+
+			for (int c = 0; c < cols; c++) {
+
+				out[ i++ ] = (uniform.next() < keep) ? input.getQuick( r, c ) : 0.0;
+
+			}
+
+		}
+
+	}
+
+	/**
+	 * 32 bit uniforms off a generator, the high then the low half of each nextLong(); the
+	 * one place the draw order of sampleInto(), sampleBits() and maskInto() is defined
+	 *
+	 */
+	static final class Uniform32 {
+
+		private final RandomGenerator rng;
+		private long bits = 0;
+		private boolean haveLowHalf = false;
+
+		Uniform32(RandomGenerator rng) {
+			this.rng = rng;
+		}
+
+		long next() {
+
+			if (this.haveLowHalf) {
+
+				this.haveLowHalf = false;
+				return this.bits & 0xffffffffL;
+
+			}
+
+			this.bits = this.rng.nextLong();
+			this.haveLowHalf = true;
+			return this.bits >>> 32;
+
+		}
+
+	}
+
+	/**
+	 * p quantized to [0, 2^32], a 32 bit uniform is under it with probability p
+	 *
+	 */
+	static long threshold(double p) {
+
+		if (!(p >= 0 && p <= 1)) {
+			return 0;
+		}
+
+		return (long) (p * TWO_POW_32);
+
+	}
+
+}
@@ -0,0 +1,349 @@
+package tv.floe.metronome.math;
+
+import org.apache.mahout.math.DenseMatrix;
+import org.apache.mahout.math.Matrix;
+
+/**
+ * A 0/1 matrix packed 64 entries to a long, for the hidden / visible samples of CD-k
+ *
+ * - each row is wordsPerRow longs, bit (c & 63) of word (c >>> 6) is column c
+ * - 1/64th of the memory traffic of the same samples as DenseMatrix doubles
+ * - the products the RBM gradient needs are done as sums of selected rows / columns of
+ * 		the real operand, walking only the set bits, so there are no multiplies and the
+ * 		zero samples cost nothing:
+ *
+ * 		times(W)					binary x real			propUp from visible samples
+ * 		timesTranspose(W)			binary x real^T			propDown from hidden samples
+ * 		transposeTimes(M)			binary^T x real			<v h>model
+ * 		denseTransposeTimes(A, B)	real^T x binary			<v h>data
+ *
+ * Results come back as plain mahout DenseMatrix so the rest of the math is unchanged.
+ *
+ * @author josh
+ *
+ */
+public class BinaryMatrix {
+
+	private final int rows;
+	private final int cols;
+	private final int wordsPerRow;
+	private final long[] words;
+
+	public BinaryMatrix(int rows, int cols) {
+
+		if (rows < 0 || cols < 0) {
+			throw new IllegalArgumentException( "Bad dimensions " + rows + " x " + cols );
+		}
+
+		this.rows = rows;
+		this.cols = cols;
+		this.wordsPerRow = (cols + 63) >>> 6;
+		this.words = new long[ rows * this.wordsPerRow ];
+
+	}
+
+	/**
+	 * Any non zero entry becomes a 1
+	 *
+	 */
+	public static BinaryMatrix fromMatrix(Matrix m) {
+
+		BinaryMatrix b = new BinaryMatrix( m.numRows(), m.numCols() );
+
+		for (int r = 0; r < b.rows; r++) {
+			for (int c = 0; c < b.cols; c++) {
+				if (0.0 != m.getQuick( r, c )) {
+					b.set( r, c );
+				}
+			}
+		}
+
+		return b;
+
+	}
+
+	public int numRows() {
+		return this.rows;
+	}
+
+	public int numCols() {
+		return this.cols;
+	}
+
+	public boolean get(int row, int col) {
+
+		return 0 != (this.words[ row * this.wordsPerRow + (col >>> 6) ] & (1L << col));
+
+	}
+
+	public void set(int row, int col) {
+
+		this.words[ row * this.wordsPerRow + (col >>> 6) ] |= (1L << col);
+
+	}
+
+	public void clear(int row, int col) {
+
+		this.words[ row * this.wordsPerRow + (col >>> 6) ] &= ~(1L << col);
+
+	}
+
+	/**
+	 * Number of ones
+	 *
+	 */
+	public long cardinality() {
+
+		long count = 0;
+		for (int i = 0; i < this.words.length; i++) {
+			count += Long.bitCount( this.words[ i ] );
+		}
+		return count;
+
+	}
+
+	/**
+	 * Number of ones in each column
+	 *
+	 */
+	public double[] columnSums() {
+
+		double[] sums = new double[ this.cols ];
+		int[] setCols = new int[ this.cols ];
+
+		for (int r = 0; r < this.rows; r++) {
+
+			int n = setColumns( r, setCols );
+			for (int t = 0; t < n; t++) {
+				sums[ setCols[ t ] ] += 1.0;
+			}
+
+		}
+
+		return sums;
+
+	}
+
+	public Matrix toMatrix() {
+
+		Matrix m = new DenseMatrix( this.rows, this.cols );
+		int[] setCols = new int[ this.cols ];
+
+		for (int r = 0; r < this.rows; r++) {
+
+			int n = setColumns( r, setCols );
+			for (int t = 0; t < n; t++) {
+				m.setQuick( r, setCols[ t ], 1.0 );
+			}
+
+		}
+
+		return m;
+
+	}
+
+	/**
+	 * this (rows x cols) x w (cols x n): each output row is the sum of the rows of w
+	 * picked by the set bits
+	 *
+	 */
+	public Matrix times(Matrix w) {
+
+		if (w.numRows() != this.cols) {
+			throw new IllegalArgumentException( "Cannot multiply " + this.rows + " x " + this.cols + " by " + w.numRows() + " x " + w.numCols() );
+		}
+
+		final int n = w.numCols();
+		Matrix out = new DenseMatrix( this.rows, n );
+		double[] acc = new double[ n ];
+		int[] setCols = new int[ this.cols ];
+
+		for (int r = 0; r < this.rows; r++) {
+
+			int set = setColumns( r, setCols );
+
+			for (int t = 0; t < set; t++) {
+
+				int c = setCols[ t ];
+				for (int j = 0; j < n; j++) {
+					acc[ j ] += w.getQuick( c, j );
+				}
+
+			}
+
+			for (int j = 0; j < n; j++) {
+				out.setQuick( r, j, acc[ j ] );
+				acc[ j ] = 0;
+			}
+
+		}
+
+		return out;
+
+	}
+
+	/**
+	 * this (rows x cols) x w^T, w is (n x cols): entry (r, i) sums row i of w over the
+	 * set columns of row r
+	 *
+	 */
+	public Matrix timesTranspose(Matrix w) {
+
+		if (w.numCols() != this.cols) {
+			throw new IllegalArgumentException( "Cannot multiply " + this.rows + " x " + this.cols + " by the transpose of " + w.numRows() + " x " + w.numCols() );
+		}
+
+		final int n = w.numRows();
+		Matrix out = new DenseMatrix( this.rows, n );
+		int[] setCols = new int[ this.cols ];
+
+		for (int r = 0; r < this.rows; r++) {
+
+			int set = setColumns( r, setCols );
+
+			for (int i = 0; i < n; i++) {
+
+				double sum = 0;
+				for (int t = 0; t < set; t++) {
+					sum += w.getQuick( i, setCols[ t ] );
+				}
+				out.setQuick( r, i, sum );
+
+			}
+
+		}
+
+		return out;
+
+	}
+
+	/**
+	 * this^T (cols x rows) x m (rows x n): row r of m is added into output row c for every
+	 * set bit (r, c)
+	 *
+	 */
+	public Matrix transposeTimes(Matrix m) {
+
+		if (m.numRows() != this.rows) {
+			throw new IllegalArgumentException( "Cannot multiply the transpose of " + this.rows + " x " + this.cols + " by " + m.numRows() + " x " + m.numCols() );
+		}
+
+		final int n = m.numCols();
+		double[] acc = new double[ this.cols * n ];
+		double[] mRow = new double[ n ];
+		int[] setCols = new int[ this.cols ];
+
+		for (int r = 0; r < this.rows; r++) {
+
+			int set = setColumns( r, setCols );
+
+			if (0 == set) {
+				continue;
+			}
+
+			for (int j = 0; j < n; j++) {
+				mRow[ j ] = m.getQuick( r, j );
+			}
+
+			for (int t = 0; t < set; t++) {
+
+				int base = setCols[ t ] * n;
+				for (int j = 0; j < n; j++) {
+					acc[ base + j ] += mRow[ j ];
+				}
+
+			}
+
+		}
+
+		return toDense( acc, this.cols, n );
+
+	}
+
+	/**
+	 * a^T (d x rows) x b (rows x m): a's row r is scattered into output column j for every
+	 * set bit (r, j); zero entries of a (most of a binarized input) are skipped
+	 *
+	 */
+	public static Matrix denseTransposeTimes(Matrix a, BinaryMatrix b) {
+
+		if (a.numRows() != b.rows) {
+			throw new IllegalArgumentException( "Cannot multiply the transpose of " + a.numRows() + " x " + a.numCols() + " by " + b.rows + " x " + b.cols );
+		}
+
+		final int d = a.numCols();
+		final int m = b.cols;
+		double[] acc = new double[ d * m ];
+		int[] setCols = new int[ m ];
+
+		for (int r = 0; r < b.rows; r++) {
+
+			int set = b.setColumns( r, setCols );
+
+			if (0 == set) {
+				continue;
+			}
+
+			for (int i = 0; i < d; i++) {
+
+				double v = a.getQuick( r, i );
+
+				if (0.0 == v) {
+					continue;
+				}
+
+				int base = i * m;
+				for (int t = 0; t < set; t++) {
+					acc[ base + setCols[ t ] ] += v;
+				}
+
+			}
+
+		}
+
+		return toDense( acc, d, m );
+
+	}
+
+	/**
+	 * Writes the set column indexes of row into out (ascending), returns how many
+	 *
+	 */
+	private int setColumns(int row, int[] out) {
+
+		int n = 0;
+		int offset = row * this.wordsPerRow;
+
+		for (int w = 0; w < this.wordsPerRow; w++) {
+
+			long word = this.words[ offset + w ];
+
+			while (0 != word) {
+
+				out[ n++ ] = (w << 6) + Long.numberOfTrailingZeros( word );
+				word &= word - 1;
+
+			}
+
+		}
+
+		return n;
+
+	}
+
+	private static Matrix toDense(double[] flat, int rows, int cols) {
+
+		Matrix out = new DenseMatrix( rows, cols );
+
+		for (int r = 0; r < rows; r++) {
+			int base = r * cols;
+			for (int c = 0; c < cols; c++) {
+				out.setQuick( r, c, flat[ base + c ] );
+			}
+		}
+
+		return out;
+
+	}
+
+}
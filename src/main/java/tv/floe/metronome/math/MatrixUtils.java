@@ -12,6 +12,9 @@ import org.apache.mahout.math.function.Functions;
 /**
  *  Collection of Matrix operations
  * 
+ * - the reductions and row / column ops (columnSums / Means, rowSums / Means, mean, sum,
+ * 		max, min, normalize, addRowVector) move to ParallelMatrixUtils on big matrices
+ * 
  * @author josh
  *
  */
@@ -49,18 +52,23 @@ public class MatrixUtils {
 	 */	
 	public static Matrix columnSums(Matrix m) {
 
-		Matrix ret_col_sums = new DenseMatrix(1, m.numCols());
+		if (ParallelMatrixUtils.shouldSplit(m)) {
+			return ParallelMatrixUtils.columnSums(m);
+		}
 
-		ret_col_sums.assign(0.0);
+		Matrix ret_col_sums = new DenseMatrix(1, m.numCols());
+		double[] sums = new double[ m.numCols() ];
 
 		// sum into 1 row matrix
 		for ( int r = 0; r < m.numRows(); r++ ) {
 			for ( int c = 0; c < m.numCols(); c++ ) {
-				double val = ret_col_sums.get(0, c); 
-				ret_col_sums.set(0, c, m.get(r, c) + val );
+				sums[ c ] += m.getQuick(r, c);
 			}
 		}
 
+		for ( int c = 0; c < m.numCols(); c++ ) {
+			ret_col_sums.setQuick(0, c, sums[ c ]);
+		}
 
 		return ret_col_sums;
 
@@ -79,23 +87,13 @@ public class MatrixUtils {
 	public static Matrix columnMeans(Matrix m) {
 
 		//m.aggregateRows(arg0)
-		Matrix ret_col_means = new DenseMatrix(1, m.numCols());
+		Matrix ret_col_means = columnSums(m);
 		int row_count = m.numRows();
 
-		ret_col_means.assign(0.0);
-
-		// sum into 1 row matrix
-		for ( int r = 0; r < m.numRows(); r++ ) {
-			for ( int c = 0; c < m.numCols(); c++ ) {
-				double val = ret_col_means.get(0, c); 
-				ret_col_means.set(0, c, m.get(r, c) + val );
-			}
-		}
-
 		// average
 		for ( int c = 0; c < m.numCols(); c++ ) {
-			double val = ret_col_means.get(0, c); 
-			ret_col_means.set(0, c, val / row_count );
+			double val = ret_col_means.getQuick(0, c); 
+			ret_col_means.setQuick(0, c, val / row_count );
 		}
 
 		return ret_col_means;
@@ -104,9 +102,17 @@ public class MatrixUtils {
 	}
 
     public static Matrix tanh(Matrix m) {
+        return tanh( m, ActivationKernels.EXACT );
+    }
+
+    /**
+     * tanh in place over a matrix at the given accuracy
+     *
+     */
+    public static Matrix tanh(Matrix m, ActivationKernels kernels) {
         for(int i = 0; i < m.numRows(); i++ ) {
             for(int j = 0; j < m.numCols(); j++) {
-                m.set(i,j,Math.tanh(m.get(i,j)));
+                m.setQuick(i,j,kernels.tanh(m.getQuick(i,j)));
             }
         }
         return m;
@@ -114,30 +120,13 @@ public class MatrixUtils {
 
 	public static Matrix rowMeans(Matrix m) {
 
-		Matrix ret_row_means = new DenseMatrix(m.numRows(), 1);
+		Matrix ret_row_means = rowSums(m);
 		int col_count = m.numCols();
 
-		//System.out.println("col count: " + col_count);;
-
-		ret_row_means.assign(0.0);
-
-		// sum into 1 row matrix
-		for ( int r = 0; r < m.numRows(); r++ ) {
-			for ( int c = 0; c < m.numCols(); c++ ) {
-
-
-				double row_sum = ret_row_means.get(r, 0);
-
-				//System.out.println("row_sum: " + row_sum + " + " + m.get(r, c));
-
-				ret_row_means.set(r, 0, m.get(r, c) + row_sum );
-			}
-		}
-
 		// average
 		for ( int r = 0; r < m.numRows(); r++ ) {
-			double row_sum_for_col = ret_row_means.get(r, 0);
-			ret_row_means.set(r, 0, row_sum_for_col / col_count );
+			double row_sum_for_col = ret_row_means.getQuick(r, 0);
+			ret_row_means.setQuick(r, 0, row_sum_for_col / col_count );
 
 			//System.out.println("row mean: " + (row_sum_for_col / col_count));
 		}
@@ -155,21 +144,22 @@ public class MatrixUtils {
 	 */
 	public static Matrix rowSums(Matrix m) {
 
-		Matrix ret_row_sums = new DenseMatrix(m.numRows(), 1);
-		//int col_count = m.numCols();
-
-		//System.out.println("col count: " + col_count);;
+		if (ParallelMatrixUtils.shouldSplit(m)) {
+			return ParallelMatrixUtils.rowSums(m);
+		}
 
-		ret_row_sums.assign(0.0);
+		Matrix ret_row_sums = new DenseMatrix(m.numRows(), 1);
 
-		// sum into 1 row matrix
+		// sum into 1 column matrix
 		for ( int r = 0; r < m.numRows(); r++ ) {
-			for ( int c = 0; c < m.numCols(); c++ ) {
 
-				double row_sum = ret_row_sums.get(r, 0);
+			double row_sum = 0;
 
-				ret_row_sums.set(r, 0, m.get(r, c) + row_sum );
+			for ( int c = 0; c < m.numCols(); c++ ) {
+				row_sum += m.getQuick(r, c);
 			}
+
+			ret_row_sums.setQuick(r, 0, row_sum );
 		}
 
 
@@ -226,13 +216,17 @@ public class MatrixUtils {
 	 */
 	public static double sum(Matrix m) {
 
+		if (ParallelMatrixUtils.shouldSplit(m)) {
+			return ParallelMatrixUtils.sum(m);
+		}
+
 		double ret = 0;
 
 
 		for ( int r = 0; r < m.numRows(); r++ ) {
 			for ( int c = 0; c < m.numCols(); c++ ) {
 
-				ret += m.get(r, c);
+				ret += m.getQuick(r, c);
 
 			}
 		}		
@@ -302,30 +296,36 @@ public class MatrixUtils {
 	}
 
 	/**
-	 * Calculate the sigmoid function in place over a matrix
+	 * Calculate the sigmoid function over a matrix, returning a new matrix
 	 * 
 	 * @param m
 	 * @return
 	 */
 	public static Matrix sigmoid(Matrix m) {
 
-		//		DoubleMatrix ones = DoubleMatrix.ones(x.rows, x.columns);
-		//	    return ones.div(ones.add(MatrixFunctions.exp(x.neg())));
-
-		Matrix ones = new DenseMatrix(m.numRows(), m.numCols());
-		ones.assign(1.0);
-
-
-		Matrix m1 = MatrixUtils.neg( m );
+		return sigmoid( m, ActivationKernels.EXACT );
 
+	}
 
-		Matrix m2 = MatrixUtils.exp( m1 );
+	/**
+	 * sigmoid over a matrix at the given accuracy, one pass into a new matrix (no ones /
+	 * neg / exp / denominator temporaries)
+	 * 
+	 * @param m
+	 * @param kernels
+	 * @return
+	 */
+	public static Matrix sigmoid(Matrix m, ActivationKernels kernels) {
 
+		Matrix out = m.like();
 
-		Matrix denom = ones.plus( m2 );
-		Matrix out = MatrixUtils.div(ones, denom);
+		for ( int r = 0; r < m.numRows(); r++ ) {
+			for ( int c = 0; c < m.numCols(); c++ ) {
 
+				out.setQuick( r, c, kernels.sigmoid( m.getQuick( r, c ) ) );
 
+			}
+		}
 
 		return out;
 	}
@@ -338,6 +338,10 @@ public class MatrixUtils {
 	 */
 	public static double max(Matrix m) {
 		
+		if (ParallelMatrixUtils.shouldSplit(m)) {
+			return ParallelMatrixUtils.max(m);
+		}
+		
 		double max_tmp = m.viewRow(0).maxValue();
 		
 		for ( int r = 0; r < m.rowSize(); r++ ) {
@@ -360,6 +364,10 @@ public class MatrixUtils {
 	 */
 	public static double min(Matrix m) {
 		
+		if (ParallelMatrixUtils.shouldSplit(m)) {
+			return ParallelMatrixUtils.min(m);
+		}
+		
 		double min_tmp = m.viewRow(0).minValue();
 		
 		for ( int r = 0; r < m.rowSize(); r++ ) {
@@ -382,6 +390,19 @@ public class MatrixUtils {
 	 * @return
 	 */
 	public static Matrix softmax(Matrix m) {
+
+		return softmax( m, ActivationKernels.EXACT );
+
+	}
+
+	/**
+	 * softmax at the given accuracy
+	 * 
+	 * @param m
+	 * @param kernels
+	 * @return
+	 */
+	public static Matrix softmax(Matrix m, ActivationKernels kernels) {
 		
 		 double max = max(m);
          double sum = 0.0;
@@ -392,7 +413,7 @@ public class MatrixUtils {
 
  			for ( int c = 0; c < m.numCols(); c++ ) {
 
- 				ret.set(r,  c, Math.exp( m.get(r, c) - max ));
+ 				ret.set(r,  c, kernels.exp( m.get(r, c) - max ));
 
  			}
 
@@ -448,12 +469,24 @@ public class MatrixUtils {
 	 */
 	public static Matrix exp(Matrix m) {
 
+		return exp( m, ActivationKernels.EXACT );
+
+	}
+
+	/**
+	 * e^x for each element at the given accuracy, returning a new Matrix
+	 * 
+	 * @param m
+	 * @param kernels
+	 */
+	public static Matrix exp(Matrix m, ActivationKernels kernels) {
+
 		Matrix ret = m.like();		
 		
 		for (int r = 0; r < m.numRows(); r++) {
 			for ( int c = 0; c < m.numCols(); c++ ) {
 
-				ret.set(r, c, (double) Math.exp( m.get(r, c) ) );
+				ret.setQuick(r, c, kernels.exp( m.getQuick(r, c) ) );
 
 			}
 		}
@@ -549,6 +582,11 @@ public class MatrixUtils {
 	 */	
 	public static Matrix genBinomialDistribution(Matrix pValues, int max, RandomGenerator rndNumberGenerator) {
 
+		// n = 1 is every Gibbs step, sampled two elements per nextLong()
+		if (1 == max) {
+			return BernoulliSampler.sample( pValues, rndNumberGenerator );
+		}
+
 		Matrix dist = pValues.like(); 
 
 		for (int r = 0; r < dist.numRows(); r++) {
@@ -656,6 +694,10 @@ public class MatrixUtils {
 	 */
 	public static Matrix addRowVector(Matrix m, Vector row) {
 
+		if (ParallelMatrixUtils.shouldSplit(m)) {
+			return ParallelMatrixUtils.addRowVector(m, row);
+		}
+
 		Matrix ret = m.like();
 		ret.assign(m);
 
@@ -973,6 +1015,10 @@ public class MatrixUtils {
 	
 	public static Matrix normalize( Matrix input) {
 		
+		if (ParallelMatrixUtils.shouldSplit(input)) {
+			return ParallelMatrixUtils.normalize(input);
+		}
+		
 		//double min = input.min();
 		double min = MatrixUtils.min( input );
 		
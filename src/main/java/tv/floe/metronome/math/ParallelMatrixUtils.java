@@ -0,0 +1,445 @@
+package tv.floe.metronome.math;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.mahout.math.DenseMatrix;
+import org.apache.mahout.math.Matrix;
+import org.apache.mahout.math.Vector;
+
+/**
+ * Data parallel versions of the MatrixUtils reductions and row / column ops
+ *
+ * MatrixUtils hands a matrix over here once it has at least getMinElements() cells
+ * (default 32k), smaller ones stay on the single threaded loops where the hand off would
+ * cost more than it saves. System properties:
+ *
+ * 		tv.floe.metronome.math.parallel.minElements		cells before MatrixUtils splits (default 32768)
+ * 		tv.floe.metronome.math.parallel.threads			pool size (default one per core, 1 turns it off)
+ *
+ * - one shared pool of daemon threads, the calling thread runs the first chunk itself
+ * 		and then waits for the rest
+ * - a call made from inside the pool runs single threaded, so nested calls can't starve
+ * 		the pool waiting on themselves
+ * - work is split into contiguous row (or column) ranges and every chunk writes only its
+ * 		own cells, reads go through getQuick() (a plain array read on a DenseMatrix)
+ * - only a DenseMatrix is ever split. The sparse matrices (and their like()) keep their
+ * 		rows in hash maps that aren't safe to write from several threads, and whose reads
+ * 		aren't cheap enough to be worth it, so they run on the calling thread, including
+ * 		when one of these methods is called directly
+ *
+ * Results:
+ *
+ * 		columnSums / columnMeans	split by column, each column still summed top to bottom:
+ * 									bit for bit the single threaded result
+ * 		rowSums / rowMeans			split by row, each row summed left to right: same
+ * 		max / min					exact in any order
+ * 		addRowVector / normalize	elementwise: same
+ * 		sum / mean					summed in fixed blocks of rows (sized from the column
+ * 									count alone, never from the thread count), the block
+ * 									sums then added in block order. Deterministic for a
+ * 									given matrix on any machine, but the rounding differs
+ * 									from one left to right pass
+ *
+ * @author josh
+ *
+ */
+public class ParallelMatrixUtils {
+
+	public static final String PROP_MIN_ELEMENTS = "tv.floe.metronome.math.parallel.minElements";
+	public static final String PROP_THREADS = "tv.floe.metronome.math.parallel.threads";
+
+	public static final int DEFAULT_MIN_ELEMENTS = 1 << 15;
+
+	// cells per sum() block, 32k of doubles
+	static final int REDUCTION_BLOCK_ELEMENTS = 1 << 12;
+
+	private static final int THREADS = Math.max( 1, Integer.getInteger( PROP_THREADS, Runtime.getRuntime().availableProcessors() ) );
+
+	private static volatile int minElements = Integer.getInteger( PROP_MIN_ELEMENTS, DEFAULT_MIN_ELEMENTS );
+
+	private static final class PoolThread extends Thread {
+
+		PoolThread(Runnable r, String name) {
+			super( r, name );
+		}
+
+	}
+
+	private static final ExecutorService POOL = Executors.newFixedThreadPool( THREADS, new ThreadFactory() {
+
+		private int count = 0;
+
+		@Override
+		public synchronized Thread newThread(Runnable r) {
+
+			Thread t = new PoolThread( r, "metronome-matrix-" + (count++) );
+			t.setDaemon( true );
+			return t;
+
+		}
+
+	} );
+
+	/**
+	 * One chunk of work over [from, to) of whatever is being split
+	 *
+	 */
+	private static abstract class RangeTask {
+
+		abstract void run(int from, int to, int chunk);
+
+	}
+
+	public static int getMinElements() {
+		return minElements;
+	}
+
+	public static void setMinElements(int min) {
+		minElements = min;
+	}
+
+	/**
+	 * True when m is a DenseMatrix big enough to split and we're not already on a pool thread
+	 *
+	 */
+	public static boolean shouldSplit(Matrix m) {
+
+		return THREADS > 1
+				&& m instanceof DenseMatrix
+				&& (long) m.numRows() * m.numCols() >= minElements
+				&& !(Thread.currentThread() instanceof PoolThread);
+
+	}
+
+	public static Matrix columnSums(final Matrix m) {
+
+		final int rows = m.numRows();
+		final Matrix out = new DenseMatrix( 1, m.numCols() );
+
+		split( m, m.numCols(), new RangeTask() {
+
+			@Override
+			void run(int from, int to, int chunk) {
+
+				double[] sums = new double[ to - from ];
+
+				for (int r = 0; r < rows; r++) {
+					for (int c = from; c < to; c++) {
+						sums[ c - from ] += m.getQuick( r, c );
+					}
+				}
+
+				for (int c = from; c < to; c++) {
+					out.setQuick( 0, c, sums[ c - from ] );
+				}
+
+			}
+
+		} );
+
+		return out;
+
+	}
+
+	public static Matrix columnMeans(Matrix m) {
+
+		Matrix out = columnSums( m );
+		int rows = m.numRows();
+
+		for (int c = 0; c < out.numCols(); c++) {
+			out.setQuick( 0, c, out.getQuick( 0, c ) / rows );
+		}
+
+		return out;
+
+	}
+
+	public static Matrix rowSums(final Matrix m) {
+
+		final int cols = m.numCols();
+		final Matrix out = new DenseMatrix( m.numRows(), 1 );
+
+		split( m, m.numRows(), new RangeTask() {
+
+			@Override
+			void run(int from, int to, int chunk) {
+
+				for (int r = from; r < to; r++) {
+
+					double sum = 0;
+					for (int c = 0; c < cols; c++) {
+						sum += m.getQuick( r, c );
+					}
+					out.setQuick( r, 0, sum );
+
+				}
+
+			}
+
+		} );
+
+		return out;
+
+	}
+
+	public static Matrix rowMeans(Matrix m) {
+
+		Matrix out = rowSums( m );
+		int cols = m.numCols();
+
+		for (int r = 0; r < out.numRows(); r++) {
+			out.setQuick( r, 0, out.getQuick( r, 0 ) / cols );
+		}
+
+		return out;
+
+	}
+
+	/**
+	 * Sum of every cell, in fixed blocks of rows (see the class notes)
+	 *
+	 */
+	public static double sum(final Matrix m) {
+
+		final int rows = m.numRows();
+		final int cols = m.numCols();
+
+		if (0 == rows || 0 == cols) {
+			return 0;
+		}
+
+		final int blockRows = Math.max( 1, REDUCTION_BLOCK_ELEMENTS / cols );
+		final int blocks = (rows + blockRows - 1) / blockRows;
+		final double[] blockSums = new double[ blocks ];
+
+		split( m, blocks, new RangeTask() {
+
+			@Override
+			void run(int from, int to, int chunk) {
+
+				for (int b = from; b < to; b++) {
+
+					int end = Math.min( rows, (b + 1) * blockRows );
+					double sum = 0;
+
+					for (int r = b * blockRows; r < end; r++) {
+						for (int c = 0; c < cols; c++) {
+							sum += m.getQuick( r, c );
+						}
+					}
+
+					blockSums[ b ] = sum;
+
+				}
+
+			}
+
+		} );
+
+		double total = 0;
+		for (int b = 0; b < blocks; b++) {
+			total += blockSums[ b ];
+		}
+
+		return total;
+
+	}
+
+	public static double mean(Matrix m) {
+
+		return sum( m ) / ((double) m.numRows() * m.numCols());
+
+	}
+
+	public static double max(Matrix m) {
+
+		return extreme( m, true );
+
+	}
+
+	public static double min(Matrix m) {
+
+		return extreme( m, false );
+
+	}
+
+	/**
+	 * A new matrix with row added to every row of m
+	 *
+	 */
+	public static Matrix addRowVector(final Matrix m, final Vector row) {
+
+		final int cols = m.numCols();
+		final Matrix out = m.like();
+
+		final double[] add = new double[ cols ];
+		for (int c = 0; c < cols; c++) {
+			add[ c ] = row.getQuick( c );
+		}
+
+		split( m, m.numRows(), new RangeTask() {
+
+			@Override
+			void run(int from, int to, int chunk) {
+
+				for (int r = from; r < to; r++) {
+					for (int c = 0; c < cols; c++) {
+						out.setQuick( r, c, m.getQuick( r, c ) + add[ c ] );
+					}
+				}
+
+			}
+
+		} );
+
+		return out;
+
+	}
+
+	/**
+	 * In place (x - min) / (max - min), like MatrixUtils.normalize()
+	 *
+	 */
+	public static Matrix normalize(final Matrix m) {
+
+		final double min = min( m );
+		final double range = max( m ) - min;
+		final int cols = m.numCols();
+
+		split( m, m.numRows(), new RangeTask() {
+
+			@Override
+			void run(int from, int to, int chunk) {
+
+				for (int r = from; r < to; r++) {
+					for (int c = 0; c < cols; c++) {
+						m.setQuick( r, c, (m.getQuick( r, c ) - min) / range );
+					}
+				}
+
+			}
+
+		} );
+
+		return m;
+
+	}
+
+	private static double extreme(final Matrix m, final boolean max) {
+
+		final int cols = m.numCols();
+		final int chunks = chunks( m, m.numRows() );
+		final double[] partial = new double[ chunks ];
+
+		split( m, m.numRows(), new RangeTask() {
+
+			@Override
+			void run(int from, int to, int chunk) {
+
+				double best = m.getQuick( from, 0 );
+
+				for (int r = from; r < to; r++) {
+					for (int c = 0; c < cols; c++) {
+
+						double v = m.getQuick( r, c );
+						if (max ? v > best : v < best) {
+							best = v;
+						}
+
+					}
+				}
+
+				partial[ chunk ] = best;
+
+			}
+
+		} );
+
+		double best = partial[ 0 ];
+		for (int i = 1; i < chunks; i++) {
+			if (max ? partial[ i ] > best : partial[ i ] < best) {
+				best = partial[ i ];
+			}
+		}
+
+		return best;
+
+	}
+
+	/**
+	 * How many pieces to cut [0, extent) of m into, 1 for anything but a DenseMatrix
+	 *
+	 */
+	private static int chunks(Matrix m, int extent) {
+
+		boolean nested = Thread.currentThread() instanceof PoolThread;
+		boolean parallel = !nested && m instanceof DenseMatrix;
+		return Math.max( 1, Math.min( extent, parallel ? THREADS : 1 ) );
+
+	}
+
+	/**
+	 * Runs task over [0, extent) of m in chunks() contiguous pieces, the first on this thread
+	 *
+	 */
+	private static void split(Matrix m, int extent, RangeTask task) {
+
+		final int chunks = chunks( m, extent );
+
+		if (chunks == 1) {
+			task.run( 0, extent, 0 );
+			return;
+		}
+
+		List<Future<?>> pending = new ArrayList<Future<?>>( chunks - 1 );
+
+		for (int i = 1; i < chunks; i++) {
+
+			final int from = (int) ((long) extent * i / chunks);
+			final int to = (int) ((long) extent * (i + 1) / chunks);
+			final int chunk = i;
+			final RangeTask t = task;
+
+			pending.add( POOL.submit( new Runnable() {
+
+				@Override
+				public void run() {
+					t.run( from, to, chunk );
+				}
+
+			} ) );
+
+		}
+
+		task.run( 0, (int) ((long) extent / chunks), 0 );
+
+		try {
+
+			for (Future<?> f : pending) {
+				f.get();
+			}
+
+		} catch (InterruptedException e) {
+
+			Thread.currentThread().interrupt();
+			throw new RuntimeException( e );
+
+		} catch (ExecutionException e) {
+
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new RuntimeException( cause );
+
+		}
+
+	}
+
+}
@@ -0,0 +1,130 @@
+package tv.floe.metronome.math;
+
+import org.apache.commons.math3.random.BitsStreamGenerator;
+
+/**
+ * xoroshiro128+ generator (Blackman / Vigna) behind the commons-math RandomGenerator
+ * interface, so it drops in wherever the RBMs / DBN take a RandomGenerator
+ *
+ * - two longs of state, a handful of shifts / xors per 64 bits: an order of magnitude
+ * 		cheaper than MersenneTwister, which Gibbs sampling pays for twice per element
+ * - seeds are spread with SplitMix64, so small / nearby seeds (worker ids, 123, 1234)
+ * 		still start in unrelated parts of the sequence
+ * - split() hands out an independent child generator, seeded from this one's stream,
+ * 		for another thread; the same parent seed always produces the same children
+ * - not thread safe, split() one per thread instead of sharing
+ *
+ * nextDouble() uses the top 53 bits, the lowest bits of xoroshiro128+ are its weakest.
+ *
+ * @author josh
+ *
+ */
+public class Xoroshiro128PlusRandom extends BitsStreamGenerator {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+	private long s0;
+	private long s1;
+
+	public Xoroshiro128PlusRandom(long seed) {
+
+		setSeed( seed );
+
+	}
+
+	public Xoroshiro128PlusRandom() {
+
+		this( System.nanoTime() );
+
+	}
+
+	@Override
+	public void setSeed(long seed) {
+
+		this.s0 = mix64( seed + GOLDEN_GAMMA );
+		this.s1 = mix64( seed + 2 * GOLDEN_GAMMA );
+
+		// the all zero state is the one fixed point
+		if (0 == this.s0 && 0 == this.s1) {
+			this.s0 = GOLDEN_GAMMA;
+		}
+
+		// drop nextGaussian()'s cached second value, it came from the old stream
+		clear();
+
+	}
+
+	@Override
+	public void setSeed(int seed) {
+
+		setSeed( (long) seed );
+
+	}
+
+	@Override
+	public void setSeed(int[] seed) {
+
+		long h = 0;
+
+		for (int i = 0; i < seed.length; i++) {
+			h = mix64( h + GOLDEN_GAMMA + seed[ i ] );
+		}
+
+		setSeed( h );
+
+	}
+
+	@Override
+	public long nextLong() {
+
+		final long a = this.s0;
+		long b = this.s1;
+		final long result = a + b;
+
+		b ^= a;
+		this.s0 = Long.rotateLeft( a, 24 ) ^ b ^ (b << 16);
+		this.s1 = Long.rotateLeft( b, 37 );
+
+		return result;
+
+	}
+
+	@Override
+	protected int next(int bits) {
+
+		return (int) (nextLong() >>> (64 - bits));
+
+	}
+
+	@Override
+	public double nextDouble() {
+
+		return (nextLong() >>> 11) * 0x1.0p-53;
+
+	}
+
+	/**
+	 * A new generator for another thread, consumes one value of this one's stream
+	 *
+	 */
+	public Xoroshiro128PlusRandom split() {
+
+		return new Xoroshiro128PlusRandom( nextLong() );
+
+	}
+
+	/**
+	 * SplitMix64 finalizer
+	 *
+	 */
+	private static long mix64(long z) {
+
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+
+	}
+
+}
@@ -0,0 +1,46 @@
+package tv.floe.metronome.metrics;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A running count (records trained, lines skipped, ..), merged across workers by summing
+ *
+ * @author josh
+ *
+ */
+public class Counter {
+
+	private long count = 0;
+
+	public void inc() {
+		this.count++;
+	}
+
+	public void add(long n) {
+		this.count += n;
+	}
+
+	public long get() {
+		return this.count;
+	}
+
+	public void merge(Counter other) {
+		this.count += other.count;
+	}
+
+	public void write(DataOutput out) throws IOException {
+		out.writeLong( this.count );
+	}
+
+	public void readFields(DataInput in) throws IOException {
+		this.count = in.readLong();
+	}
+
+	@Override
+	public String toString() {
+		return String.valueOf( this.count );
+	}
+
+}
@@ -0,0 +1,111 @@
+package tv.floe.metronome.metrics;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * A sampled level (heap in use, cached rows, ..)
+ *
+ * - keeps the last value set plus min / max / sum / samples, so once the master merges
+ * 		every worker's gauge it reports the spread across the cluster, not one worker's
+ * 		last value
+ *
+ * @author josh
+ *
+ */
+public class Gauge {
+
+	private double last = 0;
+	private double min = Double.POSITIVE_INFINITY;
+	private double max = Double.NEGATIVE_INFINITY;
+	private double sum = 0;
+	private long samples = 0;
+
+	public void set(double value) {
+
+		this.last = value;
+		this.min = Math.min( this.min, value );
+		this.max = Math.max( this.max, value );
+		this.sum += value;
+		this.samples++;
+
+	}
+
+	public double get() {
+		return this.last;
+	}
+
+	public double min() {
+		return this.min;
+	}
+
+	public double max() {
+		return this.max;
+	}
+
+	public long samples() {
+		return this.samples;
+	}
+
+	/**
+	 * NaN if nothing was set
+	 *
+	 */
+	public double mean() {
+
+		if (0 == this.samples) {
+			return Double.NaN;
+		}
+		return this.sum / this.samples;
+
+	}
+
+	public void merge(Gauge other) {
+
+		if (0 == other.samples) {
+			return;
+		}
+
+		this.last = other.last;
+		this.min = Math.min( this.min, other.min );
+		this.max = Math.max( this.max, other.max );
+		this.sum += other.sum;
+		this.samples += other.samples;
+
+	}
+
+	public void write(DataOutput out) throws IOException {
+
+		out.writeDouble( this.last );
+		out.writeDouble( this.min );
+		out.writeDouble( this.max );
+		out.writeDouble( this.sum );
+		out.writeLong( this.samples );
+
+	}
+
+	public void readFields(DataInput in) throws IOException {
+
+		this.last = in.readDouble();
+		this.min = in.readDouble();
+		this.max = in.readDouble();
+		this.sum = in.readDouble();
+		this.samples = in.readLong();
+
+	}
+
+	@Override
+	public String toString() {
+
+		if (0 == this.samples) {
+			return "no samples";
+		}
+
+		return String.format( Locale.US, "last %.4g, mean %.4g, min %.4g, max %.4g, samples %d",
+				this.last, mean(), this.min, this.max, this.samples );
+
+	}
+
+}
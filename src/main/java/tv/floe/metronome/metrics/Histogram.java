@@ -0,0 +1,208 @@
+package tv.floe.metronome.metrics;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Distribution of non-negative longs in power of two buckets, cheap enough for the hot
+ * path: record() is a leading zeros count, an array increment and four compares, no
+ * allocation
+ *
+ * - bucket i holds values in [2^(i-1), 2^i - 1] (bucket 0 holds 0), so percentiles are
+ * 		upper bounds within a factor of two; count / sum / min / max are exact
+ * - a timer is a histogram of System.nanoTime() deltas, reported in ms
+ * - merges exactly (bucket counts add), so the master's view of a phase is the real
+ * 		distribution over every worker's samples
+ * - not thread safe: one registry per thread of control (the worker's compute() thread)
+ *
+ * @author josh
+ *
+ */
+public class Histogram {
+
+	private static final int BUCKETS = 64;
+
+	private final boolean timer;
+
+	private long count = 0;
+	private long sum = 0;
+	private long min = Long.MAX_VALUE;
+	private long max = 0;
+	private final long[] buckets = new long[ BUCKETS ];
+
+	public Histogram(boolean timer) {
+		this.timer = timer;
+	}
+
+	public boolean isTimer() {
+		return this.timer;
+	}
+
+	public void record(long value) {
+
+		if (value < 0) {
+			value = 0;
+		}
+
+		this.count++;
+		this.sum += value;
+
+		if (value < this.min) {
+			this.min = value;
+		}
+		if (value > this.max) {
+			this.max = value;
+		}
+
+		this.buckets[ BUCKETS - Long.numberOfLeadingZeros( value ) ]++;
+
+	}
+
+	/**
+	 * Records the nanos since startNanos (a System.nanoTime() reading)
+	 *
+	 * @return now, so back to back phases can chain off one reading
+	 */
+	public long recordSince(long startNanos) {
+
+		long now = System.nanoTime();
+		record( now - startNanos );
+
+		return now;
+
+	}
+
+	public long count() {
+		return this.count;
+	}
+
+	public long sum() {
+		return this.sum;
+	}
+
+	public long min() {
+		return (0 == this.count) ? 0 : this.min;
+	}
+
+	public long max() {
+		return this.max;
+	}
+
+	public double mean() {
+
+		if (0 == this.count) {
+			return Double.NaN;
+		}
+		return (double) this.sum / this.count;
+
+	}
+
+	/**
+	 * Upper bound of the bucket holding the q-th quantile, capped at the max seen
+	 *
+	 */
+	public long percentile(double q) {
+
+		if (0 == this.count) {
+			return 0;
+		}
+
+		long rank = Math.max( 1, (long) Math.ceil( q * this.count ) );
+		long seen = 0;
+
+		for (int i = 0; i < BUCKETS; i++) {
+
+			seen += this.buckets[ i ];
+			if (seen >= rank) {
+				return Math.min( this.max, (0 == i) ? 0 : (1L << i) - 1 );
+			}
+
+		}
+
+		return this.max;
+
+	}
+
+	public void merge(Histogram other) {
+
+		if (0 == other.count) {
+			return;
+		}
+
+		this.count += other.count;
+		this.sum += other.sum;
+		this.min = Math.min( this.min, other.min );
+		this.max = Math.max( this.max, other.max );
+
+		for (int i = 0; i < BUCKETS; i++) {
+			this.buckets[ i ] += other.buckets[ i ];
+		}
+
+	}
+
+	/**
+	 * Only the non-empty buckets go on the wire
+	 *
+	 */
+	public void write(DataOutput out) throws IOException {
+
+		out.writeLong( this.count );
+		out.writeLong( this.sum );
+		out.writeLong( this.min );
+		out.writeLong( this.max );
+
+		int used = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			if (0 != this.buckets[ i ]) {
+				used++;
+			}
+		}
+
+		out.writeByte( used );
+		for (int i = 0; i < BUCKETS; i++) {
+			if (0 != this.buckets[ i ]) {
+				out.writeByte( i );
+				out.writeLong( this.buckets[ i ] );
+			}
+		}
+
+	}
+
+	public void readFields(DataInput in) throws IOException {
+
+		this.count = in.readLong();
+		this.sum = in.readLong();
+		this.min = in.readLong();
+		this.max = in.readLong();
+
+		Arrays.fill( this.buckets, 0 );
+
+		int used = in.readByte();
+		for (int i = 0; i < used; i++) {
+			int bucket = in.readByte();
+			this.buckets[ bucket ] = in.readLong();
+		}
+
+	}
+
+	@Override
+	public String toString() {
+
+		if (0 == this.count) {
+			return "n 0";
+		}
+
+		if (this.timer) {
+			return String.format( Locale.US, "n %d, mean %.3f ms, p50 <= %.3f ms, p99 <= %.3f ms, max %.3f ms, total %.3f ms",
+					this.count, mean() / 1.0e6, percentile( 0.5 ) / 1.0e6, percentile( 0.99 ) / 1.0e6, this.max / 1.0e6, this.sum / 1.0e6 );
+		}
+
+		return String.format( Locale.US, "n %d, mean %.4g, p50 <= %d, p99 <= %d, min %d, max %d",
+				this.count, mean(), percentile( 0.5 ), percentile( 0.99 ), min(), this.max );
+
+	}
+
+}
@@ -0,0 +1,264 @@
+package tv.floe.metronome.metrics;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Writable;
+
+/**
+ * Named counters, gauges and histograms / timers for one worker or master
+ *
+ * 		counter(name)		running counts, merged by summing
+ * 		gauge(name)			sampled levels, merged into min / max / mean
+ * 		histogram(name)		value distributions
+ * 		timer(name)			System.nanoTime() deltas
+ * 		phase(Phase)		the standard per superstep phase timers:
+ * 								phase.parse			reading the split's lines
+ * 								phase.vectorize		lines to vectors / batch matrices
+ * 								phase.compute		training (and scoring held-out records)
+ * 								phase.serialize		the message (or model) to bytes
+ *
+ * How it flows:
+ *
+ * - a worker fills its registry during compute(), hangs it on the superstep's message and
+ * 		starts a fresh one, so every message carries that superstep's delta
+ * - the message class writes it last (writeOptional()), after timing its own
+ * 		serialization into phase.serialize, so the delta includes the send
+ * - the master merges each worker's delta into its own registry (plus its master.*
+ * 		timers), logs report() every CONF_REPORT_EVERY supersteps and at complete()
+ *
+ * Cheap enough for the hot path (see Histogram), but the intent is one sample per phase
+ * per superstep, not per record: accumulate nanos in a local and record once.
+ *
+ * @author josh
+ *
+ */
+public class MetricsRegistry implements Writable {
+
+	// log the master's merged report every N supersteps, 0 = only at complete()
+	public static final String CONF_REPORT_EVERY = "tv.floe.metronome.metrics.reportEvery";
+
+	public enum Phase {
+
+		PARSE, VECTORIZE, COMPUTE, SERIALIZE;
+
+		public String metricName() {
+			return "phase." + name().toLowerCase( Locale.ENGLISH );
+		}
+
+	}
+
+	private final Map<String, Counter> counters = new TreeMap<String, Counter>();
+	private final Map<String, Gauge> gauges = new TreeMap<String, Gauge>();
+	private final Map<String, Histogram> histograms = new TreeMap<String, Histogram>();
+
+	public Counter counter(String name) {
+
+		Counter c = this.counters.get( name );
+		if (null == c) {
+			c = new Counter();
+			this.counters.put( name, c );
+		}
+
+		return c;
+
+	}
+
+	public Gauge gauge(String name) {
+
+		Gauge g = this.gauges.get( name );
+		if (null == g) {
+			g = new Gauge();
+			this.gauges.put( name, g );
+		}
+
+		return g;
+
+	}
+
+	public Histogram histogram(String name) {
+		return histogram( name, false );
+	}
+
+	public Histogram timer(String name) {
+		return histogram( name, true );
+	}
+
+	public Histogram phase(Phase phase) {
+		return timer( phase.metricName() );
+	}
+
+	private Histogram histogram(String name, boolean timer) {
+
+		Histogram h = this.histograms.get( name );
+		if (null == h) {
+			h = new Histogram( timer );
+			this.histograms.put( name, h );
+		}
+
+		return h;
+
+	}
+
+	/**
+	 * Samples heap in use into the jvm.heap.used.bytes gauge
+	 *
+	 */
+	public void sampleHeap() {
+
+		Runtime rt = Runtime.getRuntime();
+		gauge( "jvm.heap.used.bytes" ).set( rt.totalMemory() - rt.freeMemory() );
+
+	}
+
+	public boolean isEmpty() {
+		return this.counters.isEmpty() && this.gauges.isEmpty() && this.histograms.isEmpty();
+	}
+
+	/**
+	 * Folds other into this one, metric by metric (a metric only other has is added)
+	 *
+	 */
+	public void merge(MetricsRegistry other) {
+
+		for (Map.Entry<String, Counter> e : other.counters.entrySet()) {
+			counter( e.getKey() ).merge( e.getValue() );
+		}
+
+		for (Map.Entry<String, Gauge> e : other.gauges.entrySet()) {
+			gauge( e.getKey() ).merge( e.getValue() );
+		}
+
+		for (Map.Entry<String, Histogram> e : other.histograms.entrySet()) {
+			histogram( e.getKey(), e.getValue().isTimer() ).merge( e.getValue() );
+		}
+
+	}
+
+	public void clear() {
+
+		this.counters.clear();
+		this.gauges.clear();
+		this.histograms.clear();
+
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+
+		out.writeInt( this.counters.size() );
+		for (Map.Entry<String, Counter> e : this.counters.entrySet()) {
+			out.writeUTF( e.getKey() );
+			e.getValue().write( out );
+		}
+
+		out.writeInt( this.gauges.size() );
+		for (Map.Entry<String, Gauge> e : this.gauges.entrySet()) {
+			out.writeUTF( e.getKey() );
+			e.getValue().write( out );
+		}
+
+		out.writeInt( this.histograms.size() );
+		for (Map.Entry<String, Histogram> e : this.histograms.entrySet()) {
+			out.writeUTF( e.getKey() );
+			out.writeBoolean( e.getValue().isTimer() );
+			e.getValue().write( out );
+		}
+
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+
+		clear();
+
+		int n = in.readInt();
+		for (int i = 0; i < n; i++) {
+			counter( in.readUTF() ).readFields( in );
+		}
+
+		n = in.readInt();
+		for (int i = 0; i < n; i++) {
+			gauge( in.readUTF() ).readFields( in );
+		}
+
+		n = in.readInt();
+		for (int i = 0; i < n; i++) {
+			String name = in.readUTF();
+			histogram( name, in.readBoolean() ).readFields( in );
+		}
+
+	}
+
+	/**
+	 * Presence flag, then the registry if there is one
+	 *
+	 */
+	public static void writeOptional(DataOutput out, MetricsRegistry metrics) throws IOException {
+
+		out.writeBoolean( null != metrics );
+
+		if (null != metrics) {
+			metrics.write( out );
+		}
+
+	}
+
+	public static MetricsRegistry readOptional(DataInput in) throws IOException {
+
+		if (!in.readBoolean()) {
+			return null;
+		}
+
+		MetricsRegistry metrics = new MetricsRegistry();
+		metrics.readFields( in );
+		return metrics;
+
+	}
+
+	/**
+	 * Every CONF_REPORT_EVERY supersteps, never when it's unset / 0
+	 *
+	 */
+	public static boolean isReportDue(Configuration conf, int superstep) {
+
+		int every = conf.getInt( CONF_REPORT_EVERY, 0 );
+		return every > 0 && superstep > 0 && 0 == superstep % every;
+
+	}
+
+	/**
+	 * One metric per line, sorted by name within each kind
+	 *
+	 */
+	public String report() {
+
+		StringBuilder b = new StringBuilder();
+
+		for (Map.Entry<String, Counter> e : this.counters.entrySet()) {
+			b.append( "counter " ).append( e.getKey() ).append( ": " ).append( e.getValue() ).append( '\n' );
+		}
+
+		for (Map.Entry<String, Gauge> e : this.gauges.entrySet()) {
+			b.append( "gauge " ).append( e.getKey() ).append( ": " ).append( e.getValue() ).append( '\n' );
+		}
+
+		for (Map.Entry<String, Histogram> e : this.histograms.entrySet()) {
+			b.append( e.getValue().isTimer() ? "timer " : "histogram " ).append( e.getKey() ).append( ": " ).append( e.getValue() ).append( '\n' );
+		}
+
+		return b.toString();
+
+	}
+
+	@Override
+	public String toString() {
+		return report();
+	}
+
+}
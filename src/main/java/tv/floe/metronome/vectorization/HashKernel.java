@@ -1,73 +1,89 @@
 package tv.floe.metronome.vectorization;
 
-import java.util.zip.CRC32;
-import java.util.zip.Checksum;
-
+import org.apache.hadoop.io.Text;
 import org.apache.mahout.math.RandomAccessSparseVector;
 import org.apache.mahout.math.Vector;
 
 /**
  * Basic HashKernel based on:
- * 
+ *
  * 	http://jeremydhoon.github.com/2013/03/19/abusing-hash-kernels-for-wildly-unprincipled-machine-learning/
- * 
- * 
- * 
+ *
+ * 		feature_vector = [0 for _ in xrange(1 << bits)]
+ * 		for word in input_text.split():
+ * 		  hash = crc32(word)  # CRC-32 hash function, available in the zlib module
+ * 		  index = hash & ((1 << bits) - 1)
+ * 		  # Use the nth bit, zero-indexed, to determine if we add or subtract
+ * 		  # one from the index.
+ * 		  sign = (((hash & (1 << bits)) >> bits) << 1) - 1
+ * 		  feature_vector[index] += sign
+ *
+ * Same scheme, built for throughput since it is the front end of text vectorization:
+ *
+ * - tokens are hashed in place out of the char or UTF-8 byte buffer with MurmurHash3,
+ * 		no split(), no per token String / byte[] / Checksum
+ * - both entry points hash the UTF-8 bytes of a token, so a String and the Text
+ * 		holding the same line produce the same features
+ * - namespaces seed the hash, so "f:red" and "g:red" land in different slots
+ * - n-grams chain the hashes of up to n consecutive tokens
+ * - signed hashing can be turned off for count style features
+ * - features go into a reusable SparseFeatureAccumulator
+ *
+ * Tokens are runs of non-whitespace (space, tab, CR, LF).
+ *
  * @author josh
  *
  */
 public class HashKernel {
 
 	private int bits = 8; // just a default
-	
+	private int mask;
+	private int ngrams = 1;
+	private boolean signed = true;
+
+	// hashes of the previous ngrams - 1 tokens, most recent first
+	private int[] history;
+	private int historySize = 0;
+
+	// UTF-8 encoding of the current token when hashing from chars
+	private byte[] tokenBytes = new byte[ 64 ];
+
+	// only used by hash(String, Vector)
+	private SparseFeatureAccumulator accumulator = null;
+
 	public HashKernel( int bits ) {
-		
-		this.bits = bits;
-		
+
+		this( bits, 1, true );
+
 	}
-	
-	
-	/*
-
-		feature_vector = [0 for _ in xrange(1 << bits)]
-		for word in input_text.split():
-		  hash = crc32(word)  # CRC-32 hash function, available in the zlib module
-		  index = hash & ((1 << bits) - 1)
-		  # Use the nth bit, zero-indexed, to determine if we add or subtract
-		  # one from the index.
-		  sign = (((hash & (1 << bits)) >> bits) << 1) - 1
-		  feature_vector[index] += sign
-
-	 * 
+
+	/**
+	 * @param bits feature space is 2^bits, at most 30 so the sign bit is still a hash bit
+	 * @param ngrams emit every 1 .. ngrams run of consecutive tokens
+	 * @param signed +1 / -1 per feature from the hash, otherwise always +1
 	 */
+	public HashKernel( int bits, int ngrams, boolean signed ) {
+
+		if (bits < 1 || bits > 30) {
+			throw new IllegalArgumentException( "bits must be in 1 .. 30, got " + bits );
+		}
+
+		if (ngrams < 1) {
+			throw new IllegalArgumentException( "ngrams must be >= 1, got " + ngrams );
+		}
+
+		this.bits = bits;
+		this.mask = (1 << bits) - 1;
+		this.ngrams = ngrams;
+		this.signed = signed;
+		this.history = new int[ Math.max( 1, ngrams - 1 ) ];
 
-	private static long getCRC32(String word) {
-		
-        byte bytes[] = word.getBytes();
-        
-        Checksum checksum = new CRC32();
-       
-        /*
-         * To compute the CRC32 checksum for byte array, use
-         *
-         * void update(bytes[] b, int start, int length)
-         * method of CRC32 class.
-         */
-         
-        checksum.update(bytes,0,bytes.length);
-       
-        /*
-         * Get the generated checksum using
-         * getValue method of CRC32 class.
-         */
-        long lngChecksum = checksum.getValue();
-       
-        //System.out.println("CRC32 checksum for byte array is :" + lngChecksum);		
-		
-        return lngChecksum;
-        
 	}
-	
+
+	public int getFeatureSpaceSize() {
+		return 1 << this.bits;
+	}
+
 	public Vector createCorrectlySizedVector() {
 
 		int vector_size = 1 << this.bits;
@@ -75,49 +91,207 @@ public class HashKernel {
 		Vector v = new RandomAccessSparseVector(vector_size);
 
 		return v;
-		
+
+	}
+
+	public SparseFeatureAccumulator createAccumulator() {
+		return new SparseFeatureAccumulator( 1 << this.bits );
+	}
+
+	/**
+	 * Hash seed for a namespace, 0 is the default (no namespace) seed
+	 *
+	 */
+	public static int namespaceSeed( String namespace ) {
+
+		if (null == namespace || namespace.length() == 0) {
+			return 0;
+		}
+
+		Text bytes = new Text( namespace );
+		return MurmurHash3.hash32( bytes.getBytes(), 0, bytes.getLength(), 0 );
+
 	}
-	
-	
+
+	/**
+	 * Replaces the contents of v with the hashed features of text
+	 *
+	 */
 	public void hash(String text, Vector v) {
-		
-
-		//int bits = 13;
-		int vector_size = 1 << bits;
-
-		v.assign(0);
-		
-		
-		System.out.println( "vec size: " + vector_size );
-		
-        String[] parts = text.split(" ");
-
-        for ( int x = 0; x < parts.length; x++ ) { 
-        	
-        	// 1.	CRC32 hash the word
-        	
-        	long hash = getCRC32(parts[x]); // crc something something here
-        	
-        	// 2.	create the index number
-        	// index = hash & ((1 << bits) - 1)
-        	int index = (int) (hash & ((1 << bits) - 1));
-        	
-        	//  # Use the nth bit, zero-indexed, to determine if we add or subtract
-        	//  # one from the index.
-        	//  sign = (((hash & (1 << bits)) >> bits) << 1) - 1        	
-  		  	long sign = (((hash & (1 << bits)) >> bits) << 1) - 1;
-  		  	
-  		  	System.out.println( "> " + index + " : " + sign );
-  		  	
-  			v.set(index, v.get(index) + sign );
-        	
-        	
-        }	
-        
-        
-		
+
+		if (null == this.accumulator) {
+			this.accumulator = createAccumulator();
+		}
+
+		this.accumulator.clear();
+		hash( text, 0, text.length(), 0, 1.0, this.accumulator );
+		this.accumulator.writeTo( v );
+
 	}
-	
-	
-	
+
+	/**
+	 * Adds the features of text[start, end) to acc, without clearing it first so
+	 * several fields / namespaces can go into one record
+	 *
+	 * @param seed from namespaceSeed()
+	 * @param weight added per feature (times the sign)
+	 */
+	public void hash(CharSequence text, int start, int end, int seed, double weight, SparseFeatureAccumulator acc) {
+
+		this.historySize = 0;
+		int i = start;
+
+		while (i < end) {
+
+			while (i < end && isSpace( text.charAt( i ) )) {
+				i++;
+			}
+
+			if (i >= end) {
+				break;
+			}
+
+			// encode the token into UTF-8 as we scan it
+			int len = 0;
+
+			while (i < end && !isSpace( text.charAt( i ) )) {
+
+				if (len + 4 > this.tokenBytes.length) {
+					byte[] bigger = new byte[ this.tokenBytes.length * 2 ];
+					System.arraycopy( this.tokenBytes, 0, bigger, 0, len );
+					this.tokenBytes = bigger;
+				}
+
+				char c = text.charAt( i++ );
+
+				if (c < 0x80) {
+
+					this.tokenBytes[ len++ ] = (byte) c;
+
+				} else if (c < 0x800) {
+
+					this.tokenBytes[ len++ ] = (byte) (0xc0 | (c >> 6));
+					this.tokenBytes[ len++ ] = (byte) (0x80 | (c & 0x3f));
+
+				} else if (Character.isHighSurrogate( c ) && i < end && Character.isLowSurrogate( text.charAt( i ) )) {
+
+					int cp = Character.toCodePoint( c, text.charAt( i++ ) );
+					this.tokenBytes[ len++ ] = (byte) (0xf0 | (cp >> 18));
+					this.tokenBytes[ len++ ] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+					this.tokenBytes[ len++ ] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+					this.tokenBytes[ len++ ] = (byte) (0x80 | (cp & 0x3f));
+
+				} else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+
+					// unpaired surrogate, same replacement as String.getBytes()
+					this.tokenBytes[ len++ ] = (byte) '?';
+
+				} else {
+
+					this.tokenBytes[ len++ ] = (byte) (0xe0 | (c >> 12));
+					this.tokenBytes[ len++ ] = (byte) (0x80 | ((c >> 6) & 0x3f));
+					this.tokenBytes[ len++ ] = (byte) (0x80 | (c & 0x3f));
+
+				}
+
+			}
+
+			addToken( MurmurHash3.hash32( this.tokenBytes, 0, len, seed ), weight, acc );
+
+		}
+
+	}
+
+	/**
+	 * Adds the features of the UTF-8 bytes [start, end) to acc, straight out of a
+	 * Text / input buffer
+	 *
+	 */
+	public void hash(byte[] utf8, int start, int end, int seed, double weight, SparseFeatureAccumulator acc) {
+
+		this.historySize = 0;
+		int i = start;
+
+		while (i < end) {
+
+			while (i < end && isSpace( utf8[ i ] )) {
+				i++;
+			}
+
+			if (i >= end) {
+				break;
+			}
+
+			int tokenStart = i;
+			while (i < end && !isSpace( utf8[ i ] )) {
+				i++;
+			}
+
+			addToken( MurmurHash3.hash32( utf8, tokenStart, i - tokenStart, seed ), weight, acc );
+
+		}
+
+	}
+
+	public void hash(Text text, int seed, double weight, SparseFeatureAccumulator acc) {
+
+		hash( text.getBytes(), 0, text.getLength(), seed, weight, acc );
+
+	}
+
+	/**
+	 * Emits the unigram for this token and every n-gram ending at it
+	 *
+	 */
+	private void addToken(int tokenHash, double weight, SparseFeatureAccumulator acc) {
+
+		addFeature( tokenHash, weight, acc );
+
+		if (this.ngrams > 1) {
+
+			int gram = tokenHash;
+
+			for (int n = 0; n < this.historySize; n++) {
+
+				gram = MurmurHash3.combine( this.history[ n ], gram );
+				addFeature( gram, weight, acc );
+
+			}
+
+			// shift the history, dropping the oldest token
+			int keep = Math.min( this.historySize, this.history.length - 1 );
+			System.arraycopy( this.history, 0, this.history, 1, keep );
+			this.history[ 0 ] = tokenHash;
+			this.historySize = keep + 1;
+
+		}
+
+	}
+
+	private void addFeature(int hash, double weight, SparseFeatureAccumulator acc) {
+
+		int index = hash & this.mask;
+
+		if (this.signed) {
+
+			// Use the nth bit, zero-indexed, to determine if we add or subtract
+			int sign = (((hash >>> this.bits) & 1) << 1) - 1;
+			acc.add( index, sign * weight );
+
+		} else {
+
+			acc.add( index, weight );
+
+		}
+
+	}
+
+	private static boolean isSpace(char c) {
+		return ' ' == c || '\t' == c || '\n' == c || '\r' == c;
+	}
+
+	private static boolean isSpace(byte b) {
+		return ' ' == b || '\t' == b || '\n' == b || '\r' == b;
+	}
+
 }
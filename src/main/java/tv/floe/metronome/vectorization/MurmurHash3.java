@@ -0,0 +1,96 @@
+package tv.floe.metronome.vectorization;
+
+/**
+ * MurmurHash3 x86_32 over a byte range, no allocation
+ *
+ * Austin Appleby's public domain reference:
+ *
+ * 	https://github.com/aappleby/smhasher/blob/master/src/MurmurHash3.cpp
+ *
+ * - fast, well mixed and non-cryptographic, which is all feature hashing needs
+ * - output matches the reference implementation for the same bytes and seed
+ *
+ * @author josh
+ *
+ */
+public final class MurmurHash3 {
+
+	private static final int C1 = 0xcc9e2d51;
+	private static final int C2 = 0x1b873593;
+
+	private MurmurHash3() {
+	}
+
+	public static int hash32(byte[] data, int offset, int length, int seed) {
+
+		int h1 = seed;
+		int roundedEnd = offset + (length & 0xfffffffc);
+
+		for (int i = offset; i < roundedEnd; i += 4) {
+
+			// little endian load
+			int k1 = (data[ i ] & 0xff) | ((data[ i + 1 ] & 0xff) << 8) | ((data[ i + 2 ] & 0xff) << 16) | (data[ i + 3 ] << 24);
+
+			h1 ^= mixK1( k1 );
+			h1 = Integer.rotateLeft( h1, 13 );
+			h1 = h1 * 5 + 0xe6546b64;
+
+		}
+
+		int k1 = 0;
+
+		switch (length & 0x03) {
+			case 3:
+				k1 = (data[ roundedEnd + 2 ] & 0xff) << 16;
+				// fall through
+			case 2:
+				k1 |= (data[ roundedEnd + 1 ] & 0xff) << 8;
+				// fall through
+			case 1:
+				k1 |= (data[ roundedEnd ] & 0xff);
+				h1 ^= mixK1( k1 );
+		}
+
+		h1 ^= length;
+
+		return fmix32( h1 );
+
+	}
+
+	/**
+	 * Combines two hashes into a new well mixed one, used to chain token hashes into n-grams
+	 *
+	 */
+	public static int combine(int h1, int h2) {
+
+		int h = h1 ^ mixK1( h2 );
+		h = Integer.rotateLeft( h, 13 );
+		h = h * 5 + 0xe6546b64;
+
+		return fmix32( h ^ 8 );
+
+	}
+
+	private static int mixK1(int k1) {
+
+		k1 *= C1;
+		k1 = Integer.rotateLeft( k1, 15 );
+		k1 *= C2;
+
+		return k1;
+
+	}
+
+	public static int fmix32(int h) {
+
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+
+		return h;
+
+	}
+
+}
@@ -0,0 +1,214 @@
+package tv.floe.metronome.vectorization;
+
+import java.util.Iterator;
+
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.Vector.Element;
+
+/**
+ * Reusable feature accumulator: an open addressing table of (feature index, weight)
+ * plus the order the slots were touched in since the last clear()
+ *
+ * Hashing a document is lots of small += into a large, mostly empty space. Doing that
+ * straight into a RandomAccessSparseVector costs a boxed hash map probe per token, and
+ * clearing with assign(0) walks the whole 2^bits space. Here an add is a linear probe
+ * into primitive arrays, and clear() and writeTo() only visit the touched slots.
+ *
+ * - memory follows the number of distinct features in a record, not the feature space:
+ * 		a 2^30 space costs the same as a 2^10 one
+ * - the table doubles when it gets half full and is kept across clear(), so it settles
+ * 		at the size of the largest record seen
+ *
+ * @author josh
+ *
+ */
+public class SparseFeatureAccumulator {
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	// feature space, indexes are in [0, size)
+	private final int size;
+
+	// keys[slot] is the feature index + 1, 0 = empty
+	private int[] keys;
+	private double[] weights;
+	private int mask;
+
+	// slots in the order they were first touched
+	private int[] touched;
+	private int numTouched = 0;
+
+	// writeTo()'s list of v's old non-zeros, grown to the largest count seen so far
+	private int[] oldScratch = new int[ 0 ];
+
+	public SparseFeatureAccumulator(int size) {
+
+		this.size = size;
+		this.allocate( INITIAL_CAPACITY );
+
+	}
+
+	private void allocate(int capacity) {
+
+		this.keys = new int[ capacity ];
+		this.weights = new double[ capacity ];
+		this.touched = new int[ capacity / 2 ];
+		this.mask = capacity - 1;
+
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	private static int mix(int index) {
+
+		// spread the hashed indexes' low bits, they are already random but often dense
+		int h = index * 0x9e3779b9;
+		return h ^ (h >>> 16);
+
+	}
+
+	/**
+	 * @return the slot holding index, or the empty slot it would go in
+	 */
+	private int slotOf(int index) {
+
+		int key = index + 1;
+		int slot = mix( index ) & this.mask;
+
+		while (0 != this.keys[ slot ] && key != this.keys[ slot ]) {
+			slot = (slot + 1) & this.mask;
+		}
+
+		return slot;
+
+	}
+
+	public void add(int index, double delta) {
+
+		if (index < 0 || index >= this.size) {
+			throw new IndexOutOfBoundsException( "Feature " + index + " outside of [0, " + this.size + ")" );
+		}
+
+		int slot = this.slotOf( index );
+
+		if (0 == this.keys[ slot ]) {
+
+			if (this.numTouched == this.touched.length) {
+				this.grow();
+				slot = this.slotOf( index );
+			}
+
+			this.keys[ slot ] = index + 1;
+			this.touched[ this.numTouched++ ] = slot;
+
+		}
+
+		this.weights[ slot ] += delta;
+
+	}
+
+	/**
+	 * Doubles the table, re-inserting the touched slots in their original order
+	 *
+	 */
+	private void grow() {
+
+		int[] oldKeys = this.keys;
+		double[] oldWeights = this.weights;
+		int[] oldTouched = this.touched;
+
+		this.allocate( oldKeys.length * 2 );
+
+		for (int i = 0; i < this.numTouched; i++) {
+
+			int from = oldTouched[ i ];
+			int slot = this.slotOf( oldKeys[ from ] - 1 );
+
+			this.keys[ slot ] = oldKeys[ from ];
+			this.weights[ slot ] = oldWeights[ from ];
+			this.touched[ i ] = slot;
+
+		}
+
+	}
+
+	public double get(int index) {
+
+		int slot = this.slotOf( index );
+		return (0 == this.keys[ slot ]) ? 0.0 : this.weights[ slot ];
+
+	}
+
+	/**
+	 * Number of slots touched since the last clear, some may have cancelled out to 0
+	 *
+	 */
+	public int numTouched() {
+		return this.numTouched;
+	}
+
+	/**
+	 * The feature index touched i-th since the last clear
+	 *
+	 */
+	public int touchedIndex(int i) {
+		return this.keys[ this.touched[ i ] ] - 1;
+	}
+
+	public void clear() {
+
+		for (int i = 0; i < this.numTouched; i++) {
+
+			int slot = this.touched[ i ];
+			this.keys[ slot ] = 0;
+			this.weights[ slot ] = 0.0;
+
+		}
+
+		this.numTouched = 0;
+
+	}
+
+	/**
+	 * Replaces the contents of v with the accumulated features
+	 *
+	 * - v's old non-zeros are cleared by walking them, not the whole vector
+	 *
+	 */
+	public void writeTo(Vector v) {
+
+		if (v.getNumNondefaultElements() > 0) {
+
+			// collect first, zeroing a sparse vector while iterating it isn't safe
+			if (this.oldScratch.length < v.getNumNondefaultElements()) {
+				this.oldScratch = new int[ v.getNumNondefaultElements() ];
+			}
+
+			int[] old = this.oldScratch;
+			int n = 0;
+
+			Iterator<Element> it = v.iterateNonZero();
+			while (it.hasNext() && n < old.length) {
+				old[ n++ ] = it.next().index();
+			}
+
+			for (int i = 0; i < n; i++) {
+				v.setQuick( old[ i ], 0.0 );
+			}
+
+		}
+
+		for (int i = 0; i < this.numTouched; i++) {
+
+			int slot = this.touched[ i ];
+			if (0.0 != this.weights[ slot ]) {
+				v.setQuick( this.keys[ slot ] - 1, this.weights[ slot ] );
+			}
+
+		}
+
+	}
+
+}
@@ -2,17 +2,12 @@ package tv.floe.metronome.vectorization.tools.mr;
 
 import java.io.IOException;
 import java.util.Iterator;
-import java.util.Set;
-import java.util.StringTokenizer;
-import java.util.TreeSet;
 
-import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
-import org.apache.hadoop.io.Writable;
-import org.apache.hadoop.io.WritableComparable;
 import org.apache.hadoop.mapred.FileInputFormat;
 import org.apache.hadoop.mapred.FileOutputFormat;
 import org.apache.hadoop.mapred.JobClient;
@@ -22,149 +17,344 @@ import org.apache.hadoop.mapred.Mapper;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.Reducer;
 import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.SequenceFileOutputFormat;
 import org.apache.hadoop.mapred.TextInputFormat;
-import org.apache.hadoop.mapred.TextOutputFormat;
 import org.apache.hadoop.util.GenericOptionsParser;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.Vector;
+
+import tv.floe.metronome.io.records.MetronomeRecordFactory;
+import tv.floe.metronome.io.records.RCV1RecordFactory;
+import tv.floe.metronome.io.records.RecordFactory;
+import tv.floe.metronome.io.records.VectorizedRecordWritable;
+import tv.floe.metronome.io.records.libsvmRecordFactory;
+import tv.floe.metronome.vectorization.HashKernel;
+import tv.floe.metronome.vectorization.SparseFeatureAccumulator;
 
 /**
- * Simple MapReduce job to convert a directory of documents into 
- * a libSVM format vectorized dataset for use with Metronome
- * 
- * Reducer in this case is only really used for grouping records into 
- * a particular file size
- * 
+ * MapReduce job to vectorize a directory of text records once, in parallel, into
+ * the binary vectorized format (SequenceFile of NullWritable -> VectorizedRecordWritable)
+ * so training runs don't re-parse / re-hash the text on every pass of every job
+ *
+ * 1. map: vectorize each line, either with the HashKernel (raw documents) or with one
+ * of the RecordFactory formats, and deal it round robin to one of N partitions
+ *
+ * 2. reduce: one reducer per partition, each writes one output file
+ *
+ * N is the number of IterativeReduce workers the data is meant for, so every worker
+ * gets one pre-vectorized file and the files differ by at most one record per map task
+ *
+ * Configuration:
+ *
+ * 		tv.floe.metronome.vectorization.workers				number of output files (default 4)
+ * 		tv.floe.metronome.vectorization.format				hashkernel | metronome | libsvm | rcv1 (default hashkernel)
+ * 		tv.floe.metronome.vectorization.schema				"i:N | o:M" for the metronome format
+ * 		tv.floe.metronome.vectorization.featurevectorsize	input size for the libsvm format
+ * 		tv.floe.metronome.vectorization.hashkernel.bits		feature space is 2^bits (default 18)
+ * 		tv.floe.metronome.vectorization.hashkernel.ngrams	(default 1)
+ * 		tv.floe.metronome.vectorization.hashkernel.signed	(default true)
+ *
+ * The hashkernel format takes "label<tab>document text" lines, the label is written
+ * into output[0] like the other single label factories do
+ *
+ * The POLR and linear regression workers train on the output directly with
+ * tv.floe.metronome.input.format=vectorized (see VectorizedSplitReader), the model's
+ * FeatureVectorSize has to cover the vectorized feature space
+ *
  * TODO:
- * 
- * - copy MAHOUT-833's grouped document input to process a whole document 
+ *
+ * - copy MAHOUT-833's grouped document input to process a whole document
  * per record w the whole record reader
- * 
- * - configuration parameters
- * 		-	number of records per output file (how large of input files do we want to for the ML job?)
- * 		-	
- * 
+ *
  * @author josh
  *
  */
 public class DocumentVectorizationJob {
 
-	
-	
-	  public static void main(String[] args) throws IOException {
-	    JobConf conf = new JobConf(DocumentVectorizationJob.class);
-	    
-	    Configuration conf_alt = new Configuration();
-	    String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
-	    
-	   // System.out.println();
-	    
-	    
-	        if (otherArgs.length != 2) {
-	          System.err.println("Usage: DocumentVectorizationJob <in> <out>");
-	          System.exit(2);
-	        } else {
-	        	System.out.println("Conf good!");
-	        }
-	    
-	    conf.setJobName("DocumentVectorizationJob");
-
-	    conf.setMapperClass(IdentityMapper.class);
-	    conf.setReducerClass(IdentityReducer.class);
-	    
-	    conf.setMapOutputKeyClass(Text.class);
-	      conf.setMapOutputValueClass(Text.class);
-
-	      conf.setOutputKeyClass(NullWritable.class);
-	      conf.setOutputValueClass(Text.class);
-
-	      
-	      conf.setInputFormat(TextInputFormat.class);
-	      conf.setOutputFormat(TextOutputFormat.class);	      
-
-	    if (otherArgs.length < 2) {
-	      System.out.println("ERROR: Wrong number of parameters");
-	      System.out.println("trivial <input_path> <output_path>");
-	      System.exit(1);
-	    }
-
-	    
-	    //conf.setInputPath(new Path(args[0]));
-	    //conf.setOutputPath(new Path(args[1]));
-	    
-	    FileInputFormat.setInputPaths(conf, new Path(otherArgs[0]));
-	      FileOutputFormat.setOutputPath(conf, new Path(otherArgs[1]));	    
-
-	    JobClient.runJob(conf);
-	  }
-
-	  
-	  
-	  
-	  
-	  
-	  /**
-	   * 1. Take a complete file as the K/V pair per map call
-	   * 
-	   * 2. convert document into libSVM output record
-	   * 
-	   * 
-	   * 
-	   * @author josh
-	   *
-	   */
-	  public static class IdentityMapper extends MapReduceBase implements Mapper<LongWritable, Text, Text, Text> {
-		  Text w = new Text();
-		  Text v = new Text("1");
-		  
-		  long configure_start_time = 0;
-		  long close_end_time = 0;
-		  
-		  long rec_count = 0;
-		  
-		  public void configure( JobConf c ) {
-			  
-			  this.configure_start_time = System.currentTimeMillis();
-			  
-		  }
-		  
-		  public void close() {
-			  
-			  
-			  this.close_end_time = System.currentTimeMillis();
-			  
-			  long total_time = this.close_end_time - this.configure_start_time;
-			  
-			  System.out.println( ">>>>> Total Map Task Time: " + total_time );
-			  
-		  }
-		  
-	      public void map(LongWritable key, Text val, OutputCollector<Text, Text> output, Reporter reporter) throws IOException {
-	    	  //k.set(key.toString());
-/*	    	  StringTokenizer itr = new StringTokenizer(val.toString());
-	          //output.collect(k, val);
-	    	  while (itr.hasMoreTokens()) {
-	    		   w.set(itr.nextToken());
-*/	    		   
-	    	  long key_id = (rec_count % 4);
-	    	  
-	    	  w.set(Long.toString(key_id));
-	    	    
-	    	  output.collect(w, val); 	  
-	    	  
-	        }
-	  }
-
-	  public static class IdentityReducer extends MapReduceBase implements Reducer<Text, Text, NullWritable, Text> {
-		  public void reduce(Text key, Iterator<Text> values,
-			      OutputCollector<NullWritable, Text> output, Reporter reporter) throws IOException {
-			    //Set<String> attackers = new TreeSet<String>();
-			  NullWritable nw = NullWritable.get();
-			  
-			    while (values.hasNext()) {
-			      //String valStr = values.next().toString();
-			      //attackers.add(valStr);
-			    	output.collect(nw, new Text(values.next().toString()));
-			    }
-			    
-			  }
+	public static final String CONF_WORKERS = "tv.floe.metronome.vectorization.workers";
+	public static final String CONF_FORMAT = "tv.floe.metronome.vectorization.format";
+	public static final String CONF_SCHEMA = "tv.floe.metronome.vectorization.schema";
+	public static final String CONF_FEATURE_VECTOR_SIZE = "tv.floe.metronome.vectorization.featurevectorsize";
+	public static final String CONF_HASH_BITS = "tv.floe.metronome.vectorization.hashkernel.bits";
+	public static final String CONF_HASH_NGRAMS = "tv.floe.metronome.vectorization.hashkernel.ngrams";
+	public static final String CONF_HASH_SIGNED = "tv.floe.metronome.vectorization.hashkernel.signed";
+
+	public static final String FORMAT_HASHKERNEL = "hashkernel";
+	public static final String FORMAT_METRONOME = "metronome";
+	public static final String FORMAT_LIBSVM = "libsvm";
+	public static final String FORMAT_RCV1 = "rcv1";
+
+	public static enum Counters { RECORDS_VECTORIZED, RECORDS_SKIPPED }
+
+	public static void main(String[] args) throws IOException {
+
+		JobConf conf = new JobConf(DocumentVectorizationJob.class);
+
+		String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+
+		if (otherArgs.length != 2) {
+			System.err.println("Usage: DocumentVectorizationJob [-D" + CONF_WORKERS + "=N ...] <in> <out>");
+			System.exit(2);
+		}
+
+		configureJob( conf, new Path(otherArgs[0]), new Path(otherArgs[1]) );
+
+		JobClient.runJob(conf);
+
+	}
+
+	public static void configureJob(JobConf conf, Path input, Path output) {
+
+		conf.setJobName("DocumentVectorizationJob");
+
+		conf.setMapperClass(VectorizingMapper.class);
+		conf.setReducerClass(PartitionReducer.class);
+
+		// one reducer (and one output file) per training worker
+		conf.setNumReduceTasks( getNumWorkers( conf ) );
+
+		conf.setMapOutputKeyClass(IntWritable.class);
+		conf.setMapOutputValueClass(VectorizedRecordWritable.class);
+
+		conf.setOutputKeyClass(NullWritable.class);
+		conf.setOutputValueClass(VectorizedRecordWritable.class);
+
+		conf.setInputFormat(TextInputFormat.class);
+		conf.setOutputFormat(SequenceFileOutputFormat.class);
+
+		FileInputFormat.setInputPaths(conf, input);
+		FileOutputFormat.setOutputPath(conf, output);
+
+	}
+
+	public static int getNumWorkers(JobConf conf) {
+
+		int workers = conf.getInt( CONF_WORKERS, 4 );
+
+		if (workers < 1) {
+			throw new IllegalArgumentException( CONF_WORKERS + " must be >= 1, got " + workers );
+		}
+
+		return workers;
+
+	}
+
+	/**
+	 * Builds the record factory for the non hashkernel formats
+	 *
+	 */
+	public static RecordFactory createRecordFactory(JobConf conf) {
+
+		String format = conf.get( CONF_FORMAT, FORMAT_HASHKERNEL );
+
+		if (FORMAT_METRONOME.equals( format )) {
+
+			String schema = conf.get( CONF_SCHEMA );
+			if (null == schema) {
+				throw new IllegalArgumentException( CONF_SCHEMA + " is required for the metronome format" );
 			}
-}
\ No newline at end of file
+			return new MetronomeRecordFactory( schema );
+
+		} else if (FORMAT_LIBSVM.equals( format )) {
+
+			return new libsvmRecordFactory( conf.getInt( CONF_FEATURE_VECTOR_SIZE, 10000 ) );
+
+		} else if (FORMAT_RCV1.equals( format )) {
+
+			return new RCV1RecordFactory();
+
+		} else if (FORMAT_HASHKERNEL.equals( format )) {
+
+			return null;
+
+		}
+
+		throw new IllegalArgumentException( "Unknown " + CONF_FORMAT + ": " + format );
+
+	}
+
+	/**
+	 * 1. vectorize the line (HashKernel or RecordFactory)
+	 *
+	 * 2. key it by partition = (task partition + record count) % workers, so each map
+	 * spreads its records evenly and different maps start on different partitions
+	 *
+	 * The output vectors are reused across map() calls, collect() serializes right away.
+	 *
+	 * @author josh
+	 *
+	 */
+	public static class VectorizingMapper extends MapReduceBase implements Mapper<LongWritable, Text, IntWritable, VectorizedRecordWritable> {
+
+		private IntWritable partition = new IntWritable();
+		private VectorizedRecordWritable record = new VectorizedRecordWritable();
+
+		private int numWorkers = 1;
+		private long rec_count = 0;
+
+		private HashKernel hashKernel = null;
+		private SparseFeatureAccumulator accumulator = null;
+		private RecordFactory recordFactory = null;
+
+		private Vector inputVec = null;
+		private Vector outputVec = null;
+
+		// clearNonZeros()'s list of old non-zeros, grown to the largest count seen so far
+		private int[] oldScratch = new int[ 0 ];
+
+		long configure_start_time = 0;
+
+		@Override
+		public void configure( JobConf c ) {
+
+			this.configure_start_time = System.currentTimeMillis();
+
+			this.numWorkers = getNumWorkers( c );
+
+			// stagger where each map task starts dealing
+			this.rec_count = c.getInt( "mapred.task.partition", 0 );
+
+			this.recordFactory = createRecordFactory( c );
+
+			if (null == this.recordFactory) {
+
+				this.hashKernel = new HashKernel(
+						c.getInt( CONF_HASH_BITS, 18 ),
+						c.getInt( CONF_HASH_NGRAMS, 1 ),
+						c.getBoolean( CONF_HASH_SIGNED, true ) );
+				this.accumulator = this.hashKernel.createAccumulator();
+				this.inputVec = this.hashKernel.createCorrectlySizedVector();
+				this.outputVec = new RandomAccessSparseVector( 1 );
+
+			} else {
+
+				this.inputVec = new RandomAccessSparseVector( this.recordFactory.getInputVectorSize() );
+				this.outputVec = new RandomAccessSparseVector( this.recordFactory.getOutputVectorSize() );
+
+			}
+
+			this.record.set( this.inputVec, this.outputVec );
+
+		}
+
+		@Override
+		public void close() {
+
+			long total_time = System.currentTimeMillis() - this.configure_start_time;
+
+			System.out.println( ">>>>> Total Map Task Time: " + total_time );
+
+		}
+
+		@Override
+		public void map(LongWritable key, Text val, OutputCollector<IntWritable, VectorizedRecordWritable> output, Reporter reporter) throws IOException {
+
+			try {
+
+				if (null == this.hashKernel) {
+
+					clearNonZeros( this.inputVec );
+					clearNonZeros( this.outputVec );
+					this.recordFactory.vectorizeLine( val.toString(), this.inputVec, this.outputVec );
+
+				} else {
+
+					hashDocument( val );
+
+				}
+
+			} catch (Exception e) {
+
+				reporter.incrCounter( Counters.RECORDS_SKIPPED, 1 );
+				return;
+
+			}
+
+			this.partition.set( (int) (this.rec_count % this.numWorkers) );
+			this.rec_count++;
+
+			output.collect( this.partition, this.record );
+			reporter.incrCounter( Counters.RECORDS_VECTORIZED, 1 );
+
+		}
+
+		/**
+		 * Zeroes the previous record's entries, assign(0) would walk the whole feature space
+		 *
+		 */
+		private void clearNonZeros(Vector v) {
+
+			int n = v.getNumNondefaultElements();
+			if (0 == n) {
+				return;
+			}
+
+			if (this.oldScratch.length < n) {
+				this.oldScratch = new int[ n ];
+			}
+
+			int[] old = this.oldScratch;
+			int k = 0;
+
+			Iterator<Vector.Element> it = v.iterateNonZero();
+			while (it.hasNext() && k < n) {
+				old[ k++ ] = it.next().index();
+			}
+
+			for (int i = 0; i < k; i++) {
+				v.setQuick( old[ i ], 0.0 );
+			}
+
+		}
+
+		/**
+		 * "label<tab>text", hashed straight out of the Text's bytes
+		 *
+		 */
+		private void hashDocument(Text val) throws IOException {
+
+			byte[] bytes = val.getBytes();
+			int len = val.getLength();
+
+			int tab = 0;
+			while (tab < len && '\t' != bytes[ tab ]) {
+				tab++;
+			}
+
+			if (tab == len) {
+				throw new IllegalArgumentException( "Missing tab between label and text" );
+			}
+
+			double label = Double.parseDouble( new String( bytes, 0, tab, "UTF-8" ).trim() );
+
+			this.accumulator.clear();
+			this.hashKernel.hash( bytes, tab + 1, len, 0, 1.0, this.accumulator );
+			this.accumulator.writeTo( this.inputVec );
+
+			this.outputVec.setQuick( 0, label );
+
+		}
+
+	}
+
+	/**
+	 * Writes every record of its partition into its one output file, key dropped
+	 *
+	 */
+	public static class PartitionReducer extends MapReduceBase implements Reducer<IntWritable, VectorizedRecordWritable, NullWritable, VectorizedRecordWritable> {
+
+		@Override
+		public void reduce(IntWritable key, Iterator<VectorizedRecordWritable> values,
+				OutputCollector<NullWritable, VectorizedRecordWritable> output, Reporter reporter) throws IOException {
+
+			NullWritable nw = NullWritable.get();
+
+			while (values.hasNext()) {
+				output.collect( nw, values.next() );
+			}
+
+		}
+
+	}
+
+}
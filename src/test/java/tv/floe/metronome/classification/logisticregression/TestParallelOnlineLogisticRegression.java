@@ -0,0 +1,347 @@
+package tv.floe.metronome.classification.logisticregression;
+
+import static org.junit.Assert.*;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.mahout.classifier.sgd.L1;
+import org.apache.mahout.classifier.sgd.OnlineLogisticRegression;
+import org.apache.mahout.classifier.sgd.PriorFunction;
+import org.apache.mahout.classifier.sgd.UniformPrior;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.Vector;
+import org.junit.Test;
+
+import tv.floe.metronome.io.records.CompactVectorCache;
+
+public class TestParallelOnlineLogisticRegression {
+
+  private static int numCategories = 3;
+  private static int numFeatures = 8;
+
+  /**
+   * Leaves beta alone and adds up every generation it is asked to age, so a test can
+   * check that no step is regularized twice
+   */
+  private static class CountingPrior implements PriorFunction {
+
+    private double generations = 0;
+
+    @Override
+    public synchronized double age(double oldValue, double generations, double learningRate) {
+      this.generations += generations;
+      return oldValue;
+    }
+
+    @Override
+    public double logP(double betaIJ) {
+      return 0;
+    }
+
+    @Override
+    public void write(DataOutput out) {
+    }
+
+    @Override
+    public void readFields(DataInput in) {
+    }
+
+    synchronized double generations() {
+      return this.generations;
+    }
+
+  }
+
+  private static Vector record(int r) {
+    Vector v = new RandomAccessSparseVector(numFeatures);
+    v.set(0, 1.0); // bias
+    v.set(1 + (r % 5), 1.0 + (r % 3));
+    v.set(1 + ((r * 3) % 7), 0.5);
+    return v;
+  }
+
+  /**
+   * Without a prior the fused train() should walk the same path as Mahout's
+   * OnlineLogisticRegression
+   */
+  @Test
+  public void testMatchesMahoutWithoutPrior() {
+
+    ParallelOnlineLogisticRegression polr = new ParallelOnlineLogisticRegression(
+        numCategories, numFeatures, new UniformPrior()).lambda(0);
+    OnlineLogisticRegression olr = new OnlineLogisticRegression(numCategories,
+        numFeatures, new UniformPrior()).lambda(0);
+
+    for (int r = 0; r < 200; r++) {
+      int actual = r % numCategories;
+      polr.train(actual, record(r));
+      olr.train(actual, record(r));
+    }
+
+    for (int i = 0; i < numCategories - 1; i++) {
+      for (int j = 0; j < numFeatures; j++) {
+        assertEquals(olr.getBeta().get(i, j), polr.getBeta().get(i, j), 1e-9);
+      }
+    }
+
+  }
+
+  /**
+   * A feature that stops showing up should have every category pulled back by
+   * the prior once pending regularization is flushed
+   */
+  @Test
+  public void testPendingRegularizationAgesEveryCategory() {
+
+    ParallelOnlineLogisticRegression polr = new ParallelOnlineLogisticRegression(
+        numCategories, numFeatures, new L1()).lambda(0.1);
+
+    Vector early = new RandomAccessSparseVector(numFeatures);
+    early.set(7, 1.0);
+    polr.train(1, early);
+    polr.train(2, early);
+
+    assertTrue(0.0 != polr.getBeta().get(0, 7));
+    assertTrue(0.0 != polr.getBeta().get(1, 7));
+
+    Vector later = new RandomAccessSparseVector(numFeatures);
+    later.set(0, 1.0);
+    for (int r = 0; r < 2000; r++) {
+      polr.train(r % numCategories, later);
+    }
+
+    // feature 7 hasn't been touched, so nothing has been applied yet
+    assertTrue(0.0 != polr.getBeta().get(1, 7));
+
+    polr.applyPendingRegularization();
+
+    assertEquals(0.0, polr.getBeta().get(0, 7), 0.0);
+    assertEquals(0.0, polr.getBeta().get(1, 7), 0.0);
+
+  }
+
+  /**
+   * The cached path at consecutive steps is the same SGD as train(int, Vector)
+   */
+  @Test
+  public void testCachedTrainMatchesVectorTrain() {
+
+    ParallelOnlineLogisticRegression vectors = new ParallelOnlineLogisticRegression(
+        numCategories, numFeatures, new UniformPrior()).lambda(0);
+    ParallelOnlineLogisticRegression cached = new ParallelOnlineLogisticRegression(
+        numCategories, numFeatures, new UniformPrior()).lambda(0);
+
+    CompactVectorCache cache = new CompactVectorCache();
+    for (int r = 0; r < 200; r++) {
+      cache.add(record(r), r % numCategories);
+    }
+
+    ParallelOnlineLogisticRegression.TrainingScratch scratch = new ParallelOnlineLogisticRegression.TrainingScratch(
+        numCategories);
+
+    for (int r = 0; r < 200; r++) {
+      vectors.train(r % numCategories, record(r));
+      cached.train(cache, r, (int) cache.label(r), r, scratch);
+    }
+    cached.advanceSteps(200);
+
+    assertEquals(vectors.getStep(), cached.getStep());
+
+    for (int i = 0; i < numCategories - 1; i++) {
+      for (int j = 0; j < numFeatures; j++) {
+        assertEquals(vectors.getBeta().get(i, j), cached.getBeta().get(i, j), 1e-12);
+      }
+    }
+
+  }
+
+  /**
+   * Several threads on disjoint ranges, with and without striped locks, should
+   * still learn a separable problem
+   */
+  @Test
+  public void testParallelRangesLearn() throws Exception {
+
+    CompactVectorCache cache = separable(6000);
+
+    for (ReentrantLock[] stripes : new ReentrantLock[][] { null, newStripes(4) }) {
+
+      ParallelOnlineLogisticRegression polr = new ParallelOnlineLogisticRegression(
+          numCategories, numFeatures, new UniformPrior()).lambda(0);
+
+      trainInRanges(polr, cache, 4, stripes);
+
+      int correct = 0;
+      for (int r = 0; r < 300; r++) {
+        int label = r % numCategories;
+        Vector v = new RandomAccessSparseVector(numFeatures);
+        v.set(0, 1.0);
+        v.set(1 + label * 2, 1.0);
+        if (polr.classifyFull(v).maxValueIndex() == label) {
+          correct++;
+        }
+      }
+
+      assertEquals(300, correct);
+
+    }
+
+  }
+
+  /**
+   * Trains the cache on [threads] ranges at once, laid out the way POLRWorkerNode does
+   * it: the first rows % threads ranges get the extra row, and row i of range t runs
+   * at virtual step i * threads + t
+   */
+  private static void trainInRanges(final ParallelOnlineLogisticRegression polr,
+      final CompactVectorCache cache, final int threads, final ReentrantLock[] stripes)
+      throws InterruptedException {
+
+    Thread[] workers = new Thread[threads];
+
+    int perThread = cache.size() / threads;
+    int longer = cache.size() % threads;
+    int start = 0;
+
+    for (int t = 0; t < threads; t++) {
+
+      final int offset = t;
+      final int from = start;
+      final int to = start + perThread + ((t < longer) ? 1 : 0);
+      start = to;
+
+      workers[t] = new Thread() {
+        @Override
+        public void run() {
+          ParallelOnlineLogisticRegression.TrainingScratch scratch = new ParallelOnlineLogisticRegression.TrainingScratch(
+              numCategories);
+          for (int row = from; row < to; row++) {
+            int atStep = (row - from) * threads + offset;
+            if (null == stripes) {
+              polr.train(cache, row, (int) cache.label(row), atStep, scratch);
+            } else {
+              polr.trainLocked(cache, row, (int) cache.label(row), atStep, scratch, stripes);
+            }
+          }
+        }
+      };
+      workers[t].start();
+
+    }
+
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    polr.advanceSteps(cache.size());
+
+  }
+
+  private static CompactVectorCache separable(int rows) {
+
+    CompactVectorCache cache = new CompactVectorCache();
+    for (int r = 0; r < rows; r++) {
+      int label = r % numCategories;
+      Vector v = new RandomAccessSparseVector(numFeatures);
+      v.set(0, 1.0);
+      v.set(1 + label * 2, 1.0);
+      v.set(2 + ((r / 3) % 5), 0.5);
+      cache.add(v, label);
+    }
+    return cache;
+
+  }
+
+  /**
+   * Records trained out of step order (as the threads of a pass do) still age each
+   * feature exactly once per step: every feature, every category, getStep() generations
+   */
+  @Test
+  public void testOutOfOrderStepsAgeEachStepOnce() throws Exception {
+
+    CompactVectorCache cache = new CompactVectorCache();
+    for (int r = 0; r < 4; r++) {
+      cache.add(record(r), r % numCategories);
+    }
+
+    CountingPrior prior = new CountingPrior();
+    ParallelOnlineLogisticRegression polr = new ParallelOnlineLogisticRegression(
+        numCategories, numFeatures, prior).lambda(0.1);
+    ParallelOnlineLogisticRegression.TrainingScratch scratch = new ParallelOnlineLogisticRegression.TrainingScratch(
+        numCategories);
+
+    // every record has the bias feature, the later steps come first
+    int[] steps = { 3, 1, 2, 0 };
+    for (int r = 0; r < 4; r++) {
+      polr.train(cache, r, (int) cache.label(r), steps[r], scratch);
+    }
+    polr.advanceSteps(4);
+    polr.applyPendingRegularization();
+
+    assertEquals((numCategories - 1) * numFeatures * 4.0, prior.generations(), 0.0);
+
+    // and the same with the threads racing each other, through the striped locks so
+    // each record's catch-up is atomic; 4001 rows leaves one range a row longer
+    CompactVectorCache ranges = separable(4001);
+
+    CountingPrior threadedPrior = new CountingPrior();
+    ParallelOnlineLogisticRegression threaded = new ParallelOnlineLogisticRegression(
+        numCategories, numFeatures, threadedPrior).lambda(0.1);
+
+    trainInRanges(threaded, ranges, 4, newStripes(4));
+    threaded.applyPendingRegularization();
+
+    assertEquals(4001, threaded.getStep());
+    assertEquals((numCategories - 1) * numFeatures * 4001.0, threadedPrior.generations(), 0.0);
+
+  }
+
+  /**
+   * Hogwild with an L1 prior ends up where the striped lock path does: same
+   * predictions, and coefficients that differ only by the odd lost update
+   */
+  @Test
+  public void testHogwildWithL1MatchesStripedLocks() throws Exception {
+
+    CompactVectorCache cache = separable(6001);
+
+    ParallelOnlineLogisticRegression hogwild = new ParallelOnlineLogisticRegression(
+        numCategories, numFeatures, new L1()).lambda(1e-4);
+    ParallelOnlineLogisticRegression locked = new ParallelOnlineLogisticRegression(
+        numCategories, numFeatures, new L1()).lambda(1e-4);
+
+    trainInRanges(hogwild, cache, 4, null);
+    trainInRanges(locked, cache, 4, newStripes(4));
+
+    hogwild.applyPendingRegularization();
+    locked.applyPendingRegularization();
+
+    assertEquals(locked.getStep(), hogwild.getStep());
+
+    for (int i = 0; i < numCategories - 1; i++) {
+      for (int j = 0; j < numFeatures; j++) {
+        assertEquals(locked.getBeta().get(i, j), hogwild.getBeta().get(i, j), 0.25);
+      }
+    }
+
+    for (int r = 0; r < 300; r++) {
+      int label = r % numCategories;
+      Vector v = new RandomAccessSparseVector(numFeatures);
+      v.set(0, 1.0);
+      v.set(1 + label * 2, 1.0);
+      assertEquals(locked.classifyFull(v).maxValueIndex(), hogwild.classifyFull(v).maxValueIndex());
+      assertEquals(label, hogwild.classifyFull(v).maxValueIndex());
+    }
+
+  }
+
+  private static ReentrantLock[] newStripes(int n) {
+    ReentrantLock[] stripes = new ReentrantLock[n];
+    for (int x = 0; x < n; x++) {
+      stripes[x] = new ReentrantLock();
+    }
+    return stripes;
+  }
+
+}
@@ -0,0 +1,85 @@
+package tv.floe.metronome.classification.logisticregression.iterativereduce;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Properties;
+
+import org.apache.mahout.math.Matrix;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import tv.floe.metronome.io.records.DatasetConverter;
+import tv.floe.metronome.io.records.RCV1RecordFactory;
+import tv.floe.metronome.io.records.VectorizedSplitReader;
+import tv.floe.metronome.irunit.IRUnitDriver;
+
+/**
+ * Trains POLR on the same split twice through IRUnitDriver, once from the text and once
+ * from the DocumentVectorizationJob form of it (tv.floe.metronome.input.format=vectorized),
+ * and checks that both come out with the same beta
+ *
+ * @author josh
+ *
+ */
+public class TestVectorizedInputPOLR_IR {
+
+	private static final String PROFILE = "src/test/resources/run_profiles/unit_tests/polr/app.unit_test.polr.two_class.properties";
+
+	private static final String TEXT = "src/test/resources/data/polr/two_class_rcv1_200.txt";
+
+	private static final String VECTORIZED = "/tmp/TestVectorizedInputPOLR_IR/part-00000";
+
+	// the profile's FeatureVectorSize: bias + 4 features
+	private static final int FEATURES = 5;
+
+	@BeforeClass
+	public static void vectorize() throws Exception {
+
+		new File( VECTORIZED ).getParentFile().mkdirs();
+		DatasetConverter.convertTextToVectorized( TEXT, new RCV1RecordFactory(), FEATURES, VECTORIZED );
+
+	}
+
+	private static Matrix train(boolean vectorized) {
+
+		Properties p = new Properties();
+
+		if (vectorized) {
+			p.setProperty( "app.input.path", VECTORIZED );
+			p.setProperty( VectorizedSplitReader.CONF_INPUT_FORMAT, VectorizedSplitReader.FORMAT_VECTORIZED );
+		}
+
+		IRUnitDriver driver = new IRUnitDriver( PROFILE, p );
+		driver.Setup();
+		driver.SimulateRun();
+
+		return ((POLRMasterNode) driver.getMaster()).polr.getBeta();
+
+	}
+
+	@Test
+	public void testVectorizedMatchesText() {
+
+		Matrix text = train( false );
+		Matrix vectorized = train( true );
+
+		assertEquals( text.numRows(), vectorized.numRows() );
+		assertEquals( text.numCols(), vectorized.numCols() );
+
+		boolean learned = false;
+
+		for (int row = 0; row < text.numRows(); row++) {
+			for (int col = 0; col < text.numCols(); col++) {
+
+				assertEquals( text.get( row, col ), vectorized.get( row, col ), 1e-9 * Math.max( 1.0, Math.abs( text.get( row, col ) ) ) );
+				learned |= 0.0 != vectorized.get( row, col );
+
+			}
+		}
+
+		assertTrue( learned );
+
+	}
+
+}
@@ -0,0 +1,165 @@
+package tv.floe.metronome.classification.neuralnetworks.core;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.Vector;
+import org.junit.Test;
+
+import tv.floe.metronome.classification.neuralnetworks.conf.Config;
+import tv.floe.metronome.classification.neuralnetworks.core.neurons.Neuron;
+import tv.floe.metronome.classification.neuralnetworks.networks.MultiLayerPerceptronNetwork;
+
+public class TestSparseInputLayer {
+
+	private static final int INPUTS = 200;
+
+	private static NeuralNetwork buildNetwork() throws Exception {
+
+		Config c = new Config();
+		c.parse(null);
+		c.setConfValue("useBiasNeuron", "true");
+		c.setLayerNeuronCounts( new int[] { INPUTS, 6, 3 } );
+
+		MultiLayerPerceptronNetwork mlp = new MultiLayerPerceptronNetwork();
+		mlp.buildFromConf(c);
+
+		return mlp;
+
+	}
+
+	private static List<Vector> sparseRecords(Random r, int count) {
+
+		List<Vector> records = new ArrayList<Vector>();
+
+		for (int n = 0; n < count; n++) {
+
+			Vector v = new RandomAccessSparseVector( INPUTS );
+			for (int k = 0; k < 5; k++) {
+				v.set( r.nextInt( INPUTS ), r.nextDouble() );
+			}
+			records.add( v );
+
+		}
+
+		return records;
+
+	}
+
+	private static void assertSameWeights(NeuralNetwork a, NeuralNetwork b) {
+
+		for (int l = 1; l < a.getLayersCount(); l++) {
+
+			List<Neuron> na = a.getLayerByIndex( l ).getNeurons();
+			List<Neuron> nb = b.getLayerByIndex( l ).getNeurons();
+
+			for (int n = 0; n < na.size(); n++) {
+				for (int c = 0; c < na.get( n ).getInConnections().size(); c++) {
+					assertEquals( na.get( n ).getInConnections().get( c ).getWeight().getValue(), nb.get( n ).getInConnections().get( c ).getWeight().getValue(), 1e-12 );
+				}
+			}
+
+		}
+
+	}
+
+	private static void assertSameWeightChanges(NeuralNetwork a, NeuralNetwork b) {
+
+		List<Neuron> na = a.getLayerByIndex( 1 ).getNeurons();
+		List<Neuron> nb = b.getLayerByIndex( 1 ).getNeurons();
+
+		for (int n = 0; n < na.size(); n++) {
+			for (int c = 0; c < na.get( n ).getInConnections().size(); c++) {
+				assertEquals( na.get( n ).getInConnections().get( c ).getWeight().weightChange, nb.get( n ).getInConnections().get( c ).getWeight().weightChange, 1e-12 );
+			}
+		}
+
+	}
+
+	@Test
+	public void testSparseForwardMatchesDense() throws Exception {
+
+		NeuralNetwork mlp = buildNetwork();
+
+		for (Vector sparse : sparseRecords( new Random( 1 ), 20 )) {
+
+			mlp.setInputVector( new DenseVector( sparse ) );
+			mlp.calculate();
+			Vector dense = mlp.getOutputVector();
+
+			// sparse after dense, and sparse after sparse with different non-zeros
+			mlp.setInputVector( sparse );
+			mlp.calculate();
+			Vector fromSparse = mlp.getOutputVector();
+
+			assertNotNull( mlp.getActiveSparseInputLayer() );
+
+			for (int i = 0; i < dense.size(); i++) {
+				assertEquals( dense.get( i ), fromSparse.get( i ), 1e-12 );
+			}
+
+		}
+
+	}
+
+	@Test
+	public void testSparseTrainingAfterDenseClearsWeightChanges() throws Exception {
+
+		NeuralNetwork sparseNet = buildNetwork();
+		NeuralNetwork denseNet = NeuralNetwork.Deserialize( sparseNet.Serialize() );
+
+		Random labels = new Random( 5 );
+		int n = 0;
+
+		for (Vector record : sparseRecords( new Random( 4 ), 30 )) {
+
+			Vector label = new DenseVector( 3 );
+			label.set( labels.nextInt( 3 ), 1.0 );
+
+			// every third record goes through the dense path on both
+			sparseNet.train( label, (0 == n++ % 3) ? new DenseVector( record ) : record );
+			denseNet.train( label, new DenseVector( record ) );
+
+			assertSameWeightChanges( denseNet, sparseNet );
+
+		}
+
+		assertSameWeights( denseNet, sparseNet );
+
+	}
+
+	@Test
+	public void testSparseTrainingMatchesDense() throws Exception {
+
+		NeuralNetwork sparseNet = buildNetwork();
+		NeuralNetwork denseNet = NeuralNetwork.Deserialize( sparseNet.Serialize() );
+
+		List<Vector> records = sparseRecords( new Random( 2 ), 30 );
+		Random labels = new Random( 3 );
+
+		for (Vector record : records) {
+
+			Vector label = new DenseVector( 3 );
+			label.set( labels.nextInt( 3 ), 1.0 );
+
+			sparseNet.train( label, record );
+			denseNet.train( label, new DenseVector( record ) );
+
+			// skipped connections read a change of 0, not the one from an earlier record
+			assertSameWeightChanges( denseNet, sparseNet );
+
+		}
+
+		assertSameWeights( denseNet, sparseNet );
+
+		// only the active inputs' weights are walked on the last record
+		assertTrue( sparseNet.getActiveSparseInputLayer().getActiveCount() <= 5 );
+
+	}
+
+}
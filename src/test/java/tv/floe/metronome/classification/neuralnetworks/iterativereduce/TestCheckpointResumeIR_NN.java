@@ -0,0 +1,217 @@
+package tv.floe.metronome.classification.neuralnetworks.iterativereduce;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Properties;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.mahout.math.Vector;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cloudera.iterativereduce.ComputableWorker;
+
+import tv.floe.metronome.classification.neuralnetworks.activation.Sigmoid;
+import tv.floe.metronome.classification.neuralnetworks.core.NeuralNetwork;
+import tv.floe.metronome.classification.neuralnetworks.core.neurons.Neuron;
+import tv.floe.metronome.eval.ConvergenceController;
+import tv.floe.metronome.io.checkpoint.CheckpointStore;
+import tv.floe.metronome.irunit.IRUnitDriver;
+import tv.floe.metronome.math.ActivationKernels;
+
+/**
+ * Runs the two worker XOR job through IRUnitDriver for the first KILLED_AT supersteps
+ * (checkpointed at the last of them), then starts the same job again with
+ * tv.floe.metronome.checkpoint.resume=true and checks that it picks up from there
+ *
+ * - the killed job is the full job with a shorter app.iteration.count, so the checkpoint it
+ * 		leaves is the one a job killed after superstep KILLED_AT would have left
+ *
+ * @author josh
+ *
+ */
+public class TestCheckpointResumeIR_NN {
+
+	private static final String PROFILE = "src/test/resources/run_profiles/unit_tests/nn/xor/app.unit_test.nn.xor.twoworkers.checkpoint.properties";
+
+	private static final String CHECKPOINT_DIR = "/tmp/TestCheckpointResumeIR_NN/checkpoints";
+
+	// the profile checkpoints every 3 supersteps and runs 6
+	private static final int KILLED_AT = 3;
+	private static final int ITERATIONS = 6;
+
+	private FileSystem localFs = null;
+
+	@Before
+	public void setUp() throws IOException {
+
+		Configuration conf = new Configuration();
+		conf.set( "fs.defaultFS", "file:///" );
+		this.localFs = FileSystem.getLocal( conf );
+
+		this.localFs.delete( new Path( CHECKPOINT_DIR ), true );
+
+	}
+
+	private CheckpointStore store() throws IOException {
+
+		Configuration conf = new Configuration();
+		conf.set( CheckpointStore.CONF_DIR, "file://" + CHECKPOINT_DIR );
+		return CheckpointStore.fromConf( conf );
+
+	}
+
+	private static IRUnitDriver run(Properties overrides, boolean simulate) {
+
+		IRUnitDriver driver = new IRUnitDriver( PROFILE, overrides );
+		driver.Setup();
+
+		if (simulate) {
+			driver.SimulateRun();
+		}
+
+		return driver;
+
+	}
+
+	private static Properties killedAt(int superstep) {
+
+		Properties p = new Properties();
+		p.setProperty( "app.iteration.count", String.valueOf( superstep ) );
+		return p;
+
+	}
+
+	private static Properties resumed() {
+
+		Properties p = new Properties();
+		p.setProperty( CheckpointStore.CONF_RESUME, "true" );
+		return p;
+
+	}
+
+	private static WorkerNode worker(IRUnitDriver driver, int index) {
+
+		ArrayList<ComputableWorker> workers = driver.getWorker();
+		return (WorkerNode) workers.get( index );
+
+	}
+
+	private static void assertSameWeights(NeuralNetwork expected, NeuralNetwork actual) {
+
+		ArrayList<Vector> e = expected.getWeightsAsArrayOfVectors();
+		ArrayList<Vector> a = actual.getWeightsAsArrayOfVectors();
+
+		assertEquals( e.size(), a.size() );
+
+		for (int x = 0; x < e.size(); x++) {
+
+			assertEquals( e.get( x ).size(), a.get( x ).size() );
+
+			for (int i = 0; i < e.get( x ).size(); i++) {
+				assertEquals( e.get( x ).get( i ), a.get( x ).get( i ), 0.0 );
+			}
+
+		}
+
+	}
+
+	private static long recordsTrained(MasterNode master) {
+
+		return master.getMetrics().counter( "records.trained" ).get();
+
+	}
+
+	/**
+	 * What every resumed job has to have picked up from the killed one, before it runs a
+	 * single superstep
+	 *
+	 */
+	private static void assertResumedFrom(IRUnitDriver killed, IRUnitDriver resumed) {
+
+		MasterNode killedMaster = (MasterNode) killed.getMaster();
+		MasterNode resumedMaster = (MasterNode) resumed.getMaster();
+
+		assertSameWeights( killedMaster.master_nn, resumedMaster.master_nn );
+		assertEquals( recordsTrained( killedMaster ), recordsTrained( resumedMaster ) );
+
+		for (int w = 0; w < resumed.getWorker().size(); w++) {
+
+			WorkerNode worker = worker( resumed, w );
+
+			assertEquals( KILLED_AT, worker.GenerateUpdate().CurrentIteration );
+
+			// the last update before the checkpoint copied the master's weights in
+			assertSameWeights( killedMaster.master_nn, worker.nn );
+
+			// the profile asks for table sigmoids, the deserialized network has to get them back
+			for (Neuron n : worker.nn.getLayerByIndex( 1 ).getNeurons()) {
+				assertEquals( ActivationKernels.TABLE, ((Sigmoid) n.getActivationFunction()).getKernels() );
+			}
+
+		}
+
+	}
+
+	private void assertRanToTheEnd(IRUnitDriver resumed) throws IOException {
+
+		for (int w = 0; w < resumed.getWorker().size(); w++) {
+			assertEquals( ITERATIONS, worker( resumed, w ).GenerateUpdate().CurrentIteration );
+		}
+
+		assertEquals( ITERATIONS, this.store().latestConsistent() );
+
+	}
+
+	@Test
+	public void testKillAndResume() throws Exception {
+
+		IRUnitDriver killed = run( killedAt( KILLED_AT ), true );
+
+		assertEquals( KILLED_AT, this.store().latestConsistent() );
+
+		IRUnitDriver resumed = run( resumed(), false );
+
+		assertResumedFrom( killed, resumed );
+
+		resumed.SimulateRun();
+
+		assertRanToTheEnd( resumed );
+		assertTrue( recordsTrained( (MasterNode) resumed.getMaster() ) > recordsTrained( (MasterNode) killed.getMaster() ) );
+
+	}
+
+	/**
+	 * The killed job had early stopping on (set up so it never stops), the resumed one has
+	 * it off: the master has to read past the checkpointed convergence state to get to the
+	 * metrics behind it
+	 *
+	 */
+	@Test
+	public void testResumeWithEarlyStoppingTurnedOff() throws Exception {
+
+		Properties earlyStopping = killedAt( KILLED_AT );
+		earlyStopping.setProperty( ConvergenceController.CONF_ON, "true" );
+		earlyStopping.setProperty( ConvergenceController.CONF_MIN_ITERATIONS, "100" );
+		earlyStopping.setProperty( ConvergenceController.CONF_TARGET_LOSS, "0" );
+
+		IRUnitDriver killed = run( earlyStopping, true );
+
+		assertEquals( KILLED_AT, this.store().latestConsistent() );
+		assertTrue( recordsTrained( (MasterNode) killed.getMaster() ) > 0 );
+
+		IRUnitDriver resumed = run( resumed(), false );
+
+		assertResumedFrom( killed, resumed );
+
+		resumed.SimulateRun();
+
+		assertRanToTheEnd( resumed );
+
+	}
+
+}
@@ -0,0 +1,87 @@
+package tv.floe.metronome.classification.neuralnetworks.serde;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import org.apache.mahout.math.DenseVector;
+import org.junit.Test;
+
+import tv.floe.metronome.classification.neuralnetworks.activation.Sigmoid;
+import tv.floe.metronome.classification.neuralnetworks.core.NeuralNetwork;
+import tv.floe.metronome.classification.neuralnetworks.core.neurons.Neuron;
+import tv.floe.metronome.math.ActivationKernels;
+
+/**
+ * Loads a 2-3-1 sigmoid MLP that was trained (50 XOR epochs, weights seeded with 42) and
+ * Java serialized by the code as it was before ActivationKernels / the sparse input layer
+ *
+ * - if a Serializable class in the network graph changes shape without a pinned
+ * 		serialVersionUID this fails with an InvalidClassException
+ *
+ * @author josh
+ *
+ */
+public class TestSavedModelCompatibility {
+
+	private static final String BASELINE_MODEL = "src/test/resources/data/serde/mlp_2_3_1_sigmoid.baseline.model";
+
+	private static final double[][] INPUTS = { { 0, 0 }, { 0, 1 }, { 1, 0 }, { 1, 1 } };
+
+	// what the network that wrote the file computed for INPUTS
+	private static final double[] OUTPUTS = { 0.5187100470658469, 0.5270648708108946, 0.525411932109209, 0.5319375203245768 };
+
+	private static byte[] readFile(String path) throws IOException {
+
+		File f = new File( path );
+		byte[] bytes = new byte[ (int) f.length() ];
+
+		FileInputStream in = new FileInputStream( f );
+		try {
+			int read = 0;
+			while (read < bytes.length) {
+				int n = in.read( bytes, read, bytes.length - read );
+				if (n < 0) {
+					break;
+				}
+				read += n;
+			}
+		} finally {
+			in.close();
+		}
+
+		return bytes;
+
+	}
+
+	@Test
+	public void testBaselineSerializedModelLoads() throws Exception {
+
+		NeuralNetwork nn = NeuralNetwork.Deserialize( readFile( BASELINE_MODEL ) );
+
+		assertNotNull( nn );
+		assertEquals( 3, nn.getLayersCount() );
+		assertEquals( 2, nn.getInputsCount() );
+		assertEquals( 1, nn.getOutputsCount() );
+
+		for (Neuron n : nn.getLayerByIndex( 1 ).getNeurons()) {
+			assertEquals( ActivationKernels.EXACT, ((Sigmoid) n.getActivationFunction()).getKernels() );
+		}
+
+		for (int i = 0; i < INPUTS.length; i++) {
+
+			nn.setInputVector( new DenseVector( INPUTS[ i ] ) );
+			nn.calculate();
+
+			assertEquals( OUTPUTS[ i ], nn.getOutputVector().get( 0 ), 1e-12 );
+
+		}
+
+		// and it keeps training
+		nn.train( new DenseVector( new double[] { 1 } ), new DenseVector( INPUTS[ 1 ] ) );
+
+	}
+
+}
@@ -0,0 +1,87 @@
+package tv.floe.metronome.clustering.kmeans.ir;
+
+import static org.junit.Assert.*;
+
+import java.util.Properties;
+
+import org.junit.Test;
+
+import tv.floe.metronome.clustering.kmeans.Means;
+import tv.floe.metronome.clustering.kmeans.Point;
+import tv.floe.metronome.irunit.IRUnitDriver;
+
+/**
+ * Runs k-means over 3 clusters of 4 points through IRUnitDriver
+ *
+ * - the first superstep seeds the means with the split's first 3 points, one per cluster
+ * - every superstep after that is a pass over the split against the master's means, so
+ * 		from the second one on the means are the clusters' centroids
+ *
+ * @author josh
+ *
+ */
+public class TestKMeansIRUnit {
+
+	private static final String PROFILE = "src/test/resources/run_profiles/unit_tests/kmeans/app.unit_test.kmeans.three_clusters.properties";
+
+	private static IRUnitDriver run(int iterations) {
+
+		Properties p = new Properties();
+		p.setProperty( "app.iteration.count", String.valueOf( iterations ) );
+
+		IRUnitDriver driver = new IRUnitDriver( PROFILE, p );
+		driver.Setup();
+		driver.SimulateRun();
+
+		return driver;
+
+	}
+
+	private static Means means(IRUnitDriver driver) {
+
+		return ((KMeansMaster) driver.getMaster()).getResults().get();
+
+	}
+
+	private static void assertMean(Means means, int i, double x, double y) {
+
+		Point p = means.get( i ).toPoint();
+
+		assertEquals( x, p.get( 0 ), 1e-9 );
+		assertEquals( y, p.get( 1 ), 1e-9 );
+
+	}
+
+	@Test
+	public void testFirstSuperstepSeedsTheMeans() {
+
+		IRUnitDriver driver = run( 1 );
+
+		assertEquals( 1, driver.getRunStats().size() );
+
+		Means means = means( driver );
+
+		assertEquals( 3, means.size() );
+		assertMean( means, 0, 0, 0 );
+		assertMean( means, 1, 10, 10 );
+		assertMean( means, 2, 20, 0 );
+
+	}
+
+	@Test
+	public void testRunsEverySuperstep() {
+
+		IRUnitDriver driver = run( 3 );
+
+		assertEquals( 3, driver.getRunStats().size() );
+
+		Means means = means( driver );
+
+		assertEquals( 3, means.size() );
+		assertMean( means, 0, 0.5, 0.5 );
+		assertMean( means, 1, 10.5, 10.5 );
+		assertMean( means, 2, 20.5, 0.5 );
+
+	}
+
+}
@@ -0,0 +1,168 @@
+package tv.floe.metronome.deeplearning.datasets;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.math3.random.MersenneTwister;
+import org.apache.mahout.math.DenseMatrix;
+import org.apache.mahout.math.Matrix;
+import org.junit.Test;
+
+import tv.floe.metronome.deeplearning.datasets.iterator.impl.MappedDataSetIterator;
+
+public class TestMappedDataSet {
+
+	private static String outputBaseDir = "/tmp/TestMappedDataSet/";
+
+	private static int numExamples = 25;
+	private static int numInputs = 6;
+	private static int numOutcomes = 3;
+
+	/**
+	 * Example i has every input set to i, so rows can be identified after shuffling
+	 *
+	 */
+	private MappedDataSet writeAndOpen() throws IOException {
+
+		File base_dir = new File(outputBaseDir);
+		if (!base_dir.exists()) {
+			base_dir.mkdirs();
+		}
+
+		File file = new File( outputBaseDir + "test.mds" );
+
+		MappedDataSet.Writer writer = new MappedDataSet.Writer( file, numInputs, numOutcomes );
+
+		// write in two chunks to make sure appends line up
+		for (int chunk = 0; chunk < 2; chunk++) {
+
+			int start = chunk * 10;
+			int rows = (0 == chunk) ? 10 : numExamples - 10;
+
+			Matrix inputs = new DenseMatrix( rows, numInputs );
+			Matrix labels = new DenseMatrix( rows, numOutcomes );
+
+			for (int row = 0; row < rows; row++) {
+				inputs.viewRow( row ).assign( start + row );
+				labels.set( row, (start + row) % numOutcomes, 1.0 );
+			}
+
+			writer.append( new DataSet( inputs, labels ) );
+
+		}
+
+		writer.close();
+
+		return MappedDataSet.open( file );
+
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+
+		MappedDataSet data = writeAndOpen();
+
+		assertEquals( numExamples, data.numExamples() );
+		assertEquals( numInputs, data.numInputs() );
+		assertEquals( numOutcomes, data.numOutcomes() );
+
+		DataSet all = data.asDataSet();
+
+		for (int row = 0; row < numExamples; row++) {
+			assertEquals( row, all.getFirst().get( row, numInputs - 1 ), 0.0 );
+			assertEquals( 1.0, all.getSecond().get( row, row % numOutcomes ), 0.0 );
+		}
+
+	}
+
+	@Test
+	public void testShuffleIsAPermutation() throws IOException {
+
+		MappedDataSet data = writeAndOpen();
+		MappedDataSet shuffled = data.shuffle( new MersenneTwister( 42 ) );
+
+		assertEquals( numExamples, shuffled.numExamples() );
+
+		Set<Integer> seen = new HashSet<Integer>();
+		boolean moved = false;
+
+		for (int i = 0; i < shuffled.numExamples(); i++) {
+
+			DataSet row = shuffled.get( i );
+			int id = (int) row.getFirst().get( 0, 0 );
+
+			assertEquals( shuffled.backingRow( i ), id );
+			assertEquals( 1.0, row.getSecond().get( 0, id % numOutcomes ), 0.0 );
+
+			seen.add( id );
+			if (id != i) {
+				moved = true;
+			}
+
+		}
+
+		assertEquals( numExamples, seen.size() );
+		assertTrue( moved );
+
+		// the original view is untouched
+		assertEquals( 3, data.backingRow( 3 ) );
+
+	}
+
+	@Test
+	public void testSampleAndRange() throws IOException {
+
+		MappedDataSet data = writeAndOpen();
+
+		MappedDataSet sample = data.sample( 10, new MersenneTwister( 7 ), false );
+		assertEquals( 10, sample.numExamples() );
+
+		Set<Integer> seen = new HashSet<Integer>();
+		for (int i = 0; i < sample.numExamples(); i++) {
+			seen.add( sample.backingRow( i ) );
+		}
+		assertEquals( 10, seen.size() );
+
+		MappedDataSet range = data.range( 20, 5 );
+		assertEquals( 5, range.numExamples() );
+		assertEquals( 22.0, range.get( 2 ).getFirst().get( 0, 0 ), 0.0 );
+
+	}
+
+	@Test
+	public void testIteratorCoversEveryExampleEachEpoch() throws IOException {
+
+		MappedDataSet data = writeAndOpen();
+		MappedDataSetIterator iter = new MappedDataSetIterator( data, 10, new MersenneTwister( 1 ) );
+
+		assertEquals( 3, data.numBatches( 10 ) );
+
+		for (int epoch = 0; epoch < 2; epoch++) {
+
+			Set<Integer> seen = new HashSet<Integer>();
+			int batches = 0;
+
+			while (iter.hasNext()) {
+
+				DataSet batch = iter.next();
+				for (int row = 0; row < batch.numExamples(); row++) {
+					seen.add( (int) batch.getFirst().get( row, 0 ) );
+				}
+				batches++;
+
+			}
+
+			assertEquals( 3, batches );
+			assertEquals( numExamples, seen.size() );
+
+			iter.reset();
+
+		}
+
+	}
+
+}
@@ -0,0 +1,129 @@
+package tv.floe.metronome.deeplearning.datasets;
+
+import static org.junit.Assert.*;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.mahout.math.DenseMatrix;
+import org.apache.mahout.math.Matrix;
+import org.junit.Test;
+
+import tv.floe.metronome.math.ArrayUtils;
+
+public class TestMnistMappedReader {
+
+	private static String outputBaseDir = "/tmp/TestMnistMappedReader/";
+
+	private static int numImages = 7;
+	private static int imageRows = 4;
+	private static int imageCols = 4;
+
+	private static int pixel( int image, int offset ) {
+		return (image * 37 + offset * 11) % 256;
+	}
+
+	private String[] writeIdxFiles() throws IOException {
+
+		File base_dir = new File(outputBaseDir);
+		if (!base_dir.exists()) {
+			base_dir.mkdirs();
+		}
+
+		String imagesFile = outputBaseDir + "images.idx3-ubyte";
+		String labelsFile = outputBaseDir + "labels.idx1-ubyte";
+
+		DataOutputStream images = new DataOutputStream( new FileOutputStream( imagesFile ) );
+		images.writeInt( MnistMappedIdxFile.IMAGE_MAGIC_NUMBER );
+		images.writeInt( numImages );
+		images.writeInt( imageRows );
+		images.writeInt( imageCols );
+		for (int x = 0; x < numImages; x++) {
+			for (int p = 0; p < imageRows * imageCols; p++) {
+				images.writeByte( pixel( x, p ) );
+			}
+		}
+		images.close();
+
+		DataOutputStream labels = new DataOutputStream( new FileOutputStream( labelsFile ) );
+		labels.writeInt( MnistMappedIdxFile.LABEL_MAGIC_NUMBER );
+		labels.writeInt( numImages );
+		for (int x = 0; x < numImages; x++) {
+			labels.writeByte( x % 10 );
+		}
+		labels.close();
+
+		return new String[] { imagesFile, labelsFile };
+
+	}
+
+	@Test
+	public void testHeaderAndSlices() throws IOException {
+
+		String[] files = writeIdxFiles();
+
+		MnistMappedReader reader = new MnistMappedReader( files[0], files[1] );
+
+		assertEquals( numImages, reader.getCount() );
+		assertEquals( imageRows * imageCols, reader.getImageSize() );
+		assertEquals( imageRows, reader.getImages().getRows() );
+
+		ByteBuffer slice = reader.imageSlice( 2, 3 );
+		assertEquals( 3 * imageRows * imageCols, slice.remaining() );
+		assertEquals( pixel( 2, 0 ), slice.get( 0 ) & 0xFF );
+		assertEquals( pixel( 4, 5 ), slice.get( 2 * imageRows * imageCols + 5 ) & 0xFF );
+
+		assertEquals( 6, reader.readLabel( 6 ) );
+		assertEquals( 3, reader.labelSlice( 3, 1 ).get( 0 ) );
+
+	}
+
+	@Test
+	public void testFillBatchMatchesMnistManager() throws IOException {
+
+		String[] files = writeIdxFiles();
+
+		MnistMappedReader reader = new MnistMappedReader( files[0], files[1] );
+		MnistManager man = new MnistManager( files[0], files[1] );
+
+		Matrix inputs = new DenseMatrix( 3, reader.getImageSize() );
+		Matrix labels = new DenseMatrix( 3, 10 );
+
+		reader.fillBatch( 1, 3, inputs, labels, MnistMappedReader.DEFAULT_BINARIZE_THRESHOLD );
+
+		for (int row = 0; row < 3; row++) {
+
+			// MnistManager is 1 based
+			man.setCurrent( row + 2 );
+			int[] image = ArrayUtils.flatten( man.readImage() );
+			int label = man.readLabel();
+
+			for (int col = 0; col < image.length; col++) {
+				assertEquals( (image[col] > 30) ? 1.0 : 0.0, inputs.get( row, col ), 0.0 );
+			}
+
+			for (int col = 0; col < 10; col++) {
+				assertEquals( (col == label) ? 1.0 : 0.0, labels.get( row, col ), 0.0 );
+			}
+
+		}
+
+		reader.fillBatch( 0, 1, inputs, labels, -1 );
+		assertEquals( pixel( 0, 3 ) / 255.0, inputs.get( 0, 3 ), 1e-12 );
+
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testRangeChecked() throws IOException {
+
+		String[] files = writeIdxFiles();
+
+		MnistMappedReader reader = new MnistMappedReader( files[0], files[1] );
+		reader.imageSlice( numImages - 1, 2 );
+
+	}
+
+}
@@ -0,0 +1,150 @@
+package tv.floe.metronome.deeplearning.datasets.fetchers;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.apache.mahout.math.Matrix;
+import org.junit.Test;
+
+import com.cloudera.iterativereduce.io.TextRecordParser;
+
+import tv.floe.metronome.deeplearning.datasets.DataSet;
+import tv.floe.metronome.deeplearning.datasets.iterator.impl.MnistHDFSDataSetIterator;
+
+public class TestPrefetchingMnistHDFSDataFetcher {
+
+	private static String outputBaseDir = "/tmp/TestPrefetchingMnistHDFSDataFetcher/";
+	private static String outputFilename = "test_vectors.metronome";
+
+	// 23 records, so a batch size of 5 leaves a jagged tail of 3
+	private static int write_recs = 23;
+
+	private File writeVectorsToDisk() throws IOException {
+
+		File base_dir = new File(outputBaseDir);
+		if (!base_dir.exists()) {
+			base_dir.mkdirs();
+		}
+
+		File shard_file_0 = new File(outputBaseDir + outputFilename);
+
+		if (shard_file_0.exists()) {
+			shard_file_0.delete();
+		}
+
+		BufferedWriter shard_writer = new BufferedWriter(new FileWriter(shard_file_0));
+
+		for (int x = 0; x < write_recs; x++ ) {
+
+			shard_writer.write( x + ":0.5 " + (x + 100) + ":0.25 | " + (x % 10) + ":1.0\n" );
+
+		}
+
+		shard_writer.flush();
+		shard_writer.close();
+
+		return shard_file_0;
+
+	}
+
+	private TextRecordParser openSplit(File file) {
+
+		TextRecordParser txt_reader = new TextRecordParser();
+		txt_reader.setFile( file.getAbsolutePath(), 0, file.length() );
+		return txt_reader;
+
+	}
+
+	private void assertSameBatch(DataSet expected, DataSet actual) {
+
+		Matrix e_in = expected.getFirst();
+		Matrix a_in = actual.getFirst();
+
+		assertEquals( e_in.numRows(), a_in.numRows() );
+		assertEquals( e_in.numCols(), a_in.numCols() );
+
+		for (int row = 0; row < e_in.numRows(); row++) {
+			for (int col = 0; col < e_in.numCols(); col++) {
+				assertEquals( e_in.get(row, col), a_in.get(row, col), 0.0 );
+			}
+			for (int col = 0; col < expected.getSecond().numCols(); col++) {
+				assertEquals( expected.getSecond().get(row, col), actual.getSecond().get(row, col), 0.0 );
+			}
+		}
+
+	}
+
+	@Test
+	public void testMatchesSynchronousFetcher() throws IOException {
+
+		File file = writeVectorsToDisk();
+		int batchSize = 5;
+
+		MnistHDFSDataSetIterator stock = new MnistHDFSDataSetIterator( batchSize, 1, openSplit(file) );
+		MnistHDFSDataSetIterator prefetch = new MnistHDFSDataSetIterator( batchSize, 1, openSplit(file), 2 );
+
+		int batches = 0;
+		int records = 0;
+
+		while (stock.hasNext()) {
+
+			assertTrue( prefetch.hasNext() );
+
+			DataSet stockBatch = stock.next();
+			DataSet prefetchBatch = prefetch.next();
+
+			assertSameBatch( stockBatch, prefetchBatch );
+
+			records += prefetchBatch.getFirst().numRows();
+			batches++;
+
+		}
+
+		assertFalse( prefetch.hasNext() );
+		assertEquals( 5, batches );
+		assertEquals( write_recs, records );
+
+		prefetch.close();
+
+	}
+
+	@Test
+	public void testResetReplaysSplit() throws IOException {
+
+		File file = writeVectorsToDisk();
+		int batchSize = 5;
+
+		MnistHDFSDataSetIterator prefetch = new MnistHDFSDataSetIterator( batchSize, 1, openSplit(file), 1 );
+
+		// stop part way through so the reader has batches in flight when we reset
+		DataSet first = prefetch.next();
+		double firstValue = first.getFirst().get(0, 0);
+		prefetch.next();
+
+		prefetch.reset();
+
+		int records = 0;
+		boolean checkedFirst = false;
+
+		while (prefetch.hasNext()) {
+
+			DataSet batch = prefetch.next();
+			if (!checkedFirst) {
+				assertEquals( firstValue, batch.getFirst().get(0, 0), 0.0 );
+				checkedFirst = true;
+			}
+			records += batch.getFirst().numRows();
+
+		}
+
+		assertEquals( write_recs, records );
+
+		prefetch.close();
+
+	}
+
+}
@@ -0,0 +1,245 @@
+package tv.floe.metronome.deeplearning.dbn.iterativereduce;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Properties;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.mahout.math.Matrix;
+import org.junit.Before;
+import org.junit.Test;
+
+import tv.floe.metronome.deeplearning.neuralnetwork.core.BaseMultiLayerNeuralNetworkVectorized;
+import tv.floe.metronome.eval.ConvergenceController;
+import tv.floe.metronome.io.checkpoint.CheckpointStore;
+import tv.floe.metronome.io.records.SplitTextRecordParser;
+import tv.floe.metronome.irunit.IRUnitDriver;
+
+/**
+ * Runs the two worker, two label MNIST job through IRUnitDriver for the first KILLED_AT
+ * supersteps (checkpointed at the last of them), then starts the same job again with
+ * tv.floe.metronome.checkpoint.resume=true and checks that it picks up from there
+ *
+ * - the killed job is the full job with a shorter app.iteration.count, so the checkpoint it
+ * 		leaves is the one a job killed after superstep KILLED_AT would have left
+ * - KILLED_AT lands in the middle of the pre train pass, so the workers also have to find
+ * 		their place in the split again
+ *
+ * @author josh
+ *
+ */
+public class TestCheckpointResumeIR_DBN {
+
+	private static final String PROFILE = "src/test/resources/run_profiles/unit_tests/dbn/mnist/app.unit_test.dbn.mnist.two_workers.two_labels.checkpoint.properties";
+
+	private static final String CHECKPOINT_DIR = "/tmp/TestCheckpointResumeIR_DBN/checkpoints";
+
+	// the profile checkpoints every 2 supersteps, a pass over a split is 4 batches
+	private static final int KILLED_AT = 2;
+
+	private FileSystem localFs = null;
+
+	@Before
+	public void setUp() throws IOException {
+
+		Configuration conf = new Configuration();
+		conf.set( "fs.defaultFS", "file:///" );
+		this.localFs = FileSystem.getLocal( conf );
+
+		this.localFs.delete( new Path( CHECKPOINT_DIR ), true );
+
+	}
+
+	private CheckpointStore store() throws IOException {
+
+		Configuration conf = new Configuration();
+		conf.set( CheckpointStore.CONF_DIR, "file://" + CHECKPOINT_DIR );
+		return CheckpointStore.fromConf( conf );
+
+	}
+
+	/**
+	 * The workers keep their checkpoint writers open until they're done training, so a job
+	 * stopped short has to wait for their last write itself
+	 *
+	 */
+	private static IRUnitDriver kill(Properties overrides) {
+
+		overrides.setProperty( "app.iteration.count", String.valueOf( KILLED_AT ) );
+
+		IRUnitDriver driver = new IRUnitDriver( PROFILE, overrides );
+		driver.Setup();
+		driver.SimulateRun();
+
+		for (int w = 0; w < driver.getWorker().size(); w++) {
+			worker( driver, w ).checkpoints.flush();
+		}
+
+		return driver;
+
+	}
+
+	private static IRUnitDriver resume() {
+
+		Properties p = new Properties();
+		p.setProperty( CheckpointStore.CONF_RESUME, "true" );
+
+		IRUnitDriver driver = new IRUnitDriver( PROFILE, p );
+		driver.Setup();
+
+		return driver;
+
+	}
+
+	private static WorkerNode worker(IRUnitDriver driver, int index) {
+
+		return (WorkerNode) driver.getWorker().get( index );
+
+	}
+
+	private static String split(WorkerNode worker) {
+
+		return ((SplitTextRecordParser) worker.lineParser).getSplitPath();
+
+	}
+
+	/**
+	 * The worker that was given the same split in the other job
+	 *
+	 */
+	private static WorkerNode sameSplit(IRUnitDriver driver, WorkerNode worker) {
+
+		for (int w = 0; w < driver.getWorker().size(); w++) {
+			if (split( worker ).equals( split( worker( driver, w ) ) )) {
+				return worker( driver, w );
+			}
+		}
+
+		fail( "No worker for split " + split( worker ) );
+		return null;
+
+	}
+
+	private static void assertSameMatrix(Matrix expected, Matrix actual) {
+
+		assertEquals( expected.numRows(), actual.numRows() );
+		assertEquals( expected.numCols(), actual.numCols() );
+
+		for (int row = 0; row < expected.numRows(); row++) {
+			for (int col = 0; col < expected.numCols(); col++) {
+				assertEquals( expected.getQuick( row, col ), actual.getQuick( row, col ), 0.0 );
+			}
+		}
+
+	}
+
+	private static void assertSameWeights(BaseMultiLayerNeuralNetworkVectorized expected, BaseMultiLayerNeuralNetworkVectorized actual) {
+
+		assertEquals( expected.hiddenLayers.length, actual.hiddenLayers.length );
+
+		for (int x = 0; x < expected.hiddenLayers.length; x++) {
+			assertSameMatrix( expected.hiddenLayers[ x ].connectionWeights, actual.hiddenLayers[ x ].connectionWeights );
+		}
+
+		assertSameMatrix( expected.logisticRegressionLayer.connectionWeights, actual.logisticRegressionLayer.connectionWeights );
+
+	}
+
+	private static long recordsTrained(MasterNode master) {
+
+		return master.metrics.counter( "records.trained" ).get();
+
+	}
+
+	/**
+	 * What every resumed job has to have picked up from the killed one, before it runs a
+	 * single superstep
+	 *
+	 */
+	private static void assertResumedFrom(IRUnitDriver killed, IRUnitDriver resumed) {
+
+		MasterNode killedMaster = (MasterNode) killed.getMaster();
+		MasterNode resumedMaster = (MasterNode) resumed.getMaster();
+
+		assertEquals( KILLED_AT, resumedMaster.supersteps );
+		assertSameWeights( killedMaster.dbn_averaged_master, resumedMaster.dbn_averaged_master );
+		assertEquals( recordsTrained( killedMaster ), recordsTrained( resumedMaster ) );
+
+		for (int w = 0; w < resumed.getWorker().size(); w++) {
+
+			WorkerNode worker = worker( resumed, w );
+			WorkerNode before = sameSplit( killed, worker );
+
+			assertTrue( before.batchInPass > 0 );
+			assertEquals( before.batchInPass, worker.batchInPass );
+
+			// the last update before the checkpoint loaded the master's model
+			assertSameWeights( killedMaster.dbn_averaged_master, worker.dbn );
+
+		}
+
+	}
+
+	private void assertRanToTheEnd(IRUnitDriver resumed) throws IOException {
+
+		// a worker closes its checkpoint writer once it's done training
+		for (int w = 0; w < resumed.getWorker().size(); w++) {
+			assertNull( worker( resumed, w ).checkpoints );
+		}
+
+		assertTrue( this.store().latestConsistent() > KILLED_AT );
+
+	}
+
+	@Test
+	public void testKillAndResume() throws Exception {
+
+		IRUnitDriver killed = kill( new Properties() );
+
+		assertEquals( KILLED_AT, this.store().latestConsistent() );
+
+		IRUnitDriver resumed = resume();
+
+		assertResumedFrom( killed, resumed );
+
+		resumed.SimulateRun();
+
+		assertRanToTheEnd( resumed );
+		assertTrue( recordsTrained( (MasterNode) resumed.getMaster() ) > recordsTrained( (MasterNode) killed.getMaster() ) );
+
+	}
+
+	/**
+	 * The killed job had early stopping on (set up so it never stops), the resumed one has
+	 * it off: the master has to read past the checkpointed convergence state to get to the
+	 * metrics behind it
+	 *
+	 */
+	@Test
+	public void testResumeWithEarlyStoppingTurnedOff() throws Exception {
+
+		Properties earlyStopping = new Properties();
+		earlyStopping.setProperty( ConvergenceController.CONF_ON, "true" );
+		earlyStopping.setProperty( ConvergenceController.CONF_MIN_ITERATIONS, "100" );
+		earlyStopping.setProperty( ConvergenceController.CONF_TARGET_LOSS, "0" );
+
+		IRUnitDriver killed = kill( earlyStopping );
+
+		assertNotNull( ((MasterNode) killed.getMaster()).convergence );
+		assertEquals( KILLED_AT, this.store().latestConsistent() );
+
+		IRUnitDriver resumed = resume();
+
+		assertNull( ((MasterNode) resumed.getMaster()).convergence );
+		assertResumedFrom( killed, resumed );
+
+		resumed.SimulateRun();
+
+		assertRanToTheEnd( resumed );
+
+	}
+
+}
@@ -0,0 +1,143 @@
+package tv.floe.metronome.deeplearning.sda;
+
+import static org.junit.Assert.*;
+
+import org.apache.mahout.math.DenseMatrix;
+import org.apache.mahout.math.Matrix;
+import org.junit.Test;
+
+import tv.floe.metronome.deeplearning.neuralnetwork.gradient.NeuralNetworkGradient;
+import tv.floe.metronome.math.Xoroshiro128PlusRandom;
+
+public class TestDenoisingAutoEncoder {
+
+	double[][] x_toy = new double[][]
+	{
+			{1,1,1,0,0,0},
+			{1,0,1,0,0,0},
+			{1,1,1,0,0,0},
+			{0,0,1,1,1,0},
+			{0,0,1,1,0,0},
+			{0,0,0,1,1,1}
+
+	};
+
+	private DenoisingAutoEncoder build() {
+
+		Matrix input = new DenseMatrix( x_toy );
+
+		DenoisingAutoEncoder da = new DenoisingAutoEncoder( input, 6, 3, null, null, null, new Xoroshiro128PlusRandom( 42 ) );
+		da.setMomentum( 0 );
+		da.useRegularization = false;
+
+		return da;
+
+	}
+
+	@Test
+	public void testTrainingLowersReconstructionError() {
+
+		DenoisingAutoEncoder da = build();
+
+		double before = da.getReConstructionCrossEntropy();
+
+		da.trainTillConvergence( null, 0.5, new Object[]{ 0.3, 0.5, 500 } );
+
+		double after = da.getReConstructionCrossEntropy();
+
+		assertTrue( "cross entropy " + before + " -> " + after, after < before * 0.8 );
+
+		Matrix reconstructed = da.reconstruct( new DenseMatrix( x_toy ) );
+		assertEquals( 6, reconstructed.numRows() );
+		assertEquals( 6, reconstructed.numCols() );
+
+	}
+
+	/**
+	 * With no corruption, no momentum and no decay the weight gradient is -lr * the
+	 * derivative of the reconstruction cross entropy
+	 *
+	 */
+	@Test
+	public void testGradientMatchesFiniteDifferences() {
+
+		DenoisingAutoEncoder da = build();
+
+		// move off the near-zero initial weights so the check means something
+		da.trainTillConvergence( null, 0.5, new Object[]{ 0.0, 0.5, 50 } );
+
+		double lr = 0.1;
+		NeuralNetworkGradient gradient = da.getGradient( new Object[]{ 0.0, lr } );
+
+		double h = 1e-5;
+
+		for (int i = 0; i < 6; i++) {
+			for (int j = 0; j < 3; j++) {
+
+				double w = da.connectionWeights.getQuick( i, j );
+
+				da.connectionWeights.setQuick( i, j, w + h );
+				double up = da.getReConstructionCrossEntropy();
+				da.connectionWeights.setQuick( i, j, w - h );
+				double down = da.getReConstructionCrossEntropy();
+				da.connectionWeights.setQuick( i, j, w );
+
+				double numeric = -lr * (up - down) / (2 * h);
+
+				assertEquals( numeric, gradient.getwGradient().getQuick( i, j ), 1e-6 );
+
+			}
+		}
+
+		for (int j = 0; j < 3; j++) {
+
+			double b = da.hiddenBiasNeurons.getQuick( 0, j );
+
+			da.hiddenBiasNeurons.setQuick( 0, j, b + h );
+			double up = da.getReConstructionCrossEntropy();
+			da.hiddenBiasNeurons.setQuick( 0, j, b - h );
+			double down = da.getReConstructionCrossEntropy();
+			da.hiddenBiasNeurons.setQuick( 0, j, b );
+
+			assertEquals( -lr * (up - down) / (2 * h), gradient.gethBiasGradient().getQuick( 0, j ), 1e-6 );
+
+		}
+
+	}
+
+	@Test
+	public void testUpdatesSharedWeightsInPlace() {
+
+		Matrix weights = new DenseMatrix( 6, 3 );
+		weights.assign( 0.01 );
+
+		DenoisingAutoEncoder da = new DenoisingAutoEncoder( new DenseMatrix( x_toy ), 6, 3, weights, null, null, new Xoroshiro128PlusRandom( 1 ) );
+		da.train( null, 0.1, new Object[]{ 0.3 } );
+
+		// a HiddenLayer holding the same matrix sees the pretrained weights
+		assertSame( weights, da.getConnectionWeights() );
+		assertTrue( 0.01 != weights.getQuick( 0, 0 ) );
+
+	}
+
+	@Test
+	public void testMaskingNoiseZeroesAboutTheCorruptionLevel() {
+
+		Matrix ones = new DenseMatrix( 100, 100 );
+		ones.assign( 1.0 );
+
+		DenoisingAutoEncoder da = build();
+		Matrix corrupted = da.getCorruptedInput( ones, 0.3 );
+
+		double kept = 0;
+		for (int r = 0; r < 100; r++) {
+			for (int c = 0; c < 100; c++) {
+				kept += corrupted.getQuick( r, c );
+			}
+		}
+
+		assertEquals( 0.7, kept / 10000, 0.03 );
+
+	}
+
+}
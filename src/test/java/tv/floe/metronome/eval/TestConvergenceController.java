@@ -0,0 +1,121 @@
+package tv.floe.metronome.eval;
+
+import static org.junit.Assert.*;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.junit.Test;
+
+public class TestConvergenceController {
+
+	@Test
+	public void testStopsAfterPatienceWithoutImprovement() {
+
+		ConvergenceController c = new ConvergenceController( 0.01, 2, 1, 0 );
+
+		assertFalse( c.observe( 1.0 ) );
+		assertFalse( c.observe( 0.8 ) );
+
+		// under 1% better than 0.8: no improvement
+		assertFalse( c.observe( 0.799 ) );
+		assertTrue( c.observe( 0.81 ) );
+
+		assertTrue( c.isStopped() );
+		assertEquals( 0.8, c.getBestLoss(), 0.0 );
+		assertEquals( 2, c.getBestIteration() );
+		assertNotNull( c.getReason() );
+
+		// stays stopped
+		assertTrue( c.observe( 0.1 ) );
+		assertEquals( 4, c.getIterations() );
+
+	}
+
+	@Test
+	public void testMinIterationsHoldsOffStopping() {
+
+		ConvergenceController c = new ConvergenceController( 0.01, 1, 4, 0 );
+
+		assertFalse( c.observe( 1.0 ) );
+		assertFalse( c.observe( 1.0 ) );
+		assertFalse( c.observe( 1.0 ) );
+		assertTrue( c.observe( 1.0 ) );
+
+	}
+
+	@Test
+	public void testTargetLossAndMaxIterations() {
+
+		ConvergenceController target = new ConvergenceController( 0.01, 5, 1, 0 ).targetLoss( 0.2 );
+
+		assertFalse( target.observe( 0.5 ) );
+		assertTrue( target.observe( 0.19 ) );
+
+		ConvergenceController max = new ConvergenceController( 0.01, 5, 1, 3 );
+
+		assertFalse( max.observe( 3.0 ) );
+		assertFalse( max.observe( 2.0 ) );
+		assertTrue( max.observe( 1.0 ) );
+
+	}
+
+	@Test
+	public void testNaNIsNotAMiss() {
+
+		ConvergenceController c = new ConvergenceController( 0.01, 1, 1, 0 );
+
+		assertFalse( c.observe( Double.NaN ) );
+		assertFalse( c.observe( 1.0 ) );
+		assertFalse( c.observe( Double.NaN ) );
+		assertFalse( c.observe( 0.5 ) );
+		assertTrue( c.observe( 0.5 ) );
+
+	}
+
+	@Test
+	public void testConf() {
+
+		Configuration conf = new Configuration();
+		assertNull( ConvergenceController.fromConf( conf ) );
+
+		conf.setBoolean( ConvergenceController.CONF_ON, true );
+		conf.setInt( ConvergenceController.CONF_PATIENCE, 1 );
+		conf.set( ConvergenceController.CONF_TARGET_LOSS, "0.5" );
+
+		ConvergenceController c = ConvergenceController.fromConf( conf );
+
+		assertNotNull( c );
+		assertTrue( c.observe( 0.4 ) );
+
+	}
+
+	@Test
+	public void testStateRoundTrip() throws Exception {
+
+		ConvergenceController c = new ConvergenceController( 0.01, 2, 1, 0 );
+
+		c.observe( 1.0 );
+		c.observe( 0.8 );
+		c.observe( 0.9 );
+
+		DataOutputBuffer out = new DataOutputBuffer();
+		c.writeState( out );
+
+		DataInputBuffer in = new DataInputBuffer();
+		in.reset( out.getData(), out.getLength() );
+
+		ConvergenceController resumed = new ConvergenceController( 0.01, 2, 1, 0 );
+		resumed.readState( in );
+
+		assertEquals( 3, resumed.getIterations() );
+		assertEquals( 0.8, resumed.getBestLoss(), 0.0 );
+		assertEquals( 2, resumed.getBestIteration() );
+
+		// one miss carried over, so the next one stops it
+		assertTrue( resumed.observe( 0.9 ) );
+		assertNotNull( resumed.getReason() );
+
+	}
+
+}
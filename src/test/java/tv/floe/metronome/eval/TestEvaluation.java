@@ -0,0 +1,101 @@
+package tv.floe.metronome.eval;
+
+import static org.junit.Assert.*;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.mahout.math.DenseMatrix;
+import org.apache.mahout.math.DenseVector;
+import org.junit.Test;
+
+public class TestEvaluation {
+
+	@Test
+	public void testConfusionMatrixGrowsAndMerges() {
+
+		IntConfusionMatrix a = new IntConfusionMatrix( 1 );
+		a.add( 0, 0 );
+		a.add( 0, 1 );
+		a.add( 5, 2, 3 );
+
+		assertEquals( 6, a.numClasses() );
+		assertEquals( 5, a.total() );
+		assertEquals( 1, a.getCount( 0, 1 ) );
+		assertEquals( 3, a.getCount( 5, 2 ) );
+		assertEquals( 0, a.getCount( 9, 9 ) );
+
+		IntConfusionMatrix b = new IntConfusionMatrix( 16 );
+		b.add( 0, 1, 2 );
+		b.add( 2, 2 );
+
+		a.merge( b );
+
+		assertEquals( 8, a.total() );
+		assertEquals( 3, a.getCount( 0, 1 ) );
+		assertEquals( 2, a.correct() );
+		assertEquals( 4, a.getPredictedTotal( 1 ) );
+		assertEquals( 4, a.getActualTotal( 0 ) );
+
+	}
+
+	@Test
+	public void testClassMetrics() {
+
+		Evaluation eval = new Evaluation();
+
+		// class 0: 3 right, 1 called 1; class 1: 1 right, 1 called 0
+		eval.eval( 0, 0 );
+		eval.eval( 0, 0 );
+		eval.eval( 0, 0 );
+		eval.eval( 0, 1 );
+		eval.eval( 1, 1 );
+		eval.eval( 1, 0 );
+
+		assertEquals( 4.0, eval.correctScores(), 0.0 );
+		assertEquals( 2.0, eval.incorrectScores(), 0.0 );
+		assertEquals( 4.0 / 6.0, eval.accuracy(), 1e-12 );
+		assertEquals( 4.0 / 6.0, eval.recall(), 1e-12 );
+
+		assertEquals( 3.0 / 4.0, eval.classPrecision( 0 ), 1e-12 );
+		assertEquals( 3.0 / 4.0, eval.classRecall( 0 ), 1e-12 );
+		assertEquals( 1.0 / 2.0, eval.classPrecision( 1 ), 1e-12 );
+		assertEquals( 1.0 / 2.0, eval.classRecall( 1 ), 1e-12 );
+		assertEquals( (0.75 + 0.5) / 2.0, eval.macroF1(), 1e-12 );
+
+		assertTrue( Double.isNaN( eval.logLoss() ) );
+
+	}
+
+	@Test
+	public void testLogLossAndWritableRoundTrip() throws Exception {
+
+		Evaluation eval = new Evaluation();
+
+		DenseMatrix real = new DenseMatrix( new double[][] { { 1, 0 }, { 0, 1 } } );
+		DenseMatrix guesses = new DenseMatrix( new double[][] { { 0.8, 0.2 }, { 0.6, 0.4 } } );
+		eval.eval( real, guesses );
+		eval.eval( 1, new DenseVector( new double[] { 0.1, 0.9 } ) );
+
+		assertEquals( 2.0, eval.correctScores(), 0.0 );
+		assertEquals( -(Math.log( 0.8 ) + Math.log( 0.4 ) + Math.log( 0.9 )) / 3.0, eval.logLoss(), 1e-12 );
+
+		DataOutputBuffer out = new DataOutputBuffer();
+		eval.write( out );
+
+		DataInputBuffer in = new DataInputBuffer();
+		in.reset( out.getData(), out.getLength() );
+
+		Evaluation copy = new Evaluation();
+		copy.readFields( in );
+
+		assertEquals( eval.total(), copy.total() );
+		assertEquals( eval.f1(), copy.f1(), 0.0 );
+		assertEquals( eval.logLoss(), copy.logLoss(), 0.0 );
+
+		copy.merge( eval );
+		assertEquals( 6, copy.total() );
+		assertEquals( eval.logLoss(), copy.logLoss(), 1e-12 );
+
+	}
+
+}
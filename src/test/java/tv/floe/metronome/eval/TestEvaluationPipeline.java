@@ -0,0 +1,128 @@
+package tv.floe.metronome.eval;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TestEvaluationPipeline {
+
+	private static int numBatches = 500;
+	private static int batchSize = 20;
+	private static int numClasses = 5;
+
+	/**
+	 * Batches of (actual, predicted) pairs, roughly 2/3 correct
+	 *
+	 */
+	private static EvaluationPipeline.BatchReader<int[]> pairReader() {
+
+		return new EvaluationPipeline.BatchReader<int[]>() {
+
+			int batch = 0;
+
+			@Override
+			public int[] next() {
+
+				if (batch >= numBatches) {
+					return null;
+				}
+
+				int[] pairs = new int[ batchSize * 2 ];
+
+				for (int x = 0; x < batchSize; x++) {
+
+					int r = batch * batchSize + x;
+					pairs[ 2 * x ] = r % numClasses;
+					pairs[ 2 * x + 1 ] = (r % 3 == 0) ? (r + 1) % numClasses : r % numClasses;
+
+				}
+
+				batch++;
+				return pairs;
+
+			}
+
+		};
+
+	}
+
+	private static EvaluationPipeline.BatchScorerFactory<int[]> pairScorers(final int failOnFirst) {
+
+		return new EvaluationPipeline.BatchScorerFactory<int[]>() {
+
+			@Override
+			public EvaluationPipeline.BatchScorer<int[]> newScorer() {
+
+				return new EvaluationPipeline.BatchScorer<int[]>() {
+
+					@Override
+					public void score(int[] pairs, Evaluation eval) {
+
+						if (pairs[ 0 ] == failOnFirst) {
+							throw new IllegalStateException( "bad batch" );
+						}
+
+						for (int x = 0; x < pairs.length; x += 2) {
+							eval.eval( pairs[ x ], pairs[ x + 1 ] );
+						}
+
+					}
+
+				};
+
+			}
+
+		};
+
+	}
+
+	@Test
+	public void testParallelMatchesSequential() throws Exception {
+
+		Evaluation sequential = new Evaluation();
+
+		EvaluationPipeline.BatchReader<int[]> reader = pairReader();
+		EvaluationPipeline.BatchScorer<int[]> scorer = pairScorers( -1 ).newScorer();
+
+		int[] batch;
+		while (null != (batch = reader.next())) {
+			scorer.score( batch, sequential );
+		}
+
+		EvaluationPipeline<int[]> pipeline = new EvaluationPipeline<int[]>( 4, 3 );
+		Evaluation parallel = pipeline.run( pairReader(), pairScorers( -1 ) );
+
+		assertEquals( numBatches, pipeline.getBatchesScored() );
+		assertEquals( sequential.correctScores(), parallel.correctScores(), 0.0 );
+		assertEquals( sequential.incorrectScores(), parallel.incorrectScores(), 0.0 );
+		assertEquals( numBatches * batchSize, parallel.correctScores() + parallel.incorrectScores(), 0.0 );
+		assertEquals( sequential.f1(), parallel.f1(), 1e-12 );
+
+		for (int a = 0; a < numClasses; a++) {
+			for (int p = 0; p < numClasses; p++) {
+				assertEquals( sequential.numTimesPredicted( a, p ), parallel.numTimesPredicted( a, p ) );
+			}
+		}
+
+	}
+
+	@Test
+	public void testScorerFailureIsRethrown() throws Exception {
+
+		EvaluationPipeline<int[]> pipeline = new EvaluationPipeline<int[]>( 3, 2 );
+
+		try {
+
+			// every batch starts with actual = 0
+			pipeline.run( pairReader(), pairScorers( 0 ) );
+			fail( "expected the scorer's exception" );
+
+		} catch (IllegalStateException e) {
+
+			assertEquals( "bad batch", e.getMessage() );
+
+		}
+
+	}
+
+}
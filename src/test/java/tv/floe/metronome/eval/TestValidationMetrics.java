@@ -0,0 +1,127 @@
+package tv.floe.metronome.eval;
+
+import static org.junit.Assert.*;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.junit.Test;
+
+public class TestValidationMetrics {
+
+	@Test
+	public void testMergeIsExact() {
+
+		ValidationMetrics a = new ValidationMetrics();
+		a.add( 1.0, true );
+		a.add( 3.0, false );
+
+		ValidationMetrics b = new ValidationMetrics();
+		b.add( 2.0, true );
+		b.addLoss( 6.0 );
+
+		a.merge( b );
+
+		assertEquals( 4, a.getRecords() );
+		assertEquals( 3.0, a.meanLoss(), 1e-12 );
+		assertEquals( Math.sqrt( 3.0 ), a.rmse(), 1e-12 );
+
+		// only the classified records count towards accuracy
+		assertEquals( 2.0 / 3.0, a.accuracy(), 1e-12 );
+
+	}
+
+	@Test
+	public void testEmpty() {
+
+		ValidationMetrics m = new ValidationMetrics();
+
+		assertTrue( Double.isNaN( m.meanLoss() ) );
+		assertTrue( Double.isNaN( m.accuracy() ) );
+
+		m.addLoss( 4.0 );
+		assertEquals( 2.0, m.rmse(), 1e-12 );
+		assertTrue( Double.isNaN( m.accuracy() ) );
+
+	}
+
+	@Test
+	public void testOptionalRoundTrip() throws Exception {
+
+		ValidationMetrics m = new ValidationMetrics();
+		m.add( 0.5, true );
+		m.add( 1.5, false );
+
+		DataOutputBuffer out = new DataOutputBuffer();
+		ValidationMetrics.writeOptional( out, m );
+		ValidationMetrics.writeOptional( out, null );
+
+		DataInputBuffer in = new DataInputBuffer();
+		in.reset( out.getData(), out.getLength() );
+
+		ValidationMetrics read = ValidationMetrics.readOptional( in );
+
+		assertNotNull( read );
+		assertEquals( 2, read.getRecords() );
+		assertEquals( 1.0, read.meanLoss(), 1e-12 );
+		assertEquals( 0.5, read.accuracy(), 1e-12 );
+
+		assertNull( ValidationMetrics.readOptional( in ) );
+
+	}
+
+	@Test
+	public void testHoldOutIsStableAndNearFraction() {
+
+		HoldOutSelector a = new HoldOutSelector( 0.2, 7 );
+		HoldOutSelector b = new HoldOutSelector( 0.2, 7 );
+
+		int records = 100000;
+		int heldOut = 0;
+
+		for (int r = 0; r < records; r++) {
+
+			assertEquals( a.isHeldOut( r ), b.isHeldOut( r ) );
+
+			if (a.isHeldOut( r )) {
+				heldOut++;
+			}
+
+		}
+
+		assertEquals( 0.2, (double) heldOut / records, 0.01 );
+
+		// a different seed holds out a different set
+		HoldOutSelector c = new HoldOutSelector( 0.2, 8 );
+		int same = 0;
+		for (int r = 0; r < 1000; r++) {
+			if (a.isHeldOut( r ) && c.isHeldOut( r )) {
+				same++;
+			}
+		}
+		assertTrue( same < 100 );
+
+	}
+
+	@Test
+	public void testHoldOutConf() {
+
+		Configuration conf = new Configuration();
+		assertNull( HoldOutSelector.fromConf( conf ) );
+
+		conf.set( HoldOutSelector.CONF_HOLDOUT_FRACTION, "0.1" );
+		HoldOutSelector selector = HoldOutSelector.fromConf( conf );
+
+		assertNotNull( selector );
+		assertEquals( 0.1, selector.getFraction(), 0.0 );
+
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testHoldOutRejectsWholeSplit() {
+
+		new HoldOutSelector( 1.0, 0 );
+
+	}
+
+}
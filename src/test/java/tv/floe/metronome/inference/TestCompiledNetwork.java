@@ -0,0 +1,279 @@
+package tv.floe.metronome.inference;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class TestCompiledNetwork {
+
+	/**
+	 * 3 inputs -> 4 sigmoid units -> 2 softmax outputs, random weights
+	 *
+	 */
+	private static CompiledNetwork smallNetwork(long seed) {
+
+		Random r = new Random( seed );
+
+		double[] w0 = new double[ 4 * 3 ];
+		double[] b0 = new double[ 4 ];
+		double[] w1 = new double[ 2 * 4 ];
+		double[] b1 = new double[ 2 ];
+
+		for (int i = 0; i < w0.length; i++) w0[ i ] = r.nextGaussian();
+		for (int i = 0; i < b0.length; i++) b0[ i ] = r.nextGaussian();
+		for (int i = 0; i < w1.length; i++) w1[ i ] = r.nextGaussian();
+		for (int i = 0; i < b1.length; i++) b1[ i ] = r.nextGaussian();
+
+		return new CompiledNetwork.Builder( 3 )
+				.layer( 4, w0, b0, CompiledNetwork.ACT_SIGMOID, 1.0, false )
+				.layer( 2, w1, b1, CompiledNetwork.ACT_LINEAR, 1.0, true )
+				.build();
+
+	}
+
+	@Test
+	public void testMatchesHandCalculation() {
+
+		// one tanh unit over two inputs, then a linear unit with slope 2
+		CompiledNetwork net = new CompiledNetwork.Builder( 2 )
+				.layer( 1, new double[] { 0.5, -1.0 }, new double[] { 0.25 }, CompiledNetwork.ACT_TANH, 2.0, false )
+				.layer( 1, new double[] { 3.0 }, new double[] { 1.0 }, CompiledNetwork.ACT_LINEAR, 2.0, false )
+				.build();
+
+		double net0 = 0.5 * 1.0 - 1.0 * 2.0 + 0.25;
+		double e = Math.exp( 2.0 * net0 );
+		double h = (e - 1) / (e + 1);
+
+		double[] out = new double[ 1 ];
+		net.predict( new double[] { 1.0, 2.0 }, out );
+
+		assertEquals( 2.0 * (3.0 * h + 1.0), out[ 0 ], 1e-12 );
+
+	}
+
+	@Test
+	public void testSoftmaxRowsSumToOne() {
+
+		CompiledNetwork net = smallNetwork( 1 );
+
+		double[] in = { 0.1, -2.0, 3.0, 1.0, 1.0, 1.0 };
+		double[] out = new double[ 4 ];
+
+		net.predict( in, out, 2 );
+
+		assertEquals( 1.0, out[ 0 ] + out[ 1 ], 1e-12 );
+		assertEquals( 1.0, out[ 2 ] + out[ 3 ], 1e-12 );
+
+	}
+
+	@Test
+	public void testBatchMatchesSingleRows() {
+
+		CompiledNetwork net = smallNetwork( 2 );
+		Random r = new Random( 3 );
+
+		int rows = 17;
+		double[] in = new double[ rows * 3 ];
+		for (int i = 0; i < in.length; i++) in[ i ] = r.nextGaussian();
+
+		double[] batch = new double[ rows * 2 ];
+		net.predict( in, batch, rows );
+
+		for (int row = 0; row < rows; row++) {
+
+			double[] single = new double[ 2 ];
+			net.predict( new double[] { in[ row * 3 ], in[ row * 3 + 1 ], in[ row * 3 + 2 ] }, single );
+
+			assertEquals( single[ 0 ], batch[ row * 2 ], 1e-12 );
+			assertEquals( single[ 1 ], batch[ row * 2 + 1 ], 1e-12 );
+
+		}
+
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsWrongWeightCount() {
+
+		new CompiledNetwork.Builder( 3 ).layer( 2, new double[ 5 ], new double[ 2 ], CompiledNetwork.ACT_SIGMOID, 1.0, false );
+
+	}
+
+	@Test
+	public void testBatchingPredictorUnderConcurrency() throws Exception {
+
+		final CompiledNetwork net = smallNetwork( 4 );
+		final BatchingPredictor predictor = new BatchingPredictor( net, 2, 8, 50 );
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+		Thread[] callers = new Thread[ 8 ];
+
+		for (int t = 0; t < callers.length; t++) {
+
+			final long seed = t;
+
+			callers[ t ] = new Thread() {
+
+				@Override
+				public void run() {
+
+					try {
+
+						Random r = new Random( seed );
+						double[] in = new double[ 3 ];
+						double[] expected = new double[ 2 ];
+						double[] actual = new double[ 2 ];
+
+						for (int i = 0; i < 500; i++) {
+
+							in[ 0 ] = r.nextGaussian();
+							in[ 1 ] = r.nextGaussian();
+							in[ 2 ] = r.nextGaussian();
+
+							net.predict( in, expected );
+							predictor.predict( in, actual );
+
+							assertEquals( expected[ 0 ], actual[ 0 ], 1e-12 );
+							assertEquals( expected[ 1 ], actual[ 1 ], 1e-12 );
+
+						}
+
+					} catch (Throwable e) {
+						failure.compareAndSet( null, e );
+					}
+
+				}
+
+			};
+
+			callers[ t ].start();
+
+		}
+
+		for (Thread caller : callers) {
+			caller.join();
+		}
+
+		predictor.shutdown();
+
+		if (null != failure.get()) {
+			throw new AssertionError( failure.get() );
+		}
+
+		assertEquals( 8 * 500, predictor.getRequests() );
+		assertTrue( predictor.getBatches() <= predictor.getRequests() );
+
+	}
+
+	/**
+	 * A caller interrupted at random points: once predict() has thrown, nothing writes to
+	 * its output anymore
+	 *
+	 */
+	@Test
+	public void testInterruptedCallerIsNotWrittenAfterGivingUp() throws Exception {
+
+		final BatchingPredictor predictor = new BatchingPredictor( smallNetwork( 5 ), 1, 4, 200 );
+
+		// { output, copy taken when predict() threw }
+		final List<double[][]> abandoned = new ArrayList<double[][]>();
+
+		Thread caller = new Thread() {
+
+			@Override
+			public void run() {
+
+				double[] in = { 0.1, 0.2, 0.3 };
+
+				for (int i = 0; i < 2000; i++) {
+
+					double[] out = new double[ 2 ];
+					Arrays.fill( out, Double.NaN );
+
+					try {
+						predictor.predict( in, out );
+					} catch (InterruptedException e) {
+						abandoned.add( new double[][] { out, out.clone() } );
+					}
+
+				}
+
+			}
+
+		};
+
+		caller.start();
+
+		Random r = new Random( 5 );
+		while (caller.isAlive()) {
+			Thread.sleep( 0, r.nextInt( 500000 ) );
+			caller.interrupt();
+		}
+
+		caller.join();
+
+		// give a stray write time to land
+		Thread.sleep( 50 );
+		predictor.shutdown();
+
+		for (double[][] a : abandoned) {
+			assertTrue( Arrays.equals( a[ 1 ], a[ 0 ] ) );
+		}
+
+	}
+
+	/**
+	 * Callers blocked on a full queue get out once the predictor shuts down
+	 *
+	 */
+	@Test
+	public void testShutdownReleasesCallersOnAFullQueue() throws Exception {
+
+		final BatchingPredictor predictor = new BatchingPredictor( smallNetwork( 6 ), 1, 1, 0 );
+
+		Thread[] callers = new Thread[ 16 ];
+
+		for (int t = 0; t < callers.length; t++) {
+
+			callers[ t ] = new Thread() {
+
+				@Override
+				public void run() {
+
+					double[] in = { 0.1, 0.2, 0.3 };
+					double[] out = new double[ 2 ];
+
+					try {
+						while (true) {
+							predictor.predict( in, out );
+						}
+					} catch (IllegalStateException e) {
+						// shut down
+					} catch (InterruptedException e) {
+						// not expected, the join below still sees the thread finish
+					}
+
+				}
+
+			};
+
+			callers[ t ].start();
+
+		}
+
+		Thread.sleep( 50 );
+		predictor.shutdown();
+
+		for (Thread caller : callers) {
+			caller.join( 5000 );
+			assertFalse( caller.isAlive() );
+		}
+
+	}
+
+}
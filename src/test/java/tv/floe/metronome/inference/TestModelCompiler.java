@@ -0,0 +1,89 @@
+package tv.floe.metronome.inference;
+
+import static org.junit.Assert.*;
+
+import org.apache.commons.math3.random.MersenneTwister;
+import org.apache.mahout.math.DenseMatrix;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Matrix;
+import org.apache.mahout.math.Vector;
+import org.junit.Test;
+
+import tv.floe.metronome.classification.neuralnetworks.conf.Config;
+import tv.floe.metronome.classification.neuralnetworks.networks.MultiLayerPerceptronNetwork;
+import tv.floe.metronome.deeplearning.dbn.DeepBeliefNetwork;
+
+public class TestModelCompiler {
+
+	@Test
+	public void testMLPMatchesCalculate() throws Exception {
+
+		Config c = new Config();
+		c.parse(null); // default layer: 2-3-2
+
+		MultiLayerPerceptronNetwork mlp = new MultiLayerPerceptronNetwork();
+		mlp.buildFromConf(c);
+
+		CompiledNetwork net = ModelCompiler.compile( mlp );
+
+		assertEquals( 2, net.getInputSize() );
+		assertEquals( 2, net.getOutputSize() );
+
+		double[][] records = { { 1, 2 }, { 0, 0 }, { -0.5, 3 } };
+		double[] out = new double[ 2 ];
+
+		for (double[] record : records) {
+
+			Vector vec = new DenseVector( record );
+
+			mlp.setInputVector( vec );
+			mlp.calculate();
+			Vector expected = mlp.getOutputVector();
+
+			net.predict( record, out );
+
+			assertEquals( expected.get( 0 ), out[ 0 ], 1e-12 );
+			assertEquals( expected.get( 1 ), out[ 1 ], 1e-12 );
+
+		}
+
+	}
+
+	@Test
+	public void testDBNMatchesPredict() {
+
+		MersenneTwister rng = new MersenneTwister( 123 );
+
+		Matrix x = new DenseMatrix( new double[][] { { 1, 0, 1 }, { 0, 1, 1 }, { 1, 1, 0 } } );
+		Matrix y = new DenseMatrix( new double[][] { { 1, 0 }, { 0, 1 }, { 1, 0 } } );
+
+		DeepBeliefNetwork dbn = new DeepBeliefNetwork( 3, new int[] { 4, 3 }, 2, 2, rng, x, y );
+
+		// the output layer starts at zero, give it something to separate on
+		for (int i = 0; i < 3; i++) {
+			for (int j = 0; j < 2; j++) {
+				dbn.logisticRegressionLayer.connectionWeights.set( i, j, rng.nextGaussian() );
+			}
+		}
+
+		CompiledNetwork net = ModelCompiler.compile( dbn );
+		double[] out = new double[ 2 ];
+
+		for (int r = 0; r < x.numRows(); r++) {
+
+			// one row at a time: predict() normalizes the softmax over the whole matrix
+			Matrix row = new DenseMatrix( 1, 3 );
+			row.assignRow( 0, x.viewRow( r ) );
+			Matrix expected = dbn.predict( row );
+
+			double[] record = { x.get( r, 0 ), x.get( r, 1 ), x.get( r, 2 ) };
+			net.predict( record, out );
+
+			assertEquals( expected.get( 0, 0 ), out[ 0 ], 1e-9 );
+			assertEquals( expected.get( 0, 1 ), out[ 1 ], 1e-9 );
+
+		}
+
+	}
+
+}
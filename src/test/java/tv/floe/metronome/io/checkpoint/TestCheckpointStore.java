@@ -0,0 +1,191 @@
+package tv.floe.metronome.io.checkpoint;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Before;
+import org.junit.Test;
+
+import tv.floe.metronome.io.records.SplitTextRecordParser;
+
+public class TestCheckpointStore {
+
+	private static String outputBaseDir = "/tmp/TestCheckpointStore/";
+
+	private FileSystem localFs = null;
+	private Path dir = null;
+
+	@Before
+	public void setUp() throws IOException {
+
+		Configuration conf = new Configuration();
+		conf.set( "fs.defaultFS", "file:///" );
+		this.localFs = FileSystem.getLocal( conf );
+
+		this.dir = new Path( outputBaseDir );
+		this.localFs.delete( this.dir, true );
+
+	}
+
+	private static SplitTextRecordParser split(String file, long offset, long length) {
+
+		SplitTextRecordParser parser = new SplitTextRecordParser();
+		parser.setFile( file, offset, length );
+		return parser;
+
+	}
+
+	private static byte[] state(int seed, int length) {
+
+		byte[] b = new byte[ length ];
+		for (int i = 0; i < length; i++) {
+			b[ i ] = (byte) (seed * 31 + i);
+		}
+		return b;
+
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+
+		CheckpointStore store = new CheckpointStore( this.localFs, this.dir, 1, 2, false );
+
+		store.write( CheckpointStore.MASTER, 3, 2, state( 1, 1000 ) );
+		store.write( CheckpointStore.workerName( "a" ), 3, 0, new byte[ 0 ] );
+
+		assertArrayEquals( state( 1, 1000 ), store.read( CheckpointStore.MASTER, 3 ) );
+		assertEquals( 0, store.read( CheckpointStore.workerName( "a" ), 3 ).length );
+
+		// rewriting a superstep replaces it
+		store.write( CheckpointStore.MASTER, 3, 2, state( 2, 10 ) );
+		assertArrayEquals( state( 2, 10 ), store.read( CheckpointStore.MASTER, 3 ) );
+
+		assertNull( store.read( CheckpointStore.MASTER, 4 ) );
+		assertNull( store.read( CheckpointStore.workerName( "b" ), 3 ) );
+
+	}
+
+	@Test
+	public void testLatestConsistentNeedsEveryWorker() throws Exception {
+
+		CheckpointStore store = new CheckpointStore( this.localFs, this.dir, 1, 5, true );
+
+		assertEquals( -1, store.latestConsistent() );
+
+		store.write( CheckpointStore.MASTER, 1, 2, state( 1, 8 ) );
+		store.write( CheckpointStore.workerName( "a" ), 1, 0, state( 2, 8 ) );
+
+		// one of two workers
+		assertEquals( -1, store.latestConsistent() );
+
+		store.write( CheckpointStore.workerName( "b" ), 1, 0, state( 3, 8 ) );
+		assertEquals( 1, store.latestConsistent() );
+
+		// workers ahead of the master don't count until the master's file is there
+		store.write( CheckpointStore.workerName( "a" ), 2, 0, state( 4, 8 ) );
+		store.write( CheckpointStore.workerName( "b" ), 2, 0, state( 5, 8 ) );
+		assertEquals( 1, store.latestConsistent() );
+
+		store.write( CheckpointStore.MASTER, 2, 2, state( 6, 8 ) );
+		assertEquals( 2, store.latestConsistent() );
+
+		// superstep 10 sorts after 2 numerically, not as a string
+		store.write( CheckpointStore.MASTER, 10, 1, state( 7, 8 ) );
+		store.write( CheckpointStore.workerName( "a" ), 10, 0, state( 8, 8 ) );
+		assertEquals( 10, store.latestConsistent() );
+
+	}
+
+	@Test
+	public void testPruneKeepsNewestConsistent() throws Exception {
+
+		CheckpointStore store = new CheckpointStore( this.localFs, this.dir, 1, 1, false );
+
+		for (int superstep = 1; superstep <= 3; superstep++) {
+			store.write( CheckpointStore.MASTER, superstep, 1, state( superstep, 8 ) );
+			store.write( CheckpointStore.workerName( "a" ), superstep, 0, state( superstep, 8 ) );
+		}
+
+		// 4 is still being written
+		store.write( CheckpointStore.MASTER, 4, 1, state( 4, 8 ) );
+
+		store.prune();
+
+		assertNull( store.read( CheckpointStore.MASTER, 1 ) );
+		assertNull( store.read( CheckpointStore.MASTER, 2 ) );
+		assertNotNull( store.read( CheckpointStore.MASTER, 3 ) );
+		assertNotNull( store.read( CheckpointStore.MASTER, 4 ) );
+		assertEquals( 3, store.latestConsistent() );
+
+	}
+
+	@Test
+	public void testIsDue() {
+
+		CheckpointStore store = new CheckpointStore( this.localFs, this.dir, 3, 2, false );
+
+		assertFalse( store.isDue( 0 ) );
+		assertFalse( store.isDue( 2 ) );
+		assertTrue( store.isDue( 3 ) );
+		assertTrue( store.isDue( 6 ) );
+
+		assertFalse( new CheckpointStore( this.localFs, this.dir, 0, 2, false ).isDue( 3 ) );
+
+	}
+
+	@Test
+	public void testFromConf() throws Exception {
+
+		Configuration conf = new Configuration();
+		assertNull( CheckpointStore.fromConf( conf ) );
+
+		conf.set( CheckpointStore.CONF_DIR, outputBaseDir );
+		conf.setBoolean( CheckpointStore.CONF_RESUME, true );
+
+		CheckpointStore store = CheckpointStore.fromConf( conf );
+		assertNotNull( store );
+		assertTrue( store.isResume() );
+		assertTrue( store.isDue( 1 ) );
+
+	}
+
+	@Test
+	public void testSplitKeyIsPathOffsetAndLength() throws Exception {
+
+		// two splits with the same lines in them
+		String a = "src/test/resources/data/xor/twoworkers/xor_train_split_0.txt";
+		String b = "src/test/resources/data/xor/twoworkers/xor_train_split_1.txt";
+
+		assertEquals( CheckpointStore.splitHash( split( a, 0, 40 ) ), CheckpointStore.splitHash( split( b, 0, 40 ) ) );
+
+		assertEquals( CheckpointStore.splitKey( split( a, 0, 40 ) ), CheckpointStore.splitKey( split( a, 0, 40 ) ) );
+
+		assertFalse( CheckpointStore.splitKey( split( a, 0, 40 ) ).equals( CheckpointStore.splitKey( split( b, 0, 40 ) ) ) );
+		assertFalse( CheckpointStore.splitKey( split( a, 0, 40 ) ).equals( CheckpointStore.splitKey( split( a, 10, 30 ) ) ) );
+		assertFalse( CheckpointStore.splitKey( split( a, 0, 40 ) ).equals( CheckpointStore.splitKey( split( a, 0, 30 ) ) ) );
+
+	}
+
+	@Test
+	public void testWriterWritesInTheBackground() throws Exception {
+
+		CheckpointStore store = new CheckpointStore( this.localFs, this.dir, 1, 1, false );
+		CheckpointWriter writer = new CheckpointWriter( store );
+
+		assertTrue( writer.submit( CheckpointStore.MASTER, 1, 0, state( 1, 4096 ), true ) );
+		writer.flush();
+
+		assertTrue( writer.submit( CheckpointStore.MASTER, 2, 0, state( 2, 4096 ), true ) );
+		writer.close();
+
+		// no workers, so each master file is consistent on its own and prune kept only 2
+		assertNull( store.read( CheckpointStore.MASTER, 1 ) );
+		assertArrayEquals( state( 2, 4096 ), store.read( CheckpointStore.MASTER, 2 ) );
+
+	}
+
+}
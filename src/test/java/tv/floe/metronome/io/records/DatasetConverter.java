@@ -8,6 +8,14 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.Vector;
+
 public class DatasetConverter {
 	
 	/**
@@ -71,6 +79,38 @@ public class DatasetConverter {
 	}
 	
 
+	/**
+	 * Writes a text dataset out the way DocumentVectorizationJob would for one worker:
+	 * a SequenceFile of NullWritable -> VectorizedRecordWritable, one record per line
+	 * 
+	 * - input vectors are featureVectorSize long, the same as a worker's text path builds
+	 * 
+	 */
+	public static void convertTextToVectorized(String filename, RecordFactory factory, int featureVectorSize, String file_out) throws Exception {
+		
+		Configuration conf = new Configuration();
+		FileSystem fs = FileSystem.getLocal( conf );
+		Path out = new Path( file_out );
+		fs.delete( out, false );
+		
+		SequenceFile.Writer writer = SequenceFile.createWriter( fs, conf, out, NullWritable.class, VectorizedRecordWritable.class );
+		
+		BufferedReader br = new BufferedReader(new FileReader(filename));
+		String line;
+		while ((line = br.readLine()) != null) {
+			
+			Vector input = new RandomAccessSparseVector( featureVectorSize );
+			Vector output = new RandomAccessSparseVector( factory.getOutputVectorSize() );
+			factory.vectorizeLine( line, input, output );
+			
+			writer.append( NullWritable.get(), new VectorizedRecordWritable( input, output ) );
+			
+		}
+		br.close();
+		writer.close();
+		
+	}
+	
 	/**
 	 * @param args
 	 * @throws IOException 
@@ -0,0 +1,142 @@
+package tv.floe.metronome.io.records;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.apache.mahout.classifier.sgd.L1;
+import org.apache.mahout.classifier.sgd.PriorFunction;
+import org.apache.mahout.classifier.sgd.UniformPrior;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.Vector;
+import org.junit.Test;
+
+import tv.floe.metronome.linearregression.ParallelOnlineLinearRegression;
+
+import com.cloudera.iterativereduce.io.TextRecordParser;
+
+public class TestCompactVectorCache {
+
+	private static String outputBaseDir = "/tmp/TestCompactVectorCache/";
+
+	private static int numRecords = 3000;
+	private static int numFeatures = 5;
+
+	private static String record(int r) {
+		return (r % 17) + ".5 |f 0:" + (r % 7) + " 1:" + (r % 3) + " 3:" + (r % 11);
+	}
+
+	private File writeRecords() throws IOException {
+
+		File base_dir = new File(outputBaseDir);
+		if (!base_dir.exists()) {
+			base_dir.mkdirs();
+		}
+
+		File file = new File( outputBaseDir + "records.txt" );
+		FileWriter writer = new FileWriter( file );
+		for (int r = 0; r < numRecords; r++) {
+			writer.write( record( r ) + "\n" );
+		}
+		writer.close();
+
+		return file;
+
+	}
+
+	@Test
+	public void testFillMatchesProcessLineAlt() throws Exception {
+
+		File file = writeRecords();
+
+		TextRecordParser txt_reader = new TextRecordParser();
+		txt_reader.setFile( file.getAbsolutePath(), 0, file.length() );
+
+		RCV1RecordFactory factory = new RCV1RecordFactory();
+
+		CompactVectorCache cache = new CompactVectorCache();
+		assertEquals( numRecords, cache.fill( txt_reader, factory, numFeatures ) );
+
+		assertTrue( cache.isComplete() );
+		assertEquals( numRecords, cache.size() );
+
+		for (int r = 0; r < numRecords; r++) {
+
+			Vector expected = new RandomAccessSparseVector( numFeatures );
+			double label = factory.processLineAlt( record( r ), expected );
+
+			assertEquals( label, cache.label( r ), 0.0 );
+
+			Vector cached = new RandomAccessSparseVector( numFeatures );
+			for (int k = cache.rowStart( r ); k < cache.rowEnd( r ); k++) {
+				cached.set( cache.index( k ), cache.value( k ) );
+			}
+
+			assertEquals( 0.0, expected.minus( cached ).norm( 1 ), 0.0 );
+
+		}
+
+	}
+
+	@Test
+	public void testCachedTrainMatchesVectorTrain() throws Exception {
+		assertCachedTrainMatchesVectorTrain( new UniformPrior() );
+	}
+
+	/**
+	 * The Vector path never applies the prior to a regression (regularize() has no rows
+	 * to age), the cached path has to agree even with a prior that would move beta
+	 *
+	 */
+	@Test
+	public void testCachedTrainIgnoresPriorLikeVectorTrain() throws Exception {
+		assertCachedTrainMatchesVectorTrain( new L1() );
+	}
+
+	private void assertCachedTrainMatchesVectorTrain(PriorFunction prior) throws Exception {
+
+		File file = writeRecords();
+
+		TextRecordParser txt_reader = new TextRecordParser();
+		txt_reader.setFile( file.getAbsolutePath(), 0, file.length() );
+
+		RCV1RecordFactory factory = new RCV1RecordFactory();
+
+		CompactVectorCache cache = new CompactVectorCache();
+		cache.fill( txt_reader, factory, numFeatures );
+
+		ParallelOnlineLinearRegression cached = new ParallelOnlineLinearRegression(
+				numFeatures, prior).alpha(1).stepOffset(1000)
+				.decayExponent(0.9).lambda(3.0e-5).learningRate(5);
+
+		ParallelOnlineLinearRegression vectors = new ParallelOnlineLinearRegression(
+				numFeatures, prior).alpha(1).stepOffset(1000)
+				.decayExponent(0.9).lambda(3.0e-5).learningRate(5);
+
+		for (int r = 0; r < 200; r++) {
+
+			Vector v = new RandomAccessSparseVector( numFeatures );
+			double actual = factory.processLineAlt( record( r ), v );
+
+			assertEquals( v.dot( vectors.getBeta().viewRow( 0 ) ), cached.predict( cache, r ), 1e-9 );
+
+			// what the workers did per record before the cache
+			vectors.train( actual, v );
+			vectors.close();
+
+			cached.train( cache, r );
+			cached.closeRecord();
+
+			assertEquals( vectors.getStep(), cached.getStep() );
+
+		}
+
+		for (int j = 0; j < numFeatures; j++) {
+			assertEquals( vectors.getBeta().get( 0, j ), cached.getBeta().get( 0, j ), 1e-9 );
+		}
+
+	}
+
+}
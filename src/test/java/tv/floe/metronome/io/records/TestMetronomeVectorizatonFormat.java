@@ -2,7 +2,10 @@ package tv.floe.metronome.io.records;
 
 import static org.junit.Assert.assertEquals;
 
+import org.apache.mahout.math.DenseMatrix;
+import org.apache.mahout.math.Matrix;
 import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.SparseRowMatrix;
 import org.apache.mahout.math.Vector;
 import org.junit.Test;
 
@@ -230,4 +233,54 @@ public class TestMetronomeVectorizatonFormat {
 		
 	}
 	
+	@Test
+	public void testVectorizeLineToMatrixRow() throws Exception {
+		
+		String schema = "i:200 | o:5";
+		
+		String record_0 = "3:1 11:1 14:1 | 0:1.0"; 
+		String record_1 = "3:0.25 6:1 103:1 | 3:0.5 4:-1.0 ";
+		
+		MetronomeRecordFactory rec_factory = new MetronomeRecordFactory(schema);
+		
+		Matrix inputs = new DenseMatrix( 2, rec_factory.getFeatureVectorSize() );
+		Matrix labels = new DenseMatrix( 2, rec_factory.getOutputVectorSize() );
+		
+		// dirty the rows to make sure they get cleared
+		inputs.assign( 9.0 );
+		labels.assign( 9.0 );
+		
+		rec_factory.vectorizeLineToMatrixRow( record_0, inputs, labels, 0 );
+		rec_factory.vectorizeLineToMatrixRow( record_1, inputs, labels, 1 );
+		
+		Vector v_in = new RandomAccessSparseVector( rec_factory.getFeatureVectorSize() );
+		Vector v_out = new RandomAccessSparseVector( rec_factory.getOutputVectorSize() );
+		
+		rec_factory.vectorizeLine( record_1, v_in, v_out );
+		
+		assertEquals( 1.0, inputs.get(0, 3), 0.0 );
+		assertEquals( 0.0, inputs.get(0, 4), 0.0 );
+		assertEquals( 1.0, labels.get(0, 0), 0.0 );
+		assertEquals( 0.0, labels.get(0, 1), 0.0 );
+		
+		for (int col = 0; col < inputs.numCols(); col++) {
+			assertEquals( v_in.get(col), inputs.get(1, col), 0.0 );
+		}
+		for (int col = 0; col < labels.numCols(); col++) {
+			assertEquals( v_out.get(col), labels.get(1, col), 0.0 );
+		}
+		
+		// sparse row batches take the same path
+		Matrix sparseInputs = new SparseRowMatrix( 1, rec_factory.getFeatureVectorSize() );
+		Matrix sparseLabels = new SparseRowMatrix( 1, rec_factory.getOutputVectorSize() );
+		
+		rec_factory.vectorizeLineToMatrixRow( record_1, sparseInputs, sparseLabels, 0 );
+		
+		assertEquals( 0.25, sparseInputs.get(0, 3), 0.0 );
+		assertEquals( 1.0, sparseInputs.get(0, 103), 0.0 );
+		assertEquals( 3, sparseInputs.viewRow(0).getNumNondefaultElements() );
+		assertEquals( -1.0, sparseLabels.get(0, 4), 0.0 );
+		
+	}
+	
 }
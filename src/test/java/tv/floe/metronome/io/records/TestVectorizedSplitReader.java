@@ -0,0 +1,159 @@
+package tv.floe.metronome.io.records;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.Vector;
+import org.junit.Test;
+
+public class TestVectorizedSplitReader {
+
+	private static String outputBaseDir = "/tmp/TestVectorizedSplitReader/";
+
+	// enough records for the writer to put down plenty of sync markers
+	private static int numRecords = 5000;
+	private static int numFeatures = 8;
+
+	private Configuration conf = new Configuration();
+
+	/**
+	 * Record r has label r and features (r % numFeatures) and 0
+	 *
+	 */
+	private Path writeRecords(int featureVectorSize) throws IOException {
+
+		FileSystem fs = FileSystem.getLocal( this.conf );
+		Path file = new Path( outputBaseDir + "part-00000" );
+		fs.delete( file, false );
+
+		SequenceFile.Writer writer = SequenceFile.createWriter( fs, this.conf, file, NullWritable.class, VectorizedRecordWritable.class );
+
+		for (int r = 0; r < numRecords; r++) {
+
+			Vector input = new RandomAccessSparseVector( featureVectorSize );
+			input.set( 0, 1.0 );
+			input.set( r % featureVectorSize, 2.0 );
+
+			Vector output = new RandomAccessSparseVector( 1 );
+			output.set( 0, r );
+
+			writer.append( NullWritable.get(), new VectorizedRecordWritable( input, output ) );
+
+		}
+
+		writer.close();
+
+		return file;
+
+	}
+
+	private long length(Path file) throws IOException {
+		return new File( file.toString() ).length();
+	}
+
+	@Test
+	public void testIsVectorized() {
+
+		Configuration c = new Configuration();
+		assertFalse( VectorizedSplitReader.isVectorized( c ) );
+
+		c.set( VectorizedSplitReader.CONF_INPUT_FORMAT, VectorizedSplitReader.FORMAT_VECTORIZED );
+		assertTrue( VectorizedSplitReader.isVectorized( c ) );
+
+		c.set( VectorizedSplitReader.CONF_INPUT_FORMAT, "avro" );
+		try {
+			VectorizedSplitReader.isVectorized( c );
+			fail( "Unknown format accepted" );
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+
+	}
+
+	@Test
+	public void testSplitsCoverEveryRecordOnce() throws Exception {
+
+		Path file = this.writeRecords( numFeatures );
+		long length = this.length( file );
+
+		// cuts that land mid record, the last split runs to the end of the file
+		long[] cuts = { 0, length / 3 + 7, (2 * length) / 3 - 11, length };
+
+		VectorizedRecordWritable record = new VectorizedRecordWritable();
+		int expected = 0;
+
+		for (int s = 0; s < cuts.length - 1; s++) {
+
+			VectorizedSplitReader reader = new VectorizedSplitReader( this.conf, file, cuts[ s ], cuts[ s + 1 ] - cuts[ s ] );
+
+			int inSplit = 0;
+			while (reader.next( record )) {
+				assertEquals( expected, (int) record.getOutput().get( 0 ) );
+				expected++;
+				inSplit++;
+			}
+
+			reader.close();
+
+			assertTrue( inSplit > 0 );
+
+		}
+
+		assertEquals( numRecords, expected );
+
+	}
+
+	@Test
+	public void testForSplitNeedsTheSplit() throws Exception {
+
+		Path file = this.writeRecords( numFeatures );
+
+		try {
+			VectorizedSplitReader.forSplit( this.conf, new SplitTextRecordParser() );
+			fail( "A parser without a split was accepted" );
+		} catch (IllegalStateException e) {
+			// expected
+		}
+
+		SplitTextRecordParser split = new SplitTextRecordParser();
+		split.setFile( file.toString(), 0, this.length( file ) );
+
+		CompactVectorCache cache = new CompactVectorCache();
+		VectorizedSplitReader reader = VectorizedSplitReader.forSplit( this.conf, split );
+		assertEquals( numRecords, cache.fill( reader, numFeatures, null ) );
+		reader.close();
+
+		assertTrue( cache.isComplete() );
+		assertEquals( 17.0, cache.label( 17 ), 0.0 );
+		assertEquals( 2, cache.rowEnd( 17 ) - cache.rowStart( 17 ) );
+
+	}
+
+	@Test
+	public void testFillRejectsFeaturesPastTheModel() throws Exception {
+
+		Path file = this.writeRecords( numFeatures );
+
+		CompactVectorCache cache = new CompactVectorCache();
+		VectorizedSplitReader reader = new VectorizedSplitReader( this.conf, file, 0, this.length( file ) );
+
+		try {
+			cache.fill( reader, numFeatures - 1, null );
+			fail( "Feature " + (numFeatures - 1) + " loaded into a " + (numFeatures - 1) + " feature model" );
+		} catch (IllegalStateException e) {
+			// expected
+		} finally {
+			reader.close();
+		}
+
+	}
+
+}
@@ -23,6 +23,7 @@ import org.apache.hadoop.mapred.InputSplit;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.TextInputFormat;
 
+import tv.floe.metronome.io.records.SplitTextRecordParser;
 import tv.floe.metronome.utils.Utils;
 
 import antlr.ByteBuffer;
@@ -56,6 +57,9 @@ public class IRUnitDriver<T> {
 	private static Path workDir = new Path("/tmp/");
 
 	Properties props;
+	
+	// applied on top of the app.properties file, see IRUnitDriver(String, Properties)
+	private Properties overrides = null;
 
 	private ComputableMaster master;
 	private ArrayList<ComputableWorker> workers;
@@ -64,6 +68,10 @@ public class IRUnitDriver<T> {
 	Updateable master_result = null;
 	boolean bContinuePass = true;
 
+	// per superstep timings / message sizes, see IRUnitRunStats
+	private IRUnitRunStats runStats = new IRUnitRunStats();
+	private boolean measureMasterMessages = false;
+
 	InputSplit[] splits;
 
 	/**
@@ -142,6 +150,20 @@ public class IRUnitDriver<T> {
 		
 	}
 
+	/**
+	 * Same profile with a few settings swapped out, eg: a shorter app.iteration.count
+	 * or tv.floe.metronome.checkpoint.resume=true for the restarted job
+	 * 
+	 * @param app_prop
+	 * @param overrides
+	 */
+	public IRUnitDriver(String app_prop, Properties overrides) {
+
+		this.app_properties_file = app_prop;
+		this.overrides = overrides;
+		
+	}
+
 	/**
 	 * Setup components of the IR app run 1. load app.properties 2. msg arrays
 	 * 3. calc local splits 4. setup master 5. setup workers based on number of
@@ -168,6 +190,10 @@ public class IRUnitDriver<T> {
 			// throw ex; // TODO: be nice
 			System.out.println(ex);
 		}
+		
+		if (null != this.overrides) {
+			props.putAll(this.overrides);
+		}
 
 		// setup msg arrays
 
@@ -278,7 +304,8 @@ public class IRUnitDriver<T> {
 
 			// InputRecordsSplit custom_reader_0 = new InputRecordsSplit(job,
 			// splits[x]);
-			TextRecordParser txt_reader = new TextRecordParser();
+			// remembers its split, so checkpoints can be keyed on it
+			TextRecordParser txt_reader = new SplitTextRecordParser();
 
 			long len = Integer.parseInt(splits[x].toString().split(":")[2]
 					.split("\\+")[1]);
@@ -310,29 +337,61 @@ public class IRUnitDriver<T> {
 		
 		for (int x = 0; x < iterations; x++) {
 
+			IRUnitRunStats.Superstep step = this.runStats.begin(x, workers.size());
+			long superstepStart = System.nanoTime();
+
 			for (int worker_id = 0; worker_id < workers.size(); worker_id++) {
 
+				long t0 = System.nanoTime();
 				Updateable result = workers.get(worker_id).compute();
+				long t1 = System.nanoTime();
 				java.nio.ByteBuffer bb = result.toBytes();
+				step.workerMessageBytes[worker_id] = bb.remaining();
 				result.fromBytes(bb);
 				
+				step.workerComputeNanos[worker_id] = t1 - t0;
+				step.serdeNanos += System.nanoTime() - t1;
+				
 				worker_results.add(result);
 				// ParameterVectorGradient msg0 =
 				// workers.get(worker_id).GenerateUpdate();
 
 			} // for
 
+			long masterStart = System.nanoTime();
 			Updateable master_result = this.master.compute(worker_results,
 					master_results);
+			step.masterComputeNanos = System.nanoTime() - masterStart;
 			
+			if (this.measureMasterMessages && null != master_result) {
+				step.masterMessageBytes = master_result.toBytes().remaining();
+			}
 
 			// process global updates
+			boolean anyWorkerContinues = false;
+			long updateStart = System.nanoTime();
+			
 			for (int worker_id = 0; worker_id < workers.size(); worker_id++) {
 
 				workers.get(worker_id).update(master_result);
-				workers.get(worker_id).IncrementIteration();
+				
+				if (workers.get(worker_id).IncrementIteration()) {
+					anyWorkerContinues = true;
+				}
 
 			}
+			
+			step.updateNanos = System.nanoTime() - updateStart;
+			// the master message sizing isn't part of the superstep
+			step.totalNanos = (masterStart - superstepStart) + step.masterComputeNanos + step.updateNanos;
+			
+			// every worker is done (ran out of iterations, or the master signaled convergence)
+			if (!anyWorkerContinues) {
+				
+				System.out.println("All workers done after " + (x + 1) + " of " + iterations + " Iterations.");
+				break;
+				
+			}
 /*			
 		      if (master_result.get().IterationComplete == 1) {
 		          
@@ -407,4 +466,27 @@ public class IRUnitDriver<T> {
 		
 	}
 
+	/**
+	 * Timings and message sizes of every superstep SimulateRun() has run so far
+	 * 
+	 * @return
+	 */
+	public IRUnitRunStats getRunStats() {
+		
+		return this.runStats;
+		
+	}
+	
+	/**
+	 * Also size the master's Updateable each superstep (one extra toBytes(), outside the
+	 * superstep timings)
+	 * 
+	 * @param measure
+	 */
+	public void setMeasureMasterMessages(boolean measure) {
+		
+		this.measureMasterMessages = measure;
+		
+	}
+
 }
@@ -0,0 +1,119 @@
+package tv.floe.metronome.irunit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Per superstep timings and message sizes from an IRUnitDriver run
+ *
+ * 		workerComputeNanos[w]	worker w's compute()
+ * 		workerMessageBytes[w]	worker w's Updateable on the wire (toBytes().remaining())
+ * 		serdeNanos				the toBytes() / fromBytes() round trips, all workers
+ * 		masterComputeNanos		master.compute()
+ * 		masterMessageBytes		the master's Updateable on the wire, -1 unless the driver
+ * 								was asked to measure it (it costs an extra toBytes())
+ * 		updateNanos				update() + IncrementIteration() on every worker
+ * 		totalNanos				the whole superstep
+ *
+ * Workers run one after the other in IRUnit, on a cluster they'd overlap, so the
+ * slowest worker (maxWorkerComputeNanos()) is the superstep's compute critical path.
+ *
+ * @author josh
+ *
+ */
+public class IRUnitRunStats {
+
+	public static class Superstep {
+
+		public int iteration;
+
+		public long[] workerComputeNanos;
+		public long[] workerMessageBytes;
+		public long serdeNanos = 0;
+		public long masterComputeNanos = 0;
+		public long masterMessageBytes = -1;
+		public long updateNanos = 0;
+		public long totalNanos = 0;
+
+		public Superstep(int iteration, int workers) {
+
+			this.iteration = iteration;
+			this.workerComputeNanos = new long[ workers ];
+			this.workerMessageBytes = new long[ workers ];
+
+		}
+
+		public long maxWorkerComputeNanos() {
+
+			long max = 0;
+			for (int w = 0; w < this.workerComputeNanos.length; w++) {
+				max = Math.max( max, this.workerComputeNanos[ w ] );
+			}
+
+			return max;
+
+		}
+
+		public long totalWorkerMessageBytes() {
+
+			long bytes = 0;
+			for (int w = 0; w < this.workerMessageBytes.length; w++) {
+				bytes += this.workerMessageBytes[ w ];
+			}
+
+			return bytes;
+
+		}
+
+	}
+
+	private final List<Superstep> supersteps = new ArrayList<Superstep>();
+
+	/**
+	 * Starts recording the next superstep
+	 *
+	 */
+	public Superstep begin(int iteration, int workers) {
+
+		Superstep s = new Superstep( iteration, workers );
+		this.supersteps.add( s );
+
+		return s;
+
+	}
+
+	public List<Superstep> getSupersteps() {
+
+		return Collections.unmodifiableList( this.supersteps );
+
+	}
+
+	public int size() {
+
+		return this.supersteps.size();
+
+	}
+
+	/**
+	 * Sum of worker w's compute() time over the run
+	 *
+	 */
+	public long workerComputeNanos(int worker) {
+
+		long nanos = 0;
+		for (Superstep s : this.supersteps) {
+			nanos += s.workerComputeNanos[ worker ];
+		}
+
+		return nanos;
+
+	}
+
+	public void clear() {
+
+		this.supersteps.clear();
+
+	}
+
+}
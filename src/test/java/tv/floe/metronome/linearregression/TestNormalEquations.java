@@ -0,0 +1,137 @@
+package tv.floe.metronome.linearregression;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.apache.mahout.math.Matrix;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.Vector;
+import org.junit.Test;
+
+public class TestNormalEquations {
+
+	private static double[] coefficients = { 2.0, 3.0, -1.0, 0.5 };
+
+	private static Vector record(int r) {
+
+		Vector v = new RandomAccessSparseVector( coefficients.length );
+		v.set( 0, 1.0 ); // bias
+		v.set( 1, r % 7 );
+		v.set( 2, (r * 3) % 5 );
+		if (0 != r % 4) {
+			v.set( 3, r % 11 );
+		}
+		return v;
+
+	}
+
+	private static double y(Vector v) {
+
+		double y = 0;
+		for (int i = 0; i < coefficients.length; i++) {
+			y += coefficients[ i ] * v.get( i );
+		}
+		return y;
+
+	}
+
+	@Test
+	public void testSolvesExactFit() {
+
+		NormalEquations ne = new NormalEquations( coefficients.length );
+
+		for (int r = 0; r < 100; r++) {
+			Vector v = record( r );
+			ne.accumulate( v, y( v ) );
+		}
+
+		Matrix b = ne.solve( 0 );
+
+		for (int i = 0; i < coefficients.length; i++) {
+			assertEquals( coefficients[ i ], b.get( 0, i ), 1e-8 );
+		}
+
+		RegressionStatistics stats = ne.computeStatistics( b );
+		assertEquals( 1.0, stats.CalculateRSquared(), 1e-8 );
+		assertEquals( 0.0, stats.GetSSE(), 1e-6 );
+
+	}
+
+	@Test
+	public void testMergeAndSerializeMatchSinglePass() throws IOException {
+
+		NormalEquations whole = new NormalEquations( coefficients.length );
+		NormalEquations first = new NormalEquations( coefficients.length );
+		NormalEquations second = new NormalEquations( coefficients.length );
+
+		for (int r = 0; r < 60; r++) {
+
+			Vector v = record( r );
+			// some noise so the fit isn't exact
+			double y = y( v ) + ((r % 3) - 1) * 0.25;
+
+			whole.accumulate( v, y );
+			if (r < 25) {
+				first.accumulate( v, y );
+			} else {
+				second.accumulate( v, y );
+			}
+
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		second.write( new DataOutputStream( bytes ) );
+		NormalEquations shipped = NormalEquations.read( new DataInputStream( new ByteArrayInputStream( bytes.toByteArray() ) ) );
+
+		first.merge( shipped );
+
+		assertEquals( whole.getCount(), first.getCount() );
+
+		Matrix expected = whole.solve( 0.1 );
+		Matrix merged = first.solve( 0.1 );
+
+		for (int i = 0; i < coefficients.length; i++) {
+			assertEquals( expected.get( 0, i ), merged.get( 0, i ), 1e-10 );
+		}
+
+		double r2 = first.computeStatistics( merged ).CalculateRSquared();
+		assertTrue( r2 > 0.9 && r2 < 1.0 );
+
+	}
+
+	@Test
+	public void testUnseenFeatureIsPinnedToZero() {
+
+		NormalEquations ne = new NormalEquations( 4 );
+
+		// feature 2 never shows up
+		for (int r = 0; r < 10; r++) {
+			Vector v = new RandomAccessSparseVector( 4 );
+			v.set( 0, 1.0 );
+			v.set( 1, r );
+			v.set( 3, r % 3 );
+			ne.accumulate( v, 1.0 + 2.0 * r - (r % 3) );
+		}
+
+		Matrix b = ne.solve( 0 );
+
+		assertEquals( 1.0, b.getQuick( 0, 0 ), 1e-9 );
+		assertEquals( 2.0, b.getQuick( 0, 1 ), 1e-9 );
+		assertEquals( 0.0, b.getQuick( 0, 2 ), 0.0 );
+		assertEquals( -1.0, b.getQuick( 0, 3 ), 1e-9 );
+
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsTooManyFeatures() {
+
+		new NormalEquations( 65536 );
+
+	}
+
+}
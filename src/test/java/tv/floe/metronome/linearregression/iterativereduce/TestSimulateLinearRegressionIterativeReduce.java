@@ -33,4 +33,23 @@ public class TestSimulateLinearRegressionIterativeReduce {
 		
 	}
 
+	@Test
+	public void testNormalEquationsOnePass() {
+		
+		IRUnitDriver polr_ir = new IRUnitDriver("src/test/resources/run_profiles/unit_tests/app.unit_test.multi_coeff.normal_equations.properties");
+		polr_ir.Setup();
+
+		polr_ir.SimulateRun();
+		
+		MasterNode master = (MasterNode) polr_ir.getMaster();
+		
+		System.out.println("\n\nComplete (normal equations): ");
+		Utils.PrintVector( master.polr.getBeta().viewRow(0) );
+		
+		for ( int x = 0; x < master.polr.getBeta().numCols(); x++ ) {
+			assertFalse( Double.isNaN( master.polr.getBeta().get(0, x) ) );
+		}
+		
+	}
+
 }
@@ -0,0 +1,99 @@
+package tv.floe.metronome.linearregression.iterativereduce;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Properties;
+
+import org.apache.mahout.math.Matrix;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import tv.floe.metronome.io.records.DatasetConverter;
+import tv.floe.metronome.io.records.RCV1RecordFactory;
+import tv.floe.metronome.io.records.VectorizedSplitReader;
+import tv.floe.metronome.irunit.IRUnitDriver;
+
+/**
+ * Trains the same split twice through IRUnitDriver, once from the text and once from the
+ * DocumentVectorizationJob form of it (tv.floe.metronome.input.format=vectorized), and
+ * checks that both come out with the same coefficients
+ *
+ * @author josh
+ *
+ */
+public class TestVectorizedInputLinearRegressionIR {
+
+	private static final String TEXT = "src/test/resources/R/multi_coef_split_100_basic.csv";
+
+	private static final String VECTORIZED = "/tmp/TestVectorizedInputLinearRegressionIR/part-00000";
+
+	private static final String SGD_PROFILE = "src/test/resources/run_profiles/unit_tests/app.unit_test.multi_coeff.properties";
+	private static final String NORMAL_EQUATIONS_PROFILE = "src/test/resources/run_profiles/unit_tests/app.unit_test.multi_coeff.normal_equations.properties";
+	private static final String MINI_BATCH_PROFILE = "src/test/resources/run_profiles/unit_tests/app.unit_test_linearReg_miniBatch.properties";
+
+	// the profiles' FeatureVectorSize is 5: bias + 4 coefficients
+	private static final int FEATURES = 5;
+
+	@BeforeClass
+	public static void vectorize() throws Exception {
+
+		new File( VECTORIZED ).getParentFile().mkdirs();
+		DatasetConverter.convertTextToVectorized( TEXT, new RCV1RecordFactory(), FEATURES, VECTORIZED );
+
+	}
+
+	private static Matrix train(String profile, boolean vectorized, int iterations) {
+
+		Properties p = new Properties();
+		p.setProperty( "app.iteration.count", String.valueOf( iterations ) );
+		p.setProperty( "com.cloudera.knittingboar.setup.FeatureVectorSize", String.valueOf( FEATURES ) );
+
+		if (vectorized) {
+			p.setProperty( "app.input.path", VECTORIZED );
+			p.setProperty( VectorizedSplitReader.CONF_INPUT_FORMAT, VectorizedSplitReader.FORMAT_VECTORIZED );
+		} else {
+			p.setProperty( "app.input.path", TEXT );
+		}
+
+		IRUnitDriver driver = new IRUnitDriver( profile, p );
+		driver.Setup();
+		driver.SimulateRun();
+
+		return ((MasterNode) driver.getMaster()).polr.getBeta();
+
+	}
+
+	private static void assertSameBeta(Matrix expected, Matrix actual) {
+
+		assertEquals( expected.numCols(), actual.numCols() );
+
+		for (int x = 0; x < expected.numCols(); x++) {
+			assertFalse( Double.isNaN( actual.get( 0, x ) ) );
+			assertEquals( expected.get( 0, x ), actual.get( 0, x ), 1e-9 * Math.max( 1.0, Math.abs( expected.get( 0, x ) ) ) );
+		}
+
+	}
+
+	@Test
+	public void testSGD() {
+
+		assertSameBeta( train( SGD_PROFILE, false, 3 ), train( SGD_PROFILE, true, 3 ) );
+
+	}
+
+	@Test
+	public void testNormalEquations() {
+
+		assertSameBeta( train( NORMAL_EQUATIONS_PROFILE, false, 2 ), train( NORMAL_EQUATIONS_PROFILE, true, 2 ) );
+
+	}
+
+	@Test
+	public void testMiniBatch() {
+
+		assertSameBeta( train( MINI_BATCH_PROFILE, false, 3 ), train( MINI_BATCH_PROFILE, true, 3 ) );
+
+	}
+
+}
@@ -0,0 +1,149 @@
+package tv.floe.metronome.math;
+
+import static org.junit.Assert.*;
+
+import org.apache.mahout.math.DenseMatrix;
+import org.apache.mahout.math.Matrix;
+import org.junit.Test;
+
+import tv.floe.metronome.classification.neuralnetworks.activation.Sigmoid;
+import tv.floe.metronome.classification.neuralnetworks.activation.Tanh;
+
+public class TestActivationKernels {
+
+	/**
+	 * The documented max errors, checked over [-40, 40]
+	 *
+	 */
+	private static void checkErrors(ActivationKernels k, double expRelative, double sigmoidAbsolute, double tanhAbsolute) {
+
+		double exp = 0, sigmoid = 0, tanh = 0;
+
+		for (double x = -40; x <= 40; x += 0.000731) {
+
+			exp = Math.max( exp, Math.abs( k.exp( x ) / Math.exp( x ) - 1 ) );
+			sigmoid = Math.max( sigmoid, Math.abs( k.sigmoid( x ) - 1 / (1 + Math.exp( -x )) ) );
+			tanh = Math.max( tanh, Math.abs( k.tanh( x ) - Math.tanh( x ) ) );
+
+		}
+
+		assertTrue( k + " exp error " + exp, exp <= expRelative );
+		assertTrue( k + " sigmoid error " + sigmoid, sigmoid <= sigmoidAbsolute );
+		assertTrue( k + " tanh error " + tanh, tanh <= tanhAbsolute );
+
+	}
+
+	@Test
+	public void testDocumentedMaxErrors() {
+
+		checkErrors( ActivationKernels.EXACT, 0, 0, 0 );
+		checkErrors( ActivationKernels.POLYNOMIAL, 1.7e-7, 4.0e-8, 8.0e-8 );
+		checkErrors( ActivationKernels.TABLE, 1.7e-7, 3.0e-6, 6.0e-6 );
+
+	}
+
+	@Test
+	public void testBulkMatchesScalar() {
+
+		double[] in = new double[ 300 ];
+		for (int i = 0; i < in.length; i++) {
+			in[ i ] = (i - 150) * 0.137;
+		}
+
+		for (ActivationKernels k : ActivationKernels.values()) {
+
+			double[] sig = in.clone();
+			double[] tanh = in.clone();
+			double[] exp = in.clone();
+
+			// offset / length respected: the ends stay put
+			k.sigmoid( sig, 10, 280 );
+			k.tanh( tanh, 10, 280 );
+			k.exp( exp, 10, 280 );
+
+			for (int i = 0; i < in.length; i++) {
+
+				boolean inRange = i >= 10 && i < 290;
+
+				assertEquals( inRange ? k.sigmoid( in[ i ] ) : in[ i ], sig[ i ], 0.0 );
+				assertEquals( inRange ? k.tanh( in[ i ] ) : in[ i ], tanh[ i ], 0.0 );
+				assertEquals( inRange ? k.exp( in[ i ] ) : in[ i ], exp[ i ], 0.0 );
+
+			}
+
+		}
+
+	}
+
+	@Test
+	public void testEdgeCases() {
+
+		for (ActivationKernels k : ActivationKernels.values()) {
+
+			assertTrue( Double.isNaN( k.sigmoid( Double.NaN ) ) );
+			assertTrue( Double.isNaN( k.exp( Double.NaN ) ) );
+
+			assertEquals( Double.POSITIVE_INFINITY, k.exp( 1000 ), 0.0 );
+			assertEquals( 0.0, k.exp( -1000 ), 0.0 );
+
+			assertEquals( 1.0, k.sigmoid( 1000 ), 2e-7 );
+			assertEquals( 0.0, k.sigmoid( -1000 ), 2e-7 );
+			assertEquals( 0.5, k.sigmoid( 0 ), 1e-7 );
+
+		}
+
+		assertEquals( ActivationKernels.EXACT, ActivationKernels.forName( null ) );
+		assertEquals( ActivationKernels.TABLE, ActivationKernels.forName( " table " ) );
+		assertEquals( ActivationKernels.POLYNOMIAL, ActivationKernels.forName( "Polynomial" ) );
+
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownName() {
+
+		ActivationKernels.forName( "fast" );
+
+	}
+
+	@Test
+	public void testExactMatchesPreviousMatrixSigmoid() {
+
+		Matrix m = new DenseMatrix( new double[][] { { -3, -0.5, 0 }, { 0.25, 2, 40 } } );
+
+		Matrix sigmoid = MatrixUtils.sigmoid( m );
+
+		for (int r = 0; r < 2; r++) {
+			for (int c = 0; c < 3; c++) {
+				assertEquals( 1.0 / (1.0 + Math.exp( -m.getQuick( r, c ) )), sigmoid.getQuick( r, c ), 0.0 );
+			}
+		}
+
+		Matrix table = MatrixUtils.sigmoid( m, ActivationKernels.TABLE );
+
+		for (int r = 0; r < 2; r++) {
+			for (int c = 0; c < 3; c++) {
+				assertEquals( sigmoid.getQuick( r, c ), table.getQuick( r, c ), 3.0e-6 );
+			}
+		}
+
+	}
+
+	@Test
+	public void testNeuronActivationsFollowKernels() {
+
+		Sigmoid sigmoid = new Sigmoid();
+		Tanh tanh = new Tanh();
+
+		double exactSigmoid = sigmoid.getOutput( 0.8 );
+		double exactTanh = tanh.getOutput( 0.8 );
+
+		sigmoid.setKernels( ActivationKernels.TABLE );
+		tanh.setKernels( ActivationKernels.TABLE );
+
+		assertEquals( exactSigmoid, sigmoid.getOutput( 0.8 ), 3.0e-6 );
+		assertEquals( exactTanh, tanh.getOutput( 0.8 ), 6.0e-6 );
+		assertEquals( Math.tanh( 0.8 ), exactTanh, 1e-12 );
+
+	}
+
+}
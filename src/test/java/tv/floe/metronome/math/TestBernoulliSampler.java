@@ -0,0 +1,131 @@
+package tv.floe.metronome.math;
+
+import static org.junit.Assert.*;
+
+import org.apache.mahout.math.DenseMatrix;
+import org.apache.mahout.math.Matrix;
+import org.junit.Test;
+
+public class TestBernoulliSampler {
+
+	@Test
+	public void testSampleMeanTracksProbability() {
+
+		int rows = 2000;
+		double[] p = { 0.0, 0.1, 0.5, 0.9, 1.0 };
+
+		Matrix probs = new DenseMatrix( rows, p.length );
+		for (int r = 0; r < rows; r++) {
+			for (int c = 0; c < p.length; c++) {
+				probs.setQuick( r, c, p[ c ] );
+			}
+		}
+
+		Matrix samples = BernoulliSampler.sample( probs, new Xoroshiro128PlusRandom( 42 ) );
+
+		for (int c = 0; c < p.length; c++) {
+
+			double ones = 0;
+			for (int r = 0; r < rows; r++) {
+				double s = samples.getQuick( r, c );
+				assertTrue( 0.0 == s || 1.0 == s );
+				ones += s;
+			}
+
+			assertEquals( p[ c ], ones / rows, 0.03 );
+
+		}
+
+		// the ends are exact
+		assertEquals( 0.0, samples.viewColumn( 0 ).zSum(), 0.0 );
+		assertEquals( rows, samples.viewColumn( 4 ).zSum(), 0.0 );
+
+	}
+
+	@Test
+	public void testSameSeedSameSamples() {
+
+		Matrix probs = new DenseMatrix( 7, 13 );
+		probs.assign( 0.3 );
+
+		Matrix a = BernoulliSampler.sample( probs, new Xoroshiro128PlusRandom( 7 ) );
+		Matrix b = BernoulliSampler.sample( probs, new Xoroshiro128PlusRandom( 7 ) );
+		Matrix c = BernoulliSampler.sample( probs, new Xoroshiro128PlusRandom( 8 ) );
+
+		assertEquals( 0, differences( a, b ) );
+		assertTrue( differences( a, c ) > 0 );
+
+	}
+
+	private static int differences(Matrix a, Matrix b) {
+
+		int count = 0;
+		for (int r = 0; r < a.numRows(); r++) {
+			for (int c = 0; c < a.numCols(); c++) {
+				if (a.getQuick( r, c ) != b.getQuick( r, c )) {
+					count++;
+				}
+			}
+		}
+		return count;
+
+	}
+
+	@Test
+	public void testOutOfRangeSamplesZero() {
+
+		Matrix probs = new DenseMatrix( 1, 3 );
+		probs.setQuick( 0, 0, -0.5 );
+		probs.setQuick( 0, 1, 1.5 );
+		probs.setQuick( 0, 2, Double.NaN );
+
+		Matrix samples = BernoulliSampler.sample( probs, new Xoroshiro128PlusRandom( 1 ) );
+
+		assertEquals( 0.0, samples.zSum(), 0.0 );
+
+	}
+
+	@Test
+	public void testSplitGivesIndependentReproducibleStreams() {
+
+		Xoroshiro128PlusRandom parent = new Xoroshiro128PlusRandom( 99 );
+		Xoroshiro128PlusRandom child = parent.split();
+
+		Xoroshiro128PlusRandom parentAgain = new Xoroshiro128PlusRandom( 99 );
+		Xoroshiro128PlusRandom childAgain = parentAgain.split();
+
+		int same = 0;
+		for (int i = 0; i < 1000; i++) {
+
+			long c = child.nextLong();
+			assertEquals( c, childAgain.nextLong() );
+
+			if (c == parent.nextLong()) {
+				same++;
+			}
+
+		}
+
+		assertEquals( 0, same );
+
+		double d = child.nextDouble();
+		assertTrue( d >= 0.0 && d < 1.0 );
+
+	}
+
+	@Test
+	public void testReseedDropsCachedGaussian() {
+
+		Xoroshiro128PlusRandom fresh = new Xoroshiro128PlusRandom( 11 );
+		double expected = fresh.nextGaussian();
+
+		// an odd number of draws leaves the pair's second value cached
+		Xoroshiro128PlusRandom reseeded = new Xoroshiro128PlusRandom( 3 );
+		reseeded.nextGaussian();
+		reseeded.setSeed( 11L );
+
+		assertEquals( expected, reseeded.nextGaussian(), 0.0 );
+
+	}
+
+}
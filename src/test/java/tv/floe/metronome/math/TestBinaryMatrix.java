@@ -0,0 +1,160 @@
+package tv.floe.metronome.math;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.apache.mahout.math.DenseMatrix;
+import org.apache.mahout.math.Matrix;
+import org.junit.Test;
+
+public class TestBinaryMatrix {
+
+	private static Matrix randomBinary(Random r, int rows, int cols) {
+
+		Matrix m = new DenseMatrix( rows, cols );
+		for (int i = 0; i < rows; i++) {
+			for (int j = 0; j < cols; j++) {
+				m.setQuick( i, j, r.nextInt( 3 ) == 0 ? 1.0 : 0.0 );
+			}
+		}
+		return m;
+
+	}
+
+	private static Matrix randomReal(Random r, int rows, int cols) {
+
+		Matrix m = new DenseMatrix( rows, cols );
+		for (int i = 0; i < rows; i++) {
+			for (int j = 0; j < cols; j++) {
+				m.setQuick( i, j, r.nextGaussian() );
+			}
+		}
+		return m;
+
+	}
+
+	/**
+	 * Plain triple loop, optionally transposing either side
+	 *
+	 */
+	private static Matrix multiply(Matrix a, boolean transposeA, Matrix b, boolean transposeB) {
+
+		int n = transposeA ? a.numCols() : a.numRows();
+		int inner = transposeA ? a.numRows() : a.numCols();
+		int m = transposeB ? b.numRows() : b.numCols();
+
+		Matrix out = new DenseMatrix( n, m );
+
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < m; j++) {
+				double sum = 0;
+				for (int k = 0; k < inner; k++) {
+					double x = transposeA ? a.getQuick( k, i ) : a.getQuick( i, k );
+					double y = transposeB ? b.getQuick( j, k ) : b.getQuick( k, j );
+					sum += x * y;
+				}
+				out.setQuick( i, j, sum );
+			}
+		}
+
+		return out;
+
+	}
+
+	private static void assertMatrixEquals(Matrix expected, Matrix actual) {
+
+		assertEquals( expected.numRows(), actual.numRows() );
+		assertEquals( expected.numCols(), actual.numCols() );
+
+		for (int i = 0; i < expected.numRows(); i++) {
+			for (int j = 0; j < expected.numCols(); j++) {
+				assertEquals( expected.getQuick( i, j ), actual.getQuick( i, j ), 1e-9 );
+			}
+		}
+
+	}
+
+	@Test
+	public void testPackingRoundTrip() {
+
+		Random r = new Random( 1 );
+
+		// spans more than one word per row
+		Matrix dense = randomBinary( r, 5, 130 );
+		BinaryMatrix bits = BinaryMatrix.fromMatrix( dense );
+
+		assertMatrixEquals( dense, bits.toMatrix() );
+
+		double ones = 0;
+		double[] columnSums = bits.columnSums();
+		for (int c = 0; c < 130; c++) {
+
+			double expected = 0;
+			for (int row = 0; row < 5; row++) {
+				expected += dense.getQuick( row, c );
+			}
+
+			assertEquals( expected, columnSums[ c ], 0.0 );
+			ones += expected;
+
+		}
+
+		assertEquals( (long) ones, bits.cardinality() );
+
+		bits.clear( 0, 129 );
+		assertFalse( bits.get( 0, 129 ) );
+		bits.set( 0, 129 );
+		assertTrue( bits.get( 0, 129 ) );
+
+	}
+
+	@Test
+	public void testKernelsMatchDenseProducts() {
+
+		Random r = new Random( 2 );
+
+		Matrix samples = randomBinary( r, 6, 70 );
+		BinaryMatrix bits = BinaryMatrix.fromMatrix( samples );
+
+		Matrix w = randomReal( r, 70, 9 );
+		assertMatrixEquals( multiply( samples, false, w, false ), bits.times( w ) );
+
+		Matrix wT = randomReal( r, 9, 70 );
+		assertMatrixEquals( multiply( samples, false, wT, true ), bits.timesTranspose( wT ) );
+
+		Matrix m = randomReal( r, 6, 4 );
+		assertMatrixEquals( multiply( samples, true, m, false ), bits.transposeTimes( m ) );
+
+		Matrix a = randomReal( r, 6, 11 );
+		assertMatrixEquals( multiply( a, true, samples, false ), BinaryMatrix.denseTransposeTimes( a, bits ) );
+
+	}
+
+	@Test
+	public void testSampleBitsMatchesDenseSamples() {
+
+		Random r = new Random( 3 );
+
+		Matrix probs = new DenseMatrix( 8, 75 );
+		for (int i = 0; i < 8; i++) {
+			for (int j = 0; j < 75; j++) {
+				probs.setQuick( i, j, r.nextDouble() );
+			}
+		}
+
+		Matrix dense = BernoulliSampler.sample( probs, new Xoroshiro128PlusRandom( 5 ) );
+		BinaryMatrix bits = BernoulliSampler.sampleBits( probs, new Xoroshiro128PlusRandom( 5 ) );
+
+		assertMatrixEquals( dense, bits.toMatrix() );
+
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsMismatchedShapes() {
+
+		new BinaryMatrix( 2, 3 ).times( new DenseMatrix( 4, 2 ) );
+
+	}
+
+}
@@ -0,0 +1,202 @@
+package tv.floe.metronome.math;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.apache.mahout.math.DenseMatrix;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Matrix;
+import org.apache.mahout.math.SparseRowMatrix;
+import org.apache.mahout.math.Vector;
+import org.junit.Test;
+
+public class TestParallelMatrixUtils {
+
+	private static Matrix randomMatrix(int rows, int cols, long seed) {
+
+		Random r = new Random( seed );
+		Matrix m = new DenseMatrix( rows, cols );
+
+		for (int i = 0; i < rows; i++) {
+			for (int j = 0; j < cols; j++) {
+				m.setQuick( i, j, r.nextGaussian() * 10 );
+			}
+		}
+
+		return m;
+
+	}
+
+	@Test
+	public void testRowAndColumnOpsMatchSingleThreaded() {
+
+		Matrix m = randomMatrix( 517, 93, 1 );
+
+		Matrix colSums = ParallelMatrixUtils.columnSums( m );
+		Matrix colMeans = ParallelMatrixUtils.columnMeans( m );
+
+		for (int c = 0; c < m.numCols(); c++) {
+
+			double sum = 0;
+			for (int r = 0; r < m.numRows(); r++) {
+				sum += m.getQuick( r, c );
+			}
+
+			assertEquals( sum, colSums.getQuick( 0, c ), 0.0 );
+			assertEquals( sum / m.numRows(), colMeans.getQuick( 0, c ), 0.0 );
+
+		}
+
+		Matrix rowSums = ParallelMatrixUtils.rowSums( m );
+		Matrix rowMeans = ParallelMatrixUtils.rowMeans( m );
+
+		for (int r = 0; r < m.numRows(); r++) {
+
+			double sum = 0;
+			for (int c = 0; c < m.numCols(); c++) {
+				sum += m.getQuick( r, c );
+			}
+
+			assertEquals( sum, rowSums.getQuick( r, 0 ), 0.0 );
+			assertEquals( sum / m.numCols(), rowMeans.getQuick( r, 0 ), 0.0 );
+
+		}
+
+	}
+
+	@Test
+	public void testElementwiseOpsMatchSingleThreaded() {
+
+		Matrix m = randomMatrix( 301, 40, 2 );
+
+		double[] row = new double[ 40 ];
+		for (int c = 0; c < row.length; c++) {
+			row[ c ] = c * 0.5 - 3;
+		}
+		Vector v = new DenseVector( row );
+
+		Matrix added = ParallelMatrixUtils.addRowVector( m, v );
+
+		double max = Double.NEGATIVE_INFINITY;
+		double min = Double.POSITIVE_INFINITY;
+
+		for (int r = 0; r < m.numRows(); r++) {
+			for (int c = 0; c < m.numCols(); c++) {
+
+				assertEquals( m.getQuick( r, c ) + row[ c ], added.getQuick( r, c ), 0.0 );
+
+				max = Math.max( max, m.getQuick( r, c ) );
+				min = Math.min( min, m.getQuick( r, c ) );
+
+			}
+		}
+
+		assertEquals( max, ParallelMatrixUtils.max( m ), 0.0 );
+		assertEquals( min, ParallelMatrixUtils.min( m ), 0.0 );
+
+		Matrix copy = randomMatrix( 301, 40, 2 );
+		ParallelMatrixUtils.normalize( copy );
+
+		for (int r = 0; r < m.numRows(); r++) {
+			for (int c = 0; c < m.numCols(); c++) {
+				assertEquals( (m.getQuick( r, c ) - min) / (max - min), copy.getQuick( r, c ), 0.0 );
+			}
+		}
+
+	}
+
+	/**
+	 * A sparse matrix is never handed to the pool, and the in place normalize still works
+	 * when called on one directly
+	 *
+	 */
+	@Test
+	public void testSparseMatricesStaySingleThreaded() {
+
+		int saved = ParallelMatrixUtils.getMinElements();
+		ParallelMatrixUtils.setMinElements( 1 );
+
+		try {
+
+			Matrix dense = randomMatrix( 301, 40, 5 );
+			Matrix sparse = new SparseRowMatrix( 301, 40 );
+
+			for (int r = 0; r < dense.numRows(); r++) {
+				for (int c = 0; c < dense.numCols(); c++) {
+					sparse.setQuick( r, c, dense.getQuick( r, c ) );
+				}
+			}
+
+			assertFalse( ParallelMatrixUtils.shouldSplit( sparse ) );
+
+			double max = ParallelMatrixUtils.max( dense );
+			double min = ParallelMatrixUtils.min( dense );
+
+			assertEquals( max, ParallelMatrixUtils.max( sparse ), 0.0 );
+			assertEquals( min, ParallelMatrixUtils.min( sparse ), 0.0 );
+
+			ParallelMatrixUtils.normalize( sparse );
+
+			for (int r = 0; r < dense.numRows(); r++) {
+				for (int c = 0; c < dense.numCols(); c++) {
+					assertEquals( (dense.getQuick( r, c ) - min) / (max - min), sparse.getQuick( r, c ), 0.0 );
+				}
+			}
+
+		} finally {
+			ParallelMatrixUtils.setMinElements( saved );
+		}
+
+	}
+
+	/**
+	 * The block order is fixed by the shape, so repeated calls agree to the bit and the
+	 * result sits within rounding of a single pass
+	 *
+	 */
+	@Test
+	public void testSumIsDeterministic() {
+
+		Matrix m = randomMatrix( 2000, 37, 3 );
+
+		double first = ParallelMatrixUtils.sum( m );
+
+		for (int i = 0; i < 20; i++) {
+			assertEquals( first, ParallelMatrixUtils.sum( m ), 0.0 );
+		}
+
+		double serial = 0;
+		for (int r = 0; r < m.numRows(); r++) {
+			for (int c = 0; c < m.numCols(); c++) {
+				serial += m.getQuick( r, c );
+			}
+		}
+
+		assertEquals( serial, first, 1e-9 * m.numRows() * m.numCols() );
+		assertEquals( first / (2000 * 37), ParallelMatrixUtils.mean( m ), 0.0 );
+
+	}
+
+	@Test
+	public void testSmallAndDegenerateShapes() {
+
+		Matrix single = new DenseMatrix( 1, 1 );
+		single.setQuick( 0, 0, 4.0 );
+
+		assertEquals( 4.0, ParallelMatrixUtils.sum( single ), 0.0 );
+		assertEquals( 4.0, ParallelMatrixUtils.max( single ), 0.0 );
+		assertEquals( 4.0, ParallelMatrixUtils.columnSums( single ).getQuick( 0, 0 ), 0.0 );
+		assertEquals( 4.0, ParallelMatrixUtils.rowSums( single ).getQuick( 0, 0 ), 0.0 );
+
+		// one wide row: split by column for columnSums, a single chunk by row
+		Matrix wide = randomMatrix( 1, 5000, 4 );
+		Matrix sums = ParallelMatrixUtils.columnSums( wide );
+
+		for (int c = 0; c < 5000; c++) {
+			assertEquals( wide.getQuick( 0, c ), sums.getQuick( 0, c ), 0.0 );
+		}
+
+	}
+
+}
@@ -0,0 +1,119 @@
+package tv.floe.metronome.metrics;
+
+import static org.junit.Assert.*;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.junit.Test;
+
+public class TestMetricsRegistry {
+
+	@Test
+	public void testHistogramBucketsAndPercentiles() {
+
+		Histogram h = new Histogram( false );
+
+		for (long v = 1; v <= 100; v++) {
+			h.record( v );
+		}
+
+		assertEquals( 100, h.count() );
+		assertEquals( 5050, h.sum() );
+		assertEquals( 1, h.min() );
+		assertEquals( 100, h.max() );
+		assertEquals( 50.5, h.mean(), 1e-12 );
+
+		// percentiles are bucket upper bounds: within a factor of two, never past the max
+		assertEquals( 63, h.percentile( 0.5 ) );
+		assertEquals( 100, h.percentile( 0.99 ) );
+		assertEquals( 1, h.percentile( 0.0 ) );
+
+		Histogram empty = new Histogram( true );
+		assertEquals( 0, empty.percentile( 0.5 ) );
+		assertTrue( Double.isNaN( empty.mean() ) );
+
+	}
+
+	@Test
+	public void testMergeIsExact() {
+
+		MetricsRegistry a = new MetricsRegistry();
+		a.counter( "records.trained" ).add( 10 );
+		a.gauge( "jvm.heap.used.bytes" ).set( 100 );
+		a.phase( MetricsRegistry.Phase.COMPUTE ).record( 1000 );
+
+		MetricsRegistry b = new MetricsRegistry();
+		b.counter( "records.trained" ).add( 5 );
+		b.counter( "records.skipped" ).inc();
+		b.gauge( "jvm.heap.used.bytes" ).set( 300 );
+		b.phase( MetricsRegistry.Phase.COMPUTE ).record( 3000 );
+
+		a.merge( b );
+
+		assertEquals( 15, a.counter( "records.trained" ).get() );
+		assertEquals( 1, a.counter( "records.skipped" ).get() );
+
+		Gauge heap = a.gauge( "jvm.heap.used.bytes" );
+		assertEquals( 2, heap.samples() );
+		assertEquals( 100, heap.min(), 0 );
+		assertEquals( 300, heap.max(), 0 );
+		assertEquals( 200, heap.mean(), 1e-12 );
+
+		Histogram compute = a.phase( MetricsRegistry.Phase.COMPUTE );
+		assertTrue( compute.isTimer() );
+		assertEquals( 2, compute.count() );
+		assertEquals( 4000, compute.sum() );
+		assertEquals( 1000, compute.min() );
+		assertEquals( 3000, compute.max() );
+
+	}
+
+	@Test
+	public void testOptionalRoundTrip() throws Exception {
+
+		MetricsRegistry m = new MetricsRegistry();
+		m.counter( "records.trained" ).add( 42 );
+		m.gauge( "jvm.heap.used.bytes" ).set( 1.5e8 );
+		m.phase( MetricsRegistry.Phase.PARSE ).record( 123456 );
+		m.phase( MetricsRegistry.Phase.PARSE ).record( 7 );
+		m.histogram( "batch.rows" ).record( 0 );
+
+		DataOutputBuffer out = new DataOutputBuffer();
+		MetricsRegistry.writeOptional( out, m );
+		MetricsRegistry.writeOptional( out, null );
+
+		DataInputBuffer in = new DataInputBuffer();
+		in.reset( out.getData(), out.getLength() );
+
+		MetricsRegistry read = MetricsRegistry.readOptional( in );
+
+		assertNotNull( read );
+		assertEquals( m.report(), read.report() );
+		assertEquals( 42, read.counter( "records.trained" ).get() );
+		assertEquals( 2, read.phase( MetricsRegistry.Phase.PARSE ).count() );
+		assertEquals( 7, read.phase( MetricsRegistry.Phase.PARSE ).min() );
+		assertFalse( read.histogram( "batch.rows" ).isTimer() );
+		assertEquals( 0, read.histogram( "batch.rows" ).percentile( 0.5 ) );
+
+		assertNull( MetricsRegistry.readOptional( in ) );
+
+	}
+
+	@Test
+	public void testReportDue() {
+
+		Configuration conf = new Configuration();
+
+		assertFalse( MetricsRegistry.isReportDue( conf, 5 ) );
+
+		conf.setInt( MetricsRegistry.CONF_REPORT_EVERY, 5 );
+
+		assertFalse( MetricsRegistry.isReportDue( conf, 0 ) );
+		assertFalse( MetricsRegistry.isReportDue( conf, 4 ) );
+		assertTrue( MetricsRegistry.isReportDue( conf, 5 ) );
+		assertTrue( MetricsRegistry.isReportDue( conf, 10 ) );
+
+	}
+
+}
@@ -1,14 +1,12 @@
 package tv.floe.metronome.vectorization;
 
-import java.util.zip.CRC32;
-import java.util.zip.Checksum;
+import static org.junit.Assert.*;
 
+import org.apache.hadoop.io.Text;
 import org.apache.mahout.math.RandomAccessSparseVector;
 import org.apache.mahout.math.Vector;
 import org.junit.Test;
 
-import tv.floe.metronome.utils.Utils;
-
 public class TestHashKernel {
 	
 	
@@ -22,13 +20,128 @@ public class TestHashKernel {
 		
 		hk.hash(line, v);
 		
-		Utils.PrintVectorNonZero(v);
+		// MurmurHash3 (seed 0) of each token: low 10 bits are the index, bit 10 the sign
+		int[] index = { 29, 512, 465, 690, 345, 866, 588 };
+		double[] sign = { -1, 1, 1, 1, 1, 1, -1 };
+		
+		assertEquals( index.length, v.getNumNondefaultElements() );
+		
+		for (int i = 0; i < index.length; i++) {
+			assertEquals( sign[ i ], v.get( index[ i ] ), 0.0 );
+		}
+		
+		// hashing again replaces, doesn't add
+		hk.hash("ran", v);
+		assertEquals( 1, v.getNumNondefaultElements() );
+		assertEquals( 1.0, v.get( 690 ), 0.0 );
+		
+	}
+	
+	/**
+	 * The accumulator is sized by what a record touches, not by the feature space
+	 */
+	@Test
+	public void testAccumulatorAtThirtyBits() {
+		
+		HashKernel hk = new HashKernel(30);
+		SparseFeatureAccumulator acc = hk.createAccumulator();
+		
+		assertEquals( 1 << 30, acc.size() );
+		
+		// enough distinct features to grow the table a few times, some added twice
+		for (int round = 0; round < 2; round++) {
+			
+			for (int i = 0; i < 1000; i++) {
+				acc.add( (1 << 30) - 1 - i * 7919, 1.0 );
+			}
+			acc.add( 0, -1.0 );
+			
+		}
+		
+		assertEquals( 1001, acc.numTouched() );
+		assertEquals( (1 << 30) - 1, acc.touchedIndex( 0 ) );
+		assertEquals( 0, acc.touchedIndex( 1000 ) );
+		assertEquals( 2.0, acc.get( (1 << 30) - 1 - 999 * 7919 ), 0.0 );
+		assertEquals( -2.0, acc.get( 0 ), 0.0 );
+		assertEquals( 0.0, acc.get( 12345 ), 0.0 );
+		
+		acc.clear();
+		
+		assertEquals( 0, acc.numTouched() );
+		assertEquals( 0.0, acc.get( 0 ), 0.0 );
+		
+		acc.add( 12345, 0.5 );
+		assertEquals( 1, acc.numTouched() );
+		assertEquals( 12345, acc.touchedIndex( 0 ) );
+		assertEquals( 0.5, acc.get( 12345 ), 0.0 );
+		
+	}
+	
+	@Test
+	public void testMurmurHash3ReferenceValues() throws Exception {
+		
+		byte[] empty = new byte[0];
+		byte[] hello = "hello".getBytes("UTF-8");
+		byte[] fox = "The quick brown fox jumps over the lazy dog".getBytes("UTF-8");
+		
+		assertEquals( 0, MurmurHash3.hash32(empty, 0, 0, 0) );
+		assertEquals( 0x248bfa47, MurmurHash3.hash32(hello, 0, hello.length, 0) );
+		assertEquals( 0x2e4ff723, MurmurHash3.hash32(fox, 0, fox.length, 0) );
+		
+	}
+	
+	@Test
+	public void testStringAndTextHashTheSame() {
+		
+		String line = "  café naïve 日本  tab\there ";
+		
+		HashKernel hk = new HashKernel(12, 2, true);
+		
+		SparseFeatureAccumulator fromChars = hk.createAccumulator();
+		SparseFeatureAccumulator fromBytes = hk.createAccumulator();
+		
+		hk.hash(line, 0, line.length(), 0, 1.0, fromChars);
+		hk.hash(new Text(line), 0, 1.0, fromBytes);
+		
+		Vector a = hk.createCorrectlySizedVector();
+		Vector b = hk.createCorrectlySizedVector();
+		fromChars.writeTo(a);
+		fromBytes.writeTo(b);
+		
+		assertTrue( a.getNumNondefaultElements() > 0 );
+		assertEquals( 0.0, a.minus(b).norm(1), 0.0 );
+		
+	}
+	
+	@Test
+	public void testNgramsAndNamespaces() {
+		
+		HashKernel unigrams = new HashKernel(16, 1, false);
+		HashKernel trigrams = new HashKernel(16, 3, false);
+		
+		SparseFeatureAccumulator acc = unigrams.createAccumulator();
+		
+		unigrams.hash("a b c d", 0, 7, 0, 1.0, acc);
+		Vector v = unigrams.createCorrectlySizedVector();
+		acc.writeTo(v);
+		assertEquals( 4.0, v.zSum(), 0.0 );
 		
-		v.assign(0);
+		// 4 unigrams + 3 bigrams + 2 trigrams
+		acc.clear();
+		trigrams.hash("a b c d", 0, 7, 0, 1.0, acc);
+		acc.writeTo(v);
+		assertEquals( 9.0, v.zSum(), 0.0 );
 		
-		System.out.println( "Cleared: ");
-		Utils.PrintVectorNonZero(v);
+		// the same token in two namespaces should (almost surely) split up
+		acc.clear();
+		unigrams.hash("red", 0, 3, HashKernel.namespaceSeed("f"), 1.0, acc);
+		unigrams.hash("red", 0, 3, HashKernel.namespaceSeed("g"), 1.0, acc);
+		assertEquals( 2, acc.numTouched() );
 		
+		// writeTo replaces what was in the vector
+		acc.clear();
+		acc.writeTo(v);
+		assertEquals( 0, v.getNumNondefaultElements() );
 		
 	}
 
@@ -0,0 +1,166 @@
+package tv.floe.metronome.vectorization.tools.mr;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+import org.junit.Test;
+
+import tv.floe.metronome.io.records.CompactVectorCache;
+import tv.floe.metronome.io.records.VectorizedRecordWritable;
+
+public class TestDocumentVectorizationJob {
+
+	private static String outputBaseDir = "/tmp/TestDocumentVectorizationJob/";
+
+	/**
+	 * Serializes on collect() like the real map output buffer does, since the mapper
+	 * reuses its output objects
+	 *
+	 */
+	private static class CopyingCollector implements OutputCollector<IntWritable, VectorizedRecordWritable> {
+
+		List<Integer> partitions = new ArrayList<Integer>();
+		List<VectorizedRecordWritable> records = new ArrayList<VectorizedRecordWritable>();
+
+		@Override
+		public void collect(IntWritable key, VectorizedRecordWritable value) throws IOException {
+
+			DataOutputBuffer out = new DataOutputBuffer();
+			value.write( out );
+
+			DataInputBuffer in = new DataInputBuffer();
+			in.reset( out.getData(), out.getLength() );
+
+			VectorizedRecordWritable copy = new VectorizedRecordWritable();
+			copy.readFields( in );
+
+			this.partitions.add( key.get() );
+			this.records.add( copy );
+
+		}
+
+	}
+
+	private CopyingCollector runMapper(JobConf conf, String[] lines) throws IOException {
+
+		DocumentVectorizationJob.VectorizingMapper mapper = new DocumentVectorizationJob.VectorizingMapper();
+		mapper.configure( conf );
+
+		CopyingCollector collector = new CopyingCollector();
+
+		for (int x = 0; x < lines.length; x++) {
+			mapper.map( new LongWritable( x ), new Text( lines[ x ] ), collector, Reporter.NULL );
+		}
+
+		mapper.close();
+
+		return collector;
+
+	}
+
+	@Test
+	public void testHashKernelMapBalancesPartitions() throws IOException {
+
+		JobConf conf = new JobConf();
+		conf.setInt( DocumentVectorizationJob.CONF_WORKERS, 3 );
+		conf.setInt( DocumentVectorizationJob.CONF_HASH_BITS, 12 );
+
+		String[] lines = new String[ 10 ];
+		for (int x = 0; x < lines.length; x++) {
+			lines[ x ] = (x % 2) + "\tthe brown cow number " + x + " ran down the street";
+		}
+
+		CopyingCollector collector = runMapper( conf, lines );
+
+		assertEquals( 10, collector.records.size() );
+
+		int[] counts = new int[ 3 ];
+		for (int p : collector.partitions) {
+			counts[ p ]++;
+		}
+
+		assertEquals( 4, counts[ 0 ] );
+		assertEquals( 3, counts[ 1 ] );
+		assertEquals( 3, counts[ 2 ] );
+
+		VectorizedRecordWritable first = collector.records.get( 0 );
+		assertEquals( 4096, first.getInput().size() );
+		assertEquals( 9.0, first.getInput().norm( 1 ), 2.0 );
+		assertEquals( 0.0, first.getOutput().get( 0 ), 0.0 );
+		assertEquals( 1.0, collector.records.get( 1 ).getOutput().get( 0 ), 0.0 );
+
+		// each record is only its own features, nothing left over from the previous line
+		assertTrue( first.getInput().getNumNondefaultElements() <= 9 );
+		assertTrue( collector.records.get( 9 ).getInput().getNumNondefaultElements() <= 9 );
+
+	}
+
+	@Test
+	public void testBadLinesAreSkipped() throws IOException {
+
+		JobConf conf = new JobConf();
+		conf.setInt( DocumentVectorizationJob.CONF_WORKERS, 2 );
+
+		CopyingCollector collector = runMapper( conf, new String[] { "no tab here", "x\tnot a number", "1\tgood line" } );
+
+		assertEquals( 1, collector.records.size() );
+		assertEquals( 1.0, collector.records.get( 0 ).getOutput().get( 0 ), 0.0 );
+
+	}
+
+	@Test
+	public void testMetronomeFormatRoundTripsIntoCache() throws IOException {
+
+		JobConf conf = new JobConf();
+		conf.set( DocumentVectorizationJob.CONF_FORMAT, DocumentVectorizationJob.FORMAT_METRONOME );
+		conf.set( DocumentVectorizationJob.CONF_SCHEMA, "i:4 | o:1" );
+		conf.setInt( DocumentVectorizationJob.CONF_WORKERS, 1 );
+
+		CopyingCollector collector = runMapper( conf, new String[] {
+				"0:0.5 2:1.0 | 0:1.0",
+				"1:0.25 3:2.0 | 0:0.0" } );
+
+		assertEquals( 2, collector.records.size() );
+
+		// write what the reducer would and load it the way a worker would
+		Configuration fsConf = new Configuration();
+		FileSystem fs = FileSystem.getLocal( fsConf );
+		Path file = new Path( outputBaseDir + "part-00000" );
+		fs.delete( file, false );
+
+		SequenceFile.Writer writer = SequenceFile.createWriter( fs, fsConf, file, NullWritable.class, VectorizedRecordWritable.class );
+		for (VectorizedRecordWritable r : collector.records) {
+			writer.append( NullWritable.get(), r );
+		}
+		writer.close();
+
+		SequenceFile.Reader reader = new SequenceFile.Reader( fs, file, fsConf );
+		CompactVectorCache cache = new CompactVectorCache();
+		assertEquals( 2, cache.fill( reader ) );
+		reader.close();
+
+		assertTrue( cache.isComplete() );
+		assertEquals( 1.0, cache.label( 0 ), 0.0 );
+		assertEquals( 0.0, cache.label( 1 ), 0.0 );
+		assertEquals( 2, cache.rowEnd( 0 ) - cache.rowStart( 0 ) );
+		assertEquals( 2, cache.rowEnd( 1 ) - cache.rowStart( 1 ) );
+
+	}
+
+}